@@ -24,10 +24,12 @@ import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.Threads;
 import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.internal.HexCodec;
 
 @Measurement(iterations = 5, time = 1)
 @Warmup(iterations = 10, time = 1)
@@ -74,6 +76,49 @@ public class SpanBenchmarks {
       .build();
   }
 
+  @Benchmark
+  public Span buildClientSpan_longIds() {
+    return Span.newBuilder()
+      .traceId(0L, 0x86154a4ba6e91385L)
+      .parentId(0x86154a4ba6e91385L)
+      .id(0x4d1e00c0db9010dbL)
+      .name("get")
+      .kind(Span.Kind.CLIENT)
+      .localEndpoint(FRONTEND)
+      .remoteEndpoint(BACKEND)
+      .timestamp(1472470996199000L)
+      .duration(207000L)
+      .addAnnotation(1472470996238000L, "ws")
+      .addAnnotation(1472470996403000L, "wr")
+      .putTag("http.path", "/api")
+      .putTag("clnt/finagle.version", "6.45.0")
+      .build();
+  }
+
+  /** Run with the gc profiler to see String allocation when hex IDs are materialized. */
+  @Benchmark
+  public String traceId_fresh() {
+    return buildClientSpan(sharedBuilder.clear()).traceId();
+  }
+
+  @Benchmark
+  public long traceIdLow_fresh() {
+    return buildClientSpan(sharedBuilder.clear()).traceIdLow();
+  }
+
+  final Span clientSpan = buildClientSpan();
+
+  /** This was the work done by the sampler and storage prior to numeric IDs being available */
+  @Benchmark
+  public long traceIdLow_parseHex() {
+    return HexCodec.lowerHexToUnsignedLong(clientSpan.traceId());
+  }
+
+  @Benchmark
+  public long traceIdLow() {
+    return clientSpan.traceIdLow();
+  }
+
   @Benchmark
   public Span buildClientSpan_clear() {
     return buildClientSpan(sharedBuilder.clear());
@@ -88,6 +133,7 @@ public class SpanBenchmarks {
   public static void main(String[] args) throws RunnerException {
     Options opt = new OptionsBuilder()
       .include(".*" + SpanBenchmarks.class.getSimpleName() + ".*")
+      .addProfiler(GCProfiler.class)
       .build();
 
     new Runner(opt).run();
@@ -58,6 +58,8 @@ public class CodecBenchmarks {
   static final byte[] zipkin2Proto3 = SpanBytesEncoder.PROTO3.encode(zipkin2);
   static final List<Span> tenSpan2s = Collections.nCopies(10, zipkin2);
   static final byte[] tenSpan2sJson = SpanBytesEncoder.JSON_V2.encodeList(tenSpan2s);
+  static final byte[] zipkin2JsonLegacy = SpanBytesEncoder.JSON_V1.encode(zipkin2);
+  static final byte[] tenSpan2sJsonLegacy = SpanBytesEncoder.JSON_V1.encodeList(tenSpan2s);
   static final Kryo kryo = new Kryo();
   static final byte[] zipkin2Serialized;
 
@@ -103,6 +105,16 @@ public class CodecBenchmarks {
     return SpanBytesDecoder.JSON_V2.decodeList(tenSpan2sJson);
   }
 
+  @Benchmark
+  public Span readClientSpan_json_legacy() {
+    return SpanBytesDecoder.JSON_V1.decodeOne(zipkin2JsonLegacy);
+  }
+
+  @Benchmark
+  public List<Span> readTenClientSpans_json_legacy() {
+    return SpanBytesDecoder.JSON_V1.decodeList(tenSpan2sJsonLegacy);
+  }
+
   @Benchmark
   public byte[] writeClientSpan_json() {
     return SpanBytesEncoder.JSON_V2.encode(zipkin2);
@@ -131,12 +143,19 @@ public class CodecBenchmarks {
   static final byte[] zipkin2JsonChinese = read("/zipkin2-chinese.json");
   static final Span zipkin2Chinese = SpanBytesDecoder.JSON_V2.decodeOne(zipkin2JsonChinese);
   static final byte[] zipkin2Proto3Chinese = SpanBytesEncoder.PROTO3.encode(zipkin2Chinese);
+  static final byte[] tenChineseSpansJson =
+    SpanBytesEncoder.JSON_V2.encodeList(Collections.nCopies(10, zipkin2Chinese));
 
   @Benchmark
   public Span readChineseSpan_json() {
     return SpanBytesDecoder.JSON_V2.decodeOne(zipkin2JsonChinese);
   }
 
+  @Benchmark
+  public List<Span> readTenChineseSpans_json() {
+    return SpanBytesDecoder.JSON_V2.decodeList(tenChineseSpansJson);
+  }
+
   @Benchmark
   public Span readChineseSpan_proto3() {
     return SpanBytesDecoder.PROTO3.decodeOne(zipkin2Proto3Chinese);
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.DependencyLink;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+/** Compares linking a day's worth of traces on one thread vs in parallel batches. */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 3, time = 1)
+@Fork(value = 3, jvmArgsAppend = "-Xmx2g") // the traces are held for the whole run
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class DependencyLinkerBenchmarks {
+  static final int TRACE_COUNT = 1_000_000, SERVICE_COUNT = 50;
+  static final List<List<Span>> TRACES = new ArrayList<>(TRACE_COUNT);
+
+  static {
+    Endpoint[] services = new Endpoint[SERVICE_COUNT];
+    for (int i = 0; i < SERVICE_COUNT; i++) {
+      services[i] = Endpoint.newBuilder().serviceName("service" + i).build();
+    }
+    for (int i = 0; i < TRACE_COUNT; i++) {
+      Endpoint client = services[i % SERVICE_COUNT], server = services[(i + 1) % SERVICE_COUNT];
+      String traceId = Long.toHexString(i + 1);
+      Span.Builder builder = Span.newBuilder().traceId(traceId).name("get");
+      List<Span> trace = new ArrayList<>(2);
+      trace.add(builder.clone().id(1L).kind(Span.Kind.CLIENT).localEndpoint(client).build());
+      trace.add(builder.clone().parentId(1L).id(2L).kind(Span.Kind.SERVER)
+        .localEndpoint(server).build());
+      TRACES.add(trace);
+    }
+  }
+
+  ForkJoinPool pool = ForkJoinPool.commonPool();
+  ParallelDependencyLinker parallelLinker =
+    new ParallelDependencyLinker(pool, pool.getParallelism());
+
+  @Benchmark public List<DependencyLink> link_sequential() {
+    DependencyLinker linker = new DependencyLinker();
+    for (List<Span> trace : TRACES) linker.putTrace(trace);
+    return linker.link();
+  }
+
+  @Benchmark public List<DependencyLink> link_parallel() {
+    return parallelLinker.link(TRACES.iterator());
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + DependencyLinkerBenchmarks.class.getSimpleName() + ".*")
+      .build();
+
+    new Runner(opt).run();
+  }
+}
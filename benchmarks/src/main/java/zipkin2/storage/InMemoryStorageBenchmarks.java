@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+/**
+ * Measures contention between writer and query threads. Adjust {@link GroupThreads} or pass {@code
+ * -tg writers,readers} to change the mix.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Group)
+public class InMemoryStorageBenchmarks {
+  static final Endpoint FRONTEND = Endpoint.newBuilder().serviceName("frontend").build();
+  static final Endpoint BACKEND = Endpoint.newBuilder().serviceName("backend").build();
+
+  InMemoryStorage storage;
+  QueryRequest frontendQuery;
+
+  @Setup public void setup() throws IOException {
+    storage = InMemoryStorage.newBuilder().maxSpanCount(100000).build();
+    frontendQuery = QueryRequest.newBuilder()
+      .serviceName("frontend")
+      .endTs(System.currentTimeMillis())
+      .lookback(TimeUnit.DAYS.toMillis(1))
+      .limit(10)
+      .build();
+    for (int i = 0; i < 100000; i++) storage.accept(nextTrace()).execute();
+  }
+
+  @Benchmark @Group("mixed") @GroupThreads(4)
+  public void accept() throws IOException {
+    storage.accept(nextTrace()).execute();
+  }
+
+  @Benchmark @Group("mixed") @GroupThreads(1)
+  public List<List<Span>> getTraces() throws IOException {
+    return storage.getTraces(frontendQuery).execute();
+  }
+
+  @Benchmark @Group("mixed") @GroupThreads(1)
+  public List<String> getSpanNames() throws IOException {
+    return storage.getSpanNames("frontend").execute();
+  }
+
+  @Benchmark @Group("writeOnly") @GroupThreads(4)
+  public void accept_writeOnly() throws IOException {
+    storage.accept(nextTrace()).execute();
+  }
+
+  static List<Span> nextTrace() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long id = random.nextLong();
+    if (id == 0L) id = 1L;
+    return Collections.singletonList(Span.newBuilder()
+      .traceId(0L, id)
+      .id(id)
+      .name("get")
+      .kind(Span.Kind.CLIENT)
+      .localEndpoint(FRONTEND)
+      .remoteEndpoint(BACKEND)
+      .timestamp(System.currentTimeMillis() * 1000)
+      .duration(207000L)
+      .build());
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + InMemoryStorageBenchmarks.class.getSimpleName() + ".*")
+      .build();
+
+    new Runner(opt).run();
+  }
+}
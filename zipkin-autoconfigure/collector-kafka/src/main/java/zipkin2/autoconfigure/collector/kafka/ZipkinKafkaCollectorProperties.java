@@ -28,6 +28,12 @@ class ZipkinKafkaCollectorProperties {
   private String topic;
   /** Number of Kafka consumer threads to run. */
   private Integer streams;
+  /** True drops only the malformed spans in a message, instead of the whole message. */
+  private Boolean skipMalformedSpans;
+  /** Stores spans from many messages together, when {@link Batch#maxSpans} is positive. */
+  private Batch batch = new Batch();
+  /** Aggregates dependency links as spans are consumed, see {@link Dependencies}. */
+  private Dependencies dependencies = new Dependencies();
   /** Additional Kafka consumer configuration. */
   private Map<String, String> overrides = new LinkedHashMap<>();
 
@@ -63,6 +69,30 @@ class ZipkinKafkaCollectorProperties {
     this.streams = streams;
   }
 
+  public Boolean getSkipMalformedSpans() {
+    return skipMalformedSpans;
+  }
+
+  public void setSkipMalformedSpans(Boolean skipMalformedSpans) {
+    this.skipMalformedSpans = skipMalformedSpans;
+  }
+
+  public Batch getBatch() {
+    return batch;
+  }
+
+  public void setBatch(Batch batch) {
+    this.batch = batch;
+  }
+
+  public Dependencies getDependencies() {
+    return dependencies;
+  }
+
+  public void setDependencies(Dependencies dependencies) {
+    this.dependencies = dependencies;
+  }
+
   public Map<String, String> getOverrides() {
     return overrides;
   }
@@ -77,6 +107,9 @@ class ZipkinKafkaCollectorProperties {
     if (groupId != null) result.groupId(groupId);
     if (topic != null) result.topic(topic);
     if (streams != null) result.streams(streams);
+    if (skipMalformedSpans != null) result.skipMalformedSpans(skipMalformedSpans);
+    if (batch != null) batch.applyTo(result);
+    if (dependencies != null) dependencies.applyTo(result);
     if (overrides != null) result.overrides(overrides);
     return result;
   }
@@ -84,4 +117,104 @@ class ZipkinKafkaCollectorProperties {
   private static String emptyToNull(String s) {
     return "".equals(s) ? null : s;
   }
+
+  static class Batch {
+    /** When positive, spans are stored in batches of up to this many spans. */
+    private Integer maxSpans;
+    /** When positive, limits a batch to this many bytes of PROTO3 encoded spans. */
+    private Integer maxBytes;
+    /** How long to wait for more spans before storing a partial batch. */
+    private Long lingerMillis;
+    /** Maximum count of spans waiting to be stored. */
+    private Integer queuedSpans;
+    /** Count of threads storing batches. */
+    private Integer flushThreads;
+    /** True pauses consuming when the queue is full, instead of dropping messages. */
+    private Boolean blockWhenFull;
+
+    public Integer getMaxSpans() {
+      return maxSpans;
+    }
+
+    public void setMaxSpans(Integer maxSpans) {
+      this.maxSpans = maxSpans;
+    }
+
+    public Integer getMaxBytes() {
+      return maxBytes;
+    }
+
+    public void setMaxBytes(Integer maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    public Long getLingerMillis() {
+      return lingerMillis;
+    }
+
+    public void setLingerMillis(Long lingerMillis) {
+      this.lingerMillis = lingerMillis;
+    }
+
+    public Integer getQueuedSpans() {
+      return queuedSpans;
+    }
+
+    public void setQueuedSpans(Integer queuedSpans) {
+      this.queuedSpans = queuedSpans;
+    }
+
+    public Integer getFlushThreads() {
+      return flushThreads;
+    }
+
+    public void setFlushThreads(Integer flushThreads) {
+      this.flushThreads = flushThreads;
+    }
+
+    public Boolean getBlockWhenFull() {
+      return blockWhenFull;
+    }
+
+    public void setBlockWhenFull(Boolean blockWhenFull) {
+      this.blockWhenFull = blockWhenFull;
+    }
+
+    void applyTo(KafkaCollector.Builder result) {
+      if (maxSpans != null) result.batchMaxSpans(maxSpans);
+      if (maxBytes != null && maxBytes > 0) result.batchMaxBytes(maxBytes); // zero is unbounded
+      if (lingerMillis != null) result.batchLingerMillis(lingerMillis);
+      if (queuedSpans != null) result.batchQueuedSpans(queuedSpans);
+      if (flushThreads != null) result.batchFlushThreads(flushThreads);
+      if (blockWhenFull != null) result.batchBlockWhenFull(blockWhenFull);
+    }
+  }
+
+  static class Dependencies {
+    /** When positive, links dependencies once a trace has had no new spans for this long. */
+    private Long quietPeriodMillis;
+    /** The eldest traces are linked early when more than this many spans are pending. */
+    private Integer maxPendingSpans;
+
+    public Long getQuietPeriodMillis() {
+      return quietPeriodMillis;
+    }
+
+    public void setQuietPeriodMillis(Long quietPeriodMillis) {
+      this.quietPeriodMillis = quietPeriodMillis;
+    }
+
+    public Integer getMaxPendingSpans() {
+      return maxPendingSpans;
+    }
+
+    public void setMaxPendingSpans(Integer maxPendingSpans) {
+      this.maxPendingSpans = maxPendingSpans;
+    }
+
+    void applyTo(KafkaCollector.Builder result) {
+      if (quietPeriodMillis != null) result.dependencyQuietPeriodMillis(quietPeriodMillis);
+      if (maxPendingSpans != null) result.dependencyMaxPendingSpans(maxPendingSpans);
+    }
+  }
 }
@@ -16,6 +16,7 @@ package zipkin2.collector.kafka;
 import java.util.Arrays;
 import java.util.function.Function;
 import org.assertj.core.api.Assertions;
+import org.assertj.core.util.introspection.FieldSupport;
 import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -53,6 +54,18 @@ public class ZipkinKafkaCollectorPropertiesOverrideTest {
         parameters("group-id", "zapkin", b -> b.properties.getProperty("group.id")),
         parameters("topic", "zapkin", b -> b.topic),
         parameters("streams", 2, b -> b.streams),
+        parameters("batch.max-spans", 100, b -> delegate(b, "batchMaxSpans")),
+        parameters("batch.max-bytes", 1000000, b -> delegate(b, "batchMaxBytes")),
+        parameters("batch.linger-millis", 10L, b -> delegate(b, "batchLingerMillis")),
+        parameters("batch.queued-spans", 1000, b -> delegate(b, "batchQueuedSpans")),
+        parameters("batch.flush-threads", 2, b -> delegate(b, "batchFlushThreads")),
+        parameters("batch.block-when-full", true, b -> delegate(b, "batchBlockWhenFull")),
+        parameters(
+            "dependencies.quiet-period-millis",
+            60000L,
+            b -> delegate(b, "dependencyQuietPeriodMillis")),
+        parameters(
+            "dependencies.max-pending-spans", 1000, b -> delegate(b, "dependencyMaxPendingSpans")),
         parameters(
             "overrides.auto.offset.reset",
             "latest",
@@ -65,6 +78,11 @@ public class ZipkinKafkaCollectorPropertiesOverrideTest {
     return new Object[] {"zipkin.collector.kafka." + propertySuffix, value, builderExtractor};
   }
 
+  /** Reads a field of {@link zipkin2.collector.Collector.Builder}, which is package private */
+  static <T> T delegate(KafkaCollector.Builder builder, String field) {
+    return (T) FieldSupport.EXTRACTION.fieldValue(field, Object.class, builder.delegate);
+  }
+
   @Test
   public void propertyTransferredToCollectorBuilder() {
     TestPropertyValues.of(property + ":" + value).applyTo(context);
@@ -25,6 +25,8 @@ class ZipkinKafkaCollectorProperties {
   private String groupId = "zipkin";
   private int streams = 1;
   private int maxMessageSize = 1024 * 1024;
+  /** Aggregates dependency links as spans are consumed, see {@link Dependencies}. */
+  private Dependencies dependencies = new Dependencies();
   private Map<String, String> overrides = new LinkedHashMap<>();
 
   public String getTopic() {
@@ -67,6 +69,14 @@ class ZipkinKafkaCollectorProperties {
     this.maxMessageSize = maxMessageSize;
   }
 
+  public Dependencies getDependencies() {
+    return dependencies;
+  }
+
+  public void setDependencies(Dependencies dependencies) {
+    this.dependencies = dependencies;
+  }
+
   public Map<String, String> getOverrides() {
     return overrides;
   }
@@ -76,12 +86,42 @@ class ZipkinKafkaCollectorProperties {
   }
 
   public KafkaCollector.Builder toBuilder() {
-    return KafkaCollector.builder()
+    KafkaCollector.Builder result = KafkaCollector.builder()
         .topic(topic)
         .zookeeper(zookeeper)
         .groupId(groupId)
         .streams(streams)
         .maxMessageSize(maxMessageSize)
         .overrides(overrides);
+    if (dependencies != null) dependencies.applyTo(result);
+    return result;
+  }
+
+  static class Dependencies {
+    /** When positive, links dependencies once a trace has had no new spans for this long. */
+    private Long quietPeriodMillis;
+    /** The eldest traces are linked early when more than this many spans are pending. */
+    private Integer maxPendingSpans;
+
+    public Long getQuietPeriodMillis() {
+      return quietPeriodMillis;
+    }
+
+    public void setQuietPeriodMillis(Long quietPeriodMillis) {
+      this.quietPeriodMillis = quietPeriodMillis;
+    }
+
+    public Integer getMaxPendingSpans() {
+      return maxPendingSpans;
+    }
+
+    public void setMaxPendingSpans(Integer maxPendingSpans) {
+      this.maxPendingSpans = maxPendingSpans;
+    }
+
+    void applyTo(KafkaCollector.Builder result) {
+      if (quietPeriodMillis != null) result.dependencyQuietPeriodMillis(quietPeriodMillis);
+      if (maxPendingSpans != null) result.dependencyMaxPendingSpans(maxPendingSpans);
+    }
   }
 }
@@ -48,6 +48,8 @@ class ZipkinRabbitMQCollectorProperties {
    * properties will be ignored.
    */
   private URI uri;
+  /** Aggregates dependency links as spans are consumed, see {@link Dependencies}. */
+  private Dependencies dependencies = new Dependencies();
 
   public List<String> getAddresses() {
     return addresses;
@@ -122,6 +124,14 @@ class ZipkinRabbitMQCollectorProperties {
     this.uri = uri;
   }
 
+  public Dependencies getDependencies() {
+    return dependencies;
+  }
+
+  public void setDependencies(Dependencies dependencies) {
+    this.dependencies = dependencies;
+  }
+
   public RabbitMQCollector.Builder toBuilder()
       throws KeyManagementException, NoSuchAlgorithmException, URISyntaxException {
     final RabbitMQCollector.Builder result = RabbitMQCollector.builder();
@@ -129,6 +139,7 @@ class ZipkinRabbitMQCollectorProperties {
     if (concurrency != null) result.concurrency(concurrency);
     if (connectionTimeout != null) connectionFactory.setConnectionTimeout(connectionTimeout);
     if (queue != null) result.queue(queue);
+    if (dependencies != null) dependencies.applyTo(result);
 
     if (uri != null) {
       connectionFactory.setUri(uri);
@@ -142,4 +153,32 @@ class ZipkinRabbitMQCollectorProperties {
     result.connectionFactory(connectionFactory);
     return result;
   }
+
+  static class Dependencies {
+    /** When positive, links dependencies once a trace has had no new spans for this long. */
+    private Long quietPeriodMillis;
+    /** The eldest traces are linked early when more than this many spans are pending. */
+    private Integer maxPendingSpans;
+
+    public Long getQuietPeriodMillis() {
+      return quietPeriodMillis;
+    }
+
+    public void setQuietPeriodMillis(Long quietPeriodMillis) {
+      this.quietPeriodMillis = quietPeriodMillis;
+    }
+
+    public Integer getMaxPendingSpans() {
+      return maxPendingSpans;
+    }
+
+    public void setMaxPendingSpans(Integer maxPendingSpans) {
+      this.maxPendingSpans = maxPendingSpans;
+    }
+
+    void applyTo(RabbitMQCollector.Builder result) {
+      if (quietPeriodMillis != null) result.dependencyQuietPeriodMillis(quietPeriodMillis);
+      if (maxPendingSpans != null) result.dependencyMaxPendingSpans(maxPendingSpans);
+    }
+  }
 }
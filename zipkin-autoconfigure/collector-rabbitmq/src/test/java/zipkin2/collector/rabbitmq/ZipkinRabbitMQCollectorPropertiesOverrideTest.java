@@ -16,6 +16,7 @@ package zipkin2.collector.rabbitmq;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.function.Function;
+import org.assertj.core.util.introspection.FieldSupport;
 import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -61,6 +62,14 @@ public class ZipkinRabbitMQCollectorPropertiesOverrideTest {
         parameters("username", "admin", builder -> builder.connectionFactory.getUsername()),
         parameters("virtualHost", "/hello", builder -> builder.connectionFactory.getVirtualHost()),
         parameters("useSsl", true, builder -> builder.connectionFactory.isSSL()),
+        parameters(
+            "dependencies.quiet-period-millis",
+            60000L,
+            builder -> delegate(builder, "dependencyQuietPeriodMillis")),
+        parameters(
+            "dependencies.max-pending-spans",
+            1000,
+            builder -> delegate(builder, "dependencyMaxPendingSpans")),
         parameters(
             "uri",
             URI.create("amqp://localhost"),
@@ -73,6 +82,11 @@ public class ZipkinRabbitMQCollectorPropertiesOverrideTest {
     return new Object[] {"zipkin.collector.rabbitmq." + propertySuffix, value, builderExtractor};
   }
 
+  /** Reads a field of {@link zipkin2.collector.Collector.Builder}, which is package private */
+  static <T> T delegate(RabbitMQCollector.Builder builder, String field) {
+    return (T) FieldSupport.EXTRACTION.fieldValue(field, Object.class, builder.delegate);
+  }
+
   @Test
   public void propertyTransferredToCollectorBuilder() throws Exception {
     TestPropertyValues.of(property + ":" + value).applyTo(context);
@@ -20,6 +20,8 @@ import zipkin2.collector.scribe.ScribeCollector;
 class ZipkinScribeCollectorProperties {
   private String category = "zipkin";
   private int port = 9410;
+  /** Aggregates dependency links as spans are consumed, see {@link Dependencies}. */
+  private Dependencies dependencies = new Dependencies();
 
   public String getCategory() {
     return category;
@@ -37,7 +39,45 @@ class ZipkinScribeCollectorProperties {
     this.port = port;
   }
 
+  public Dependencies getDependencies() {
+    return dependencies;
+  }
+
+  public void setDependencies(Dependencies dependencies) {
+    this.dependencies = dependencies;
+  }
+
   public ScribeCollector.Builder toBuilder() {
-    return ScribeCollector.newBuilder().category(category).port(port);
+    ScribeCollector.Builder result = ScribeCollector.newBuilder().category(category).port(port);
+    if (dependencies != null) dependencies.applyTo(result);
+    return result;
+  }
+
+  static class Dependencies {
+    /** When positive, links dependencies once a trace has had no new spans for this long. */
+    private Long quietPeriodMillis;
+    /** The eldest traces are linked early when more than this many spans are pending. */
+    private Integer maxPendingSpans;
+
+    public Long getQuietPeriodMillis() {
+      return quietPeriodMillis;
+    }
+
+    public void setQuietPeriodMillis(Long quietPeriodMillis) {
+      this.quietPeriodMillis = quietPeriodMillis;
+    }
+
+    public Integer getMaxPendingSpans() {
+      return maxPendingSpans;
+    }
+
+    public void setMaxPendingSpans(Integer maxPendingSpans) {
+      this.maxPendingSpans = maxPendingSpans;
+    }
+
+    void applyTo(ScribeCollector.Builder result) {
+      if (quietPeriodMillis != null) result.dependencyQuietPeriodMillis(quietPeriodMillis);
+      if (maxPendingSpans != null) result.dependencyMaxPendingSpans(maxPendingSpans);
+    }
   }
 }
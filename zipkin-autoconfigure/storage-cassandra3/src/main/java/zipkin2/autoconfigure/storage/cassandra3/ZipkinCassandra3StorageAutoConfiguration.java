@@ -41,6 +41,12 @@ class ZipkinCassandra3StorageAutoConfiguration {
   @Qualifier("tracingSessionFactory")
   CassandraStorage.SessionFactory tracingSessionFactory;
 
+  @Autowired(required = false)
+  CassandraStorage.WriteMetrics writeMetrics;
+
+  @Autowired(required = false)
+  CassandraStorage.QueryMetrics queryMetrics;
+
   @Bean
   @ConditionalOnMissingBean
   StorageComponent storage(
@@ -49,6 +55,8 @@ class ZipkinCassandra3StorageAutoConfiguration {
       @Value("${zipkin.storage.search-enabled:true}") boolean searchEnabled) {
     CassandraStorage.Builder builder =
         properties.toBuilder().strictTraceId(strictTraceId).searchEnabled(searchEnabled);
+    if (writeMetrics != null) builder.writeMetrics(writeMetrics);
+    if (queryMetrics != null) builder.queryMetrics(queryMetrics);
     return tracingSessionFactory == null
         ? builder.build()
         : builder.sessionFactory(tracingSessionFactory).build();
@@ -34,6 +34,10 @@ class ZipkinCassandra3StorageProperties implements Serializable { // for Spark j
   private String password;
   /** See {@link CassandraStorage.Builder#indexFetchMultiplier(int)} */
   private int indexFetchMultiplier = 3;
+  /** See {@link CassandraStorage.Builder#maxInFlightWrites(int)} */
+  private int maxInFlightWrites = 1024;
+  /** See {@link CassandraStorage.Builder#maxQueuedWrites(int)} */
+  private int maxQueuedWrites = 4096;
 
   public String getKeyspace() {
     return keyspace;
@@ -107,6 +111,22 @@ class ZipkinCassandra3StorageProperties implements Serializable { // for Spark j
     this.indexFetchMultiplier = indexFetchMultiplier;
   }
 
+  public int getMaxInFlightWrites() {
+    return maxInFlightWrites;
+  }
+
+  public void setMaxInFlightWrites(int maxInFlightWrites) {
+    this.maxInFlightWrites = maxInFlightWrites;
+  }
+
+  public int getMaxQueuedWrites() {
+    return maxQueuedWrites;
+  }
+
+  public void setMaxQueuedWrites(int maxQueuedWrites) {
+    this.maxQueuedWrites = maxQueuedWrites;
+  }
+
   public Builder toBuilder() {
     return newBuilder()
         .keyspace(keyspace)
@@ -117,6 +137,8 @@ class ZipkinCassandra3StorageProperties implements Serializable { // for Spark j
         .useSsl(useSsl)
         .username(username)
         .password(password)
-        .indexFetchMultiplier(indexFetchMultiplier);
+        .indexFetchMultiplier(indexFetchMultiplier)
+        .maxInFlightWrites(maxInFlightWrites)
+        .maxQueuedWrites(maxQueuedWrites);
   }
 }
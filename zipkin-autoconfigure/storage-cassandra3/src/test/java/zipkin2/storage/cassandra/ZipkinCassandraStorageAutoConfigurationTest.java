@@ -106,4 +106,20 @@ public class ZipkinCassandraStorageAutoConfigurationTest {
 
     assertThat(context.getBean(CassandraStorage.class).searchEnabled()).isFalse();
   }
+
+  @Test
+  public void canOverridesProperty_writeAdmission() {
+    context = new AnnotationConfigApplicationContext();
+    TestPropertyValues.of(
+        "zipkin.storage.type:cassandra3",
+        "zipkin.storage.cassandra3.max-in-flight-writes:0",
+        "zipkin.storage.cassandra3.max-queued-writes:100")
+    .applyTo(context);
+    Access.registerCassandra3(context);
+    context.refresh();
+
+    CassandraStorage storage = context.getBean(CassandraStorage.class);
+    assertThat(storage.maxInFlightWrites()).isZero();
+    assertThat(storage.maxQueuedWrites()).isEqualTo(100);
+  }
 }
@@ -39,6 +39,11 @@ class ZipkinElasticsearchStorageProperties implements Serializable { // for Spar
   private String dateSeparator = "-";
   /** Sets maximum in-flight requests from this process to any Elasticsearch host. Defaults to 64 */
   private int maxRequests = 64;
+  /**
+   * When positive, spans are queued up to this amount and merged into adaptively sized bulk
+   * requests, instead of dropped when maxRequests are in-flight. Defaults to 0 (disabled).
+   */
+  private int bulkQueuedSpans = 0;
   /** Number of shards (horizontal scaling factor) per index. Defaults to 5. */
   private int indexShards = 5;
   /** Number of replicas (redundancy factor) per index. Defaults to 1.` */
@@ -106,6 +111,14 @@ class ZipkinElasticsearchStorageProperties implements Serializable { // for Spar
     this.maxRequests = maxRequests;
   }
 
+  public int getBulkQueuedSpans() {
+    return bulkQueuedSpans;
+  }
+
+  public void setBulkQueuedSpans(int bulkQueuedSpans) {
+    this.bulkQueuedSpans = bulkQueuedSpans;
+  }
+
   public void setIndex(String index) {
     this.index = index;
   }
@@ -178,6 +191,7 @@ class ZipkinElasticsearchStorageProperties implements Serializable { // for Spar
         .dateSeparator(dateSeparator.isEmpty() ? 0 : dateSeparator.charAt(0))
         .pipeline(pipeline)
         .maxRequests(maxRequests)
+        .bulkQueuedSpans(bulkQueuedSpans)
         .indexShards(indexShards)
         .indexReplicas(indexReplicas);
   }
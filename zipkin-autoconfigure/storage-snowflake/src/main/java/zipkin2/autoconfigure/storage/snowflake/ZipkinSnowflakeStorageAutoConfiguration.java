@@ -65,6 +65,9 @@ class ZipkinSnowflakeStorageAutoConfiguration {
         .searchEnabled(true)
         .executor(executor)
         .datasource(dataSource)
+        .stagingDirectory(snowflake.getStagingDirectory())
+        .flushSpans(snowflake.getFlushSpans())
+        .flushIntervalMillis(snowflake.getFlushIntervalMillis())
         .build();
   }
 }
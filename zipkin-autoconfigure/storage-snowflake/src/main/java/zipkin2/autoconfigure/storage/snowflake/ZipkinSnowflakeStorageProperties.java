@@ -27,6 +27,9 @@ class ZipkinSnowflakeStorageProperties implements Serializable { // for Spark jo
   private String username;
   private String password;
   private int maxActive = 10;
+  private String stagingDirectory;
+  private int flushSpans = 10000;
+  private long flushIntervalMillis = 5000;
 
   public String getJdbcUrl() {
     return jdbcUrl;
@@ -61,6 +64,30 @@ class ZipkinSnowflakeStorageProperties implements Serializable { // for Spark jo
     this.maxActive = maxActive;
   }
 
+  public String getStagingDirectory() {
+    return stagingDirectory;
+  }
+
+  public void setStagingDirectory(String stagingDirectory) {
+    this.stagingDirectory = "".equals(stagingDirectory) ? null : stagingDirectory;
+  }
+
+  public int getFlushSpans() {
+    return flushSpans;
+  }
+
+  public void setFlushSpans(int flushSpans) {
+    this.flushSpans = flushSpans;
+  }
+
+  public long getFlushIntervalMillis() {
+    return flushIntervalMillis;
+  }
+
+  public void setFlushIntervalMillis(long flushIntervalMillis) {
+    this.flushIntervalMillis = flushIntervalMillis;
+  }
+
   public DataSource toDataSource() {
     HikariDataSource result = new HikariDataSource();
     result.setDriverClassName("net.snowflake.client.jdbc.SnowflakeDriver");
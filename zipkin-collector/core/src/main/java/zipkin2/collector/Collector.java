@@ -22,6 +22,9 @@ import zipkin2.Callback;
 import zipkin2.Span;
 import zipkin2.SpanBytesDecoderDetector;
 import zipkin2.codec.BytesDecoder;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.internal.Nullable;
+import zipkin2.internal.SpanSampler;
 import zipkin2.storage.StorageComponent;
 
 import static java.lang.String.format;
@@ -48,6 +51,13 @@ public class Collector { // not final for mock
     StorageComponent storage = null;
     CollectorSampler sampler = null;
     CollectorMetrics metrics = null;
+    int batchMaxSpans = 0; // zero means batching is disabled
+    int batchMaxBytes = Integer.MAX_VALUE, batchQueuedSpans = 10000, batchFlushThreads = 1;
+    long batchLingerMillis = 100L;
+    boolean batchBlockWhenFull = false;
+    long dependencyQuietPeriodMillis = 0L; // zero means dependency aggregation is disabled
+    int dependencyMaxPendingSpans = 100000;
+    boolean skipMalformedSpans = false;
 
     Builder(Logger logger) {
       this.logger = logger;
@@ -74,6 +84,111 @@ public class Collector { // not final for mock
       return this;
     }
 
+    /**
+     * When positive, spans are queued and stored in batches of up to this many spans, instead of
+     * storing each message separately. This reduces the count of storage requests when messages
+     * are small. Defaults to zero, which disables batching.
+     *
+     * <p>Callbacks succeed once spans are queued, so storage errors are only visible via {@link
+     * CollectorMetrics#incrementSpansDropped(int)} and logs.
+     */
+    public Builder batchMaxSpans(int batchMaxSpans) {
+      if (batchMaxSpans < 0) throw new IllegalArgumentException("batchMaxSpans < 0");
+      this.batchMaxSpans = batchMaxSpans;
+      return this;
+    }
+
+    /**
+     * When batching, limits a batch to this many bytes, as measured by the PROTO3 encoded size of
+     * its spans. Defaults to unbounded.
+     */
+    public Builder batchMaxBytes(int batchMaxBytes) {
+      if (batchMaxBytes <= 0) throw new IllegalArgumentException("batchMaxBytes <= 0");
+      this.batchMaxBytes = batchMaxBytes;
+      return this;
+    }
+
+    /**
+     * When batching, how long to wait for more spans after the first span in a batch is taken from
+     * the queue. Defaults to 100ms.
+     */
+    public Builder batchLingerMillis(long batchLingerMillis) {
+      if (batchLingerMillis < 0) throw new IllegalArgumentException("batchLingerMillis < 0");
+      this.batchLingerMillis = batchLingerMillis;
+      return this;
+    }
+
+    /**
+     * When batching, the maximum count of spans queued or in flight to storage. Defaults to 10000.
+     */
+    public Builder batchQueuedSpans(int batchQueuedSpans) {
+      if (batchQueuedSpans <= 0) throw new IllegalArgumentException("batchQueuedSpans <= 0");
+      this.batchQueuedSpans = batchQueuedSpans;
+      return this;
+    }
+
+    /** When batching, the count of threads sending batches to storage. Defaults to 1. */
+    public Builder batchFlushThreads(int batchFlushThreads) {
+      if (batchFlushThreads <= 0) throw new IllegalArgumentException("batchFlushThreads <= 0");
+      this.batchFlushThreads = batchFlushThreads;
+      return this;
+    }
+
+    /**
+     * When batching and the queue is full, true blocks the calling thread until there is room.
+     * Defaults to false, which drops the spans, incrementing {@link
+     * CollectorMetrics#incrementSpansDropped(int)}.
+     *
+     * <p>Only block when the transport can apply backpressure, such as a Kafka consumer thread.
+     */
+    public Builder batchBlockWhenFull(boolean batchBlockWhenFull) {
+      this.batchBlockWhenFull = batchBlockWhenFull;
+      return this;
+    }
+
+    /**
+     * When positive, dependency links are aggregated as spans are collected: spans are buffered by
+     * trace until none arrive for this long, then linked into per-minute buckets written to {@link
+     * StorageComponent#dependencyLinkConsumer()}. Defaults to zero, which disables aggregation.
+     *
+     * <p>Storage reads aggregated links instead of linking traces in the same time bucket, so set
+     * this on every collector writing to it. Otherwise, traces received by the others are hidden.
+     *
+     * @throws IllegalArgumentException on build, if the storage doesn't accept dependency links
+     */
+    public Builder dependencyQuietPeriodMillis(long dependencyQuietPeriodMillis) {
+      if (dependencyQuietPeriodMillis < 0) {
+        throw new IllegalArgumentException("dependencyQuietPeriodMillis < 0");
+      }
+      this.dependencyQuietPeriodMillis = dependencyQuietPeriodMillis;
+      return this;
+    }
+
+    /**
+     * When aggregating dependencies, the maximum count of spans buffered. When exceeded, the eldest
+     * traces are linked early. Defaults to 100000.
+     */
+    public Builder dependencyMaxPendingSpans(int dependencyMaxPendingSpans) {
+      if (dependencyMaxPendingSpans <= 0) {
+        throw new IllegalArgumentException("dependencyMaxPendingSpans <= 0");
+      }
+      this.dependencyMaxPendingSpans = dependencyMaxPendingSpans;
+      return this;
+    }
+
+    /**
+     * When true, a span that can't be decoded is dropped, keeping the others in its message.
+     * Defaults to false, which drops the whole message, incrementing {@link
+     * CollectorMetrics#incrementMessagesDropped()}.
+     *
+     * <p>Skipped spans increment {@link CollectorMetrics#incrementSpansDropped(int)}. This applies
+     * to PROTO3 and json lists, where the end of a malformed span can still be found.
+     */
+    public Builder skipMalformedSpans(boolean skipMalformedSpans) {
+      this.skipMalformedSpans = skipMalformedSpans;
+      return this;
+    }
+
     public Collector build() {
       return new Collector(this);
     }
@@ -83,6 +198,9 @@ public class Collector { // not final for mock
   final CollectorMetrics metrics;
   final CollectorSampler sampler;
   final StorageComponent storage;
+  @Nullable final SpanBatcher batcher;
+  @Nullable final DependencyAggregator aggregator;
+  final boolean skipMalformedSpans;
 
   Collector(Builder builder) {
     if (builder.logger == null) throw new NullPointerException("logger == null");
@@ -91,6 +209,20 @@ public class Collector { // not final for mock
     if (builder.storage == null) throw new NullPointerException("storage == null");
     this.storage = builder.storage;
     this.sampler = builder.sampler == null ? CollectorSampler.ALWAYS_SAMPLE : builder.sampler;
+    this.skipMalformedSpans = builder.skipMalformedSpans;
+    this.aggregator = builder.dependencyQuietPeriodMillis > 0L
+      ? new DependencyAggregator(this, builder)
+      : null;
+    this.batcher = builder.batchMaxSpans > 0 ? new SpanBatcher(this, builder) : null;
+  }
+
+  /**
+   * When batching, stops flusher threads after storing any queued spans. When aggregating
+   * dependencies, stores links of any buffered spans. Otherwise, no-op.
+   */
+  public void close() {
+    if (batcher != null) batcher.close();
+    if (aggregator != null) aggregator.close();
   }
 
   public void accept(List<Span> spans, Callback<Void> callback) {
@@ -100,7 +232,10 @@ public class Collector { // not final for mock
     }
     metrics.incrementSpans(spans.size());
 
-    List<Span> sampled = sample(spans);
+    store(sample(spans), callback);
+  }
+
+  void store(List<Span> sampled, Callback<Void> callback) {
     if (sampled.isEmpty()) {
       callback.onSuccess(null);
       return;
@@ -130,14 +265,45 @@ public class Collector { // not final for mock
   public void acceptSpans(
       byte[] serializedSpans, BytesDecoder<Span> decoder, Callback<Void> callback) {
     metrics.incrementBytes(serializedSpans.length);
+    // When some spans will be dropped, skip them while decoding
+    boolean skipWhileDecoding = decoder instanceof SpanBytesDecoder
+        && (skipMalformedSpans || sampler.boundary() < Long.MAX_VALUE);
     List<Span> spans;
+    ReadSampler readSampler = skipWhileDecoding ? new ReadSampler() : null;
     try {
-      spans = decodeList(decoder, serializedSpans);
+      spans = readSampler != null
+          ? decodeList((SpanBytesDecoder) decoder, serializedSpans, readSampler)
+          : decodeList(decoder, serializedSpans);
     } catch (RuntimeException e) {
       callback.onError(errorReading(e));
       return;
     }
-    accept(spans, callback);
+    if (readSampler == null) {
+      accept(spans, callback);
+      return;
+    }
+
+    int skipped = readSampler.spansSkipped(), malformed = readSampler.spansMalformed();
+    if (spans.isEmpty() && skipped == 0 && malformed == 0) {
+      callback.onSuccess(null);
+      return;
+    }
+    metrics.incrementSpans(spans.size() + skipped + malformed);
+    if (skipped > 0) {
+      metrics.incrementSpansDropped(skipped);
+      metrics.incrementBytesSkipped(readSampler.bytesSkipped());
+    }
+    if (malformed > 0) {
+      metrics.incrementSpansDropped(malformed);
+      if (shouldWarn()) warn(format("Dropped %s malformed spans", malformed), null);
+    }
+    store(spans, callback);
+  }
+
+  List<Span> decodeList(SpanBytesDecoder decoder, byte[] serialized, SpanSampler readSampler) {
+    List<Span> out = new ArrayList<>();
+    if (!readSampler.decodeList(decoder, serialized, out)) return Collections.emptyList();
+    return out;
   }
 
   List<Span> decodeList(BytesDecoder<Span> decoder, byte[] serialized) {
@@ -147,9 +313,18 @@ public class Collector { // not final for mock
   }
 
   void record(List<Span> sampled, Callback<Void> callback) {
+    if (batcher != null) {
+      batcher.offer(sampled); // storage errors are handled per batch
+      return;
+    }
     storage.spanConsumer().accept(sampled).enqueue(callback);
   }
 
+  /** Links dependencies only of spans storage accepted, so rejected ones aren't counted. */
+  void stored(List<Span> spans) {
+    if (aggregator != null) aggregator.offer(spans);
+  }
+
   String idString(Span span) {
     return span.traceId() + "/" + span.id();
   }
@@ -166,7 +341,7 @@ public class Collector { // not final for mock
     List<Span> sampled = new ArrayList<>(input.size());
     for (int i = 0, length = input.size(); i < length; i++) {
       Span s = input.get(i);
-      if (sampler.isSampled(s.traceId(), Boolean.TRUE.equals(s.debug()))) {
+      if (sampler.isSampled(s.traceIdLow(), Boolean.TRUE.equals(s.debug()))) {
         sampled.add(s);
       }
     }
@@ -175,10 +350,33 @@ public class Collector { // not final for mock
     return sampled;
   }
 
+  /**
+   * Applies the {@link CollectorSampler} to spans as they are read, skipping those dropped and, if
+   * configured, those malformed.
+   */
+  final class ReadSampler extends SpanSampler {
+    @Override
+    public boolean isSampled(long traceIdLow, boolean debug) {
+      return sampler.isSampled(traceIdLow, debug);
+    }
+
+    @Override
+    protected boolean samplesSpans() {
+      return sampler.boundary() < Long.MAX_VALUE;
+    }
+
+    @Override
+    protected boolean skipMalformedSpans() {
+      return skipMalformedSpans;
+    }
+  }
+
   Callback<Void> acceptSpansCallback(final List<Span> spans) {
     return new Callback<Void>() {
       @Override
-      public void onSuccess(Void value) {}
+      public void onSuccess(Void value) {
+        stored(spans);
+      }
 
       @Override
       public void onError(Throwable t) {
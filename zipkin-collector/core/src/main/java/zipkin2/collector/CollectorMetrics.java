@@ -98,6 +98,34 @@ public interface CollectorMetrics {
    */
   void incrementSpansDropped(int quantity);
 
+  /**
+   * Increments the number of bytes skipped without decoding, as they held spans dropped by
+   * sampling. This is a subset of {@link #incrementBytes(int) bytes}.
+   *
+   * <p>This is a no-op by default, so existing implementations needn't track skipped bytes.
+   */
+  default void incrementBytesSkipped(int quantity) {
+  }
+
+  /**
+   * Updates the count of spans accepted, but not yet stored, when {@link
+   * Collector.Builder#batchMaxSpans(int) batching} is enabled. This includes spans in flight to
+   * storage.
+   *
+   * <p>This is a no-op by default, so existing implementations needn't track batching.
+   */
+  default void updateQueuedSpans(int quantity) {
+  }
+
+  /**
+   * Records that a batch of spans was stored, and how long the storage request took.
+   *
+   * @param quantity count of spans in the batch
+   * @param durationNanos time between sending the batch to storage and its callback
+   */
+  default void recordBatch(int quantity, long durationNanos) {
+  }
+
   CollectorMetrics NOOP_METRICS =
       new CollectorMetrics() {
 
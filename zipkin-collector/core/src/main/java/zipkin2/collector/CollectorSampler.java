@@ -62,7 +62,18 @@ public abstract class CollectorSampler {
    */
   public boolean isSampled(String hexTraceId, boolean debug) {
     if (Boolean.TRUE.equals(debug)) return true;
-    long traceId = HexCodec.lowerHexToUnsignedLong(hexTraceId);
+    return isSampled(HexCodec.lowerHexToUnsignedLong(hexTraceId), false);
+  }
+
+  /**
+   * Like {@link #isSampled(String, boolean)}, except this avoids parsing when the caller already
+   * has the {@link Span#traceIdLow() lower 64 bits of the trace ID}.
+   *
+   * @param traceId the lower 64 bits of the span's trace ID are checked against the boundary
+   * @param debug when true, always passes sampling
+   */
+  public boolean isSampled(long traceId, boolean debug) {
+    if (debug) return true;
     // The absolute value of Long.MIN_VALUE is larger than a long, so Math.abs returns identity.
     // This converts to MAX_VALUE to avoid always dropping when traceId == Long.MIN_VALUE
     long t = traceId == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(traceId);
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.collector;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import zipkin2.Callback;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.internal.DependencyLinker;
+import zipkin2.storage.DependencyLinkConsumer;
+
+/**
+ * Links dependencies as spans are collected, so that storage can read aggregated links instead of
+ * linking traces on each query.
+ *
+ * <p>Spans are buffered by trace until none arrive for the quiet period. Quiet traces are linked
+ * into per-minute buckets, by when the trace started, and buckets are periodically written to
+ * {@link DependencyLinkConsumer}. When more spans are buffered than allowed, the eldest traces are
+ * linked early.
+ *
+ * <p>Spans that arrive after their trace was linked are ignored, as linking them alone would count
+ * the trace's links again. The IDs of recently linked traces are kept for this, up to the maximum
+ * count of pending spans.
+ *
+ * <p>Traces are only complete when all their spans reach the same collector. Spans of a trace split
+ * across collectors or servers are linked separately, which can miss links.
+ */
+final class DependencyAggregator {
+  static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  final Collector collector;
+  final DependencyLinkConsumer consumer;
+  final long quietPeriodNanos, tickMillis;
+  final int maxPendingSpans;
+  final Thread linker;
+  volatile boolean closed;
+
+  // guarded by this
+  final LinkedHashMap<Long, PendingTrace> pending = new LinkedHashMap<>(16, 0.75f, true /* LRU */);
+  final List<List<Span>> ready = new ArrayList<>(); // evicted, but not yet linked
+  final LinkedHashMap<Long, Boolean> linked; // IDs of traces taken to link, eldest first
+  int pendingSpans;
+
+  // only used by the linker thread, or after it stopped
+  final TreeMap<Long, DependencyLinker> buckets = new TreeMap<>();
+
+  DependencyAggregator(Collector collector, Collector.Builder builder) {
+    this.collector = collector;
+    this.consumer = collector.storage.dependencyLinkConsumer();
+    if (consumer == null) {
+      throw new IllegalArgumentException(collector.storage + " doesn't accept dependency links");
+    }
+    this.quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(builder.dependencyQuietPeriodMillis);
+    this.tickMillis = Math.min(builder.dependencyQuietPeriodMillis, 1000L);
+    this.maxPendingSpans = builder.dependencyMaxPendingSpans;
+    this.linked = new LinkedHashMap<Long, Boolean>() {
+      @Override protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+        return size() > maxPendingSpans;
+      }
+    };
+    this.linker = new Thread(new Linker(), "zipkin-collector-dependencies");
+    linker.setDaemon(true);
+    linker.start();
+  }
+
+  /** Buffers spans until their trace is quiet, ignoring those of traces already linked. */
+  void offer(List<Span> spans) {
+    long now = System.nanoTime();
+    synchronized (this) {
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        Span span = spans.get(i);
+        Long traceId = span.traceIdLow();
+        if (linked.containsKey(traceId)) continue; // late
+        PendingTrace trace = pending.get(traceId); // moves the trace to the tail
+        if (trace == null) pending.put(traceId, trace = new PendingTrace());
+        trace.spans.add(span);
+        trace.lastUpdated = now;
+        pendingSpans++;
+      }
+      Iterator<Map.Entry<Long, PendingTrace>> eldest = pending.entrySet().iterator();
+      while (pendingSpans > maxPendingSpans && eldest.hasNext()) {
+        Map.Entry<Long, PendingTrace> trace = eldest.next();
+        eldest.remove();
+        take(trace, ready);
+      }
+    }
+  }
+
+  /** Stops the linker thread, then links and stores all buffered spans on the calling thread. */
+  void close() {
+    closed = true;
+    linker.interrupt();
+    try {
+      linker.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    link(takeTraces(0L, true));
+    flush();
+  }
+
+  /** Returns traces evicted or quiet since {@code now}, eldest first. */
+  synchronized List<List<Span>> takeTraces(long now, boolean all) {
+    List<List<Span>> result = new ArrayList<>(ready);
+    ready.clear();
+    Iterator<Map.Entry<Long, PendingTrace>> i = pending.entrySet().iterator();
+    while (i.hasNext()) {
+      Map.Entry<Long, PendingTrace> trace = i.next();
+      // later traces aren't quiet
+      if (!all && now - trace.getValue().lastUpdated < quietPeriodNanos) break;
+      i.remove();
+      take(trace, result);
+    }
+    return result;
+  }
+
+  /** Adds the spans of a trace removed from pending to the list to link. Call under lock. */
+  void take(Map.Entry<Long, PendingTrace> trace, List<List<Span>> toLink) {
+    pendingSpans -= trace.getValue().spans.size();
+    linked.put(trace.getKey(), Boolean.TRUE);
+    toLink.add(trace.getValue().spans);
+  }
+
+  void link(List<List<Span>> traces) {
+    for (int i = 0, length = traces.size(); i < length; i++) {
+      List<Span> trace = traces.get(i);
+      Long bucket = bucket(trace);
+      DependencyLinker linker = buckets.get(bucket);
+      if (linker == null) buckets.put(bucket, linker = new DependencyLinker());
+      linker.putTrace(trace);
+    }
+  }
+
+  /** Stores links of each bucket, which storage adds to any it already has. */
+  void flush() {
+    for (Map.Entry<Long, DependencyLinker> entry : buckets.entrySet()) {
+      List<DependencyLink> links = entry.getValue().link();
+      if (links.isEmpty()) continue;
+      try {
+        consumer.accept(entry.getKey(), links).enqueue(new StoreLinksCallback(entry.getKey()));
+      } catch (RuntimeException e) {
+        errorStoringLinks(entry.getKey(), e);
+      }
+    }
+    buckets.clear();
+  }
+
+  /** Returns the start of the minute when the trace started, or the current one if unknown. */
+  static long bucket(List<Span> trace) {
+    long timestamp = Long.MAX_VALUE;
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      long spanTimestamp = trace.get(i).timestampAsLong();
+      if (spanTimestamp != 0L) timestamp = Math.min(timestamp, spanTimestamp);
+    }
+    long millis = timestamp != Long.MAX_VALUE ? timestamp / 1000L : System.currentTimeMillis();
+    return millis - millis % DependencyLinkConsumer.BUCKET_MILLIS;
+  }
+
+  void errorStoringLinks(long bucket, Throwable e) {
+    collector.doError("Cannot store dependency links for bucket " + bucket, e);
+  }
+
+  final class Linker implements Runnable {
+    @Override public void run() {
+      long lastFlush = System.nanoTime();
+      while (!closed) {
+        try {
+          Thread.sleep(tickMillis);
+        } catch (InterruptedException e) {
+          break; // we are closing
+        }
+        long now = System.nanoTime();
+        link(takeTraces(now, false));
+        if (now - lastFlush >= FLUSH_INTERVAL_NANOS) {
+          flush();
+          lastFlush = now;
+        }
+      }
+    }
+  }
+
+  final class StoreLinksCallback implements Callback<Void> {
+    final long bucket;
+
+    StoreLinksCallback(long bucket) {
+      this.bucket = bucket;
+    }
+
+    @Override public void onSuccess(Void value) {
+    }
+
+    @Override public void onError(Throwable t) {
+      errorStoringLinks(bucket, t);
+    }
+
+    @Override public String toString() {
+      return "StoreLinks(" + bucket + ")";
+    }
+  }
+
+  static final class PendingTrace {
+    final List<Span> spans = new ArrayList<>();
+    long lastUpdated; // System.nanoTime
+  }
+}
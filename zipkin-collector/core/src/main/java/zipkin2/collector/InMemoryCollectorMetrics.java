@@ -24,6 +24,10 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
   private final String bytes;
   private final String spans;
   private final String spansDropped;
+  private final String bytesSkipped;
+  private final String queuedSpans;
+  private final String batches;
+  private final String batchedSpans;
 
   public InMemoryCollectorMetrics() {
     this(new ConcurrentHashMap<>(), null);
@@ -36,6 +40,10 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
     this.bytes = scope("bytes", transport);
     this.spans = scope("spans", transport);
     this.spansDropped = scope("spansDropped", transport);
+    this.bytesSkipped = scope("bytesSkipped", transport);
+    this.queuedSpans = scope("queuedSpans", transport);
+    this.batches = scope("batches", transport);
+    this.batchedSpans = scope("batchedSpans", transport);
   }
 
   @Override
@@ -89,6 +97,40 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
     return get(spansDropped);
   }
 
+  @Override
+  public void incrementBytesSkipped(int quantity) {
+    increment(bytesSkipped, quantity);
+  }
+
+  public int bytesSkipped() {
+    return get(bytesSkipped);
+  }
+
+  @Override
+  public void updateQueuedSpans(int quantity) {
+    AtomicInteger metric = metrics.get(queuedSpans);
+    if (metric == null) metric = metrics.putIfAbsent(queuedSpans, new AtomicInteger(quantity));
+    if (metric != null) metric.set(quantity);
+  }
+
+  public int queuedSpans() {
+    return get(queuedSpans);
+  }
+
+  @Override
+  public void recordBatch(int quantity, long durationNanos) {
+    increment(batches, 1);
+    increment(batchedSpans, quantity);
+  }
+
+  public int batches() {
+    return get(batches);
+  }
+
+  public int batchedSpans() {
+    return get(batchedSpans);
+  }
+
   public void clear() {
     metrics.clear();
   }
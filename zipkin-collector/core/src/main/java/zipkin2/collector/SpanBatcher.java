@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.collector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+
+/**
+ * Coalesces spans from many messages into fewer, larger calls to {@link
+ * zipkin2.storage.SpanConsumer#accept(List)}.
+ *
+ * <p>Messages are queued until a flusher thread takes them. A batch is flushed when it reaches the
+ * maximum spans or bytes, or when the linger time elapses after its first message was taken.
+ *
+ * <p>The queue is bounded in spans, including those in flight to storage. When full, messages are
+ * either dropped or the calling thread waits, depending on {@link
+ * Collector.Builder#batchBlockWhenFull(boolean)}.
+ */
+final class SpanBatcher {
+  final Collector collector;
+  final int queuedSpansLimit, maxSpans, maxBytes;
+  final long lingerNanos;
+  final boolean blockWhenFull;
+  final Semaphore permits; // one permit per queued or in-flight span
+  final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+  final Thread[] flushers;
+  volatile boolean closed; // written under this, so no message is queued after close drains
+
+  SpanBatcher(Collector collector, Collector.Builder builder) {
+    this.collector = collector;
+    this.queuedSpansLimit = builder.batchQueuedSpans;
+    this.maxSpans = builder.batchMaxSpans;
+    this.maxBytes = builder.batchMaxBytes;
+    this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(builder.batchLingerMillis);
+    this.blockWhenFull = builder.batchBlockWhenFull;
+    this.permits = new Semaphore(queuedSpansLimit);
+    this.flushers = new Thread[builder.batchFlushThreads];
+    for (int i = 0; i < flushers.length; i++) {
+      Thread flusher = new Thread(new Flusher(), "zipkin-collector-flusher-" + i);
+      flusher.setDaemon(true);
+      flusher.start();
+      flushers[i] = flusher;
+    }
+  }
+
+  /**
+   * Queues spans for storage.
+   *
+   * @throws IllegalStateException when the queue is full and not {@link #blockWhenFull}, or the
+   * collector is closed
+   */
+  void offer(List<Span> spans) {
+    if (closed) throw new IllegalStateException("collector closed");
+    // Don't let a message larger than the queue wait forever
+    int permitsNeeded = Math.min(spans.size(), queuedSpansLimit);
+    if (blockWhenFull) {
+      acquireUnlessClosed(permitsNeeded);
+    } else if (!permits.tryAcquire(permitsNeeded)) {
+      throw new IllegalStateException("queue full: more than " + queuedSpansLimit + " spans");
+    }
+    int bytes = maxBytes != Integer.MAX_VALUE ? sizeInBytes(spans) : 0; // skip when unbounded
+    synchronized (this) {
+      if (closed) {
+        permits.release(permitsNeeded);
+        throw new IllegalStateException("collector closed");
+      }
+      queue.add(new Message(spans, bytes, permitsNeeded));
+    }
+    updateQueuedSpans();
+  }
+
+  /** Waits for room in the queue, giving up if the collector closes meanwhile. */
+  void acquireUnlessClosed(int permitsNeeded) {
+    try {
+      while (!permits.tryAcquire(permitsNeeded, 100, TimeUnit.MILLISECONDS)) {
+        if (closed) throw new IllegalStateException("collector closed");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted waiting for room in the queue");
+    }
+  }
+
+  /** Stops flusher threads, then stores any spans left in the queue on the calling thread. */
+  void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    for (Thread flusher : flushers) flusher.interrupt();
+    // Don't drain until flushers exit, even if interrupted, as they re-queue carried messages
+    boolean interrupted = false;
+    for (Thread flusher : flushers) {
+      while (true) {
+        try {
+          flusher.join();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    Batch batch = new Batch();
+    for (Message message; (message = queue.poll()) != null; ) {
+      if (!batch.isEmpty() && !batch.fits(message)) {
+        batch.flush();
+        batch = new Batch();
+      }
+      batch.add(message);
+    }
+    if (!batch.isEmpty()) batch.flush();
+    if (interrupted) Thread.currentThread().interrupt();
+  }
+
+  void updateQueuedSpans() {
+    collector.metrics.updateQueuedSpans(queuedSpansLimit - permits.availablePermits());
+  }
+
+  static int sizeInBytes(List<Span> spans) {
+    int result = 0;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      result += SpanBytesEncoder.PROTO3.sizeInBytes(spans.get(i));
+    }
+    return result;
+  }
+
+  final class Flusher implements Runnable {
+    Message carried; // taken from the queue, but didn't fit in the last batch
+
+    @Override public void run() {
+      while (!closed) {
+        try {
+          Batch batch = nextBatch();
+          if (batch != null) batch.flush();
+        } catch (InterruptedException e) {
+          break; // we are closing
+        }
+      }
+      if (carried != null) queue.add(carried); // so close() can store it
+    }
+
+    /** Returns null when there was nothing to batch. */
+    Batch nextBatch() throws InterruptedException {
+      Message first = carried;
+      carried = null;
+      if (first == null) first = queue.poll(1, TimeUnit.SECONDS);
+      if (first == null) return null;
+
+      Batch batch = new Batch();
+      batch.add(first);
+      long deadline = System.nanoTime() + lingerNanos;
+      while (batch.spans.size() < maxSpans && batch.bytes < maxBytes) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) break;
+        Message next;
+        try {
+          next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) { // closing, so flush what we have
+          Thread.currentThread().interrupt();
+          break;
+        }
+        if (next == null) break;
+        if (!batch.fits(next)) {
+          carried = next;
+          break;
+        }
+        batch.add(next);
+      }
+      return batch;
+    }
+  }
+
+  final class Batch implements Callback<Void> {
+    final List<Span> spans = new ArrayList<>();
+    int bytes, permitsHeld;
+    long startNanos;
+
+    boolean isEmpty() {
+      return spans.isEmpty();
+    }
+
+    boolean fits(Message message) {
+      return spans.size() + message.spans.size() <= maxSpans
+        && bytes + message.bytes <= maxBytes;
+    }
+
+    void add(Message message) {
+      spans.addAll(message.spans);
+      bytes += message.bytes;
+      permitsHeld += message.permits;
+    }
+
+    void flush() {
+      startNanos = System.nanoTime();
+      try {
+        collector.storage.spanConsumer().accept(spans).enqueue(this);
+      } catch (RuntimeException e) {
+        onError(e);
+      }
+    }
+
+    @Override public void onSuccess(Void value) {
+      collector.metrics.recordBatch(spans.size(), System.nanoTime() - startNanos);
+      release();
+      collector.stored(spans);
+    }
+
+    @Override public void onError(Throwable t) {
+      release();
+      collector.errorStoringSpans(spans, t);
+    }
+
+    void release() {
+      permits.release(permitsHeld);
+      updateQueuedSpans();
+    }
+
+    @Override public String toString() {
+      return collector.appendSpanIds(spans, new StringBuilder("StoreBatch(")).append(")")
+        .toString();
+    }
+  }
+
+  static final class Message {
+    final List<Span> spans;
+    final int bytes, permits;
+
+    Message(List<Span> spans, int bytes, int permits) {
+      this.spans = spans;
+      this.bytes = bytes;
+      this.permits = permits;
+    }
+  }
+}
@@ -39,6 +39,14 @@ public class CollectorSamplerTest {
         .isEqualTo(sampler.isSampled("7fffffffffffffff", false));
   }
 
+  @Test
+  public void numericTraceIdSameAsHex() {
+    CollectorSampler sampler = CollectorSampler.create(0.1f);
+
+    assertThat(lotsOfSpans().filter(s -> sampler.isSampled(s.traceIdLow(), false)).toArray())
+        .containsExactly(lotsOfSpans().filter(s -> sampler.isSampled(s.traceId(), false)).toArray());
+  }
+
   @Test
   public void debugWins() {
     CollectorSampler sampler = CollectorSampler.create(0.0f);
@@ -13,14 +13,18 @@
  */
 package zipkin2.collector;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
+import zipkin2.Call;
 import zipkin2.Callback;
 import zipkin2.Span;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.storage.StorageComponent;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -54,6 +58,54 @@ public class CollectorTest {
     collector.accept(asList(CLIENT_SPAN), callback);
   }
 
+  @Test
+  public void unsampledSpansArentDecoded() {
+    when(storage.spanConsumer()).thenThrow(new AssertionError());
+    InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+
+    collector =
+        Collector.newBuilder(Collector.class)
+            .sampler(CollectorSampler.create(0.0f))
+            .metrics(metrics)
+            .storage(storage)
+            .build();
+
+    byte[] bytes = SpanBytesEncoder.PROTO3.encodeList(asList(CLIENT_SPAN));
+    collector.acceptSpans(bytes, SpanBytesDecoder.PROTO3, callback);
+
+    verify(callback).onSuccess(null);
+    assertThat(metrics.spans()).isEqualTo(1);
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+    assertThat(metrics.bytesSkipped()).isPositive();
+  }
+
+  @Test
+  public void skipMalformedSpans_keepsOthersInMessage() {
+    List<Span> stored = new ArrayList<>();
+    when(storage.spanConsumer()).thenReturn(spans -> {
+      stored.addAll(spans);
+      return Call.create(null);
+    });
+    InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+
+    collector =
+        Collector.newBuilder(Collector.class)
+            .skipMalformedSpans(true)
+            .metrics(metrics)
+            .storage(storage)
+            .build();
+
+    String json = new String(SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN), UTF_8);
+    byte[] bytes = ("[" + json + ",{\"traceId\":\"zz\",\"id\":\"1\"}]").getBytes(UTF_8);
+    collector.acceptSpans(bytes, SpanBytesDecoder.JSON_V2, callback);
+
+    verify(callback).onSuccess(null);
+    assertThat(stored).containsExactly(CLIENT_SPAN);
+    assertThat(metrics.messagesDropped()).isZero();
+    assertThat(metrics.spans()).isEqualTo(2);
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+  }
+
   @Test
   public void errorDetectingFormat() {
     CollectorMetrics metrics = mock(CollectorMetrics.class);
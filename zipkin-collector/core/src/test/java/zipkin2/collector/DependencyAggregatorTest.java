@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.collector;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.storage.StorageComponent;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.TODAY;
+import static zipkin2.collector.SpanBatcherTest.await;
+
+public class DependencyAggregatorTest {
+  Map<Long, List<DependencyLink>> stored = new ConcurrentHashMap<>();
+  StorageComponent storage = mock(StorageComponent.class);
+  Callback<Void> callback = mock(Callback.class);
+  Collector collector;
+
+  @After public void close() {
+    if (collector != null) collector.close();
+  }
+
+  @Test public void close_linksBufferedTraces() {
+    acceptLinks();
+    collector = newBuilder().dependencyQuietPeriodMillis(10_000L).build();
+
+    collector.accept(asList(CLIENT_SPAN), callback);
+    collector.close();
+
+    assertThat(stored).containsOnlyKeys(TODAY); // the span started in the first minute
+    assertThat(stored.get(TODAY)).containsExactly(
+      DependencyLink.newBuilder().parent("frontend").child("backend").callCount(1L).build()
+    );
+  }
+
+  @Test public void linksQuietTraces() {
+    acceptLinks();
+    collector = newBuilder().dependencyQuietPeriodMillis(10L).build();
+
+    collector.accept(asList(CLIENT_SPAN), callback);
+
+    await(() -> pendingSpans() == 0);
+  }
+
+  @Test public void evictsEldestTraces() {
+    acceptLinks();
+    collector = newBuilder()
+      .dependencyQuietPeriodMillis(10_000L)
+      .dependencyMaxPendingSpans(1)
+      .build();
+
+    Span otherTrace = CLIENT_SPAN.toBuilder().traceId("1").build();
+    collector.accept(asList(CLIENT_SPAN), callback);
+    collector.accept(asList(otherTrace), callback);
+
+    synchronized (collector.aggregator) {
+      assertThat(collector.aggregator.pending).containsOnlyKeys(otherTrace.traceIdLow());
+      assertThat(collector.aggregator.ready).containsExactly(asList(CLIENT_SPAN));
+    }
+  }
+
+  @Test public void ignoresLateSpansOfLinkedTrace() {
+    acceptLinks();
+    collector = newBuilder().dependencyQuietPeriodMillis(10L).build();
+
+    collector.accept(asList(CLIENT_SPAN), callback);
+    await(this::linkedClientTrace);
+
+    // a retransmitted span arrives after its trace was linked
+    collector.accept(asList(CLIENT_SPAN), callback);
+    assertThat(pendingSpans()).isZero();
+    collector.close();
+
+    assertThat(stored.get(TODAY)).containsExactly(
+      DependencyLink.newBuilder().parent("frontend").child("backend").callCount(1L).build()
+    );
+  }
+
+  @Test public void doesntLinkSpansStorageRejected() {
+    acceptLinks();
+    when(storage.spanConsumer()).thenReturn(spans -> {
+      throw new IllegalStateException("over capacity");
+    });
+    collector = newBuilder().dependencyQuietPeriodMillis(10_000L).build();
+
+    collector.accept(asList(CLIENT_SPAN), callback);
+
+    assertThat(pendingSpans()).isZero();
+    collector.close();
+    assertThat(stored).isEmpty();
+  }
+
+  @Test public void storageMustAcceptLinks() {
+    assertThatThrownBy(() -> newBuilder().dependencyQuietPeriodMillis(10L).build())
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessageEndingWith("doesn't accept dependency links");
+  }
+
+  void acceptLinks() {
+    when(storage.spanConsumer()).thenReturn(spans -> Call.create(null));
+    when(storage.dependencyLinkConsumer()).thenReturn((bucket, links) -> {
+      stored.put(bucket, links);
+      return Call.create(null);
+    });
+  }
+
+  boolean linkedClientTrace() {
+    synchronized (collector.aggregator) {
+      return collector.aggregator.linked.containsKey(CLIENT_SPAN.traceIdLow());
+    }
+  }
+
+  int pendingSpans() {
+    synchronized (collector.aggregator) {
+      return collector.aggregator.pendingSpans;
+    }
+  }
+
+  Collector.Builder newBuilder() {
+    return Collector.newBuilder(Collector.class).storage(storage);
+  }
+}
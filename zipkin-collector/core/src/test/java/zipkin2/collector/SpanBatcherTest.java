@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.collector;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.storage.StorageComponent;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+
+public class SpanBatcherTest {
+  List<List<Span>> stored = new CopyOnWriteArrayList<>();
+  StorageComponent storage = mock(StorageComponent.class);
+  InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+  Callback<Void> callback = mock(Callback.class);
+  Collector collector;
+
+  @After public void close() {
+    if (collector != null) collector.close();
+  }
+
+  @Test public void coalescesMessages() {
+    when(storage.spanConsumer()).thenReturn(spans -> {
+      stored.add(spans);
+      return Call.create(null);
+    });
+    collector = newBuilder().batchMaxSpans(3).batchLingerMillis(10_000L).build();
+
+    for (int i = 1; i <= 3; i++) collector.accept(asList(span(i)), callback);
+
+    // the batch is flushed as soon as it is full, despite the long linger
+    await(() -> !stored.isEmpty());
+    assertThat(stored).containsExactly(asList(span(1), span(2), span(3)));
+    await(() -> metrics.batches() == 1);
+    assertThat(metrics.batchedSpans()).isEqualTo(3);
+    assertThat(metrics.queuedSpans()).isZero();
+  }
+
+  @Test public void flushesPartialBatchAfterLinger() {
+    when(storage.spanConsumer()).thenReturn(spans -> {
+      stored.add(spans);
+      return Call.create(null);
+    });
+    collector = newBuilder().batchMaxSpans(100).batchLingerMillis(10L).build();
+
+    collector.accept(asList(span(1), span(2)), callback);
+
+    await(() -> !stored.isEmpty());
+    assertThat(stored).containsExactly(asList(span(1), span(2)));
+  }
+
+  @Test public void dropsWhenQueueFull() throws Exception {
+    CountDownLatch storing = new CountDownLatch(1), unblock = new CountDownLatch(1);
+    when(storage.spanConsumer()).thenReturn(spans -> {
+      storing.countDown();
+      try {
+        unblock.await();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      return Call.create(null);
+    });
+    collector = newBuilder().batchMaxSpans(1).batchQueuedSpans(1).build();
+
+    collector.accept(asList(span(1)), callback);
+    storing.await(); // the span is in flight, so still counts against the queue
+
+    collector.accept(asList(span(2)), callback);
+    unblock.countDown();
+
+    verify(callback).onError(any(RuntimeException.class));
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+  }
+
+  @Test public void close_storesQueuedSpans() {
+    when(storage.spanConsumer()).thenReturn(spans -> {
+      stored.add(spans);
+      return Call.create(null);
+    });
+    collector = newBuilder().batchMaxSpans(100).batchLingerMillis(10_000L).build();
+
+    collector.accept(asList(span(1)), callback);
+    collector.close();
+
+    assertThat(stored).containsExactly(asList(span(1)));
+  }
+
+  /** Each message offered concurrently with close is either stored or counted as dropped */
+  @Test public void close_concurrentWithOffer() throws Exception {
+    when(storage.spanConsumer()).thenReturn(spans -> {
+      stored.add(spans);
+      return Call.create(null);
+    });
+    collector = newBuilder().batchMaxSpans(100).batchLingerMillis(10_000L).build();
+
+    AtomicInteger offered = new AtomicInteger();
+    Thread[] offerers = new Thread[4];
+    for (int i = 0; i < offerers.length; i++) {
+      offerers[i] = new Thread(() -> {
+        AtomicBoolean closed = new AtomicBoolean();
+        while (!closed.get()) {
+          offered.incrementAndGet();
+          collector.accept(asList(span(1)), new Callback<Void>() {
+            @Override public void onSuccess(Void value) {
+            }
+
+            @Override public void onError(Throwable t) {
+              closed.set(true);
+            }
+          });
+        }
+      });
+      offerers[i].start();
+    }
+    await(() -> offered.get() > 1000);
+
+    collector.close();
+    for (Thread offerer : offerers) offerer.join();
+
+    int storedSpans = stored.stream().mapToInt(List::size).sum();
+    assertThat(storedSpans + metrics.spansDropped()).isEqualTo(offered.get());
+  }
+
+  @Test public void close_failsOfferBlockedOnFullQueue() throws Exception {
+    CountDownLatch storing = new CountDownLatch(1), unblock = new CountDownLatch(1);
+    when(storage.spanConsumer()).thenReturn(spans -> {
+      storing.countDown();
+      try {
+        unblock.await();
+      } catch (InterruptedException e) { // close interrupts the flusher
+        Thread.currentThread().interrupt();
+      }
+      return Call.create(null);
+    });
+    collector = newBuilder().batchMaxSpans(1).batchQueuedSpans(1).batchBlockWhenFull(true).build();
+
+    collector.accept(asList(span(1)), callback);
+    storing.await(); // the span is in flight, so the next offer blocks
+
+    Thread blocked = new Thread(() -> collector.accept(asList(span(2)), callback));
+    blocked.start();
+    await(() -> blocked.getState() == Thread.State.TIMED_WAITING);
+
+    Thread closing = new Thread(collector::close);
+    closing.start();
+    blocked.join(); // gives up instead of queueing where nothing reads
+    unblock.countDown();
+    closing.join();
+
+    verify(callback).onError(any(RuntimeException.class));
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+  }
+
+  Collector.Builder newBuilder() {
+    return Collector.newBuilder(Collector.class).storage(storage).metrics(metrics);
+  }
+
+  static Span span(long id) {
+    return CLIENT_SPAN.toBuilder().id(id).build();
+  }
+
+  static void await(BooleanSupplier condition) {
+    long deadline = System.currentTimeMillis() + 5000L;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) throw new AssertionError("timeout");
+      Thread.yield();
+    }
+  }
+}
@@ -116,6 +116,76 @@ public final class KafkaCollector extends CollectorComponent {
       return this;
     }
 
+    /** @see Collector.Builder#skipMalformedSpans(boolean) */
+    public Builder skipMalformedSpans(boolean skipMalformedSpans) {
+      delegate.skipMalformedSpans(skipMalformedSpans);
+      return this;
+    }
+
+    /**
+     * When positive, spans from all streams are stored together in batches of up to this many
+     * spans. Defaults to zero, which stores each message separately.
+     *
+     * @see Collector.Builder#batchMaxSpans(int)
+     */
+    public Builder batchMaxSpans(int batchMaxSpans) {
+      delegate.batchMaxSpans(batchMaxSpans);
+      return this;
+    }
+
+    /** @see Collector.Builder#batchMaxBytes(int) */
+    public Builder batchMaxBytes(int batchMaxBytes) {
+      delegate.batchMaxBytes(batchMaxBytes);
+      return this;
+    }
+
+    /** @see Collector.Builder#batchLingerMillis(long) */
+    public Builder batchLingerMillis(long batchLingerMillis) {
+      delegate.batchLingerMillis(batchLingerMillis);
+      return this;
+    }
+
+    /** @see Collector.Builder#batchQueuedSpans(int) */
+    public Builder batchQueuedSpans(int batchQueuedSpans) {
+      delegate.batchQueuedSpans(batchQueuedSpans);
+      return this;
+    }
+
+    /** @see Collector.Builder#batchFlushThreads(int) */
+    public Builder batchFlushThreads(int batchFlushThreads) {
+      delegate.batchFlushThreads(batchFlushThreads);
+      return this;
+    }
+
+    /**
+     * When batching and the queue is full, true pauses consuming until there is room, instead of
+     * dropping messages.
+     *
+     * @see Collector.Builder#batchBlockWhenFull(boolean)
+     */
+    public Builder batchBlockWhenFull(boolean batchBlockWhenFull) {
+      delegate.batchBlockWhenFull(batchBlockWhenFull);
+      return this;
+    }
+
+    /**
+     * When positive, dependency links are aggregated as spans are consumed. Enable this on every
+     * collector writing to the same storage, as traces received by a collector without it are
+     * hidden by aggregated links in the same time bucket.
+     *
+     * @see Collector.Builder#dependencyQuietPeriodMillis(long)
+     */
+    public Builder dependencyQuietPeriodMillis(long dependencyQuietPeriodMillis) {
+      delegate.dependencyQuietPeriodMillis(dependencyQuietPeriodMillis);
+      return this;
+    }
+
+    /** @see Collector.Builder#dependencyMaxPendingSpans(int) */
+    public Builder dependencyMaxPendingSpans(int dependencyMaxPendingSpans) {
+      delegate.dependencyMaxPendingSpans(dependencyMaxPendingSpans);
+      return this;
+    }
+
     /**
      * By default, a consumer will be built from properties derived from builder defaults, as well
      * as "auto.offset.reset" -> "earliest". Any properties set here will override the consumer
@@ -203,6 +273,7 @@ public final class KafkaCollector extends CollectorComponent {
     final AtomicReference<CheckResult> failure = new AtomicReference<>();
     final CopyOnWriteArrayList<KafkaCollectorWorker> workers = new CopyOnWriteArrayList<>();
     volatile ExecutorService pool;
+    volatile Collector collector; // shared by workers, so batches span partitions
 
     LazyKafkaWorkers(Builder builder) {
       this.streams = builder.streams;
@@ -229,6 +300,7 @@ public final class KafkaCollector extends CollectorComponent {
       } catch (InterruptedException e) {
         // at least we tried
       }
+      collector.close(); // stores any batched spans
     }
 
     ExecutorService compute() {
@@ -237,8 +309,9 @@ public final class KafkaCollector extends CollectorComponent {
               ? Executors.newSingleThreadExecutor()
               : Executors.newFixedThreadPool(streams);
 
+      collector = builder.delegate.build();
       for (int i = 0; i < streams; i++) {
-        KafkaCollectorWorker worker = new KafkaCollectorWorker(builder);
+        KafkaCollectorWorker worker = new KafkaCollectorWorker(builder, collector);
         workers.add(worker);
         pool.execute(guardFailures(worker));
       }
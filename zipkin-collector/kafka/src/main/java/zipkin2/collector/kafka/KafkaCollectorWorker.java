@@ -54,10 +54,10 @@ final class KafkaCollectorWorker implements Runnable {
   final AtomicReference<List<TopicPartition>> assignedPartitions =
       new AtomicReference<>(Collections.emptyList());
 
-  KafkaCollectorWorker(KafkaCollector.Builder builder) {
+  KafkaCollectorWorker(KafkaCollector.Builder builder, Collector collector) {
     properties = builder.properties;
     topics = Arrays.asList(builder.topic.split(","));
-    collector = builder.delegate.build();
+    this.collector = collector;
     metrics = builder.metrics;
   }
 
@@ -108,6 +108,24 @@ public final class KafkaCollector extends CollectorComponent {
       return this;
     }
 
+    /**
+     * When positive, dependency links are aggregated as spans are consumed. Enable this on every
+     * collector writing to the same storage, as traces received by a collector without it are
+     * hidden by aggregated links in the same time bucket.
+     *
+     * @see Collector.Builder#dependencyQuietPeriodMillis(long)
+     */
+    public Builder dependencyQuietPeriodMillis(long dependencyQuietPeriodMillis) {
+      delegate.dependencyQuietPeriodMillis(dependencyQuietPeriodMillis);
+      return this;
+    }
+
+    /** @see Collector.Builder#dependencyMaxPendingSpans(int) */
+    public Builder dependencyMaxPendingSpans(int dependencyMaxPendingSpans) {
+      delegate.dependencyMaxPendingSpans(dependencyMaxPendingSpans);
+      return this;
+    }
+
     /**
      * By default, a consumer will be built from properties derived from builder defaults, as well
      * "auto.offset.reset" -> "smallest". Any properties set here will override the consumer config.
@@ -233,13 +251,15 @@ public final class KafkaCollector extends CollectorComponent {
 
     void close() {
       ExecutorService maybePool = pool;
-      if (maybePool == null) return;
-      maybePool.shutdownNow();
-      try {
-        maybePool.awaitTermination(1, TimeUnit.SECONDS);
-      } catch (InterruptedException e) {
-        // at least we tried
+      if (maybePool != null) {
+        maybePool.shutdownNow();
+        try {
+          maybePool.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          // at least we tried
+        }
       }
+      collector.close(); // built eagerly, and links any traces pending dependency aggregation
     }
 
     ExecutorService compute() {
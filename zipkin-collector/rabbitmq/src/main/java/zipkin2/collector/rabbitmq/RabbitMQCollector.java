@@ -99,6 +99,24 @@ public final class RabbitMQCollector extends CollectorComponent {
       return this;
     }
 
+    /**
+     * When positive, dependency links are aggregated as spans are consumed. Enable this on every
+     * collector writing to the same storage, as traces received by a collector without it are
+     * hidden by aggregated links in the same time bucket.
+     *
+     * @see Collector.Builder#dependencyQuietPeriodMillis(long)
+     */
+    public Builder dependencyQuietPeriodMillis(long dependencyQuietPeriodMillis) {
+      delegate.dependencyQuietPeriodMillis(dependencyQuietPeriodMillis);
+      return this;
+    }
+
+    /** @see Collector.Builder#dependencyMaxPendingSpans(int) */
+    public Builder dependencyMaxPendingSpans(int dependencyMaxPendingSpans) {
+      delegate.dependencyMaxPendingSpans(dependencyMaxPendingSpans);
+      return this;
+    }
+
     @Override
     public RabbitMQCollector build() {
       return new RabbitMQCollector(this);
@@ -140,6 +158,7 @@ public final class RabbitMQCollector extends CollectorComponent {
     final Builder builder;
     final AtomicReference<CheckResult> failure = new AtomicReference<>();
     volatile Connection connection;
+    volatile Collector collector;
 
     LazyInit(Builder builder) {
       this.builder = builder;
@@ -158,7 +177,9 @@ public final class RabbitMQCollector extends CollectorComponent {
 
     void close() throws IOException {
       Connection maybeConnection = connection;
-      if (maybeConnection != null) maybeConnection.close();
+      if (maybeConnection == null) return;
+      maybeConnection.close();
+      collector.close(); // links any traces pending dependency aggregation
     }
 
     Connection compute() {
@@ -172,7 +193,7 @@ public final class RabbitMQCollector extends CollectorComponent {
       } catch (IOException | TimeoutException e) {
         throw new IllegalStateException("Unable to establish connection to RabbitMQ server", e);
       }
-      Collector collector = builder.delegate.build();
+      Collector collector = this.collector = builder.delegate.build();
       CollectorMetrics metrics = builder.metrics;
 
       for (int i = 0; i < builder.concurrency; i++) {
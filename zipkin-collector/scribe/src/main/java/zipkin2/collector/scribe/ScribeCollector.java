@@ -79,16 +79,35 @@ public final class ScribeCollector extends CollectorComponent {
       return this;
     }
 
+    /**
+     * When positive, dependency links are aggregated as spans are consumed. Enable this on every
+     * collector writing to the same storage, as traces received by a collector without it are
+     * hidden by aggregated links in the same time bucket.
+     *
+     * @see Collector.Builder#dependencyQuietPeriodMillis(long)
+     */
+    public Builder dependencyQuietPeriodMillis(long dependencyQuietPeriodMillis) {
+      delegate.dependencyQuietPeriodMillis(dependencyQuietPeriodMillis);
+      return this;
+    }
+
+    /** @see Collector.Builder#dependencyMaxPendingSpans(int) */
+    public Builder dependencyMaxPendingSpans(int dependencyMaxPendingSpans) {
+      delegate.dependencyMaxPendingSpans(dependencyMaxPendingSpans);
+      return this;
+    }
+
     @Override
     public ScribeCollector build() {
       return new ScribeCollector(this);
     }
   }
 
+  final ScribeSpanConsumer scribe;
   final ThriftServer server;
 
   ScribeCollector(Builder builder) {
-    ScribeSpanConsumer scribe = new ScribeSpanConsumer(builder);
+    scribe = new ScribeSpanConsumer(builder);
     ThriftServiceProcessor processor =
         new ThriftServiceProcessor(new ThriftCodecManager(), emptyList(), scribe);
     server = new ThriftServer(processor, new ThriftServerConfig().setPort(builder.port));
@@ -114,5 +133,6 @@ public final class ScribeCollector extends CollectorComponent {
   @Override
   public void close() {
     server.close();
+    scribe.collector.close(); // links any traces pending dependency aggregation
   }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import zipkin2.storage.cassandra.CassandraStorage;
+
+/**
+ * Exports Cassandra trace ID index queries to the "/metrics" endpoint:
+ *
+ * <pre>
+ * <ul>
+ *     <li>summary.zipkin_storage.cassandra.partitions_read - partitions a query read from a
+ * bucketed index, newest first, before it had enough trace IDs</li>
+ * </ul>
+ * </pre>
+ */
+final class ActuateCassandraQueryMetrics implements CassandraStorage.QueryMetrics {
+  final DistributionSummary partitionsRead;
+
+  ActuateCassandraQueryMetrics(MeterRegistry registry) {
+    this.partitionsRead =
+        DistributionSummary.builder("zipkin_storage.cassandra.partitions_read")
+            .description("partitions a query read from a bucketed index of trace IDs")
+            .baseUnit("partitions")
+            .register(registry);
+  }
+
+  @Override
+  public void recordPartitionsRead(int partitions) {
+    partitionsRead.record(partitions);
+  }
+}
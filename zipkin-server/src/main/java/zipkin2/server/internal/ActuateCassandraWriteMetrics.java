@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import zipkin2.storage.cassandra.CassandraStorage;
+
+/**
+ * Exports Cassandra write admission to the "/metrics" endpoint:
+ *
+ * <pre>
+ * <ul>
+ *     <li>gauge.zipkin_storage.cassandra.writes_in_flight - write statements sent, but not yet
+ * complete</li>
+ *     <li>gauge.zipkin_storage.cassandra.writes_queued - write statements waiting to be sent</li>
+ *     <li>counter.zipkin_storage.cassandra.writes_rejected - cumulative write statements rejected
+ * as over capacity</li>
+ *     <li>timer.zipkin_storage.cassandra.write_latency - time to complete a message of write
+ * statements</li>
+ * </ul>
+ * </pre>
+ */
+final class ActuateCassandraWriteMetrics implements CassandraStorage.WriteMetrics {
+  final AtomicInteger inFlight = new AtomicInteger(), queued = new AtomicInteger();
+  final Counter rejected;
+  final Timer latency;
+
+  ActuateCassandraWriteMetrics(MeterRegistry registry) {
+    Gauge.builder("zipkin_storage.cassandra.writes_in_flight", inFlight, AtomicInteger::get)
+        .description("count of write statements sent, but not yet complete")
+        .register(registry);
+    Gauge.builder("zipkin_storage.cassandra.writes_queued", queued, AtomicInteger::get)
+        .description("count of write statements waiting to be sent")
+        .register(registry);
+    this.rejected =
+        Counter.builder("zipkin_storage.cassandra.writes_rejected")
+            .description("cumulative amount of write statements rejected as over capacity")
+            .register(registry);
+    this.latency =
+        Timer.builder("zipkin_storage.cassandra.write_latency")
+            .description("time to complete a message of write statements")
+            .register(registry);
+  }
+
+  @Override
+  public void updateWrites(int inFlight, int queued) {
+    this.inFlight.set(inFlight);
+    this.queued.set(queued);
+  }
+
+  @Override
+  public void incrementRejected(int statements) {
+    rejected.increment(statements);
+  }
+
+  @Override
+  public void recordLatency(long nanos) {
+    latency.record(nanos, TimeUnit.NANOSECONDS);
+  }
+}
@@ -14,8 +14,11 @@
 package zipkin2.server.internal;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.internal.Nullable;
@@ -34,8 +37,14 @@ import zipkin2.internal.Nullable;
  * messages reported by instrumented apps</li>
  *     <li>counter.zipkin_collector.spans_dropped.$transport - cumulative spans dropped; reasons
  * include sampling or storage failures</li>
+ *     <li>counter.zipkin_collector.bytes_skipped.$transport - cumulative bytes of spans dropped by
+ * sampling without being decoded</li>
  *     <li>gauge.zipkin_collector.message_spans.$transport - last count of spans in a message</li>
  *     <li>gauge.zipkin_collector.message_bytes.$transport - last count of bytes in a message</li>
+ *     <li>gauge.zipkin_collector.queued_spans.$transport - spans waiting to be stored, when
+ * batching</li>
+ *     <li>distribution.zipkin_collector.batch_spans.$transport - count of spans per batch</li>
+ *     <li>timer.zipkin_collector.batch_latency.$transport - time to store a batch</li>
  * </ul>
  * </pre>
  *
@@ -46,8 +55,10 @@ import zipkin2.internal.Nullable;
 public final class ActuateCollectorMetrics implements CollectorMetrics {
 
   final MeterRegistry registryInstance;
-  final Counter messages, messagesDropped, bytes, spans, spansDropped;
-  final AtomicInteger messageBytes, messageSpans;
+  final Counter messages, messagesDropped, bytes, spans, spansDropped, bytesSkipped;
+  final AtomicInteger messageBytes, messageSpans, queuedSpans;
+  final DistributionSummary batchSpans;
+  final Timer batchLatency;
 
   public ActuateCollectorMetrics(MeterRegistry registry) {
     this(null, registry);
@@ -56,8 +67,10 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
   ActuateCollectorMetrics(@Nullable String transport, MeterRegistry meterRegistry) {
     this.registryInstance = meterRegistry;
     if (transport == null) {
-      messages = messagesDropped = bytes = spans = spansDropped = null;
-      messageBytes = messageSpans = null;
+      messages = messagesDropped = bytes = spans = spansDropped = bytesSkipped = null;
+      messageBytes = messageSpans = queuedSpans = null;
+      batchSpans = null;
+      batchLatency = null;
       return;
     }
     this.messages =
@@ -87,6 +100,12 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
             .description("cumulative amount of spans received that were later dropped")
             .tag("transport", transport)
             .register(registryInstance);
+    this.bytesSkipped =
+        Counter.builder("zipkin_collector.bytes_skipped")
+            .description("cumulative amount of bytes of spans dropped by sampling, undecoded")
+            .tag("transport", transport)
+            .baseUnit("bytes")
+            .register(registryInstance);
 
     this.messageSpans = new AtomicInteger(0);
     Gauge.builder("zipkin_collector.message_spans", messageSpans, AtomicInteger::get)
@@ -99,6 +118,22 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
         .tag("transport", transport)
         .baseUnit("bytes")
         .register(registryInstance);
+
+    this.queuedSpans = new AtomicInteger(0);
+    Gauge.builder("zipkin_collector.queued_spans", queuedSpans, AtomicInteger::get)
+        .description("count of spans waiting to be stored, when batching")
+        .tag("transport", transport)
+        .register(registryInstance);
+    this.batchSpans =
+        DistributionSummary.builder("zipkin_collector.batch_spans")
+            .description("count of spans per batch sent to storage")
+            .tag("transport", transport)
+            .register(registryInstance);
+    this.batchLatency =
+        Timer.builder("zipkin_collector.batch_latency")
+            .description("time to store a batch of spans")
+            .tag("transport", transport)
+            .register(registryInstance);
   }
 
   @Override
@@ -139,6 +174,25 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
     spansDropped.increment(quantity);
   }
 
+  @Override
+  public void incrementBytesSkipped(int quantity) {
+    checkScoped();
+    bytesSkipped.increment(quantity);
+  }
+
+  @Override
+  public void updateQueuedSpans(int quantity) {
+    checkScoped();
+    queuedSpans.set(quantity);
+  }
+
+  @Override
+  public void recordBatch(int quantity, long durationNanos) {
+    checkScoped();
+    batchSpans.record(quantity);
+    batchLatency.record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
   void checkScoped() {
     if (messages == null)
       throw new IllegalStateException("always scope with ActuateCollectorMetrics.forTransport");
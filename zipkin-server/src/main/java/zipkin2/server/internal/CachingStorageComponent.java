@@ -0,0 +1,423 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.storage.DependencyLinkConsumer;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Caches query results in front of a storage component, so that repeated queries, such as UI
+ * refreshes of service names or a popular trace, don't each hit the backend.
+ *
+ * <p>Concurrent identical queries share one storage call. The cache is bounded by the count of
+ * spans and names it holds, evicting the least recently used results first. Empty results aren't
+ * cached as data may still be arriving. Traces whose last span finished long ago are unlikely to
+ * change, so they are cached longer than recent ones.
+ *
+ * <p>This exports the following metrics:
+ *
+ * <pre>
+ * <ul>
+ *     <li>counter.zipkin_query.cache_hits.$query - results served from the cache</li>
+ *     <li>counter.zipkin_query.cache_misses.$query - results read from storage</li>
+ *     <li>gauge.zipkin_query.cache_weight - spans and names in the cache</li>
+ * </ul>
+ * </pre>
+ */
+final class CachingStorageComponent extends StorageComponent {
+  final StorageComponent delegate;
+  final long maxWeight;
+  final long namesTtlNanos, tracesTtlNanos, traceTtlNanos, completedTraceTtlNanos;
+  final long completedTraceAgeMicros;
+  final Counter[] hits = new Counter[Query.values().length];
+  final Counter[] misses = new Counter[Query.values().length];
+
+  // guarded by this
+  final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true /* LRU */);
+  long weight;
+
+  CachingStorageComponent(
+      StorageComponent delegate,
+      long maxWeight,
+      long namesTtlMillis,
+      long tracesTtlMillis,
+      long traceTtlMillis,
+      long completedTraceTtlMillis,
+      long completedTraceAgeMillis,
+      MeterRegistry registry) {
+    this.delegate = delegate;
+    this.maxWeight = maxWeight;
+    this.namesTtlNanos = TimeUnit.MILLISECONDS.toNanos(namesTtlMillis);
+    this.tracesTtlNanos = TimeUnit.MILLISECONDS.toNanos(tracesTtlMillis);
+    this.traceTtlNanos = TimeUnit.MILLISECONDS.toNanos(traceTtlMillis);
+    this.completedTraceTtlNanos = TimeUnit.MILLISECONDS.toNanos(completedTraceTtlMillis);
+    this.completedTraceAgeMicros = TimeUnit.MILLISECONDS.toMicros(completedTraceAgeMillis);
+    for (Query query : Query.values()) {
+      hits[query.ordinal()] =
+          Counter.builder("zipkin_query.cache_hits")
+              .description("cumulative query results served from the cache")
+              .tag("query", query.tag)
+              .register(registry);
+      misses[query.ordinal()] =
+          Counter.builder("zipkin_query.cache_misses")
+              .description("cumulative query results read from storage")
+              .tag("query", query.tag)
+              .register(registry);
+    }
+    Gauge.builder("zipkin_query.cache_weight", this, CachingStorageComponent::currentWeight)
+        .description("spans and names in the query cache")
+        .register(registry);
+  }
+
+  @Override
+  public SpanStore spanStore() {
+    return new CachingSpanStore(delegate.spanStore());
+  }
+
+  @Override
+  public SpanConsumer spanConsumer() {
+    return delegate.spanConsumer();
+  }
+
+  @Override
+  public DependencyLinkConsumer dependencyLinkConsumer() {
+    return delegate.dependencyLinkConsumer();
+  }
+
+  @Override
+  public CheckResult check() {
+    return delegate.check();
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+
+  @Override
+  public String toString() {
+    return "Caching(" + delegate + ")";
+  }
+
+  synchronized double currentWeight() {
+    return weight;
+  }
+
+  enum Query {
+    SERVICE_NAMES("get-service-names"),
+    SPAN_NAMES("get-span-names"),
+    TRACES("get-traces"),
+    TRACE("get-trace");
+
+    final String tag;
+
+    Query(String tag) {
+      this.tag = tag;
+    }
+  }
+
+  final class CachingSpanStore implements SpanStore {
+    final SpanStore delegate;
+
+    CachingSpanStore(SpanStore delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Call<List<List<Span>>> getTraces(QueryRequest request) {
+      return new CachedCall<>(new Key(Query.TRACES, request), delegate.getTraces(request));
+    }
+
+    @Override
+    public Call<List<Span>> getTrace(String traceId) {
+      // normalize so that the same trace in different case or padding shares an entry
+      Key key = new Key(Query.TRACE, Span.normalizeTraceId(traceId));
+      return new CachedCall<>(key, delegate.getTrace(traceId));
+    }
+
+    @Override
+    public Call<List<String>> getServiceNames() {
+      return new CachedCall<>(new Key(Query.SERVICE_NAMES, ""), delegate.getServiceNames());
+    }
+
+    @Override
+    public Call<List<String>> getSpanNames(String serviceName) {
+      return new CachedCall<>(
+          new Key(Query.SPAN_NAMES, serviceName), delegate.getSpanNames(serviceName));
+    }
+
+    @Override
+    public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+      return delegate.getDependencies(endTs, lookback); // links are already aggregated
+    }
+  }
+
+  static final class Key {
+    final Query query;
+    final Object input;
+
+    Key(Query query, Object input) {
+      this.query = query;
+      this.input = input;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof Key)) return false;
+      Key that = (Key) o;
+      return query == that.query && input.equals(that.input);
+    }
+
+    @Override
+    public int hashCode() {
+      return query.hashCode() * 31 + input.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return query.tag + "(" + input + ")";
+    }
+  }
+
+  static final class Entry {
+    final CompletableFuture<Object> result = new CompletableFuture<>();
+    boolean loaded; // guarded by the cache
+    long expiresAt; // System.nanoTime
+    int weight;
+  }
+
+  /**
+   * Returns a cached or in-flight entry for the key, or the new entry if there was none. When the
+   * new entry is returned, the caller must load it.
+   */
+  synchronized Entry lookup(Key key, Entry newEntry, long now) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      if (!entry.loaded || now - entry.expiresAt < 0) return entry;
+      remove(key);
+    }
+    entries.put(key, newEntry);
+    return newEntry;
+  }
+
+  /**
+   * Returns the value shared with other callers, wrapped so that no caller can modify it.
+   *
+   * @param value the result of a storage call, which is a list of names, spans or traces
+   */
+  Object loaded(Key key, Entry entry, Object value) {
+    value = unmodifiable(key.query, value);
+    long now = System.nanoTime();
+    long ttlNanos = ttlNanos(key.query, value);
+    synchronized (this) {
+      if (entries.get(key) == entry) { // otherwise, evicted while loading
+        if (ttlNanos <= 0L) {
+          entries.remove(key);
+        } else {
+          entry.loaded = true;
+          entry.expiresAt = now + ttlNanos;
+          entry.weight = weigh(value);
+          weight += entry.weight;
+          evict();
+        }
+      }
+    }
+    entry.result.complete(value);
+    return value;
+  }
+
+  static Object unmodifiable(Query query, Object value) {
+    if (value == null) return null;
+    List<?> list = (List<?>) value;
+    if (query == Query.TRACES) {
+      List<List<?>> traces = new ArrayList<>(list.size());
+      for (Object trace : list) traces.add(Collections.unmodifiableList((List<?>) trace));
+      return Collections.unmodifiableList(traces);
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+  void failed(Key key, Entry entry, Throwable error) {
+    synchronized (this) {
+      if (entries.get(key) == entry) entries.remove(key);
+    }
+    entry.result.completeExceptionally(error);
+  }
+
+  void remove(Key key) {
+    Entry entry = entries.remove(key);
+    if (entry != null && entry.loaded) weight -= entry.weight;
+  }
+
+  /** Evicts least recently used results until within the max weight. */
+  void evict() {
+    Iterator<Map.Entry<Key, Entry>> i = entries.entrySet().iterator();
+    while (weight > maxWeight && i.hasNext()) {
+      Entry entry = i.next().getValue();
+      if (!entry.loaded) continue; // in-flight calls aren't counted
+      i.remove();
+      weight -= entry.weight;
+    }
+  }
+
+  long ttlNanos(Query query, Object value) {
+    if (value == null || ((List<?>) value).isEmpty()) return 0L;
+    switch (query) {
+      case SERVICE_NAMES:
+      case SPAN_NAMES:
+        return namesTtlNanos;
+      case TRACES:
+        return tracesTtlNanos;
+      case TRACE:
+        long completedBefore = System.currentTimeMillis() * 1000L - completedTraceAgeMicros;
+        boolean completed = finishedMicros((List<Span>) value) < completedBefore;
+        return completed ? completedTraceTtlNanos : traceTtlNanos;
+      default:
+        throw new AssertionError("unknown query " + query);
+    }
+  }
+
+  /** Returns the count of spans or names in the result. */
+  static int weigh(Object value) {
+    int weight = 0;
+    for (Object element : (List<?>) value) {
+      weight += element instanceof List ? ((List<?>) element).size() : 1;
+    }
+    return weight;
+  }
+
+  /** Returns when the last span finished or {@link Long#MAX_VALUE} if unknown. */
+  static long finishedMicros(List<Span> trace) {
+    long result = 0L;
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      Span span = trace.get(i);
+      long timestamp = span.timestampAsLong();
+      if (timestamp == 0L) continue;
+      result = Math.max(result, timestamp + span.durationAsLong());
+    }
+    return result == 0L ? Long.MAX_VALUE : result;
+  }
+
+  final class CachedCall<V> extends Call.Base<V> {
+    final Key key;
+    final Call<V> delegate;
+
+    CachedCall(Key key, Call<V> delegate) {
+      this.key = key;
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected V doExecute() throws IOException {
+      Entry entry = new Entry(), found = lookup(key, entry, System.nanoTime());
+      if (found != entry) {
+        hits[key.query.ordinal()].increment();
+        return await(found);
+      }
+      misses[key.query.ordinal()].increment();
+      V value;
+      try {
+        value = delegate.execute();
+      } catch (IOException | RuntimeException | Error e) {
+        failed(key, entry, e);
+        throw e;
+      }
+      return (V) loaded(key, entry, value);
+    }
+
+    @Override
+    protected void doEnqueue(Callback<V> callback) {
+      Entry entry = new Entry(), found = lookup(key, entry, System.nanoTime());
+      if (found != entry) {
+        hits[key.query.ordinal()].increment();
+        found.result.whenComplete(
+            (value, error) -> {
+              if (error != null) {
+                callback.onError(error);
+              } else {
+                callback.onSuccess((V) value);
+              }
+            });
+        return;
+      }
+      misses[key.query.ordinal()].increment();
+      delegate.enqueue(
+          new Callback<V>() {
+            @Override
+            public void onSuccess(V value) {
+              callback.onSuccess((V) loaded(key, entry, value));
+            }
+
+            @Override
+            public void onError(Throwable t) {
+              failed(key, entry, t);
+              callback.onError(t);
+            }
+          });
+    }
+
+    @Override
+    protected void doCancel() {
+      delegate.cancel();
+    }
+
+    @Override
+    public Call<V> clone() {
+      return new CachedCall<>(key, delegate.clone());
+    }
+
+    @Override
+    public String toString() {
+      return "Cached(" + delegate + ")";
+    }
+  }
+
+  static <V> V await(Entry entry) throws IOException {
+    try {
+      return (V) entry.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted waiting for " + entry);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new IllegalStateException(cause);
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates gzip content incrementally as chunks of a request body arrive, so that the compressed
+ * body is never buffered in full. Like {@link java.util.zip.GZIPInputStream}, this supports
+ * concatenated members.
+ *
+ * <p>Output is inflated into fixed-size chunks shared between requests, so only the result is
+ * allocated per request: the decompressed size isn't known until the end, and growing one array
+ * would copy it on each doubling. The decompressed size is limited, so that a small request can't
+ * exhaust the heap.
+ */
+final class StreamingGunzip {
+  static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+  static final int MAX_HEADER_SIZE = 64 * 1024;
+  static final int CHUNK_SIZE = 64 * 1024;
+  /** Retains up to 4MiB of idle chunks; more are garbage collected when released. */
+  static final BlockingQueue<byte[]> CHUNK_POOL = new ArrayBlockingQueue<>(64);
+
+  /** Thrown when the decompressed size would exceed {@link #maxBytes} */
+  static final class TooLargeException extends IOException {
+    TooLargeException(int maxBytes) {
+      super("Decompressed size exceeds " + maxBytes + " bytes");
+    }
+  }
+
+  enum State {
+    HEADER,
+    BODY,
+    TRAILER
+  }
+
+  final Inflater inflater = new Inflater(true);
+  final CRC32 crc = new CRC32();
+  final int maxBytes;
+  State state = State.HEADER;
+  /** Header or trailer bytes that arrived before the rest of the header or trailer */
+  byte[] pending = new byte[0];
+  /** Filled chunks of output, the last of which is {@link #current} */
+  final List<byte[]> chunks = new ArrayList<>();
+  byte[] current;
+  int currentLength, outLength, memberStart, members;
+
+  StreamingGunzip(int maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  void write(byte[] chunk, int offset, int length) throws IOException {
+    int end = offset + length;
+    while (offset < end) {
+      switch (state) {
+        case HEADER:
+          offset = readHeader(chunk, offset, end);
+          break;
+        case BODY:
+          offset = inflate(chunk, offset, end);
+          break;
+        case TRAILER:
+          offset = readTrailer(chunk, offset, end);
+          break;
+      }
+    }
+  }
+
+  /** Returns the decompressed content, after checking the last gzip member is complete. */
+  byte[] finish() throws IOException {
+    try {
+      if (members == 0 || state != State.HEADER || pending.length != 0) {
+        throw new EOFException("Truncated gzip input");
+      }
+      byte[] result = new byte[outLength];
+      for (int i = 0, pos = 0; i < chunks.size(); i++) {
+        int length = Math.min(CHUNK_SIZE, outLength - pos);
+        System.arraycopy(chunks.get(i), 0, result, pos, length);
+        pos += length;
+      }
+      return result;
+    } finally {
+      close();
+    }
+  }
+
+  /** Releases native memory held by the inflater, and returns chunks to the pool. */
+  void close() {
+    inflater.end();
+    for (int i = 0; i < chunks.size(); i++) CHUNK_POOL.offer(chunks.get(i));
+    chunks.clear();
+    current = null;
+  }
+
+  int readHeader(byte[] chunk, int offset, int end) throws IOException {
+    int consumed;
+    if (pending.length == 0) { // usually, the header is in the first chunk
+      int headerLength = headerLength(chunk, offset, end);
+      if (headerLength == -1) {
+        pending = append(pending, chunk, offset, end);
+        return end;
+      }
+      consumed = headerLength;
+    } else {
+      byte[] header = append(pending, chunk, offset, end);
+      int headerLength = headerLength(header, 0, header.length);
+      if (headerLength == -1) {
+        if (header.length > MAX_HEADER_SIZE) throw new ZipException("gzip header too large");
+        pending = header;
+        return end;
+      }
+      consumed = headerLength - pending.length;
+      pending = new byte[0];
+    }
+    inflater.reset();
+    crc.reset();
+    memberStart = outLength;
+    state = State.BODY;
+    return offset + consumed;
+  }
+
+  int inflate(byte[] chunk, int offset, int end) throws IOException {
+    inflater.setInput(chunk, offset, end - offset);
+    try {
+      while (!inflater.finished()) {
+        int inflated;
+        if (outLength == maxBytes) {
+          // output may end exactly at the limit, so only fail if inflating yields more
+          if (inflater.inflate(new byte[1]) != 0) throw new TooLargeException(maxBytes);
+          inflated = 0;
+        } else {
+          if (current == null || currentLength == CHUNK_SIZE) nextChunk();
+          int length = Math.min(CHUNK_SIZE - currentLength, maxBytes - outLength);
+          inflated = inflater.inflate(current, currentLength, length);
+        }
+        if (inflated == 0) {
+          if (inflater.needsInput()) return end;
+          if (inflater.needsDictionary()) throw new ZipException("gzip requires a dictionary");
+        }
+        if (inflated == 0) continue;
+        crc.update(current, currentLength, inflated);
+        currentLength += inflated;
+        outLength += inflated;
+      }
+    } catch (DataFormatException e) {
+      throw new ZipException("Malformed gzip: " + e.getMessage());
+    }
+    state = State.TRAILER;
+    return end - inflater.getRemaining();
+  }
+
+  int readTrailer(byte[] chunk, int offset, int end) throws IOException {
+    int needed = 8 - pending.length;
+    if (end - offset < needed) {
+      pending = append(pending, chunk, offset, end);
+      return end;
+    }
+    byte[] trailer = append(pending, chunk, offset, offset + needed);
+    pending = new byte[0];
+    if (readIntLE(trailer, 0) != (int) crc.getValue()) throw new ZipException("Corrupt gzip CRC");
+    if (readIntLE(trailer, 4) != outLength - memberStart) {
+      throw new ZipException("Corrupt gzip length");
+    }
+    members++;
+    state = State.HEADER; // in case there's another member
+    return offset + needed;
+  }
+
+  void nextChunk() {
+    current = CHUNK_POOL.poll();
+    if (current == null) current = new byte[CHUNK_SIZE];
+    currentLength = 0;
+    chunks.add(current);
+  }
+
+  /** Returns the length of the header starting at offset, or -1 if more bytes are needed. */
+  static int headerLength(byte[] buf, int offset, int end) throws ZipException {
+    if (end - offset < 10) return -1;
+    if ((buf[offset] & 0xff) != 0x1f || (buf[offset + 1] & 0xff) != 0x8b) {
+      throw new ZipException("Not in gzip format");
+    }
+    if (buf[offset + 2] != 8) throw new ZipException("Unsupported gzip compression method");
+    int flags = buf[offset + 3] & 0xff, pos = offset + 10;
+    if ((flags & FEXTRA) != 0) {
+      if (end < pos + 2) return -1;
+      pos += 2 + ((buf[pos] & 0xff) | (buf[pos + 1] & 0xff) << 8);
+    }
+    if ((flags & FNAME) != 0 && (pos = skipZeroTerminated(buf, pos, end)) == -1) return -1;
+    if ((flags & FCOMMENT) != 0 && (pos = skipZeroTerminated(buf, pos, end)) == -1) return -1;
+    if ((flags & FHCRC) != 0) pos += 2;
+    return pos <= end ? pos - offset : -1;
+  }
+
+  static int skipZeroTerminated(byte[] buf, int pos, int end) {
+    for (int i = pos; i < end; i++) {
+      if (buf[i] == 0) return i + 1;
+    }
+    return -1;
+  }
+
+  static int readIntLE(byte[] bytes, int pos) {
+    return (bytes[pos] & 0xff)
+        | (bytes[pos + 1] & 0xff) << 8
+        | (bytes[pos + 2] & 0xff) << 16
+        | (bytes[pos + 3] & 0xff) << 24;
+  }
+
+  static byte[] append(byte[] pending, byte[] chunk, int offset, int end) {
+    byte[] result = Arrays.copyOf(pending, pending.length + end - offset);
+    System.arraycopy(chunk, offset, result, pending.length, end - offset);
+    return result;
+  }
+}
@@ -18,11 +18,10 @@ import io.undertow.server.HandlerWrapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.HttpString;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
+import javax.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Configuration;
 import zipkin2.Callback;
@@ -47,18 +46,42 @@ class ZipkinHttpCollector implements HttpHandler, HandlerWrapper {
   final Collector collector;
   final HttpCollector JSON_V2, PROTO3, JSON_V1, THRIFT;
   final Receiver.ErrorCallback errorCallback;
+  final int maxDecompressedBytes;
   private HttpHandler next;
 
   @Autowired
   ZipkinHttpCollector(
-      StorageComponent storage, CollectorSampler sampler, CollectorMetrics metrics) {
+      StorageComponent storage,
+      CollectorSampler sampler,
+      CollectorMetrics metrics,
+      @Value("${zipkin.collector.http.batch.max-spans:0}") int batchMaxSpans,
+      @Value("${zipkin.collector.http.batch.max-bytes:0}") int batchMaxBytes,
+      @Value("${zipkin.collector.http.batch.linger-millis:100}") long batchLingerMillis,
+      @Value("${zipkin.collector.http.batch.queued-spans:10000}") int batchQueuedSpans,
+      @Value("${zipkin.collector.http.batch.flush-threads:1}") int batchFlushThreads,
+      @Value("${zipkin.collector.http.batch.block-when-full:false}") boolean batchBlockWhenFull,
+      @Value("${zipkin.collector.http.dependencies.quiet-period-millis:0}")
+          long dependencyQuietPeriodMillis,
+      @Value("${zipkin.collector.http.dependencies.max-pending-spans:100000}")
+          int dependencyMaxPendingSpans,
+      @Value("${zipkin.collector.http.max-decompressed-bytes:33554432}")
+          int maxDecompressedBytes) {
     this.metrics = metrics.forTransport("http");
-    this.collector =
+    this.maxDecompressedBytes = maxDecompressedBytes;
+    Collector.Builder builder =
         Collector.newBuilder(getClass())
             .storage(storage)
             .sampler(sampler)
             .metrics(this.metrics)
-            .build();
+            .batchMaxSpans(batchMaxSpans)
+            .batchLingerMillis(batchLingerMillis)
+            .batchQueuedSpans(batchQueuedSpans)
+            .batchFlushThreads(batchFlushThreads)
+            .batchBlockWhenFull(batchBlockWhenFull)
+            .dependencyQuietPeriodMillis(dependencyQuietPeriodMillis)
+            .dependencyMaxPendingSpans(dependencyMaxPendingSpans);
+    if (batchMaxBytes > 0) builder.batchMaxBytes(batchMaxBytes); // zero is unbounded
+    this.collector = builder.build();
     this.JSON_V2 = new HttpCollector(SpanBytesDecoder.JSON_V2);
     this.PROTO3 = new HttpCollector(SpanBytesDecoder.PROTO3);
     this.JSON_V1 = new HttpCollector(SpanBytesDecoder.JSON_V1);
@@ -73,6 +96,11 @@ class ZipkinHttpCollector implements HttpHandler, HandlerWrapper {
         };
   }
 
+  @PreDestroy
+  void close() {
+    collector.close();
+  }
+
   @Override
   public void handleRequest(HttpServerExchange exchange) throws Exception {
     boolean v2 = exchange.getRelativePath().equals("/api/v2/spans");
@@ -101,7 +129,13 @@ class ZipkinHttpCollector implements HttpHandler, HandlerWrapper {
 
     HttpCollector collector = v2 ? (json ? JSON_V2 : PROTO3) : thrift ? THRIFT : JSON_V1;
     metrics.incrementMessages();
-    exchange.getRequestReceiver().receiveFullBytes(collector, errorCallback);
+    String encoding = exchange.getRequestHeaders().getFirst(CONTENT_ENCODING);
+    if (encoding != null && encoding.contains("gzip")) {
+      GunzipCallback gunzip = new GunzipCallback(collector);
+      exchange.getRequestReceiver().receivePartialBytes(gunzip, gunzip);
+    } else {
+      exchange.getRequestReceiver().receiveFullBytes(collector, errorCallback);
+    }
   }
 
   @Override
@@ -119,20 +153,6 @@ class ZipkinHttpCollector implements HttpHandler, HandlerWrapper {
 
     @Override
     public void handle(HttpServerExchange exchange, byte[] body) {
-      String encoding = exchange.getRequestHeaders().getFirst(CONTENT_ENCODING);
-
-      if (encoding != null && encoding.contains("gzip")) {
-        try {
-          body = gunzip(body);
-        } catch (IOException e) {
-          metrics.incrementMessagesDropped();
-          exchange
-              .setStatusCode(400)
-              .getResponseSender()
-              .send("Cannot gunzip spans: " + e.getMessage() + "\n");
-          return;
-        }
-      }
       collector.acceptSpans(
           body,
           decoder,
@@ -150,31 +170,53 @@ class ZipkinHttpCollector implements HttpHandler, HandlerWrapper {
     }
   }
 
+  /**
+   * Inflates each chunk of the request body as it arrives, instead of buffering the compressed
+   * body, then inflating it into another buffer.
+   */
+  final class GunzipCallback implements Receiver.PartialBytesCallback, Receiver.ErrorCallback {
+    final HttpCollector collector;
+    final StreamingGunzip gunzip;
+    boolean failed;
+
+    GunzipCallback(HttpCollector collector) {
+      this.collector = collector;
+      this.gunzip = new StreamingGunzip(maxDecompressedBytes);
+    }
+
+    @Override
+    public void handle(HttpServerExchange exchange, byte[] chunk, boolean last) {
+      if (failed) return; // already responded with an error
+      byte[] body;
+      try {
+        gunzip.write(chunk, 0, chunk.length);
+        if (!last) return;
+        body = gunzip.finish();
+      } catch (IOException e) {
+        failed = true;
+        gunzip.close();
+        metrics.incrementMessagesDropped();
+        int code = e instanceof StreamingGunzip.TooLargeException ? 413 : 400;
+        exchange
+            .setStatusCode(code)
+            .getResponseSender()
+            .send("Cannot gunzip spans: " + e.getMessage() + "\n");
+        return;
+      }
+      collector.handle(exchange, body);
+    }
+
+    @Override
+    public void error(HttpServerExchange exchange, IOException e) {
+      gunzip.close();
+      errorCallback.error(exchange, e);
+    }
+  }
+
   static void error(HttpServerExchange exchange, Throwable e) {
     String message = e.getMessage();
     int code = message == null || message.startsWith("Cannot store") ? 500 : 400;
     if (message == null) message = e.getClass().getSimpleName();
     exchange.setStatusCode(code).getResponseSender().send(message);
   }
-
-  // TODO: there's gotta be an N/IO way to gunzip
-  private static final ThreadLocal<byte[]> GZIP_BUFFER =
-      new ThreadLocal<byte[]>() {
-        @Override
-        protected byte[] initialValue() {
-          return new byte[1024];
-        }
-      };
-
-  static byte[] gunzip(byte[] input) throws IOException {
-    GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(input));
-    try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream(input.length)) {
-      byte[] buf = GZIP_BUFFER.get();
-      int len;
-      while ((len = in.read(buf)) > 0) {
-        outputStream.write(buf, 0, len);
-      }
-      return outputStream.toByteArray();
-    }
-  }
 }
@@ -14,38 +14,47 @@
 package zipkin2.server.internal;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.context.request.WebRequest;
 import zipkin2.Call;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
 import zipkin2.codec.DependencyLinkBytesEncoder;
+import zipkin2.codec.Encoding;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.internal.Nullable;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.StorageComponent;
 
+import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
 @RestController
 @RequestMapping("/api/v2")
 @ConditionalOnProperty(name = "zipkin.query.enabled", matchIfMissing = true)
 public class ZipkinQueryApiV2 {
-  static final Charset UTF_8 = Charset.forName("UTF-8");
+  /** Size of buffer used to write trace responses. Larger spans are written directly. */
+  static final int CHUNK_SIZE = 8192;
+  static final String APPLICATION_PROTOBUF_VALUE = "application/x-protobuf";
+  static final MediaType APPLICATION_PROTOBUF =
+      MediaType.parseMediaType(APPLICATION_PROTOBUF_VALUE);
 
   final String storageType;
   final StorageComponent storage; // don't cache spanStore here as it can cause the app to crash!
@@ -93,8 +102,15 @@ public class ZipkinQueryApiV2 {
     return maybeCacheNames(storage.spanStore().getSpanNames(serviceName).execute());
   }
 
-  @RequestMapping(value = "/traces", method = RequestMethod.GET, produces = APPLICATION_JSON_VALUE)
-  public String getTraces(
+  /**
+   * Returns a JSON list of traces, or with {@code Accept: application/x-protobuf}, each trace as a
+   * length-delimited ListOfSpans message.
+   */
+  @RequestMapping(
+      value = "/traces",
+      method = RequestMethod.GET,
+      produces = {APPLICATION_JSON_VALUE, APPLICATION_PROTOBUF_VALUE})
+  public void getTraces(
       @Nullable @RequestParam(value = "serviceName", required = false) String serviceName,
       @Nullable @RequestParam(value = "spanName", required = false) String spanName,
       @Nullable @RequestParam(value = "annotationQuery", required = false) String annotationQuery,
@@ -102,7 +118,9 @@ public class ZipkinQueryApiV2 {
       @Nullable @RequestParam(value = "maxDuration", required = false) Long maxDuration,
       @Nullable @RequestParam(value = "endTs", required = false) Long endTs,
       @Nullable @RequestParam(value = "lookback", required = false) Long lookback,
-      @RequestParam(value = "limit", defaultValue = "10") int limit)
+      @RequestParam(value = "limit", defaultValue = "10") int limit,
+      @Nullable @RequestHeader(value = "Accept", required = false) String accept,
+      HttpServletResponse response)
       throws IOException {
     QueryRequest queryRequest =
         QueryRequest.newBuilder()
@@ -117,17 +135,28 @@ public class ZipkinQueryApiV2 {
             .build();
 
     List<List<Span>> traces = storage.spanStore().getTraces(queryRequest).execute();
-    return new String(writeTraces(SpanBytesEncoder.JSON_V2, traces), UTF_8);
+    SpanBytesEncoder codec = negotiate(accept, response);
+    ChunkedWriter writer = new ChunkedWriter(codec, response.getOutputStream());
+    writer.writeTraces(traces);
+    writer.flush();
   }
 
+  /** Returns a JSON list of spans, or with {@code Accept: application/x-protobuf}, ListOfSpans. */
   @RequestMapping(
       value = "/trace/{traceIdHex}",
       method = RequestMethod.GET,
-      produces = APPLICATION_JSON_VALUE)
-  public String getTrace(@PathVariable String traceIdHex, WebRequest request) throws IOException {
+      produces = {APPLICATION_JSON_VALUE, APPLICATION_PROTOBUF_VALUE})
+  public void getTrace(
+      @PathVariable String traceIdHex,
+      @Nullable @RequestHeader(value = "Accept", required = false) String accept,
+      HttpServletResponse response)
+      throws IOException {
     List<Span> trace = storage.spanStore().getTrace(traceIdHex).execute();
     if (trace.isEmpty()) throw new TraceNotFoundException(traceIdHex);
-    return new String(SpanBytesEncoder.JSON_V2.encodeList(trace), UTF_8);
+    SpanBytesEncoder codec = negotiate(accept, response);
+    ChunkedWriter writer = new ChunkedWriter(codec, response.getOutputStream());
+    writer.writeTrace(trace);
+    writer.flush();
   }
 
   @ExceptionHandler(TraceNotFoundException.class)
@@ -140,6 +169,25 @@ public class ZipkinQueryApiV2 {
     }
   }
 
+  /** Returns proto3 when the client prefers it to json, setting the response content type. */
+  static SpanBytesEncoder negotiate(@Nullable String accept, HttpServletResponse response) {
+    SpanBytesEncoder codec = SpanBytesEncoder.JSON_V2;
+    if (accept != null && accept.contains(APPLICATION_PROTOBUF_VALUE)) {
+      List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+      MediaType.sortBySpecificityAndQuality(mediaTypes);
+      for (MediaType mediaType : mediaTypes) {
+        if (mediaType.isCompatibleWith(APPLICATION_JSON)) break; // includes wildcards
+        if (mediaType.isCompatibleWith(APPLICATION_PROTOBUF)) {
+          codec = SpanBytesEncoder.PROTO3;
+          break;
+        }
+      }
+    }
+    response.setContentType(
+        codec == SpanBytesEncoder.PROTO3 ? APPLICATION_PROTOBUF_VALUE : APPLICATION_JSON_VALUE);
+    return codec;
+  }
+
   /**
    * We cache names if there are more than 3 services. This helps people getting started: if we
    * cache empty results, users have more questions. We assume caching becomes a concern when zipkin
@@ -153,31 +201,105 @@ public class ZipkinQueryApiV2 {
     return response.body(names);
   }
 
+  /**
+   * Writes traces span by span through a reused buffer, so that a large response isn't first
+   * encoded into one array. Compression, when enabled, happens in the servlet container.
+   */
   // This is inlined here as there isn't enough re-use to warrant it being in the zipkin2 library
-  static byte[] writeTraces(SpanBytesEncoder codec, List<List<zipkin2.Span>> traces) {
-    // Get the encoded size of the nested list so that we don't need to grow the buffer
-    int length = traces.size();
-    int sizeInBytes = 2; // []
-    if (length > 1) sizeInBytes += length - 1; // comma to join elements
-
-    for (int i = 0; i < length; i++) {
-      List<zipkin2.Span> spans = traces.get(i);
-      int jLength = spans.size();
-      sizeInBytes += 2; // []
-      if (jLength > 1) sizeInBytes += jLength - 1; // comma to join elements
-      for (int j = 0; j < jLength; j++) {
-        sizeInBytes += codec.sizeInBytes(spans.get(j));
+  static final class ChunkedWriter {
+    /** Buffers are per request thread, as servlet threads are pooled. */
+    static final ThreadLocal<byte[]> CHUNK = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    final SpanBytesEncoder codec;
+    final boolean proto3;
+    final OutputStream out;
+    final byte[] chunk = CHUNK.get();
+    int pos;
+
+    ChunkedWriter(SpanBytesEncoder codec, OutputStream out) {
+      this.codec = codec;
+      this.proto3 = codec.encoding() == Encoding.PROTO3;
+      this.out = out;
+    }
+
+    /**
+     * Writes a json list of traces. In proto3, there's no list type, so each trace is prefixed
+     * with its size, like a length-delimited field.
+     */
+    void writeTraces(List<List<Span>> traces) throws IOException {
+      if (!proto3) writeByte('['); // start list of traces
+      for (int i = 0, length = traces.size(); i < length; i++) {
+        List<Span> trace = traces.get(i);
+        if (proto3) {
+          writeVarint(sizeInBytes(trace));
+        } else if (i > 0) {
+          writeByte(',');
+        }
+        writeTrace(trace);
       }
+      if (!proto3) writeByte(']'); // stop list of traces
+    }
+
+    void writeTrace(List<Span> spans) throws IOException {
+      int length = spans.size();
+      if (!proto3 && length == 0) writeByte('[');
+      for (int i = 0; i < length; i++) {
+        writeSpan(spans.get(i), i == 0 ? '[' : ',');
+      }
+      if (!proto3) writeByte(']');
+    }
+
+    /** In json, writes the span preceded by the separator, which is either '[' or ','. */
+    void writeSpan(Span span, char separator) throws IOException {
+      // proto3 spans are already list elements, while json needs the separator
+      int sizeInBytes = codec.sizeInBytes(span) + (proto3 ? 0 : 2);
+      if (sizeInBytes > chunk.length - pos) flushChunk();
+      if (sizeInBytes > chunk.length) { // too big to buffer
+        if (!proto3) out.write(separator);
+        out.write(codec.encode(span)); // in proto3, this includes the list field's key
+        return;
+      }
+      int written = codec.encodeList(Collections.singletonList(span), chunk, pos);
+      if (proto3) {
+        pos += written;
+        return;
+      }
+      // Encoding as a list avoids allocating an array for the span: the list's leading '['
+      // occupies the separator's position, and the trailing ']' is overwritten by what follows.
+      chunk[pos] = (byte) separator;
+      pos += written - 1;
+    }
+
+    int sizeInBytes(List<Span> spans) {
+      int sizeInBytes = 0;
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        sizeInBytes += codec.sizeInBytes(spans.get(i));
+      }
+      return sizeInBytes;
+    }
+
+    void writeVarint(int v) throws IOException {
+      while ((v & ~0x7f) != 0) {
+        writeByte((char) ((v & 0x7f) | 0x80));
+        v >>>= 7;
+      }
+      writeByte((char) v);
+    }
+
+    void writeByte(char b) throws IOException {
+      if (pos == chunk.length) flushChunk();
+      chunk[pos++] = (byte) b;
+    }
+
+    void flushChunk() throws IOException {
+      if (pos == 0) return;
+      out.write(chunk, 0, pos);
+      pos = 0;
     }
 
-    byte[] out = new byte[sizeInBytes];
-    int pos = 0;
-    out[pos++] = '['; // start list of traces
-    for (int i = 0; i < length; i++) {
-      pos += codec.encodeList(traces.get(i), out, pos);
-      if (i + 1 < length) out[pos++] = ',';
+    void flush() throws IOException {
+      flushChunk();
+      out.flush();
     }
-    out[pos] = ']'; // stop list of traces
-    return out;
   }
 }
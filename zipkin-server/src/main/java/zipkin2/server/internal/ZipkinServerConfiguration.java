@@ -16,13 +16,16 @@ package zipkin2.server.internal;
 import brave.Tracing;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.config.MeterFilter;
+import java.util.concurrent.ForkJoinPool;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.actuate.autoconfigure.metrics.MeterRegistryCustomizer;
 import org.springframework.boot.actuate.health.HealthAggregator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.embedded.undertow.UndertowDeploymentInfoCustomizer;
 import org.springframework.boot.web.embedded.undertow.UndertowServletWebServerFactory;
 import org.springframework.context.annotation.Bean;
@@ -38,6 +41,7 @@ import zipkin2.collector.CollectorSampler;
 import zipkin2.server.internal.brave.TracingStorageComponent;
 import zipkin2.storage.InMemoryStorage;
 import zipkin2.storage.StorageComponent;
+import zipkin2.storage.cassandra.CassandraStorage;
 
 @Configuration
 public class ZipkinServerConfiguration implements WebMvcConfigurer {
@@ -95,6 +99,26 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
     return new ActuateCollectorMetrics(registry);
   }
 
+  /**
+   * Exports write admission and index reads of the "cassandra3" storage type, when it is in the
+   * classpath.
+   */
+  @Configuration
+  @ConditionalOnClass(name = "zipkin2.storage.cassandra.CassandraStorage")
+  static class CassandraWriteMetricsConfiguration {
+    @Bean
+    @ConditionalOnMissingBean(CassandraStorage.WriteMetrics.class)
+    CassandraStorage.WriteMetrics cassandraWriteMetrics(MeterRegistry registry) {
+      return new ActuateCassandraWriteMetrics(registry);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(CassandraStorage.QueryMetrics.class)
+    CassandraStorage.QueryMetrics cassandraQueryMetrics(MeterRegistry registry) {
+      return new ActuateCassandraQueryMetrics(registry);
+    }
+  }
+
   @Bean
   public MeterRegistryCustomizer meterRegistryCustomizer() {
     return registry ->
@@ -135,6 +159,52 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
     }
   }
 
+  @Configuration
+  @ConditionalOnProperty(name = "zipkin.query.cache.enabled", havingValue = "true")
+  static class CachingStorageComponentEnhancer implements BeanPostProcessor {
+
+    @Autowired MeterRegistry registry;
+
+    @Value("${zipkin.query.cache.max-spans:100000}")
+    long maxSpans;
+
+    @Value("${zipkin.query.cache.names-ttl:60000}")
+    long namesTtl;
+
+    @Value("${zipkin.query.cache.traces-ttl:10000}")
+    long tracesTtl;
+
+    @Value("${zipkin.query.cache.trace-ttl:10000}")
+    long traceTtl;
+
+    @Value("${zipkin.query.cache.completed-trace-ttl:3600000}")
+    long completedTraceTtl;
+
+    @Value("${zipkin.query.cache.completed-trace-age:600000}")
+    long completedTraceAge;
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+      return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+      if (bean instanceof StorageComponent) {
+        return new CachingStorageComponent(
+            (StorageComponent) bean,
+            maxSpans,
+            namesTtl,
+            tracesTtl,
+            traceTtl,
+            completedTraceTtl,
+            completedTraceAge,
+            registry);
+      }
+      return bean;
+    }
+  }
+
   /**
    * This is a special-case configuration if there's no StorageComponent of any kind. In-Mem can
    * supply both read apis, so we add two beans here.
@@ -147,12 +217,19 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
     StorageComponent storage(
         @Value("${zipkin.storage.strict-trace-id:true}") boolean strictTraceId,
         @Value("${zipkin.storage.search-enabled:true}") boolean searchEnabled,
-        @Value("${zipkin.storage.mem.max-spans:500000}") int maxSpans) {
-      return InMemoryStorage.newBuilder()
+        @Value("${zipkin.storage.mem.max-spans:500000}") int maxSpans,
+        @Value("${zipkin.storage.mem.max-span-bytes:0}") long maxSpanBytes) {
+      InMemoryStorage.Builder builder = InMemoryStorage.newBuilder()
           .strictTraceId(strictTraceId)
           .searchEnabled(searchEnabled)
-          .maxSpanCount(maxSpans)
-          .build();
+          .dependencyLinkerExecutor(ForkJoinPool.commonPool());
+      // When bounded by bytes, spans are off-heap, so max-spans isn't a useful default
+      if (maxSpanBytes > 0) {
+        builder.maxSpanBytes(maxSpanBytes);
+      } else {
+        builder.maxSpanCount(maxSpans);
+      }
+      return builder.build();
     }
   }
 
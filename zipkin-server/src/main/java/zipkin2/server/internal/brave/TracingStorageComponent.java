@@ -20,6 +20,7 @@ import java.util.List;
 import zipkin2.Call;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
+import zipkin2.storage.DependencyLinkConsumer;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.SpanStore;
@@ -46,6 +47,11 @@ public final class TracingStorageComponent extends StorageComponent {
     return delegate.spanConsumer();
   }
 
+  @Override
+  public DependencyLinkConsumer dependencyLinkConsumer() {
+    return delegate.dependencyLinkConsumer();
+  }
+
   @Override
   public void close() throws IOException {
     delegate.close();
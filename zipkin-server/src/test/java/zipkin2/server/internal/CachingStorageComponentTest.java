@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.QueryRequest;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.SpanStore;
+import zipkin2.storage.StorageComponent;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static zipkin2.TestObjects.FRONTEND;
+
+public class CachingStorageComponentTest {
+  static final long HOUR_AGO_MICROS =
+      TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+
+  InMemoryStorage storage = InMemoryStorage.newBuilder().build();
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  CachingStorageComponent cache = newCache(1000L, 0L);
+
+  Span span1 =
+      Span.newBuilder()
+          .traceId("1")
+          .id("1")
+          .name("get")
+          .localEndpoint(FRONTEND)
+          .timestamp(HOUR_AGO_MICROS)
+          .duration(10L)
+          .build();
+  Span span2 = span1.toBuilder().id("2").parentId("1").build();
+
+  @Test
+  public void getTrace_cachesCompletedTrace() throws IOException {
+    storage.accept(asList(span1)).execute();
+    assertThat(cache.spanStore().getTrace("1").execute()).containsExactly(span1);
+
+    storage.accept(asList(span2)).execute();
+    assertThat(cache.spanStore().getTrace("1").execute()).containsExactly(span1);
+
+    assertThat(registry.get("zipkin_query.cache_hits").tag("query", "get-trace").counter().count())
+        .isEqualTo(1.0);
+    assertThat(registry.get("zipkin_query.cache_weight").gauge().value()).isEqualTo(1.0);
+  }
+
+  @Test
+  public void getTrace_expiresRecentTrace() throws IOException {
+    Span recent = span1.toBuilder().timestamp(System.currentTimeMillis() * 1000L).build();
+    storage.accept(asList(recent)).execute();
+    assertThat(cache.spanStore().getTrace("1").execute()).containsExactly(recent);
+
+    storage.accept(asList(span2)).execute();
+    assertThat(cache.spanStore().getTrace("1").execute()).hasSize(2);
+  }
+
+  @Test
+  public void doesntCacheEmptyResults() throws IOException {
+    assertThat(cache.spanStore().getTrace("1").execute()).isEmpty();
+
+    storage.accept(asList(span1)).execute();
+    assertThat(cache.spanStore().getTrace("1").execute()).containsExactly(span1);
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() throws IOException {
+    cache = newCache(2L, TimeUnit.HOURS.toMillis(1));
+    Span trace2 = span1.toBuilder().traceId("2").build();
+    storage.accept(asList(span1, span2, trace2)).execute();
+
+    cache.spanStore().getTrace("1").execute(); // 2 spans
+    cache.spanStore().getServiceNames().execute(); // 1 name, evicting the trace
+    assertThat(cache.entries).hasSize(1);
+
+    cache.spanStore().getTrace("2").execute(); // 1 span
+    assertThat(cache.entries).hasSize(2);
+    assertThat(cache.currentWeight()).isEqualTo(2.0);
+  }
+
+  @Test
+  public void namesAreCached() throws IOException {
+    cache = newCache(1000L, TimeUnit.HOURS.toMillis(1));
+    storage.accept(asList(span1)).execute();
+    assertThat(cache.spanStore().getSpanNames("frontend").execute()).containsExactly("get");
+
+    storage.accept(asList(span1.toBuilder().id("3").name("post").build())).execute();
+    assertThat(cache.spanStore().getSpanNames("frontend").execute()).containsExactly("get");
+  }
+
+  @Test
+  public void getTrace_sharesCallBetweenConcurrentQueries() {
+    AtomicInteger storageCalls = new AtomicInteger();
+    List<Callback<List<Span>>> pending = new ArrayList<>();
+    SpanStore spanStore = new SpanStore() {
+      @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override public Call<List<Span>> getTrace(String traceId) {
+        return new Call.Base<List<Span>>() {
+          @Override protected List<Span> doExecute() {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override protected void doEnqueue(Callback<List<Span>> callback) {
+            storageCalls.incrementAndGet();
+            pending.add(callback);
+          }
+
+          @Override public Call<List<Span>> clone() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override public Call<List<String>> getServiceNames() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override public Call<List<String>> getSpanNames(String serviceName) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    cache = newCache(new StorageComponent() {
+      @Override public SpanStore spanStore() {
+        return spanStore;
+      }
+
+      @Override public SpanConsumer spanConsumer() {
+        return storage.spanConsumer();
+      }
+    }, 0L);
+
+    List<Object> results = new ArrayList<>();
+    Callback<List<Span>> callback = new Callback<List<Span>>() {
+      @Override public void onSuccess(List<Span> value) {
+        results.add(value);
+      }
+
+      @Override public void onError(Throwable t) {
+        results.add(t);
+      }
+    };
+    cache.spanStore().getTrace("1").enqueue(callback);
+    cache.spanStore().getTrace("1").enqueue(callback); // while the first is in flight
+
+    assertThat(storageCalls).hasValue(1);
+    pending.get(0).onSuccess(asList(span1));
+    assertThat(results).containsExactly(asList(span1), asList(span1));
+  }
+
+  @Test
+  public void getTrace_normalizesTraceId() throws IOException {
+    storage.accept(asList(span1)).execute();
+    cache.spanStore().getTrace("1").execute();
+
+    assertThat(cache.spanStore().getTrace("0000000000000001").execute()).containsExactly(span1);
+    assertThat(registry.get("zipkin_query.cache_hits").tag("query", "get-trace").counter().count())
+        .isEqualTo(1.0);
+  }
+
+  @Test
+  public void cachedResultsAreUnmodifiable() throws IOException {
+    storage.accept(asList(span1)).execute();
+    List<Span> trace = cache.spanStore().getTrace("1").execute();
+
+    try {
+      trace.clear();
+      failBecauseExceptionWasNotThrown(UnsupportedOperationException.class);
+    } catch (UnsupportedOperationException expected) {
+    }
+    assertThat(cache.spanStore().getTrace("1").execute()).containsExactly(span1);
+  }
+
+  CachingStorageComponent newCache(long maxSpans, long namesTtl) {
+    return newCache(storage, maxSpans, namesTtl);
+  }
+
+  CachingStorageComponent newCache(StorageComponent storage, long namesTtl) {
+    return newCache(storage, 1000L, namesTtl);
+  }
+
+  CachingStorageComponent newCache(StorageComponent storage, long maxSpans, long namesTtl) {
+    return new CachingStorageComponent(
+        storage,
+        maxSpans,
+        namesTtl,
+        0L, // don't cache searches
+        0L, // don't cache recent traces
+        TimeUnit.HOURS.toMillis(1),
+        TimeUnit.MINUTES.toMillis(10),
+        registry);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.server.internal.ZipkinQueryApiV2.ChunkedWriter;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.TRACE;
+import static zipkin2.server.internal.ZipkinQueryApiV2.CHUNK_SIZE;
+
+public class ChunkedWriterTest {
+  ByteArrayOutputStream out = new ByteArrayOutputStream();
+  ChunkedWriter writer = new ChunkedWriter(SpanBytesEncoder.JSON_V2, out);
+
+  @Test
+  public void writeTrace_spanExactlyFillsChunk() throws IOException {
+    // '[' and ']' surround the only span
+    Span span = spanOfSize(CHUNK_SIZE - 2);
+
+    writer.writeTrace(asList(span));
+    assertThat(out.size()).isZero(); // the chunk is full, but not yet flushed
+
+    writer.flush();
+    assertThat(out.toByteArray())
+        .hasSize(CHUNK_SIZE)
+        .containsExactly(SpanBytesEncoder.JSON_V2.encodeList(asList(span)));
+  }
+
+  @Test
+  public void writeTrace_spanLargerThanChunk() throws IOException {
+    List<Span> trace = asList(CLIENT_SPAN, spanOfSize(CHUNK_SIZE * 2), CLIENT_SPAN);
+
+    writer.writeTrace(trace);
+    writer.flush();
+
+    assertThat(out.toByteArray()).containsExactly(SpanBytesEncoder.JSON_V2.encodeList(trace));
+  }
+
+  /** Each span's trailing ']' must be overwritten by the next separator, including across chunks */
+  @Test
+  public void writeTrace_overwritesSeparators() throws IOException {
+    List<Span> trace = new ArrayList<>();
+    for (int i = 0; i < 100; i++) trace.add(CLIENT_SPAN.toBuilder().id(i + 1).build());
+
+    writer.writeTrace(trace);
+    writer.flush();
+
+    assertThat(out.toByteArray()).containsExactly(SpanBytesEncoder.JSON_V2.encodeList(trace));
+  }
+
+  @Test
+  public void writeTrace_empty() throws IOException {
+    writer.writeTrace(Collections.emptyList());
+    writer.flush();
+
+    assertThat(out.toString("UTF-8")).isEqualTo("[]");
+  }
+
+  @Test
+  public void writeTraces() throws IOException {
+    List<List<Span>> traces =
+        asList(TRACE, Collections.emptyList(), asList(spanOfSize(CHUNK_SIZE * 2)), TRACE);
+
+    writer.writeTraces(traces);
+    writer.flush();
+
+    assertThat(out.toString("UTF-8")).isEqualTo(encodeTraces(traces));
+  }
+
+  @Test
+  public void writeTraces_empty() throws IOException {
+    writer.writeTraces(Collections.emptyList());
+    writer.flush();
+
+    assertThat(out.toString("UTF-8")).isEqualTo("[]");
+  }
+
+  /** Returns a span whose JSON encoding is exactly the given size. */
+  static Span spanOfSize(int sizeInBytes) {
+    Span span = CLIENT_SPAN.toBuilder().putTag("pad", "").build();
+    int padding = sizeInBytes - SpanBytesEncoder.JSON_V2.sizeInBytes(span);
+    char[] pad = new char[padding];
+    Arrays.fill(pad, 'a');
+    span = span.toBuilder().putTag("pad", new String(pad)).build();
+    assertThat(SpanBytesEncoder.JSON_V2.sizeInBytes(span)).isEqualTo(sizeInBytes);
+    return span;
+  }
+
+  static String encodeTraces(List<List<Span>> traces) throws IOException {
+    StringBuilder result = new StringBuilder("[");
+    for (int i = 0; i < traces.size(); i++) {
+      if (i > 0) result.append(',');
+      result.append(new String(SpanBytesEncoder.JSON_V2.encodeList(traces.get(i)), "UTF-8"));
+    }
+    return result.append(']').toString();
+  }
+}
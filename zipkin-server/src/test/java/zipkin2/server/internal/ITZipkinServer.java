@@ -34,6 +34,7 @@ import zipkin.server.ZipkinServer;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.TestObjects;
+import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.storage.InMemoryStorage;
 
@@ -82,6 +83,35 @@ public class ITZipkinServer {
       .containsExactly(message);
   }
 
+  @Test public void getTrace_proto3() throws Exception {
+    storage.spanConsumer().accept(TRACE).execute();
+
+    Response response = client.newCall(new Request.Builder()
+      .url("http://localhost:" + zipkinPort + "/api/v2/trace/" + TRACE.get(0).traceId())
+      .header("Accept", "application/x-protobuf")
+      .build()).execute();
+
+    assertThat(response.header("Content-Type")).startsWith("application/x-protobuf");
+    assertThat(SpanBytesDecoder.PROTO3.decodeList(response.body().bytes()))
+      .isEqualTo(TRACE);
+  }
+
+  @Test public void getTraces_proto3IsLengthDelimited() throws Exception {
+    storage.spanConsumer().accept(TRACE).execute();
+
+    Response response = client.newCall(new Request.Builder()
+      .url("http://localhost:" + zipkinPort + "/api/v2/traces")
+      .header("Accept", "application/x-protobuf, application/json;q=0.5")
+      .build()).execute();
+
+    byte[] trace = SpanBytesEncoder.PROTO3.encodeList(TRACE);
+    Buffer expected = new Buffer();
+    int length = trace.length; // varint length prefix
+    for (; (length & ~0x7f) != 0; length >>>= 7) expected.writeByte((length & 0x7f) | 0x80);
+    expected.writeByte(length).write(trace);
+    assertThat(response.body().bytes()).containsExactly(expected.readByteArray());
+  }
+
   @Test public void tracesQueryRequiresNoParameters() throws Exception {
     byte[] message = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
     post("/api/v2/spans", message);
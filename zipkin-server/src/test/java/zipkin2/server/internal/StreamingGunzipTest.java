@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import org.junit.Test;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.TRACE;
+
+public class StreamingGunzipTest {
+  byte[] message = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+
+  @Test public void singleChunk() throws IOException {
+    byte[] gzipped = gzip(message);
+
+    StreamingGunzip gunzip = new StreamingGunzip(1024 * 1024);
+    gunzip.write(gzipped, 0, gzipped.length);
+
+    assertThat(gunzip.finish()).isEqualTo(message);
+  }
+
+  /** Ensures headers and trailers split across chunks are reassembled */
+  @Test public void oneByteChunks() throws IOException {
+    byte[] gzipped = gzip(message);
+
+    StreamingGunzip gunzip = new StreamingGunzip(1024 * 1024);
+    for (int i = 0; i < gzipped.length; i++) gunzip.write(gzipped, i, 1);
+
+    assertThat(gunzip.finish()).isEqualTo(message);
+  }
+
+  @Test public void concatenatedMembers() throws IOException {
+    byte[] gzipped = gzip(message);
+    byte[] twice = new byte[gzipped.length * 2];
+    System.arraycopy(gzipped, 0, twice, 0, gzipped.length);
+    System.arraycopy(gzipped, 0, twice, gzipped.length, gzipped.length);
+
+    StreamingGunzip gunzip = new StreamingGunzip(1024 * 1024);
+    gunzip.write(twice, 0, twice.length);
+
+    byte[] expected = new byte[message.length * 2];
+    System.arraycopy(message, 0, expected, 0, message.length);
+    System.arraycopy(message, 0, expected, message.length, message.length);
+    assertThat(gunzip.finish()).isEqualTo(expected);
+  }
+
+  @Test public void spansChunks() throws IOException {
+    byte[] large = new byte[StreamingGunzip.CHUNK_SIZE * 2 + 1];
+    new Random(0L).nextBytes(large);
+    byte[] gzipped = gzip(large);
+
+    StreamingGunzip gunzip = new StreamingGunzip(large.length);
+    for (int i = 0; i < gzipped.length; i += 1000) {
+      gunzip.write(gzipped, i, Math.min(1000, gzipped.length - i));
+    }
+
+    assertThat(gunzip.finish()).isEqualTo(large);
+  }
+
+  @Test public void finish_returnsChunksToPool() throws IOException {
+    StreamingGunzip.CHUNK_POOL.clear();
+    byte[] gzipped = gzip(new byte[StreamingGunzip.CHUNK_SIZE + 1]);
+
+    StreamingGunzip gunzip = new StreamingGunzip(1024 * 1024);
+    gunzip.write(gzipped, 0, gzipped.length);
+    gunzip.finish();
+
+    assertThat(StreamingGunzip.CHUNK_POOL).hasSize(2);
+    assertThat(gunzip.chunks).isEmpty();
+  }
+
+  @Test public void tooLarge() throws IOException {
+    byte[] gzipped = gzip(new byte[1024 * 1024]); // compresses very well
+
+    StreamingGunzip gunzip = new StreamingGunzip(1024);
+    assertThatThrownBy(() -> gunzip.write(gzipped, 0, gzipped.length))
+      .isInstanceOf(StreamingGunzip.TooLargeException.class)
+      .hasMessage("Decompressed size exceeds 1024 bytes");
+  }
+
+  @Test public void exactlyMaxBytes() throws IOException {
+    byte[] gzipped = gzip(message);
+
+    StreamingGunzip gunzip = new StreamingGunzip(message.length);
+    for (int i = 0; i < gzipped.length; i++) gunzip.write(gzipped, i, 1);
+
+    assertThat(gunzip.finish()).isEqualTo(message);
+  }
+
+  @Test public void oneByteOverMaxBytes() throws IOException {
+    byte[] gzipped = gzip(message);
+
+    StreamingGunzip gunzip = new StreamingGunzip(message.length - 1);
+    assertThatThrownBy(() -> gunzip.write(gzipped, 0, gzipped.length))
+      .isInstanceOf(StreamingGunzip.TooLargeException.class);
+  }
+
+  @Test public void truncated() throws IOException {
+    byte[] gzipped = gzip(message);
+
+    StreamingGunzip gunzip = new StreamingGunzip(1024 * 1024);
+    gunzip.write(gzipped, 0, gzipped.length - 1);
+
+    assertThatThrownBy(gunzip::finish).isInstanceOf(EOFException.class);
+  }
+
+  @Test public void notGzip() {
+    byte[] json = message;
+
+    StreamingGunzip gunzip = new StreamingGunzip(1024 * 1024);
+    assertThatThrownBy(() -> gunzip.write(json, 0, json.length))
+      .isInstanceOf(ZipException.class)
+      .hasMessage("Not in gzip format");
+  }
+
+  @Test public void corruptCrc() throws IOException {
+    byte[] gzipped = gzip(message);
+    gzipped[gzipped.length - 8]++;
+
+    StreamingGunzip gunzip = new StreamingGunzip(1024 * 1024);
+    assertThatThrownBy(() -> gunzip.write(gzipped, 0, gzipped.length))
+      .isInstanceOf(ZipException.class)
+      .hasMessage("Corrupt gzip CRC");
+  }
+
+  static byte[] gzip(byte[] input) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(input);
+    }
+    return out.toByteArray();
+  }
+}
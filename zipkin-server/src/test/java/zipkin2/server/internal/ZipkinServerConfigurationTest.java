@@ -14,6 +14,7 @@
 package zipkin2.server.internal;
 
 import brave.Tracing;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.prometheus.PrometheusConfig;
 import io.micrometer.prometheus.PrometheusMeterRegistry;
@@ -29,6 +30,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import zipkin2.server.internal.brave.TracingConfiguration;
 import zipkin2.storage.StorageComponent;
+import zipkin2.storage.cassandra.CassandraStorage;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
@@ -123,6 +125,54 @@ public class ZipkinServerConfigurationTest {
       .containsExactly(false);
   }
 
+  @Test public void queryCache_canEnable() {
+    TestPropertyValues.of("zipkin.query.cache.enabled:true").applyTo(context);
+    context.register(
+      PropertyPlaceholderAutoConfiguration.class,
+      ZipkinServerConfigurationTest.Config.class,
+      ZipkinServerConfiguration.class
+    );
+    context.refresh();
+
+    assertThat(context.getBean(StorageComponent.class))
+      .isInstanceOf(CachingStorageComponent.class);
+  }
+
+  @Test public void cassandraWriteMetrics_exportedToMeterRegistry() {
+    context.register(
+      PropertyPlaceholderAutoConfiguration.class,
+      ZipkinServerConfigurationTest.Config.class,
+      ZipkinServerConfiguration.class
+    );
+    context.refresh();
+
+    context.getBean(CassandraStorage.WriteMetrics.class).updateWrites(3, 4);
+
+    MeterRegistry registry = context.getBean(MeterRegistry.class);
+    assertThat(registry.get("zipkin_storage.cassandra.writes_in_flight").gauge().value())
+      .isEqualTo(3.0);
+    assertThat(registry.get("zipkin_storage.cassandra.writes_queued").gauge().value())
+      .isEqualTo(4.0);
+  }
+
+  @Test public void cassandraQueryMetrics_exportedToMeterRegistry() {
+    context.register(
+      PropertyPlaceholderAutoConfiguration.class,
+      ZipkinServerConfigurationTest.Config.class,
+      ZipkinServerConfiguration.class
+    );
+    context.refresh();
+
+    context.getBean(CassandraStorage.QueryMetrics.class).recordPartitionsRead(8);
+    context.getBean(CassandraStorage.QueryMetrics.class).recordPartitionsRead(16);
+
+    DistributionSummary partitionsRead =
+      context.getBean(MeterRegistry.class).get("zipkin_storage.cassandra.partitions_read")
+        .summary();
+    assertThat(partitionsRead.count()).isEqualTo(2L);
+    assertThat(partitionsRead.totalAmount()).isEqualTo(24.0);
+  }
+
   @Configuration
   public static class Config {
     @Bean
@@ -34,12 +34,17 @@ import static zipkin2.storage.cassandra.CassandraUtil.durationIndexBucket;
 class CassandraSpanConsumer implements SpanConsumer { // not final for testing
   private static final long WRITTEN_NAMES_TTL =
       Long.getLong("zipkin2.storage.cassandra.internal.writtenNamesTtl", 60 * 60 * 1000);
+  // Keeps batches under the default batch_size_warn_threshold_in_kb of 5KiB for typical spans
+  private static final int MAX_BATCH_SIZE =
+      Integer.getInteger("zipkin2.storage.cassandra.internal.maxBatchSize", 10);
 
   private final Session session;
   private final boolean strictTraceId, searchEnabled;
   private final InsertSpan.Factory insertSpan;
   @Nullable final InsertTraceByServiceSpan.Factory insertTraceByServiceSpan;
+  @Nullable final InsertTraceByBucket.Factory insertTraceByBucket;
   @Nullable private final InsertServiceSpan.Factory insertServiceSpanName;
+  @Nullable final WriteAdmission writeAdmission;
 
   CassandraSpanConsumer(CassandraStorage storage) {
     session = storage.session();
@@ -47,21 +52,34 @@ class CassandraSpanConsumer implements SpanConsumer { // not final for testing
     searchEnabled = storage.searchEnabled();
 
     // warns when schema problems exist
-    Schema.readMetadata(session);
+    Schema.Metadata metadata = Schema.readMetadata(session);
 
     insertSpan = new InsertSpan.Factory(session, strictTraceId, searchEnabled);
+    writeAdmission =
+        storage.maxInFlightWrites() > 0
+            ? new WriteAdmission(
+                storage.maxInFlightWrites(), storage.maxQueuedWrites(), storage.writeMetrics())
+            : null;
     if (searchEnabled) {
       insertTraceByServiceSpan = new InsertTraceByServiceSpan.Factory(session, strictTraceId);
       insertServiceSpanName = new InsertServiceSpan.Factory(session, WRITTEN_NAMES_TTL);
+      insertTraceByBucket =
+          metadata.hasTraceByBucket
+              ? new InsertTraceByBucket.Factory(session, strictTraceId)
+              : null;
     } else {
       insertTraceByServiceSpan = null;
+      insertTraceByBucket = null;
       insertServiceSpanName = null;
     }
   }
 
   /**
-   * This fans out into many requests, last count was 2 * spans.size. If any of these fail, the
+   * This fans out into many requests, last count was 2 * spans.size. Rows in the same partition,
+   * such as spans in the same trace, are written as unlogged batches. If any of these fail, the
    * returned future will fail. Most callers drop or log the result.
+   *
+   * <p>Unless disabled, the requests wait for {@link WriteAdmission}, failing when over capacity.
    */
   @Override
   public Call<Void> accept(List<Span> input) {
@@ -70,6 +88,7 @@ class CassandraSpanConsumer implements SpanConsumer { // not final for testing
     Set<InsertSpan.Input> spans = new LinkedHashSet<>();
     Set<InsertServiceSpan.Input> serviceSpans = new LinkedHashSet<>();
     Set<InsertTraceByServiceSpan.Input> traceByServiceSpans = new LinkedHashSet<>();
+    Set<InsertTraceByBucket.Input> traceByBuckets = new LinkedHashSet<>();
 
     for (Span s : input) {
       // indexing occurs by timestamp, so derive one if not present.
@@ -106,24 +125,40 @@ class CassandraSpanConsumer implements SpanConsumer { // not final for testing
       long duration = s.durationAsLong() / 1000L;
       traceByServiceSpans.add(
           insertTraceByServiceSpan.newInput(service, span, bucket, ts_uuid, s.traceId(), duration));
+      // Root and entry spans allow lookup of recent traces without a service name, even when the
+      // root span isn't stored. Duplicate trace IDs are dropped when reading.
+      if (insertTraceByBucket != null && (s.parentId() == null || isEntrySpan(s))) {
+        traceByBuckets.add(insertTraceByBucket.newInput(bucket, ts_uuid, s.traceId()));
+      }
       if (span.isEmpty()) continue;
       traceByServiceSpans.add( // Allows lookup without the span name
           insertTraceByServiceSpan.newInput(service, "", bucket, ts_uuid, s.traceId(), duration));
     }
-    List<Call<ResultSet>> calls = new ArrayList<>();
+    List<InsertSpan> spanInserts = new ArrayList<>();
     for (InsertSpan.Input span : spans) {
-      calls.add(insertSpan.create(span));
+      spanInserts.add(insertSpan.create(span));
     }
+    List<Call<ResultSet>> calls = InsertBatch.create(session, spanInserts, MAX_BATCH_SIZE);
     if (searchEnabled) {
+      // not batched as span_by_service writes are rare: the factory skips recently written rows
       for (InsertServiceSpan.Input serviceSpan : serviceSpans) {
         calls.add(insertServiceSpanName.create(serviceSpan));
       }
+      List<InsertTraceByServiceSpan> traceByServiceSpanInserts = new ArrayList<>();
       for (InsertTraceByServiceSpan.Input serviceSpan : traceByServiceSpans) {
-        calls.add(insertTraceByServiceSpan.create(serviceSpan));
+        traceByServiceSpanInserts.add(insertTraceByServiceSpan.create(serviceSpan));
+      }
+      calls.addAll(InsertBatch.create(session, traceByServiceSpanInserts, MAX_BATCH_SIZE));
+      List<InsertTraceByBucket> traceByBucketInserts = new ArrayList<>();
+      for (InsertTraceByBucket.Input traceByBucket : traceByBuckets) {
+        traceByBucketInserts.add(insertTraceByBucket.create(traceByBucket));
       }
+      calls.addAll(InsertBatch.create(session, traceByBucketInserts, MAX_BATCH_SIZE));
     }
-    if (calls.size() == 1) return calls.get(0).map(r -> null);
-    return new StoreSpansCall(calls);
+    Call<Void> result =
+        calls.size() == 1 ? calls.get(0).map(r -> null) : new StoreSpansCall(calls);
+    if (writeAdmission == null) return result;
+    return writeAdmission.admit(result, calls.size());
   }
 
   static long guessTimestamp(Span span) {
@@ -137,6 +172,10 @@ class CassandraSpanConsumer implements SpanConsumer { // not final for testing
     return 0L; // return a timestamp that won't match a query
   }
 
+  static boolean isEntrySpan(Span span) {
+    return Span.Kind.SERVER.equals(span.kind()) || Span.Kind.CONSUMER.equals(span.kind());
+  }
+
   static final class StoreSpansCall extends AggregateCall<ResultSet, Void> {
     StoreSpansCall(List<Call<ResultSet>> calls) {
       super(calls);
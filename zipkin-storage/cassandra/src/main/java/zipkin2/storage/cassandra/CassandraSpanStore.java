@@ -48,6 +48,7 @@ class CassandraSpanStore implements SpanStore { // not final for testing
   private final int indexTtl;
   private final SelectTraceIdsFromSpan.Factory spanTable;
   private final SelectTraceIdsFromServiceSpan.Factory traceIdsFromServiceSpan;
+  private final SelectTraceIdsFromBucket.Factory traceIdsFromBucket;
 
   CassandraSpanStore(CassandraStorage storage) {
     Session session = storage.session();
@@ -65,14 +66,20 @@ class CassandraSpanStore implements SpanStore { // not final for testing
 
       spanNames = new SelectSpanNames.Factory(session);
       serviceNames = new SelectServiceNames.Factory(session).create();
-      traceIdsFromServiceSpan = new SelectTraceIdsFromServiceSpan.Factory(session);
+      traceIdsFromServiceSpan =
+          new SelectTraceIdsFromServiceSpan.Factory(session, storage.queryMetrics());
       spanTable = initialiseSelectTraceIdsFromSpan(session);
+      traceIdsFromBucket =
+          Schema.hasUpgrade1_traceByBucket(md)
+              ? new SelectTraceIdsFromBucket.Factory(session, storage.queryMetrics())
+              : null;
     } else {
       indexTtl = 0;
       spanNames = null;
       serviceNames = null;
       spanTable = null;
       traceIdsFromServiceSpan = null;
+      traceIdsFromBucket = null;
     }
   }
 
@@ -145,14 +152,14 @@ class CassandraSpanStore implements SpanStore { // not final for testing
   /**
    * Creates a call representing one or more queries against {@link
    * Schema#TABLE_TRACE_BY_SERVICE_SPAN}. The result will be an aggregate if the input requests's
-   * serviceName is null or there's more than one day of data in the timestamp range.
+   * serviceName is null or there's more than one day of data in the timestamp range. Days are read
+   * newest first, stopping once there are enough trace IDs.
    *
-   * <p>Note that when {@link QueryRequest#serviceName()} is null, the returned query composes over
-   * {@link #getServiceNames()}. This means that if you have 1000 service names, you will end up
-   * with a composition of at least 1000 calls.
+   * <p>When {@link QueryRequest#serviceName()} is null and neither span name nor duration are
+   * queried, {@link Schema#TABLE_TRACE_BY_BUCKET} is read instead, which is one call per shard per
+   * day. Otherwise, the returned query composes over {@link #getServiceNames()}. This means that if
+   * you have 1000 service names, you will end up with a composition of at least 1000 calls.
    */
-  // TODO: smartly handle when serviceName is null. For example, rank recently written serviceNames
-  // and speculatively query those first.
   Call<Set<Entry<String, Long>>> newBucketedTraceIdCall(
       QueryRequest request, TimestampRange timestampRange, int traceIndexFetchSize) {
     // trace_by_service_span adds special empty-string span name in order to search by all
@@ -165,11 +172,21 @@ class CassandraSpanStore implements SpanStore { // not final for testing
           "Start bucket (" + startBucket + ") > end bucket (" + endBucket + ")");
     }
 
+    if (traceIdsFromBucket != null
+        && request.serviceName() == null
+        && request.spanName() == null
+        && minDuration == null) {
+      List<SelectTraceIdsFromBucket.Input> inputs = new ArrayList<>();
+      for (int bucket = endBucket; bucket >= startBucket; bucket--) {
+        inputs.add(traceIdsFromBucket.newInput(bucket, timestampRange, traceIndexFetchSize));
+      }
+      return traceIdsFromBucket.newCall(inputs);
+    }
+
     // template input with an empty service name, potentially revisiting later
     String serviceName = null != request.serviceName() ? request.serviceName() : "";
 
-    // TODO: ideally, the buckets are traversed backwards, only spawning queries for older buckets
-    // if younger buckets are empty. This will be an async continuation, punted for now.
+    // Buckets are listed newest first, as they are read in order until enough trace IDs are found
     List<SelectTraceIdsFromServiceSpan.Input> bucketedTraceIdInputs = new ArrayList<>();
     for (int bucket = endBucket; bucket >= startBucket; bucket--) {
       bucketedTraceIdInputs.add(
@@ -48,6 +48,55 @@ public abstract class CassandraStorage extends StorageComponent {
     Session create(CassandraStorage storage);
   }
 
+  /** Receives counts from write admission, for example to export them as metrics. */
+  public interface WriteMetrics {
+    WriteMetrics NOOP =
+        new WriteMetrics() {
+          @Override
+          public void updateWrites(int inFlight, int queued) {}
+
+          @Override
+          public void incrementRejected(int statements) {}
+
+          @Override
+          public void recordLatency(long nanos) {}
+
+          @Override
+          public String toString() {
+            return "NoopWriteMetrics";
+          }
+        };
+
+    /** Called with the current count of write statements in flight and waiting to be sent. */
+    void updateWrites(int inFlight, int queued);
+
+    /** Increments write statements rejected as over capacity. */
+    void incrementRejected(int statements);
+
+    /** Records how long a message of write statements took, from when it was sent. */
+    void recordLatency(long nanos);
+  }
+
+  /** Receives counts from trace ID index queries, for example to export them as metrics. */
+  public interface QueryMetrics {
+    QueryMetrics NOOP =
+        new QueryMetrics() {
+          @Override
+          public void recordPartitionsRead(int partitions) {}
+
+          @Override
+          public String toString() {
+            return "NoopQueryMetrics";
+          }
+        };
+
+    /**
+     * Records how many partitions a query read from a bucketed index, such as trace_by_bucket,
+     * before it had enough trace IDs or ran out of buckets in its time range.
+     */
+    void recordPartitionsRead(int partitions);
+  }
+
   public static Builder newBuilder() {
     return new $AutoValue_CassandraStorage.Builder()
         .strictTraceId(true)
@@ -60,6 +109,10 @@ public abstract class CassandraStorage extends StorageComponent {
         .useSsl(false)
         .maxTraceCols(100000)
         .indexFetchMultiplier(3)
+        .maxInFlightWrites(1024)
+        .maxQueuedWrites(4096)
+        .writeMetrics(WriteMetrics.NOOP)
+        .queryMetrics(QueryMetrics.NOOP)
         .sessionFactory(SessionFactory.DEFAULT);
   }
 
@@ -135,6 +188,28 @@ public abstract class CassandraStorage extends StorageComponent {
      */
     public abstract Builder indexFetchMultiplier(int indexFetchMultiplier);
 
+    /**
+     * Maximum write statements in flight from span consumers. Messages of spans that would exceed
+     * this wait until earlier ones complete. Defaults to 1024.
+     *
+     * <p>Zero disables admission, leaving writes to queue in the driver, up to {@link
+     * PoolingOptions#setMaxQueueSize(int)} requests.
+     */
+    public abstract Builder maxInFlightWrites(int maxInFlightWrites);
+
+    /**
+     * Maximum write statements waiting for {@link #maxInFlightWrites(int)}. Messages beyond this
+     * fail with "over capacity", so that a Cassandra slowdown drops spans instead of growing the
+     * heap. Defaults to 4096.
+     */
+    public abstract Builder maxQueuedWrites(int maxQueuedWrites);
+
+    /** Receives write admission counts and latency. Defaults to no-op. */
+    public abstract Builder writeMetrics(WriteMetrics writeMetrics);
+
+    /** Receives partitions read by trace ID index queries. Defaults to no-op. */
+    public abstract Builder queryMetrics(QueryMetrics queryMetrics);
+
     @Override
     public abstract CassandraStorage build();
 
@@ -164,6 +239,14 @@ public abstract class CassandraStorage extends StorageComponent {
 
   abstract int indexFetchMultiplier();
 
+  abstract int maxInFlightWrites();
+
+  abstract int maxQueuedWrites();
+
+  abstract WriteMetrics writeMetrics();
+
+  abstract QueryMetrics queryMetrics();
+
   abstract boolean strictTraceId();
 
   abstract boolean searchEnabled();
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import zipkin2.Call;
+import zipkin2.storage.cassandra.internal.call.ResultSetFutureCall;
+
+/**
+ * Writes inserts into the same partition as one unlogged batch. Unlike a logged batch, this has no
+ * atomicity overhead: it only saves the coordinator work and round trips of separate statements.
+ * Batches span only one partition, so the coordinator is still the replica when routing by token.
+ */
+final class InsertBatch extends ResultSetFutureCall {
+
+  /** An insert that can be batched with others in the same partition. */
+  interface Insert {
+    /** Inserts with equal keys write to the same partition of the same table. */
+    Object partitionKey();
+
+    Statement newStatement();
+  }
+
+  /**
+   * Groups inserts into the same table by partition, into batches of at most {@code maxBatchSize}.
+   * Inserts alone in their partition are returned as-is.
+   */
+  static <I extends Call<ResultSet> & Insert> List<Call<ResultSet>> create(
+      Session session, Collection<I> inserts, int maxBatchSize) {
+    Map<Object, List<I>> partitions = new LinkedHashMap<>();
+    for (I insert : inserts) {
+      partitions.computeIfAbsent(insert.partitionKey(), k -> new ArrayList<>()).add(insert);
+    }
+    List<Call<ResultSet>> result = new ArrayList<>(partitions.size());
+    for (List<I> partition : partitions.values()) {
+      for (int i = 0, length = partition.size(); i < length; i += maxBatchSize) {
+        List<I> batch = partition.subList(i, Math.min(i + maxBatchSize, length));
+        result.add(batch.size() == 1 ? batch.get(0) : new InsertBatch(session, batch));
+      }
+    }
+    return result;
+  }
+
+  final Session session;
+  final List<? extends Insert> inserts;
+
+  InsertBatch(Session session, List<? extends Insert> inserts) {
+    this.session = session;
+    this.inserts = inserts;
+  }
+
+  @Override
+  protected ResultSetFuture newFuture() {
+    BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+    for (Insert insert : inserts) {
+      batch.add(insert.newStatement());
+    }
+    return session.executeAsync(batch);
+  }
+
+  @Override
+  public String toString() {
+    return "InsertBatch{" + inserts + "}";
+  }
+
+  @Override
+  public InsertBatch clone() {
+    return new InsertBatch(session, inserts);
+  }
+}
@@ -15,7 +15,6 @@ package zipkin2.storage.cassandra;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
-import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.querybuilder.Insert;
@@ -26,7 +25,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
-import zipkin2.Call;
 import zipkin2.internal.Nullable;
 import zipkin2.storage.cassandra.Schema.AnnotationUDT;
 import zipkin2.storage.cassandra.Schema.EndpointUDT;
@@ -34,7 +32,7 @@ import zipkin2.storage.cassandra.internal.call.ResultSetFutureCall;
 
 import static zipkin2.storage.cassandra.Schema.TABLE_SPAN;
 
-final class InsertSpan extends ResultSetFutureCall {
+final class InsertSpan extends ResultSetFutureCall implements InsertBatch.Insert {
   @AutoValue
   abstract static class Input {
     abstract UUID ts_uuid();
@@ -141,7 +139,7 @@ final class InsertSpan extends ResultSetFutureCall {
           Boolean.TRUE.equals(span.shared()));
     }
 
-    Call<ResultSet> create(Input span) {
+    InsertSpan create(Input span) {
       return new InsertSpan(this, span);
     }
   }
@@ -180,7 +178,7 @@ final class InsertSpan extends ResultSetFutureCall {
    * https://github.com/thelastpickle/cassandra-reaper/blob/master/src/server/src/main/java/io/cassandrareaper/storage/CassandraStorage.java#L622-L642
    */
   @Override
-  protected ResultSetFuture newFuture() {
+  public BoundStatement newStatement() {
     BoundStatement bound =
         factory
             .preparedStatement
@@ -209,7 +207,17 @@ final class InsertSpan extends ResultSetFutureCall {
         bound.setString("annotation_query", input.annotation_query());
       }
     }
-    return factory.session.executeAsync(bound);
+    return bound;
+  }
+
+  @Override
+  public String partitionKey() {
+    return input.trace_id();
+  }
+
+  @Override
+  protected ResultSetFuture newFuture() {
+    return factory.session.executeAsync(newStatement());
   }
 
   @Override
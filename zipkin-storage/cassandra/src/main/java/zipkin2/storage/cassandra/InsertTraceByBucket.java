@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.auto.value.AutoValue;
+import java.util.Arrays;
+import java.util.UUID;
+import zipkin2.internal.HexCodec;
+import zipkin2.storage.cassandra.internal.call.ResultSetFutureCall;
+
+import static zipkin2.storage.cassandra.Schema.TABLE_TRACE_BY_BUCKET;
+import static zipkin2.storage.cassandra.Schema.TRACE_BY_BUCKET_SHARDS;
+
+final class InsertTraceByBucket extends ResultSetFutureCall implements InsertBatch.Insert {
+
+  @AutoValue
+  abstract static class Input {
+    abstract int bucket();
+
+    abstract int shard();
+
+    abstract UUID ts();
+
+    abstract String trace_id();
+  }
+
+  static class Factory {
+    final Session session;
+    final PreparedStatement preparedStatement;
+    final boolean strictTraceId;
+
+    Factory(Session session, boolean strictTraceId) {
+      this.session = session;
+      this.preparedStatement =
+          session.prepare(
+              QueryBuilder.insertInto(TABLE_TRACE_BY_BUCKET)
+                  .value("bucket", QueryBuilder.bindMarker("bucket"))
+                  .value("shard", QueryBuilder.bindMarker("shard"))
+                  .value("ts", QueryBuilder.bindMarker("ts"))
+                  .value("trace_id", QueryBuilder.bindMarker("trace_id")));
+      this.strictTraceId = strictTraceId;
+    }
+
+    Input newInput(int bucket, UUID ts, String trace_id) {
+      if (!strictTraceId && trace_id.length() == 32) trace_id = trace_id.substring(16);
+      return new AutoValue_InsertTraceByBucket_Input(bucket, shard(trace_id), ts, trace_id);
+    }
+
+    InsertTraceByBucket create(Input input) {
+      return new InsertTraceByBucket(this, input);
+    }
+  }
+
+  /**
+   * Returns the partition within a bucket for this trace ID. Only the lower 64-bits are used, so
+   * that the shard is the same regardless of {@link CassandraStorage#strictTraceId()}.
+   */
+  static int shard(String trace_id) {
+    long traceIdLow = HexCodec.lowerHexToUnsignedLong(trace_id);
+    return (int) Long.remainderUnsigned(traceIdLow, TRACE_BY_BUCKET_SHARDS);
+  }
+
+  final Factory factory;
+  final Input input;
+
+  InsertTraceByBucket(Factory factory, Input input) {
+    this.factory = factory;
+    this.input = input;
+  }
+
+  @Override
+  public BoundStatement newStatement() {
+    return factory
+        .preparedStatement
+        .bind()
+        .setInt("bucket", input.bucket())
+        .setInt("shard", input.shard())
+        .setUUID("ts", input.ts())
+        .setString("trace_id", input.trace_id());
+  }
+
+  @Override
+  public Object partitionKey() {
+    return Arrays.asList(input.bucket(), input.shard());
+  }
+
+  @Override
+  protected ResultSetFuture newFuture() {
+    return factory.session.executeAsync(newStatement());
+  }
+
+  @Override
+  public String toString() {
+    return input.toString().replace("Input", "InsertTraceByBucket");
+  }
+
+  @Override
+  public InsertTraceByBucket clone() {
+    return new InsertTraceByBucket(factory, input);
+  }
+}
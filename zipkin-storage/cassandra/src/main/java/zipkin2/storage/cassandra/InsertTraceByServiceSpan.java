@@ -15,20 +15,21 @@ package zipkin2.storage.cassandra;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
-import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.google.auto.value.AutoValue;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
-import zipkin2.Call;
 import zipkin2.internal.Nullable;
 import zipkin2.storage.StorageComponent;
 import zipkin2.storage.cassandra.internal.call.ResultSetFutureCall;
 
 import static zipkin2.storage.cassandra.Schema.TABLE_TRACE_BY_SERVICE_SPAN;
 
-final class InsertTraceByServiceSpan extends ResultSetFutureCall {
+final class InsertTraceByServiceSpan extends ResultSetFutureCall
+    implements InsertBatch.Insert {
 
   @AutoValue
   abstract static class Input {
@@ -79,7 +80,7 @@ final class InsertTraceByServiceSpan extends ResultSetFutureCall {
           durationMillis);
     }
 
-    Call<ResultSet> create(Input input) {
+    InsertTraceByServiceSpan create(Input input) {
       return new InsertTraceByServiceSpan(this, input);
     }
   }
@@ -93,7 +94,7 @@ final class InsertTraceByServiceSpan extends ResultSetFutureCall {
   }
 
   @Override
-  protected ResultSetFuture newFuture() {
+  public BoundStatement newStatement() {
     BoundStatement bound =
         factory
             .preparedStatement
@@ -107,7 +108,17 @@ final class InsertTraceByServiceSpan extends ResultSetFutureCall {
     if (0L != input.duration()) {
       bound.setLong("duration", input.duration());
     }
-    return factory.session.executeAsync(bound);
+    return bound;
+  }
+
+  @Override
+  public List<Object> partitionKey() {
+    return Arrays.asList(input.service(), input.span(), input.bucket());
+  }
+
+  @Override
+  protected ResultSetFuture newFuture() {
+    return factory.session.executeAsync(newStatement());
   }
 
   @Override
@@ -20,6 +20,7 @@ import com.datastax.driver.core.Host;
 import com.datastax.driver.core.KeyspaceMetadata;
 import com.datastax.driver.core.ProtocolVersion;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
 import com.datastax.driver.core.TypeCodec;
 import com.datastax.driver.core.VersionNumber;
 import com.datastax.driver.core.exceptions.InvalidTypeException;
@@ -47,12 +48,16 @@ final class Schema {
 
   static final String TABLE_SPAN = "span";
   static final String TABLE_TRACE_BY_SERVICE_SPAN = "trace_by_service_span";
+  static final String TABLE_TRACE_BY_BUCKET = "trace_by_bucket";
+  /** Partitions per bucket of {@link #TABLE_TRACE_BY_BUCKET}, so that a day isn't one partition. */
+  static final int TRACE_BY_BUCKET_SHARDS = 8;
   static final String TABLE_SERVICE_SPANS = "span_by_service";
   static final String TABLE_DEPENDENCY = "dependency";
 
   static final String DEFAULT_KEYSPACE = "zipkin2";
   private static final String SCHEMA_RESOURCE = "/zipkin2-schema.cql";
   private static final String INDEX_RESOURCE = "/zipkin2-schema-indexes.cql";
+  private static final String UPGRADE_1 = "/zipkin2-schema-upgrade-1.cql";
 
   private Schema() {}
 
@@ -74,14 +79,24 @@ final class Schema {
     String compactionClass =
         keyspaceMetadata.getTable("span").getOptions().getCompaction().get("class");
 
-    return new Metadata(compactionClass);
+    boolean hasTraceByBucket = hasUpgrade1_traceByBucket(keyspaceMetadata);
+    if (!hasTraceByBucket && keyspaceMetadata.getTable(TABLE_TRACE_BY_SERVICE_SPAN) != null) {
+      LOG.warn(
+          "schema lacks {}: searches without a service name will query each service. "
+              + "Apply {}, or set CassandraStorage.ensureSchema=true",
+          TABLE_TRACE_BY_BUCKET,
+          UPGRADE_1);
+    }
+    return new Metadata(compactionClass, hasTraceByBucket);
   }
 
   static final class Metadata {
     final String compactionClass;
+    final boolean hasTraceByBucket;
 
-    Metadata(String compactionClass) {
+    Metadata(String compactionClass, boolean hasTraceByBucket) {
       this.compactionClass = compactionClass;
+      this.hasTraceByBucket = hasTraceByBucket;
     }
   }
 
@@ -119,9 +134,19 @@ final class Schema {
       // refresh metadata since we've installed the schema
       result = ensureKeyspaceMetadata(session, keyspace);
     }
+    if (searchEnabled && !hasUpgrade1_traceByBucket(result)) {
+      LOG.info("Upgrading schema {}", UPGRADE_1);
+      applyCqlFile(keyspace, session, UPGRADE_1);
+      result = ensureKeyspaceMetadata(session, keyspace);
+    }
     return result;
   }
 
+  static boolean hasUpgrade1_traceByBucket(KeyspaceMetadata keyspaceMetadata) {
+    TableMetadata table = keyspaceMetadata.getTable(TABLE_TRACE_BY_BUCKET);
+    return table != null && table.getColumn("shard") != null;
+  }
+
   static void applyCqlFile(String keyspace, Session session, String resource) {
     try (Reader reader = new InputStreamReader(Schema.class.getResourceAsStream(resource), UTF_8)) {
       for (String cmd : CharStreams.toString(reader).split(";")) {
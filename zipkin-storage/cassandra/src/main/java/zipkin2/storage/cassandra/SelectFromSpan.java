@@ -18,6 +18,7 @@ import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -35,6 +36,7 @@ import zipkin2.storage.GroupByTraceId;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.StrictTraceId;
 import zipkin2.storage.cassandra.internal.call.AccumulateAllResults;
+import zipkin2.storage.cassandra.internal.call.AggregateIntoList;
 import zipkin2.storage.cassandra.internal.call.ResultSetFutureCall;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -43,8 +45,14 @@ import static zipkin2.storage.cassandra.Schema.TABLE_SPAN;
 final class SelectFromSpan extends ResultSetFutureCall {
 
   static class Factory {
+    /**
+     * Bounds how many traces are read at the same time when getting many traces. This avoids
+     * flooding the connection pool when a query limit is high.
+     */
+    static final int MAX_CONCURRENT_TRACE_READS = 32;
+
     final Session session;
-    final PreparedStatement preparedStatement;
+    final PreparedStatement preparedStatement, preparedStatementByTraceId;
     final ReadSpans readSpans;
     final Call.Mapper<List<Span>, List<List<Span>>> groupByTraceId;
     final boolean strictTraceId;
@@ -55,25 +63,16 @@ final class SelectFromSpan extends ResultSetFutureCall {
       this.readSpans = new ReadSpans();
       this.preparedStatement =
           session.prepare(
-              QueryBuilder.select(
-                      "trace_id_high",
-                      "trace_id",
-                      "parent_id",
-                      "id",
-                      "kind",
-                      "span",
-                      "ts",
-                      "duration",
-                      "l_ep",
-                      "r_ep",
-                      "annotations",
-                      "tags",
-                      "shared",
-                      "debug")
-                  .from(TABLE_SPAN)
+              selectSpans()
                   // when reading on the partition key, clustering keys are optional
                   .where(QueryBuilder.in("trace_id", QueryBuilder.bindMarker("trace_id")))
                   .limit(QueryBuilder.bindMarker("limit_")));
+      // Reading a single partition lets the driver route the query to a replica that owns it
+      this.preparedStatementByTraceId =
+          session.prepare(
+              selectSpans()
+                  .where(QueryBuilder.eq("trace_id", QueryBuilder.bindMarker("trace_id")))
+                  .limit(QueryBuilder.bindMarker("limit_")));
       this.strictTraceId = strictTraceId;
       this.maxTraceCols = maxTraceCols;
       this.groupByTraceId = GroupByTraceId.create(strictTraceId);
@@ -98,6 +97,25 @@ final class SelectFromSpan extends ResultSetFutureCall {
     FlatMapper<Set<String>, List<List<Span>>> newFlatMapper(QueryRequest request) {
       return new SelectSpansByTraceIds(this, request);
     }
+
+    static Select selectSpans() {
+      return QueryBuilder.select(
+              "trace_id_high",
+              "trace_id",
+              "parent_id",
+              "id",
+              "kind",
+              "span",
+              "ts",
+              "duration",
+              "l_ep",
+              "r_ep",
+              "annotations",
+              "tags",
+              "shared",
+              "debug")
+          .from(TABLE_SPAN);
+    }
   }
 
   final Factory factory;
@@ -113,6 +131,14 @@ final class SelectFromSpan extends ResultSetFutureCall {
 
   @Override
   protected ResultSetFuture newFuture() {
+    if (trace_id.size() == 1) {
+      return factory.session.executeAsync(
+          factory
+              .preparedStatementByTraceId
+              .bind()
+              .setString("trace_id", trace_id.iterator().next())
+              .setInt("limit_", limit_));
+    }
     return factory.session.executeAsync(
         factory.preparedStatement.bind().setSet("trace_id", trace_id).setInt("limit_", limit_));
   }
@@ -143,20 +169,20 @@ final class SelectFromSpan extends ResultSetFutureCall {
     @Override
     public Call<List<List<Span>>> map(Set<String> input) {
       if (input.isEmpty()) return Call.emptyList();
-      Set<String> traceIds;
-      if (input.size() > limit) {
-        traceIds = new LinkedHashSet<>();
-        Iterator<String> iterator = input.iterator();
-        for (int i = 0; i < limit; i++) {
-          traceIds.add(iterator.next());
-        }
-      } else {
-        traceIds = input;
+      // Read each trace separately, so that each query is routed to a replica of its partition,
+      // instead of one coordinator gathering all partitions before responding.
+      List<Call<List<Span>>> calls = new ArrayList<>(Math.min(input.size(), limit));
+      Iterator<String> iterator = input.iterator();
+      while (iterator.hasNext() && calls.size() < limit) {
+        Set<String> traceId = Collections.singleton(iterator.next());
+        calls.add(
+            new SelectFromSpan(factory, traceId, factory.maxTraceCols).flatMap(factory.readSpans));
       }
-      Call<List<List<Span>>> result =
-          new SelectFromSpan(factory, traceIds, factory.maxTraceCols)
-              .flatMap(factory.readSpans)
-              .map(factory.groupByTraceId);
+      Call<List<Span>> spans =
+          calls.size() == 1
+              ? calls.get(0)
+              : new AggregateIntoList<>(calls, Factory.MAX_CONCURRENT_TRACE_READS);
+      Call<List<List<Span>>> result = spans.map(factory.groupByTraceId);
       return filter != null ? result.map(filter) : result;
     }
 
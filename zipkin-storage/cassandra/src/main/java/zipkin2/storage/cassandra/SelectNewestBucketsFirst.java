@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.BiFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.storage.cassandra.CassandraStorage.QueryMetrics;
+
+/**
+ * Reads bucket partitions of a trace ID index one at a time, newest first, until {@code limit}
+ * trace IDs are collected. Recent buckets usually satisfy the limit, so older partitions are rarely
+ * read. This trades latency when they must be, for fewer reads per query. The count of partitions
+ * read is recorded to {@link QueryMetrics} when the query completes.
+ *
+ * @param <I> the input to query one bucket
+ */
+final class SelectNewestBucketsFirst<I> extends Call.Base<Set<Entry<String, Long>>> {
+  static final Logger LOG = LoggerFactory.getLogger(SelectNewestBucketsFirst.class);
+
+  final List<I> inputs;
+  final int limit, partitionsPerInput;
+  final BiFunction<I, Integer, Call<Set<Entry<String, Long>>>> newCall;
+  final QueryMetrics metrics;
+  volatile Call<Set<Entry<String, Long>>> current;
+
+  /**
+   * @param inputs bucket inputs, ordered newest bucket first
+   * @param partitionsPerInput partitions read for each input, such as the shards of a bucket
+   * @param newCall creates a call for the input bucket, returning at most the given count of rows
+   */
+  SelectNewestBucketsFirst(List<I> inputs, int limit, int partitionsPerInput,
+      BiFunction<I, Integer, Call<Set<Entry<String, Long>>>> newCall, QueryMetrics metrics) {
+    this.inputs = inputs;
+    this.limit = limit;
+    this.partitionsPerInput = partitionsPerInput;
+    this.newCall = newCall;
+    this.metrics = metrics;
+  }
+
+  @Override
+  protected Set<Entry<String, Long>> doExecute() throws IOException {
+    ReadBuckets read = new ReadBuckets();
+    while (true) {
+      Set<Entry<String, Long>> bucket;
+      try {
+        bucket = read.nextCall().execute();
+      } catch (IOException | RuntimeException e) {
+        if (read.result.isEmpty()) throw e;
+        return read.partialResult(e);
+      }
+      if (!read.add(bucket)) return read.result;
+    }
+  }
+
+  @Override
+  protected void doEnqueue(Callback<Set<Entry<String, Long>>> callback) {
+    new ReadBucketsCallback(callback).enqueueNext();
+  }
+
+  @Override
+  protected void doCancel() {
+    Call<Set<Entry<String, Long>>> current = this.current;
+    if (current != null) current.cancel();
+  }
+
+  /** Accumulates trace IDs from each bucket read, deciding whether to read the next. */
+  class ReadBuckets {
+    final Set<Entry<String, Long>> result = new LinkedHashSet<>();
+    final Set<String> traceIds = new LinkedHashSet<>();
+    int partitionsRead;
+
+    /** Reads the next bucket, limited to the count of trace IDs still needed. */
+    Call<Set<Entry<String, Long>>> nextCall() {
+      Call<Set<Entry<String, Long>>> call =
+          current = newCall.apply(inputs.get(partitionsRead), limit - traceIds.size());
+      if (isCanceled()) call.cancel();
+      return call;
+    }
+
+    /** Returns true if the next bucket should be read. */
+    boolean add(Set<Entry<String, Long>> bucket) {
+      partitionsRead++;
+      for (Entry<String, Long> entry : bucket) {
+        result.add(entry);
+        traceIds.add(entry.getKey());
+      }
+      if (traceIds.size() < limit && partitionsRead < inputs.size()) return true;
+      metrics.recordPartitionsRead(partitionsRead * partitionsPerInput);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("read {} of {} partitions for {} trace IDs, starting with {}",
+            partitionsRead, inputs.size(), traceIds.size(), inputs.get(0));
+      }
+      return false;
+    }
+
+    Set<Entry<String, Long>> partialResult(Throwable e) {
+      metrics.recordPartitionsRead(partitionsRead * partitionsPerInput);
+      LOG.info("returning partial result after reading " + partitionsRead + " partitions", e);
+      return result;
+    }
+  }
+
+  /** Enqueues the next bucket read on success, as an async continuation. */
+  final class ReadBucketsCallback extends ReadBuckets
+      implements Callback<Set<Entry<String, Long>>> {
+    final Callback<Set<Entry<String, Long>>> callback;
+
+    ReadBucketsCallback(Callback<Set<Entry<String, Long>>> callback) {
+      this.callback = callback;
+    }
+
+    void enqueueNext() {
+      nextCall().enqueue(this);
+    }
+
+    @Override
+    public void onSuccess(Set<Entry<String, Long>> bucket) {
+      if (add(bucket)) {
+        enqueueNext();
+      } else {
+        callback.onSuccess(result);
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      if (result.isEmpty()) {
+        callback.onError(t);
+      } else {
+        callback.onSuccess(partialResult(t));
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SelectNewestBucketsFirst{" + inputs + "}";
+  }
+
+  @Override
+  public SelectNewestBucketsFirst<I> clone() {
+    return new SelectNewestBucketsFirst<>(inputs, limit, partitionsPerInput, newCall, metrics);
+  }
+}
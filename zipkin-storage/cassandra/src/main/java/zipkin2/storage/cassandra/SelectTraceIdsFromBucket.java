@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.auto.value.AutoValue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import zipkin2.Call;
+import zipkin2.storage.cassandra.CassandraSpanStore.TimestampRange;
+import zipkin2.storage.cassandra.CassandraStorage.QueryMetrics;
+import zipkin2.storage.cassandra.SelectTraceIdsFromServiceSpan.AccumulateTraceIdTsUuid;
+import zipkin2.storage.cassandra.internal.call.AggregateIntoSet;
+import zipkin2.storage.cassandra.internal.call.ResultSetFutureCall;
+
+import static zipkin2.storage.cassandra.Schema.TABLE_TRACE_BY_BUCKET;
+import static zipkin2.storage.cassandra.Schema.TRACE_BY_BUCKET_SHARDS;
+
+/** Selects recent trace IDs regardless of service, for queries that don't specify one. */
+final class SelectTraceIdsFromBucket extends ResultSetFutureCall {
+  @AutoValue
+  abstract static class Input {
+    abstract int bucket();
+
+    abstract UUID start_ts();
+
+    abstract UUID end_ts();
+
+    abstract int limit_();
+
+    Input withLimit(int limit_) {
+      return new AutoValue_SelectTraceIdsFromBucket_Input(bucket(), start_ts(), end_ts(), limit_);
+    }
+  }
+
+  static class Factory {
+    final Session session;
+    final PreparedStatement preparedStatement;
+    final QueryMetrics queryMetrics;
+
+    Factory(Session session, QueryMetrics queryMetrics) {
+      this.session = session;
+      this.queryMetrics = queryMetrics;
+      this.preparedStatement =
+          session.prepare(
+              QueryBuilder.select("ts", "trace_id")
+                  .from(TABLE_TRACE_BY_BUCKET)
+                  .where(QueryBuilder.eq("bucket", QueryBuilder.bindMarker("bucket")))
+                  .and(QueryBuilder.eq("shard", QueryBuilder.bindMarker("shard")))
+                  .and(QueryBuilder.gte("ts", QueryBuilder.bindMarker("start_ts")))
+                  .and(QueryBuilder.lte("ts", QueryBuilder.bindMarker("end_ts")))
+                  .limit(QueryBuilder.bindMarker("limit_")));
+    }
+
+    Input newInput(int bucket, TimestampRange timestampRange, int limit) {
+      return new AutoValue_SelectTraceIdsFromBucket_Input(
+          bucket, timestampRange.startUUID, timestampRange.endUUID, limit);
+    }
+
+    /** @param inputs bucketed inputs, ordered newest bucket first */
+    Call<Set<Entry<String, Long>>> newCall(List<Input> inputs) {
+      if (inputs.isEmpty()) return Call.create(Collections.emptySet());
+      return new SelectNewestBucketsFirst<>(
+          inputs,
+          inputs.get(0).limit_(),
+          TRACE_BY_BUCKET_SHARDS,
+          (input, limit) -> newCall(input.withLimit(limit)),
+          queryMetrics);
+    }
+
+    /** Reads each shard of the input's bucket, as trace IDs are spread across them on write. */
+    Call<Set<Entry<String, Long>>> newCall(Input input) {
+      List<Call<Set<Entry<String, Long>>>> calls = new ArrayList<>(TRACE_BY_BUCKET_SHARDS);
+      for (int shard = 0; shard < TRACE_BY_BUCKET_SHARDS; shard++) {
+        calls.add(
+            new SelectTraceIdsFromBucket(this, input, shard)
+                .flatMap(new AccumulateTraceIdTsUuid()));
+      }
+      return new AggregateIntoSet<>(calls);
+    }
+  }
+
+  final Factory factory;
+  final Input input;
+  final int shard;
+
+  SelectTraceIdsFromBucket(Factory factory, Input input, int shard) {
+    this.factory = factory;
+    this.input = input;
+    this.shard = shard;
+  }
+
+  @Override
+  protected ResultSetFuture newFuture() {
+    return factory.session.executeAsync(
+        factory
+            .preparedStatement
+            .bind()
+            .setInt("bucket", input.bucket())
+            .setInt("shard", shard)
+            .setUUID("start_ts", input.start_ts())
+            .setUUID("end_ts", input.end_ts())
+            .setInt("limit_", input.limit_())
+            .setFetchSize(input.limit_()));
+  }
+
+  @Override
+  public String toString() {
+    return input.toString().replace("Input{", "SelectTraceIdsFromBucket{shard=" + shard + ", ");
+  }
+
+  @Override
+  public SelectTraceIdsFromBucket clone() {
+    return new SelectTraceIdsFromBucket(factory, input, shard);
+  }
+}
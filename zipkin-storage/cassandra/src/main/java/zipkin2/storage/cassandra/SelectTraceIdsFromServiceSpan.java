@@ -34,6 +34,7 @@ import java.util.function.Supplier;
 import zipkin2.Call;
 import zipkin2.internal.Nullable;
 import zipkin2.storage.cassandra.CassandraSpanStore.TimestampRange;
+import zipkin2.storage.cassandra.CassandraStorage.QueryMetrics;
 import zipkin2.storage.cassandra.internal.call.AccumulateAllResults;
 import zipkin2.storage.cassandra.internal.call.AggregateIntoSet;
 import zipkin2.storage.cassandra.internal.call.ResultSetFutureCall;
@@ -72,15 +73,29 @@ final class SelectTraceIdsFromServiceSpan extends ResultSetFutureCall {
           end_ts(),
           limit_());
     }
+
+    Input withLimit(int limit_) {
+      return new AutoValue_SelectTraceIdsFromServiceSpan_Input(
+          service(),
+          span(),
+          bucket(),
+          start_duration(),
+          end_duration(),
+          start_ts(),
+          end_ts(),
+          limit_);
+    }
   }
 
   static class Factory {
     final Session session;
     final PreparedStatement selectTraceIdsByServiceSpanName;
     final PreparedStatement selectTraceIdsByServiceSpanNameAndDuration;
+    final QueryMetrics queryMetrics;
 
-    Factory(Session session) {
+    Factory(Session session, QueryMetrics queryMetrics) {
       this.session = session;
+      this.queryMetrics = queryMetrics;
       // separate to avoid: "Unsupported unset value for column duration" maybe SASI related
       // TODO: revisit on next driver update
       this.selectTraceIdsByServiceSpanName =
@@ -131,15 +146,15 @@ final class SelectTraceIdsFromServiceSpan extends ResultSetFutureCall {
           limit);
     }
 
+    /** @param inputs bucketed inputs for the same service, ordered newest bucket first */
     Call<Set<Entry<String, Long>>> newCall(List<Input> inputs) {
       if (inputs.isEmpty()) return Call.create(Collections.emptySet());
-      if (inputs.size() == 1) return newCall(inputs.get(0));
-
-      List<Call<Set<Entry<String, Long>>>> bucketedTraceIdCalls = new ArrayList<>();
-      for (SelectTraceIdsFromServiceSpan.Input input : inputs) {
-        bucketedTraceIdCalls.add(newCall(input));
-      }
-      return new AggregateIntoSet<>(bucketedTraceIdCalls);
+      return new SelectNewestBucketsFirst<>(
+          inputs,
+          inputs.get(0).limit_(),
+          1, // each bucket is one partition of a service and span name
+          (input, limit) -> newCall(input.withLimit(limit)),
+          queryMetrics);
     }
 
     /** Applies all deferred service names to all input templates */
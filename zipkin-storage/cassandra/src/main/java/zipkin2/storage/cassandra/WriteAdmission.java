@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.storage.cassandra.CassandraStorage.WriteMetrics;
+
+/**
+ * Bounds the write statements in flight from {@link CassandraSpanConsumer}, so that a Cassandra
+ * slowdown backs up into the collector instead of the driver's request queue.
+ *
+ * <p>Admission is per message of spans, so a message is either written or rejected as a whole.
+ * Messages that would exceed {@link #maxInFlight} statements wait in order, until completed
+ * messages free enough room. Messages that would exceed {@link #maxQueued} waiting statements fail
+ * fast with "over capacity". A message larger than {@link #maxInFlight} is admitted alone, and one
+ * larger than {@link #maxQueued} can wait alone.
+ */
+final class WriteAdmission {
+  final int maxInFlight, maxQueued;
+  final WriteMetrics metrics;
+
+  // guarded by this
+  final ArrayDeque<AdmittedCall<?>> queue = new ArrayDeque<>();
+  int inFlight, queued;
+
+  // loops instead of recursing when a started message completes on the starting thread
+  final AtomicInteger draining = new AtomicInteger();
+
+  WriteAdmission(int maxInFlight, int maxQueued, WriteMetrics metrics) {
+    if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight < 1");
+    if (maxQueued < 0) throw new IllegalArgumentException("maxQueued < 0");
+    this.maxInFlight = maxInFlight;
+    this.maxQueued = maxQueued;
+    this.metrics = metrics;
+  }
+
+  /** Returns a call that waits for room for the given count of statements before starting. */
+  <V> Call<V> admit(Call<V> call, int statements) {
+    return new AdmittedCall<>(call, statements);
+  }
+
+  /** Returns true if the message fits alongside those in flight, counting it if so. */
+  boolean tryStart(int statements) { // guarded by this
+    if (inFlight != 0 && inFlight + statements > maxInFlight) return false;
+    if (!queue.isEmpty()) return false; // don't overtake waiting messages
+    inFlight += statements;
+    return true;
+  }
+
+  void finish(int statements, long startNanos) {
+    metrics.recordLatency(System.nanoTime() - startNanos);
+    synchronized (this) {
+      inFlight -= statements;
+    }
+    drain();
+  }
+
+  /** Starts waiting messages while there's room, in order. */
+  void drain() {
+    if (draining.getAndIncrement() != 0) return; // the thread already draining will do it
+    do {
+      while (true) {
+        AdmittedCall<?> next;
+        synchronized (this) {
+          next = queue.peek();
+          if (next == null) break;
+          if (inFlight != 0 && inFlight + next.statements > maxInFlight) break;
+          queue.poll();
+          queued -= next.statements;
+          inFlight += next.statements;
+        }
+        next.start();
+      }
+      updateMetrics();
+    } while (draining.decrementAndGet() != 0);
+  }
+
+  void updateMetrics() {
+    int inFlight, queued;
+    synchronized (this) {
+      inFlight = this.inFlight;
+      queued = this.queued;
+    }
+    metrics.updateWrites(inFlight, queued);
+  }
+
+  IllegalStateException overCapacity(int statements) {
+    metrics.incrementRejected(statements);
+    return new IllegalStateException("over capacity");
+  }
+
+  final class AdmittedCall<V> extends Call.Base<V> {
+    final Call<V> delegate;
+    final int statements;
+    Callback<V> callback; // guarded by WriteAdmission.this until started
+
+    AdmittedCall(Call<V> delegate, int statements) {
+      this.delegate = delegate;
+      this.statements = statements;
+    }
+
+    /** Runs immediately, as the caller's thread already throttles, unless over capacity. */
+    @Override
+    protected V doExecute() throws IOException {
+      boolean admitted;
+      synchronized (WriteAdmission.this) {
+        admitted = inFlight == 0 || inFlight + queued + statements <= maxInFlight + maxQueued;
+        if (admitted) inFlight += statements;
+      }
+      if (!admitted) throw overCapacity(statements);
+      updateMetrics();
+      long startNanos = System.nanoTime();
+      try {
+        return delegate.execute();
+      } finally {
+        finish(statements, startNanos);
+      }
+    }
+
+    @Override
+    protected void doEnqueue(Callback<V> callback) {
+      boolean start, rejected = false;
+      synchronized (WriteAdmission.this) {
+        this.callback = callback;
+        start = tryStart(statements);
+        if (!start && !queue.isEmpty() && queued + statements > maxQueued) {
+          rejected = true;
+        } else if (!start) {
+          queue.add(this);
+          queued += statements;
+        }
+      }
+      if (rejected) {
+        callback.onError(overCapacity(statements));
+        return;
+      }
+      updateMetrics();
+      if (start) start();
+    }
+
+    void start() {
+      long startNanos = System.nanoTime();
+      Callback<V> callback = this.callback;
+      try {
+        delegate.enqueue(
+            new Callback<V>() {
+              @Override
+              public void onSuccess(V value) {
+                finish(statements, startNanos);
+                callback.onSuccess(value);
+              }
+
+              @Override
+              public void onError(Throwable t) {
+                finish(statements, startNanos);
+                callback.onError(t);
+              }
+            });
+      } catch (RuntimeException e) {
+        finish(statements, startNanos);
+        callback.onError(e);
+      }
+    }
+
+    @Override
+    protected void doCancel() {
+      boolean dequeued;
+      synchronized (WriteAdmission.this) {
+        dequeued = queue.remove(this);
+        if (dequeued) queued -= statements;
+      }
+      if (dequeued) {
+        updateMetrics();
+        callback.onError(new CancellationException());
+      } else {
+        delegate.cancel();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "Admitted{statements=" + statements + ", call=" + delegate + "}";
+    }
+
+    @Override
+    public AdmittedCall<V> clone() {
+      return new AdmittedCall<>(delegate.clone(), statements);
+    }
+  }
+}
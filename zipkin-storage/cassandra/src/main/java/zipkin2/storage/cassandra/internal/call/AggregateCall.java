@@ -29,11 +29,22 @@ import zipkin2.internal.Nullable;
 public abstract class AggregateCall<I, O> extends Call.Base<O> {
   final Logger log = Logger.getLogger(getClass().getName());
   final List<Call<I>> calls;
+  final int maxInFlight;
 
   protected AggregateCall(List<Call<I>> calls) {
+    this(calls, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param maxInFlight how many calls can be enqueued at the same time. The rest are enqueued as
+   * prior ones complete, in order.
+   */
+  protected AggregateCall(List<Call<I>> calls, int maxInFlight) {
     assert !calls.isEmpty() : "do not create empty aggregate calls";
     assert calls.size() > 1 : "do not create single-element aggregates";
+    if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight < 1");
     this.calls = calls;
+    this.maxInFlight = maxInFlight;
   }
 
   protected abstract O newOutput();
@@ -42,6 +53,17 @@ public abstract class AggregateCall<I, O> extends Call.Base<O> {
 
   protected abstract boolean isEmpty(O output);
 
+  /**
+   * When true, the first failed call fails the aggregate and cancels the rest. This suits calls
+   * that each read part of a result, such as trace content, where a missing part is an error.
+   *
+   * <p>Defaults to false, which logs failures and only fails when no output was collected. This
+   * suits index lookups, where some results are better than none.
+   */
+  protected boolean failOnAnyError() {
+    return false;
+  }
+
   @Override protected O doExecute() throws IOException {
     final CountDownLatch countDown = new CountDownLatch(1);
     final AtomicReference<Object> result = new AtomicReference<>();
@@ -91,10 +113,7 @@ public abstract class AggregateCall<I, O> extends Call.Base<O> {
     int length = calls.size();
     AtomicInteger remaining = new AtomicInteger(length);
     O result = newOutput();
-    for (int i = 0; i < length; i++) {
-      Call<I> call = calls.get(i);
-      call.enqueue(new CountdownCallback(call, remaining, result, callback));
-    }
+    new EnqueueInOrder(remaining, result, callback).enqueue(Math.min(length, maxInFlight));
   }
 
   @Override protected void doCancel() {
@@ -103,20 +122,51 @@ public abstract class AggregateCall<I, O> extends Call.Base<O> {
     }
   }
 
+  /**
+   * Enqueues calls in order, another each time one completes. This loops instead of recursing, as
+   * calls can complete on the thread that enqueued them.
+   */
+  final class EnqueueInOrder {
+    final AtomicInteger remaining, requested = new AtomicInteger();
+    @Nullable final O result;
+    final Callback<O> callback;
+    int next; // guarded by requested: only one thread enqueues at a time
+    volatile boolean failed; // written under lock on the callback
+
+    EnqueueInOrder(AtomicInteger remaining, O result, Callback<O> callback) {
+      this.remaining = remaining;
+      this.result = result;
+      this.callback = callback;
+    }
+
+    void enqueue(int count) {
+      if (requested.getAndAdd(count) != 0) return; // the thread already enqueuing will do it
+      do {
+        for (int i = 0; i < count && next < calls.size() && !failed; i++) {
+          Call<I> call = calls.get(next++);
+          call.enqueue(new CountdownCallback(call, this));
+        }
+      } while ((count = requested.addAndGet(-count)) != 0);
+    }
+  }
+
   class CountdownCallback implements Callback<I> {
     final Call<I> call;
+    final EnqueueInOrder enqueuer;
     final AtomicInteger remaining;
     @Nullable final O result;
     final Callback<O> callback;
 
-    CountdownCallback(Call<I> call, AtomicInteger remaining, O result, Callback<O> callback) {
+    CountdownCallback(Call<I> call, EnqueueInOrder enqueuer) {
       this.call = call;
-      this.remaining = remaining;
-      this.result = result;
-      this.callback = callback;
+      this.enqueuer = enqueuer;
+      this.remaining = enqueuer.remaining;
+      this.result = enqueuer.result;
+      this.callback = enqueuer.callback;
     }
 
     @Override public void onSuccess(I value) {
+      enqueuer.enqueue(1); // take the place of this call
       synchronized (callback) {
         try {
           append(value, result);
@@ -129,9 +179,19 @@ public abstract class AggregateCall<I, O> extends Call.Base<O> {
     }
 
     @Override public synchronized void onError(Throwable throwable) {
+      if (failOnAnyError()) {
+        synchronized (callback) {
+          if (enqueuer.failed) return; // only report the first error
+          enqueuer.failed = true;
+        }
+        doCancel(); // the result can't be completed, so stop reading it
+        callback.onError(throwable);
+        return;
+      }
       if (log.isLoggable(Level.INFO)) {
         log.log(Level.INFO, "error from " + call, throwable);
       }
+      enqueuer.enqueue(1); // take the place of this call
       if (remaining.decrementAndGet() > 0) return;
       synchronized (callback) {
         if (isEmpty(result)) {
@@ -143,6 +203,10 @@ public abstract class AggregateCall<I, O> extends Call.Base<O> {
     }
   }
 
+  @Override public String toString() {
+    return getClass().getSimpleName() + "{" + calls + "}";
+  }
+
   protected List<Call<I>> cloneCalls() {
     int length = calls.size();
     if (length == 1) return Collections.singletonList(calls.get(0).clone());
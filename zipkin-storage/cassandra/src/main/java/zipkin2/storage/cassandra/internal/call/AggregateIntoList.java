@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra.internal.call;
+
+import java.util.ArrayList;
+import java.util.List;
+import zipkin2.Call;
+
+/** Concatenates the results of calls that each read part of a list, failing if any fail. */
+public final class AggregateIntoList<T> extends AggregateCall<List<T>, List<T>> {
+  public AggregateIntoList(List<Call<List<T>>> calls, int maxInFlight) {
+    super(calls, maxInFlight);
+  }
+
+  @Override protected List<T> newOutput() {
+    return new ArrayList<>();
+  }
+
+  @Override protected void append(List<T> input, List<T> output) {
+    output.addAll(input);
+  }
+
+  @Override protected boolean isEmpty(List<T> output) {
+    return output.isEmpty();
+  }
+
+  @Override protected boolean failOnAnyError() {
+    return true;
+  }
+
+  @Override public AggregateIntoList<T> clone() {
+    return new AggregateIntoList<>(cloneCalls(), maxInFlight);
+  }
+}
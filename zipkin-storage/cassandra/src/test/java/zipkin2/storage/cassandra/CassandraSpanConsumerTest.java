@@ -25,6 +25,7 @@ import zipkin2.Call;
 import zipkin2.Span;
 import zipkin2.storage.cassandra.CassandraSpanConsumer.StoreSpansCall;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.tuple;
@@ -226,6 +227,115 @@ public class CassandraSpanConsumerTest {
       .isNotInstanceOf(StoreSpansCall.class);
   }
 
+  @Test
+  public void traceByBucket_indexesRootSpans() {
+    Span child = spanWithoutAnnotationsOrTags.toBuilder().parentId("1").id("2").build();
+
+    StoreSpansCall call =
+      (StoreSpansCall) consumer.accept(asList(spanWithoutAnnotationsOrTags, child));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertTraceByBucket)
+      .extracting("input.trace_id")
+      .containsExactly(spanWithoutAnnotationsOrTags.traceId());
+  }
+
+  /** A trace whose root span isn't stored should still be found without a service name */
+  @Test
+  public void traceByBucket_indexesEntrySpans() {
+    Span server = spanWithoutAnnotationsOrTags.toBuilder()
+      .parentId("1").id("2").kind(Span.Kind.SERVER).build();
+    Span consumer = spanWithoutAnnotationsOrTags.toBuilder()
+      .parentId("1").id("3").kind(Span.Kind.CONSUMER).build();
+
+    StoreSpansCall call = (StoreSpansCall) this.consumer.accept(asList(server, consumer));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertTraceByBucket)
+      .extracting("input.trace_id")
+      .containsExactly(server.traceId(), consumer.traceId());
+  }
+
+  @Test
+  public void traceByBucket_skipsNonEntryChildSpans() {
+    Span client = spanWithoutAnnotationsOrTags.toBuilder()
+      .parentId("1").id("2").kind(Span.Kind.CLIENT).build();
+    Span producer = spanWithoutAnnotationsOrTags.toBuilder()
+      .parentId("1").id("3").kind(Span.Kind.PRODUCER).build();
+
+    StoreSpansCall call = (StoreSpansCall) consumer.accept(asList(client, producer));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertTraceByBucket)
+      .isEmpty();
+  }
+
+  @Test
+  public void traceByBucket_partitionsByBucketAndShard() {
+    Span span = spanWithoutAnnotationsOrTags.toBuilder().traceId("a").build(); // 10 % 8 == 2
+
+    StoreSpansCall call = (StoreSpansCall) consumer.accept(singletonList(span));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertTraceByBucket)
+      .extracting(c -> ((InsertTraceByBucket) c).partitionKey())
+      .containsExactly(asList(CassandraUtil.durationIndexBucket(span.timestampAsLong()), 2));
+  }
+
+  @Test
+  public void traceByBucket_shardsOnLower64BitsOfTraceId() {
+    assertThat(InsertTraceByBucket.shard("48485a3953bb6124" + "000000000000000a"))
+      .isEqualTo(InsertTraceByBucket.shard("000000000000000a"))
+      .isEqualTo(2);
+  }
+
+  @Test
+  public void traceByBucket_skipsOnNoTimestamp() {
+    Span span = spanWithoutAnnotationsOrTags.toBuilder().timestamp(null).build();
+
+    StoreSpansCall call = (StoreSpansCall) consumer.accept(singletonList(span));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertTraceByBucket)
+      .isEmpty();
+  }
+
+  @Test
+  public void batchesSpansInSameTrace() {
+    Span child = spanWithoutAnnotationsOrTags.toBuilder().parentId("1").id("2").build();
+    Span otherTrace = spanWithoutAnnotationsOrTags.toBuilder().traceId("b").build();
+
+    StoreSpansCall call =
+      (StoreSpansCall) consumer.accept(asList(spanWithoutAnnotationsOrTags, child, otherTrace));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertBatch)
+      .flatExtracting("inserts")
+      .filteredOn(c -> c instanceof InsertSpan)
+      .extracting("input.trace_id", "input.id")
+      .containsExactly(tuple("a", "1"), tuple("a", "2"));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertSpan)
+      .extracting("input.trace_id")
+      .containsExactly("b");
+  }
+
+  @Test
+  public void batchesIndexRowsInSamePartition() {
+    Span child = spanWithoutAnnotationsOrTags.toBuilder().parentId("1").id("2").build();
+
+    StoreSpansCall call =
+      (StoreSpansCall) consumer.accept(asList(spanWithoutAnnotationsOrTags, child));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertBatch)
+      .flatExtracting("inserts")
+      .filteredOn(c -> c instanceof InsertTraceByServiceSpan)
+      .extracting("input.span")
+      .containsExactly("get", "get", "", "");
+  }
+
   @Test
   public void searchDisabled_doesntIndex() {
     consumer = spanConsumer(CassandraStorage.newBuilder().searchEnabled(false));
@@ -243,6 +353,20 @@ public class CassandraSpanConsumerTest {
       .allSatisfy(q -> assertThat(q).isNull());
   }
 
+  @Test
+  public void writeAdmission_wrapsByDefault() {
+    consumer = new CassandraSpanConsumer(
+      CassandraStorage.newBuilder()
+        .sessionFactory(mock(CassandraStorage.SessionFactory.class, Mockito.RETURNS_MOCKS))
+        .build());
+
+    Call<Void> call = consumer.accept(singletonList(spanWithoutAnnotationsOrTags));
+
+    assertThat(call).isInstanceOf(WriteAdmission.AdmittedCall.class);
+    assertThat(((WriteAdmission.AdmittedCall<Void>) call).delegate)
+      .isInstanceOf(StoreSpansCall.class);
+  }
+
   static AbstractListAssert<
     ?, List<? extends Call<ResultSet>>, Call<ResultSet>, ObjectAssert<Call<ResultSet>>>
   assertEnclosedCalls(StoreSpansCall call) {
@@ -251,10 +375,12 @@ public class CassandraSpanConsumerTest {
       .flatExtracting(calls -> (Collection<Call<ResultSet>>) calls);
   }
 
+  /** Disables write admission, so that tests can inspect the calls it would wrap */
   static CassandraSpanConsumer spanConsumer(CassandraStorage.Builder builder) {
     return new CassandraSpanConsumer(
       builder
         .sessionFactory(mock(CassandraStorage.SessionFactory.class, Mockito.RETURNS_MOCKS))
+        .maxInFlightWrites(0)
         .build()) {
     };
   }
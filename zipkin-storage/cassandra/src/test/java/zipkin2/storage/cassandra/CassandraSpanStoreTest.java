@@ -30,10 +30,31 @@ public class CassandraSpanStoreTest {
   CassandraSpanStore spanStore = spanStore(CassandraStorage.newBuilder());
 
   @Test
-  public void getTraces_fansOutAgainstServices() {
+  public void getTraces_readsTraceByBucketWithoutServiceName() {
+    Call<List<List<Span>>> call =
+        spanStore.getTraces(QueryRequest.newBuilder().endTs(TODAY).lookback(DAY).limit(10).build());
+
+    assertThat(call.toString())
+        .contains(SelectTraceIdsFromBucket.class.getSimpleName())
+        .doesNotContain(FlatMapServicesToInputs.class.getSimpleName());
+  }
+
+  @Test
+  public void getTraces_readsEachShardOfTraceByBucket() {
     Call<List<List<Span>>> call =
         spanStore.getTraces(QueryRequest.newBuilder().endTs(TODAY).lookback(DAY).limit(10).build());
 
+    for (int shard = 0; shard < Schema.TRACE_BY_BUCKET_SHARDS; shard++) {
+      assertThat(call.toString()).contains("SelectTraceIdsFromBucket{shard=" + shard + ",");
+    }
+  }
+
+  @Test
+  public void getTraces_fansOutAgainstServices() {
+    Call<List<List<Span>>> call =
+        spanStore.getTraces(
+            QueryRequest.newBuilder().spanName("get").endTs(TODAY).lookback(DAY).limit(10).build());
+
     // TODO: the composition chain could be made a little complex if we scrub out map,map to
     // a list of transformations, or possibly just one special-cased one
     assertThat(call.toString()).contains(FlatMapServicesToInputs.class.getSimpleName());
@@ -50,5 +50,16 @@ abstract class ITEnsureSchema {
 
     KeyspaceMetadata metadata = session().getCluster().getMetadata().getKeyspace(keyspace());
     assertThat(metadata.getTable("trace_by_service_span")).isNotNull();
+    assertThat(metadata.getTable("trace_by_bucket")).isNotNull();
+  }
+
+  @Test public void upgradesIndexesWhenMissingTraceByBucket() {
+    Schema.ensureExists(keyspace(), true, session());
+    session().execute("DROP TABLE " + keyspace() + ".trace_by_bucket");
+
+    Schema.ensureExists(keyspace(), true, session());
+
+    KeyspaceMetadata metadata = session().getCluster().getMetadata().getKeyspace(keyspace());
+    assertThat(metadata.getTable("trace_by_bucket")).isNotNull();
   }
 }
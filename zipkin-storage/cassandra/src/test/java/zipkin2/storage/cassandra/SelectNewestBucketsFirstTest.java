@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra;
+
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.utils.UUIDs;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import org.junit.Test;
+import org.mockito.Mockito;
+import zipkin2.storage.cassandra.CassandraSpanStore.TimestampRange;
+import zipkin2.storage.cassandra.SelectTraceIdsFromServiceSpan.Input;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class SelectNewestBucketsFirstTest {
+  List<Integer> partitionsRead = new ArrayList<>();
+  SelectTraceIdsFromServiceSpan.Factory factory =
+      new SelectTraceIdsFromServiceSpan.Factory(
+          mock(Session.class, Mockito.RETURNS_MOCKS), partitionsRead::add);
+
+  @Test
+  public void readsOlderBucketsUntilLimit() {
+    SelectNewestBucketsFirst call =
+        (SelectNewestBucketsFirst) factory.newCall(asList(input(3), input(2), input(1)));
+    SelectNewestBucketsFirst.ReadBuckets read = call.new ReadBuckets();
+
+    assertThat(read.nextCall().toString()).contains("bucket=3", "limit_=10");
+    assertThat(read.add(traceIds(0, 4))).isTrue();
+
+    // only asks for the remaining trace IDs
+    assertThat(read.nextCall().toString()).contains("bucket=2", "limit_=6");
+    assertThat(read.add(traceIds(4, 10))).isFalse();
+
+    assertThat(read.partitionsRead).isEqualTo(2);
+    assertThat(read.result).hasSize(10);
+    assertThat(partitionsRead).containsExactly(2);
+  }
+
+  @Test
+  public void recordsPartitionsReadOnPartialResult() {
+    SelectNewestBucketsFirst call =
+        (SelectNewestBucketsFirst) factory.newCall(asList(input(2), input(1)));
+    SelectNewestBucketsFirst.ReadBuckets read = call.new ReadBuckets();
+
+    read.nextCall();
+    assertThat(read.add(traceIds(0, 1))).isTrue();
+    read.partialResult(new IllegalStateException("timeout reading bucket 1"));
+
+    assertThat(partitionsRead).containsExactly(1);
+  }
+
+  /** Each bucket of trace_by_bucket is read across all of its shards */
+  @Test
+  public void recordsShardsOfTraceByBucket() {
+    SelectTraceIdsFromBucket.Factory bucketFactory =
+        new SelectTraceIdsFromBucket.Factory(
+            mock(Session.class, Mockito.RETURNS_MOCKS), partitionsRead::add);
+    TimestampRange range = new TimestampRange();
+    range.startUUID = UUIDs.startOf(0L);
+    range.endUUID = UUIDs.endOf(0L);
+    SelectNewestBucketsFirst call =
+        (SelectNewestBucketsFirst)
+            bucketFactory.newCall(
+                asList(bucketFactory.newInput(2, range, 10), bucketFactory.newInput(1, range, 10)));
+    SelectNewestBucketsFirst.ReadBuckets read = call.new ReadBuckets();
+
+    read.nextCall();
+    assertThat(read.add(traceIds(0, 10))).isFalse();
+
+    assertThat(partitionsRead).containsExactly(Schema.TRACE_BY_BUCKET_SHARDS);
+  }
+
+  @Test
+  public void readsAllBucketsWhenLimitNotReached() {
+    SelectNewestBucketsFirst call =
+        (SelectNewestBucketsFirst) factory.newCall(asList(input(2), input(1)));
+    SelectNewestBucketsFirst.ReadBuckets read = call.new ReadBuckets();
+
+    read.nextCall();
+    assertThat(read.add(traceIds(0, 1))).isTrue();
+    read.nextCall();
+    assertThat(read.add(traceIds(0, 2))).isFalse(); // trace ID 0 is in both buckets
+
+    assertThat(read.partitionsRead).isEqualTo(2);
+    assertThat(read.traceIds).containsExactly("0", "1");
+    assertThat(partitionsRead).containsExactly(2);
+  }
+
+  Input input(int bucket) {
+    TimestampRange range = new TimestampRange();
+    range.startUUID = UUIDs.startOf(0L);
+    range.endUUID = UUIDs.endOf(0L);
+    return factory.newInput("frontend", "", bucket, null, null, range, 10);
+  }
+
+  static Set<Entry<String, Long>> traceIds(int from, int to) {
+    Set<Entry<String, Long>> result = new LinkedHashSet<>();
+    for (int i = from; i < to; i++) result.add(new SimpleEntry<>(String.valueOf(i), (long) i));
+    return result;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.storage.cassandra.CassandraStorage.WriteMetrics;
+import zipkin2.storage.cassandra.internal.call.PendingCall;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class WriteAdmissionTest {
+  WriteMetrics metrics = mock(WriteMetrics.class);
+  WriteAdmission admission = new WriteAdmission(2, 3, metrics);
+  List<PendingCall<Void>> pending = new ArrayList<>();
+  List<Object> results = new ArrayList<>();
+
+  @Test public void waitsForRoomInFlight() {
+    enqueue(2);
+    enqueue(1);
+    assertThat(pending).hasSize(1);
+    verify(metrics).updateWrites(2, 1);
+
+    pending.get(0).onSuccess(null);
+    assertThat(pending).hasSize(2);
+    verify(metrics).updateWrites(1, 0);
+  }
+
+  @Test public void startsInOrder() {
+    enqueue(1);
+    enqueue(2);
+    enqueue(1); // would fit alongside the first, but doesn't overtake the second
+    assertThat(pending).hasSize(1);
+
+    pending.get(0).onSuccess(null);
+    assertThat(pending).hasSize(2);
+
+    pending.get(1).onSuccess(null);
+    assertThat(pending).hasSize(3);
+  }
+
+  @Test public void rejectsWhenQueueFull() {
+    enqueue(2);
+    enqueue(3);
+    enqueue(1);
+
+    assertThat(results).hasSize(1);
+    assertThat((Throwable) results.get(0)).hasMessage("over capacity");
+    verify(metrics).incrementRejected(1);
+  }
+
+  @Test public void admitsLargeMessageAlone() {
+    enqueue(5);
+    assertThat(pending).hasSize(1);
+
+    enqueue(1);
+    assertThat(pending).hasSize(1);
+  }
+
+  /** Otherwise, a message larger than the queue would be rejected whenever any are in flight */
+  @Test public void queuesLargeMessageAlone() {
+    enqueue(1);
+    enqueue(5);
+    assertThat(results).isEmpty();
+
+    enqueue(1);
+    assertThat((Throwable) results.get(0)).hasMessage("over capacity");
+
+    pending.get(0).onSuccess(null);
+    assertThat(pending).hasSize(2);
+  }
+
+  @Test public void cancelingWaitingMessageFreesQueue() {
+    enqueue(2);
+    Call<Void> waiting = enqueue(3);
+
+    waiting.cancel();
+    assertThat((Throwable) results.get(0)).isInstanceOf(CancellationException.class);
+
+    enqueue(3);
+    assertThat(results).hasSize(1);
+  }
+
+  /** Messages that complete on the enqueuing thread shouldn't recurse per message */
+  @Test public void completesSynchronousCalls() {
+    AtomicInteger completed = new AtomicInteger();
+    admission = new WriteAdmission(1, 10_000, metrics);
+    Call<Void> first = enqueue(1);
+    for (int i = 0; i < 10_000; i++) {
+      admission.admit(Call.<Void>create(null), 1).enqueue(new Callback<Void>() {
+        @Override public void onSuccess(Void value) {
+          completed.incrementAndGet();
+        }
+
+        @Override public void onError(Throwable t) {
+          throw new AssertionError(t);
+        }
+      });
+    }
+
+    pending.get(0).onSuccess(null);
+    assertThat(completed).hasValue(10_000);
+  }
+
+  Call<Void> enqueue(int statements) {
+    Call<Void> call = admission.admit(new PendingCall<>(pending), statements);
+    call.enqueue(new Callback<Void>() {
+      @Override public void onSuccess(Void value) {
+        results.add("success");
+      }
+
+      @Override public void onError(Throwable t) {
+        results.add(t);
+      }
+    });
+    return call;
+  }
+}
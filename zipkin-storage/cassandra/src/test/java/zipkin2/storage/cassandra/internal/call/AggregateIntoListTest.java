@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra.internal.call;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AggregateIntoListTest {
+  List<PendingCall<List<Integer>>> pending = new ArrayList<>();
+
+  @Test public void enqueuesNoMoreThanMaxInFlight() throws IOException {
+    List<Call<List<Integer>>> calls = new ArrayList<>();
+    for (int i = 0; i < 5; i++) calls.add(new PendingCall<>(pending));
+    AtomicInteger completed = new AtomicInteger();
+
+    new AggregateIntoList<>(calls, 2).enqueue(new Callback<List<Integer>>() {
+      @Override public void onSuccess(List<Integer> value) {
+        assertThat(value).containsExactlyInAnyOrder(0, 1, 2, 3, 4);
+        completed.incrementAndGet();
+      }
+
+      @Override public void onError(Throwable t) {
+        throw new AssertionError(t);
+      }
+    });
+
+    for (int i = 0; i < 5; i++) {
+      assertThat(pending).hasSize(Math.min(i + 2, 5));
+      assertThat(pending.get(i)).isSameAs(calls.get(i)); // enqueued in order
+      pending.get(i).onSuccess(asList(i));
+    }
+    assertThat(completed).hasValue(1);
+  }
+
+  /** Each call reads part of the result, so returning the others would hide the failure */
+  @Test public void failsWhenAnyCallFails() {
+    List<Call<List<Integer>>> calls = new ArrayList<>();
+    for (int i = 0; i < 3; i++) calls.add(new PendingCall<>(pending));
+    List<Object> results = new ArrayList<>();
+
+    new AggregateIntoList<>(calls, 2).enqueue(new Callback<List<Integer>>() {
+      @Override public void onSuccess(List<Integer> value) {
+        results.add(value);
+      }
+
+      @Override public void onError(Throwable t) {
+        results.add(t);
+      }
+    });
+
+    IOException error = new IOException("timeout");
+    pending.get(0).onError(error);
+    pending.get(1).onSuccess(asList(1));
+
+    assertThat(results).containsExactly(error);
+    assertThat(pending).hasSize(2); // the last call wasn't enqueued
+    assertThat(calls.get(1).isCanceled()).isTrue();
+  }
+
+  /** Calls that complete on the enqueuing thread shouldn't recurse per call */
+  @Test public void completesSynchronousCalls() throws IOException {
+    List<Call<List<Integer>>> calls = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) calls.add(Call.create(asList(i)));
+
+    assertThat(new AggregateIntoList<>(calls, 2).execute()).hasSize(10_000);
+  }
+}
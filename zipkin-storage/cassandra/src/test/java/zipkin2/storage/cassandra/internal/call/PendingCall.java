@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra.internal.call;
+
+import java.util.List;
+import zipkin2.Call;
+import zipkin2.Callback;
+
+/** A call that completes when the test says so, added to the given list when enqueued. */
+public final class PendingCall<V> extends Call.Base<V> {
+  final List<PendingCall<V>> pending;
+  Callback<V> callback;
+
+  public PendingCall(List<PendingCall<V>> pending) {
+    this.pending = pending;
+  }
+
+  public void onSuccess(V value) {
+    callback.onSuccess(value);
+  }
+
+  public void onError(Throwable t) {
+    callback.onError(t);
+  }
+
+  @Override protected V doExecute() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override protected void doEnqueue(Callback<V> callback) {
+    this.callback = callback;
+    pending.add(this);
+  }
+
+  @Override public PendingCall<V> clone() {
+    return new PendingCall<>(pending);
+  }
+}
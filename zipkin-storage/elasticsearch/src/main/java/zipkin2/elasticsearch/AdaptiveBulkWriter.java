@@ -0,0 +1,457 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import com.squareup.moshi.JsonReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import okio.BufferedSource;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.elasticsearch.ElasticsearchSpanConsumer.SpanDocument;
+import zipkin2.elasticsearch.ElasticsearchSpanConsumer.SpanIndexer;
+import zipkin2.elasticsearch.internal.HttpBulkIndexer;
+import zipkin2.elasticsearch.internal.client.HttpCall;
+import zipkin2.internal.Nullable;
+
+/**
+ * Queues spans and merges them into bulk requests, instead of failing when {@link
+ * ElasticsearchStorage#maxRequests()} are in-flight.
+ *
+ * <p>The count of spans per bulk request and the count of in-flight bulk requests are sized with
+ * additive-increase/multiplicative-decrease (AIMD). Both grow while requests succeed within {@link
+ * #TARGET_LATENCY_NANOS}. Both halve when Elasticsearch rejects work, either with a 429 status or
+ * an {@code es_rejected_execution_exception} for an item. Rejected items, and items in a request
+ * that failed with an I/O error, are retried after a backoff. Other item failures are not retried.
+ *
+ * <p>A caller's callback completes when all of its spans are indexed, or on the first span that
+ * failed permanently. Spans only drop when {@link ElasticsearchStorage#bulkQueuedSpans()} are
+ * queued, or after {@link #MAX_ATTEMPTS}.
+ */
+final class AdaptiveBulkWriter implements Closeable {
+  static final Logger LOG = Logger.getLogger(AdaptiveBulkWriter.class.getName());
+
+  static final int MIN_BULK_SPANS = 50, INITIAL_BULK_SPANS = 500, MAX_BULK_SPANS = 10000;
+  static final long TARGET_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(1);
+  static final int MAX_ATTEMPTS = 5;
+  static final long INITIAL_BACKOFF_MILLIS = 100L, MAX_BACKOFF_MILLIS = 5000L;
+
+  final ElasticsearchStorage es;
+  final int maxQueuedSpans, maxInFlight;
+  final ScheduledExecutorService scheduler;
+
+  final Object lock = new Object();
+  // guarded by lock
+  final ArrayDeque<Item> queue = new ArrayDeque<>();
+  int bulkSpans = INITIAL_BULK_SPANS, window, inFlight;
+  long backoffMillis; // zero unless recovering from rejection
+  boolean backingOff, closed;
+
+  AdaptiveBulkWriter(ElasticsearchStorage es) {
+    this.es = es;
+    this.maxQueuedSpans = es.bulkQueuedSpans();
+    this.maxInFlight = es.maxRequests();
+    this.window = Math.max(1, maxInFlight / 4);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "AdaptiveBulkWriter");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  Call<Void> newCall(List<Span> spans) {
+    return new BulkCall(spans);
+  }
+
+  void add(List<Item> items, Pending pending) {
+    IllegalStateException error = null;
+    synchronized (lock) {
+      if (closed) {
+        error = new IllegalStateException("closed");
+      } else if (queue.size() + items.size() > maxQueuedSpans) {
+        error = new IllegalStateException("over capacity");
+      } else {
+        queue.addAll(items);
+      }
+    }
+    if (error != null) {
+      pending.fail(error);
+      return;
+    }
+    dispatch();
+  }
+
+  /** Sends as many bulk requests as the window allows, each up to the current bulk size. */
+  void dispatch() {
+    List<List<Item>> batches = new ArrayList<>();
+    synchronized (lock) {
+      while (!backingOff && !closed && inFlight < window && !queue.isEmpty()) {
+        int count = Math.min(bulkSpans, queue.size());
+        List<Item> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) batch.add(queue.poll());
+        batches.add(batch);
+        inFlight++;
+      }
+    }
+    for (List<Item> batch : batches) send(batch);
+  }
+
+  void send(List<Item> batch) {
+    final List<Item> items = batch;
+    final long start = System.nanoTime();
+    HttpCall<BulkResponse> call;
+    try {
+      HttpBulkIndexer indexer = new HttpBulkIndexer("index-span", es);
+      for (Item item : items) {
+        indexer.add(item.index, ElasticsearchSpanStore.SPAN, item.document, null);
+      }
+      call = indexer.newCall(BulkResponse.CONVERTER);
+    } catch (RuntimeException e) {
+      onComplete(items, null, e, 0L);
+      return;
+    }
+    call.enqueue(new Callback<BulkResponse>() {
+      @Override public void onSuccess(@Nullable BulkResponse response) {
+        onComplete(items, response, null, System.nanoTime() - start);
+      }
+
+      @Override public void onError(Throwable t) {
+        onComplete(items, null, t, System.nanoTime() - start);
+      }
+    });
+  }
+
+  /**
+   * Completes callers of indexed or permanently failed items, requeues rejected ones, then adjusts
+   * the bulk size and window.
+   *
+   * @param response null when the request failed, or when all items succeeded
+   */
+  void onComplete(List<Item> items, @Nullable BulkResponse response, @Nullable Throwable error,
+    long latencyNanos) {
+    List<Item> retry = new ArrayList<>();
+    if (error != null) {
+      boolean retryable = isRetryable(error);
+      for (Item item : items) {
+        if (retryable && ++item.attempts < MAX_ATTEMPTS) {
+          retry.add(item);
+        } else {
+          item.pending.fail(error);
+        }
+      }
+    } else {
+      for (int i = 0, length = items.size(); i < length; i++) {
+        Item item = items.get(i);
+        int status = response != null ? response.status(i) : 200;
+        if (status < 300) {
+          item.pending.success();
+        } else if (response.isRejected(i) && ++item.attempts < MAX_ATTEMPTS) {
+          retry.add(item);
+        } else {
+          item.pending.fail(new IllegalStateException(
+            "failed to index span: status " + status + " " + response.error(i)));
+        }
+      }
+    }
+
+    long backoff = 0L;
+    boolean closed;
+    synchronized (lock) {
+      inFlight--;
+      closed = this.closed;
+      if (!retry.isEmpty() && !closed) {
+        for (int i = retry.size() - 1; i >= 0; i--) queue.addFirst(retry.get(i));
+        bulkSpans = Math.max(MIN_BULK_SPANS, bulkSpans / 2);
+        window = Math.max(1, window / 2);
+        backoffMillis = backoffMillis == 0L
+          ? INITIAL_BACKOFF_MILLIS
+          : Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+        if (!backingOff) backoff = backoffMillis;
+        backingOff = true;
+      } else if (error != null || latencyNanos > TARGET_LATENCY_NANOS) {
+        // a request that failed permanently isn't evidence Elasticsearch can take more
+        bulkSpans = Math.max(MIN_BULK_SPANS, bulkSpans / 2);
+      } else {
+        bulkSpans = Math.min(MAX_BULK_SPANS, bulkSpans + MIN_BULK_SPANS);
+        window = Math.min(maxInFlight, window + 1);
+        backoffMillis = 0L;
+      }
+    }
+
+    if (closed) {
+      IllegalStateException closedError = new IllegalStateException("closed");
+      for (Item item : retry) item.pending.fail(closedError);
+    } else if (backoff != 0L) {
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine("retrying " + retry.size() + " spans in " + backoff + "ms");
+      }
+      try {
+        scheduler.schedule(this::endBackoff, backoff, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // closed concurrently, which failed the queued retries
+      }
+    } else {
+      dispatch();
+    }
+  }
+
+  void endBackoff() {
+    synchronized (lock) {
+      backingOff = false;
+    }
+    dispatch();
+  }
+
+  /** Overload and I/O errors are transient, while a bad request would fail again. */
+  static boolean isRetryable(Throwable error) {
+    if (error instanceof IOException) return true;
+    if (error instanceof HttpCall.ResponseFailedException) {
+      int code = ((HttpCall.ResponseFailedException) error).code;
+      return code == 429 || code == 503;
+    }
+    // HttpCall.Factory is out of permits, as other requests share them
+    return error instanceof IllegalStateException && "over capacity".equals(error.getMessage());
+  }
+
+  /** Fails any queued spans. In-flight requests complete normally, but are not retried. */
+  @Override public void close() {
+    List<Item> dropped;
+    synchronized (lock) {
+      if (closed) return;
+      closed = true;
+      dropped = new ArrayList<>(queue);
+      queue.clear();
+    }
+    scheduler.shutdownNow();
+    IllegalStateException error = new IllegalStateException("closed");
+    for (Item item : dropped) item.pending.fail(error);
+  }
+
+  /** One span document, and the caller waiting on it. */
+  static final class Item {
+    final String index;
+    final SpanDocument document;
+    final Pending pending;
+    int attempts; // guarded by the thread completing the bulk request
+
+    Item(String index, SpanDocument document, Pending pending) {
+      this.index = index;
+      this.document = document;
+      this.pending = pending;
+    }
+  }
+
+  /** Completes the callback once per call to {@link ElasticsearchSpanConsumer#accept(List)}. */
+  static final class Pending {
+    final Callback<Void> callback;
+    final AtomicInteger remaining;
+    final AtomicBoolean done = new AtomicBoolean();
+
+    Pending(Callback<Void> callback, int spanCount) {
+      this.callback = callback;
+      this.remaining = new AtomicInteger(spanCount);
+    }
+
+    void success() {
+      if (remaining.decrementAndGet() == 0 && done.compareAndSet(false, true)) {
+        callback.onSuccess(null);
+      }
+    }
+
+    void fail(Throwable error) {
+      if (done.compareAndSet(false, true)) callback.onError(error);
+    }
+  }
+
+  static final class ItemCollector extends SpanIndexer {
+    final Pending pending;
+    final List<Item> items;
+
+    ItemCollector(ElasticsearchStorage es, Pending pending, int spanCount) {
+      super(es);
+      this.pending = pending;
+      this.items = new ArrayList<>(spanCount);
+    }
+
+    @Override void add(String index, SpanDocument document) {
+      items.add(new Item(index, document, pending));
+    }
+  }
+
+  final class BulkCall extends Call.Base<Void> {
+    final List<Span> spans;
+
+    BulkCall(List<Span> spans) {
+      this.spans = spans;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final Throwable[] error = new Throwable[1];
+      doEnqueue(new Callback<Void>() {
+        @Override public void onSuccess(@Nullable Void value) {
+          latch.countDown();
+        }
+
+        @Override public void onError(Throwable t) {
+          error[0] = t;
+          latch.countDown();
+        }
+      });
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted waiting for spans to be indexed", e);
+      }
+      Throwable t = error[0];
+      if (t == null) return null;
+      if (t instanceof IOException) throw (IOException) t;
+      if (t instanceof RuntimeException) throw (RuntimeException) t;
+      if (t instanceof Error) throw (Error) t;
+      throw new IllegalStateException(t);
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      Pending pending = new Pending(callback, spans.size());
+      ItemCollector collector = new ItemCollector(es, pending, spans.size());
+      ElasticsearchSpanConsumer.indexSpans(collector, spans);
+      add(collector.items, pending);
+    }
+
+    @Override public Call<Void> clone() {
+      return new BulkCall(spans);
+    }
+
+    @Override public String toString() {
+      return "BulkCall(" + spans.size() + ")";
+    }
+  }
+
+  /**
+   * Per-item statuses of a bulk response which had errors. Converts to null when there were no
+   * errors, as then there's nothing to look at.
+   */
+  static final class BulkResponse {
+    static final HttpCall.BodyConverter<BulkResponse> CONVERTER =
+      new HttpCall.BodyConverter<BulkResponse>() {
+        @Override public BulkResponse convert(BufferedSource b) throws IOException {
+          return parse(JsonReader.of(b));
+        }
+
+        @Override public String toString() {
+          return "BulkResponse";
+        }
+      };
+
+    final List<Integer> statuses = new ArrayList<>();
+    final List<String> errorTypes = new ArrayList<>(), errors = new ArrayList<>();
+
+    int status(int i) {
+      return i < statuses.size() ? statuses.get(i) : 200;
+    }
+
+    @Nullable String error(int i) {
+      return i < errors.size() ? errors.get(i) : null;
+    }
+
+    boolean isRejected(int i) {
+      if (status(i) == 429) return true;
+      String type = i < errorTypes.size() ? errorTypes.get(i) : null;
+      if ("es_rejected_execution_exception".equals(type)) return true;
+      String error = error(i); // Elasticsearch 2.x returns the error as a string
+      return error != null && error.contains("EsRejectedExecutionException");
+    }
+
+    /**
+     * Reads the response as it streams in, returning null when the "errors" field is false. As
+     * Elasticsearch writes that field before the items, they are skipped instead of collected. They
+     * are still read, so that the connection can be reused.
+     */
+    // {"took":3,"errors":true,"items":[{"index":{"status":429,"error":{"type":"..."}}}]}
+    @Nullable static BulkResponse parse(JsonReader reader) throws IOException {
+      BulkResponse result = new BulkResponse();
+      Boolean errors = null;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("errors")) {
+          errors = reader.nextBoolean();
+          continue;
+        } else if (!name.equals("items") || Boolean.FALSE.equals(errors)) {
+          reader.skipValue();
+          continue;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+          reader.beginObject();
+          while (reader.hasNext()) {
+            reader.nextName(); // action, such as "index"
+            result.readItem(reader);
+          }
+          reader.endObject();
+        }
+        reader.endArray();
+      }
+      reader.endObject();
+      return Boolean.TRUE.equals(errors) ? result : null;
+    }
+
+    void readItem(JsonReader reader) throws IOException {
+      int status = 200;
+      String type = null, error = null;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("status")) {
+          status = reader.nextInt();
+        } else if (name.equals("error") && reader.peek() == JsonReader.Token.STRING) {
+          error = reader.nextString();
+        } else if (name.equals("error") && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (field.equals("type")) {
+              type = reader.nextString();
+            } else if (field.equals("reason") && reader.peek() == JsonReader.Token.STRING) {
+              error = reader.nextString();
+            } else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      statuses.add(status);
+      errorTypes.add(type);
+      errors.add(type != null ? type + ": " + error : error);
+    }
+  }
+}
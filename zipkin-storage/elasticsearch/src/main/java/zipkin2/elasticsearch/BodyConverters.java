@@ -15,11 +15,16 @@ package zipkin2.elasticsearch;
 
 import com.squareup.moshi.JsonReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import okio.BufferedSource;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
 import zipkin2.elasticsearch.internal.client.HttpCall;
+import zipkin2.elasticsearch.internal.client.ScrollCall;
 import zipkin2.elasticsearch.internal.client.SearchResultConverter;
 import zipkin2.internal.DependencyLinker;
 
@@ -40,8 +45,6 @@ public final class BodyConverters {
           return collectValuesNamed(JsonReader.of(b), "key");
         }
       };
-  static final HttpCall.BodyConverter<List<Span>> SPANS =
-      SearchResultConverter.create(JsonAdapters.SPAN_ADAPTER);
   static final HttpCall.BodyConverter<List<DependencyLink>> DEPENDENCY_LINKS =
       new SearchResultConverter<DependencyLink>(JsonAdapters.DEPENDENCY_LINK_ADAPTER) {
         @Override
@@ -50,4 +53,57 @@ public final class BodyConverters {
           return result.isEmpty() ? result : DependencyLinker.merge(result);
         }
       };
+
+  /** Collects the hits of a trace query in the order they were read. */
+  static final class SpanList implements ScrollCall.Accumulator<Span, List<Span>> {
+    final List<Span> spans = new ArrayList<>();
+
+    @Override
+    public void onHit(Span span) {
+      spans.add(span);
+    }
+
+    @Override
+    public List<Span> result() {
+      return spans.isEmpty() ? Collections.emptyList() : spans;
+    }
+  }
+
+  /**
+   * Like {@link zipkin2.storage.GroupByTraceId}, except spans are added to their trace as they are
+   * decoded, instead of after all hits are read into a list.
+   *
+   * <p>This doesn't bound memory to one trace: {@link zipkin2.storage.SpanStore#getTraces} returns
+   * every trace at once, so all spans of the result are held until it completes. What's avoided is
+   * the flat span list held alongside the grouped copy.
+   */
+  static final class GroupSpansByTraceId
+      implements ScrollCall.Accumulator<Span, List<List<Span>>> {
+    final boolean strictTraceId;
+    final Map<Object, List<Span>> groupedByTraceId = new LinkedHashMap<>();
+
+    GroupSpansByTraceId(boolean strictTraceId) {
+      this.strictTraceId = strictTraceId;
+    }
+
+    @Override
+    public void onHit(Span span) {
+      // When not strict, group on the lower 64-bits of the trace ID
+      Object traceId = strictTraceId ? span.traceId() : span.traceIdLow();
+      List<Span> trace = groupedByTraceId.get(traceId);
+      if (trace == null) groupedByTraceId.put(traceId, trace = new ArrayList<>());
+      trace.add(span);
+    }
+
+    @Override
+    public List<List<Span>> result() {
+      if (groupedByTraceId.isEmpty()) return Collections.emptyList();
+      return new ArrayList<>(groupedByTraceId.values());
+    }
+
+    @Override
+    public String toString() {
+      return "GroupSpansByTraceId{strictTraceId=" + strictTraceId + "}";
+    }
+  }
 }
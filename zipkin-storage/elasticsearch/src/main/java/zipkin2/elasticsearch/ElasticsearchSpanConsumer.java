@@ -13,24 +13,24 @@
  */
 package zipkin2.elasticsearch;
 
-import com.squareup.moshi.JsonWriter;
-import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
 import java.util.logging.Logger;
-import okio.Buffer;
-import okio.ByteString;
 import zipkin2.Annotation;
 import zipkin2.Call;
 import zipkin2.Span;
-import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.elasticsearch.internal.HttpBulkIndexer;
 import zipkin2.elasticsearch.internal.IndexNameFormatter;
 import zipkin2.elasticsearch.internal.client.HttpCall;
+import zipkin2.internal.Buffer;
+import zipkin2.internal.V2SpanWriter;
 import zipkin2.storage.SpanConsumer;
 
+import static zipkin2.internal.Buffer.asciiSizeInBytes;
+import static zipkin2.internal.JsonEscaper.jsonEscape;
+import static zipkin2.internal.JsonEscaper.jsonEscapedSizeInBytes;
+
 class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testing
   static final Logger LOG = Logger.getLogger(ElasticsearchSpanConsumer.class.getName());
 
@@ -45,12 +45,14 @@ class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testi
   @Override
   public Call<Void> accept(List<Span> spans) {
     if (spans.isEmpty()) return Call.create(null);
+    AdaptiveBulkWriter writer = es.adaptiveBulkWriter();
+    if (writer != null) return writer.newCall(spans);
     BulkSpanIndexer indexer = new BulkSpanIndexer(es);
     indexSpans(indexer, spans);
     return indexer.newCall();
   }
 
-  void indexSpans(BulkSpanIndexer indexer, List<Span> spans) {
+  static void indexSpans(SpanIndexer indexer, List<Span> spans) {
     for (Span span : spans) {
       long spanTimestamp = span.timestampAsLong();
       long indexTimestamp = 0L; // which index to store this span into
@@ -69,13 +71,12 @@ class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testi
     }
   }
 
-  static final class BulkSpanIndexer {
-    final HttpBulkIndexer indexer;
+  /** Chooses the index of each span and encodes it as a document. */
+  abstract static class SpanIndexer {
     final IndexNameFormatter indexNameFormatter;
     final boolean searchEnabled;
 
-    BulkSpanIndexer(ElasticsearchStorage es) {
-      this.indexer = new HttpBulkIndexer("index-span", es);
+    SpanIndexer(ElasticsearchStorage es) {
       this.indexNameFormatter = es.indexNameFormatter();
       this.searchEnabled = es.searchEnabled();
     }
@@ -83,10 +84,21 @@ class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testi
     void add(long indexTimestamp, Span span, long timestampMillis) {
       String index =
           indexNameFormatter.formatTypeAndTimestamp(ElasticsearchSpanStore.SPAN, indexTimestamp);
-      byte[] document =
-          searchEnabled
-              ? prefixWithTimestampMillisAndQuery(span, timestampMillis)
-              : SpanBytesEncoder.JSON_V2.encode(span);
+      add(index, new SpanDocument(span, timestampMillis, searchEnabled));
+    }
+
+    abstract void add(String index, SpanDocument document);
+  }
+
+  static final class BulkSpanIndexer extends SpanIndexer {
+    final HttpBulkIndexer indexer;
+
+    BulkSpanIndexer(ElasticsearchStorage es) {
+      super(es);
+      this.indexer = new HttpBulkIndexer("index-span", es);
+    }
+
+    @Override void add(String index, SpanDocument document) {
       indexer.add(
           index, ElasticsearchSpanStore.SPAN, document, null /* Allow ES to choose an ID */);
     }
@@ -111,58 +123,100 @@ class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testi
    * <p>Ex {@code curl -s localhost:9200/zipkin:span-2017-08-11/_search?q=_q:error=500}
    */
   static byte[] prefixWithTimestampMillisAndQuery(Span span, long timestampMillis) {
-    Buffer query = new Buffer();
-    JsonWriter writer = JsonWriter.of(query);
-    try {
-      writer.beginObject();
-
-      if (timestampMillis != 0L) writer.name("timestamp_millis").value(timestampMillis);
-      if (!span.tags().isEmpty() || !span.annotations().isEmpty()) {
-        writer.name("_q");
-        writer.beginArray();
+    SpanDocument document = new SpanDocument(span, timestampMillis, true);
+    byte[] result = new byte[document.sizeInBytes()];
+    document.write(result, 0);
+    return result;
+  }
+
+  /**
+   * Writes the span as json, prefixed as described in {@link #prefixWithTimestampMillisAndQuery},
+   * directly into the bulk request body. The prefix is written first, then the span, whose leading
+   * '{' is overwritten with a comma.
+   */
+  static final class SpanDocument implements HttpBulkIndexer.Document {
+    static final V2SpanWriter WRITER = new V2SpanWriter();
+
+    final Span span;
+    final long timestampMillis;
+    final boolean writeQuery;
+    final int prefixSize, sizeInBytes;
+
+    SpanDocument(Span span, long timestampMillis, boolean searchEnabled) {
+      this.span = span;
+      this.timestampMillis = timestampMillis;
+      this.writeQuery = !span.tags().isEmpty() || !span.annotations().isEmpty();
+      this.prefixSize = searchEnabled ? prefixSizeInBytes() : 0;
+      this.sizeInBytes = prefixSize + WRITER.sizeInBytes(span);
+    }
+
+    /** Returns zero when there's nothing to prefix. Excludes the comma, which replaces a '{' */
+    int prefixSizeInBytes() {
+      if (timestampMillis == 0L && !writeQuery) return 0;
+      int sizeInBytes = 1; // {
+      if (timestampMillis != 0L) {
+        sizeInBytes += 19; // "timestamp_millis":
+        sizeInBytes += asciiSizeInBytes(timestampMillis);
+      }
+      if (writeQuery) {
+        if (timestampMillis != 0L) sizeInBytes++; // ,
+        sizeInBytes += 7; // "_q":[]
+        int values = 0;
         for (Annotation a : span.annotations()) {
-          if (a.value().length() > INDEX_CHARS_LIMIT) {
-            continue;
-          }
-          writer.value(a.value());
+          if (a.value().length() > INDEX_CHARS_LIMIT) continue;
+          sizeInBytes += jsonEscapedSizeInBytes(a.value()) + 2; // quotes
+          values++;
         }
         for (Map.Entry<String, String> tag : span.tags().entrySet()) {
           int length = tag.getKey().length() + tag.getValue().length() + 1;
-          if (length > INDEX_CHARS_LIMIT) {
-            continue;
-          }
-          writer.value(tag.getKey()); // search is possible by key alone
-          writer.value(
-              new StringBuilder(length)
-                  .append(tag.getKey())
-                  .append("=")
-                  .append(tag.getValue())
-                  .toString());
+          if (length > INDEX_CHARS_LIMIT) continue;
+          int keySize = jsonEscapedSizeInBytes(tag.getKey());
+          sizeInBytes += keySize + 2; // search is possible by key alone
+          sizeInBytes += keySize + 1 + jsonEscapedSizeInBytes(tag.getValue()) + 2;
+          values += 2;
         }
-        writer.endArray();
-      }
-      writer.endObject();
-    } catch (IOException e) {
-      // very unexpected to have an IOE for an in-memory write
-      assert false : "Error indexing query for span: " + span;
-      if (LOG.isLoggable(Level.FINE)) {
-        LOG.log(Level.FINE, "Error indexing query for span: " + span, e);
+        if (values > 1) sizeInBytes += values - 1; // commas
       }
-      return SpanBytesEncoder.JSON_V2.encode(span);
+      return sizeInBytes;
     }
-    byte[] document = SpanBytesEncoder.JSON_V2.encode(span);
-    if (query.rangeEquals(0L, ByteString.of(new byte[] {'{', '}'}))) {
-      return document;
+
+    @Override public int sizeInBytes() {
+      return sizeInBytes;
+    }
+
+    @Override public void write(byte[] out, int pos) {
+      Buffer b = new Buffer(out, pos);
+      if (prefixSize != 0) writePrefix(b);
+      int spanPos = b.pos();
+      WRITER.write(span, b);
+      if (prefixSize != 0) out[spanPos] = ',';
+    }
+
+    void writePrefix(Buffer b) {
+      b.writeByte('{');
+      if (timestampMillis != 0L) {
+        b.writeAscii("\"timestamp_millis\":").writeAscii(timestampMillis);
+      }
+      if (!writeQuery) return;
+      if (timestampMillis != 0L) b.writeByte(',');
+      b.writeAscii("\"_q\":[");
+      boolean first = true;
+      for (Annotation a : span.annotations()) {
+        if (a.value().length() > INDEX_CHARS_LIMIT) continue;
+        if (!first) b.writeByte(',');
+        first = false;
+        b.writeByte('"').writeUtf8(jsonEscape(a.value())).writeByte('"');
+      }
+      for (Map.Entry<String, String> tag : span.tags().entrySet()) {
+        int length = tag.getKey().length() + tag.getValue().length() + 1;
+        if (length > INDEX_CHARS_LIMIT) continue;
+        if (!first) b.writeByte(',');
+        first = false;
+        String key = jsonEscape(tag.getKey());
+        b.writeByte('"').writeUtf8(key).writeAscii("\",\"").writeUtf8(key).writeByte('=');
+        b.writeUtf8(jsonEscape(tag.getValue())).writeByte('"');
+      }
+      b.writeByte(']');
     }
-    byte[] prefix = query.readByteArray();
-
-    byte[] newSpanBytes = new byte[prefix.length + document.length - 1];
-    int pos = 0;
-    System.arraycopy(prefix, 0, newSpanBytes, pos, prefix.length);
-    pos += prefix.length;
-    newSpanBytes[pos - 1] = ',';
-    // starting at position 1 discards the old head of '{'
-    System.arraycopy(document, 1, newSpanBytes, pos, document.length - 1);
-    return newSpanBytes;
   }
 }
@@ -13,6 +13,7 @@
  */
 package zipkin2.elasticsearch;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -21,10 +22,10 @@ import zipkin2.DependencyLink;
 import zipkin2.Span;
 import zipkin2.elasticsearch.internal.IndexNameFormatter;
 import zipkin2.elasticsearch.internal.client.Aggregation;
+import zipkin2.elasticsearch.internal.client.ConcatCall;
 import zipkin2.elasticsearch.internal.client.HttpCall;
 import zipkin2.elasticsearch.internal.client.SearchCallFactory;
 import zipkin2.elasticsearch.internal.client.SearchRequest;
-import zipkin2.storage.GroupByTraceId;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.SpanStore;
 import zipkin2.storage.StrictTraceId;
@@ -37,9 +38,14 @@ final class ElasticsearchSpanStore implements SpanStore {
   static final String DEPENDENCY = "dependency";
   /** To not produce unnecessarily long queries, we don't look back further than first ES support */
   static final long EARLIEST_MS = 1456790400000L; // March 2016
+  /** Spans are read in pages of this size, so that large traces aren't truncated. */
+  static final int SPANS_PAGE_SIZE = 1000;
+  /** Trace IDs fetched by one scroll, unless that would exceed {@link #MAX_CONCURRENT_SCROLLS}. */
+  static final int TRACE_IDS_PER_SCROLL = 10;
+  /** Bounds concurrency so that wide queries don't exhaust the http request limit. */
+  static final int MAX_CONCURRENT_SCROLLS = 8;
 
   final SearchCallFactory search;
-  final Call.Mapper<List<Span>, List<List<Span>>> groupByTraceId;
   final String[] allSpanIndices;
   final IndexNameFormatter indexNameFormatter;
   final boolean strictTraceId, searchEnabled;
@@ -47,7 +53,6 @@ final class ElasticsearchSpanStore implements SpanStore {
 
   ElasticsearchSpanStore(ElasticsearchStorage es) {
     this.search = new SearchCallFactory(es.http());
-    this.groupByTraceId = GroupByTraceId.create(es.strictTraceId());
     this.allSpanIndices = new String[] {es.indexNameFormatter().formatType(SPAN)};
     this.indexNameFormatter = es.indexNameFormatter();
     this.strictTraceId = es.strictTraceId();
@@ -105,7 +110,7 @@ final class ElasticsearchSpanStore implements SpanStore {
     HttpCall<List<String>> traceIdsCall = search.newCall(esRequest, BodyConverters.KEYS);
 
     Call<List<List<Span>>> result =
-        traceIdsCall.flatMap(new GetSpansByTraceId(search, indices)).map(groupByTraceId);
+        traceIdsCall.flatMap(new GetSpansByTraceId(search, indices, strictTraceId));
     // Elasticsearch lookup by trace ID is by the full 128-bit length, but there's still a chance of
     // clash on lower-64 bit. When strict trace ID is enabled, we only filter client-side on clash.
     return strictTraceId ? result.map(StrictTraceId.filterTraces(request)) : result;
@@ -119,8 +124,11 @@ final class ElasticsearchSpanStore implements SpanStore {
     // Unless we are strict, truncate the trace ID to 64bit (encoded as 16 characters)
     if (!strictTraceId && traceId.length() == 32) traceId = traceId.substring(16);
 
-    SearchRequest request = SearchRequest.create(asList(allSpanIndices)).term("traceId", traceId);
-    return search.newCall(request, BodyConverters.SPANS);
+    SearchRequest request =
+        SearchRequest.create(asList(allSpanIndices))
+            .term("traceId", traceId)
+            .scroll(SPANS_PAGE_SIZE);
+    return search.newScrollCall(request, JsonAdapters.SPAN_ADAPTER, BodyConverters.SpanList::new);
   }
 
   @Override
@@ -181,21 +189,42 @@ final class ElasticsearchSpanStore implements SpanStore {
     return search.newCall(SearchRequest.create(indices), BodyConverters.DEPENDENCY_LINKS);
   }
 
-  static final class GetSpansByTraceId implements Call.FlatMapper<List<String>, List<Span>> {
+  /**
+   * Reads all spans of the trace IDs, scrolling so that large traces aren't truncated. Trace IDs
+   * are split into groups, which are scrolled concurrently and concatenated in the input order.
+   */
+  static final class GetSpansByTraceId
+      implements Call.FlatMapper<List<String>, List<List<Span>>> {
     final SearchCallFactory search;
     final List<String> indices;
+    final boolean strictTraceId;
 
-    GetSpansByTraceId(SearchCallFactory search, List<String> indices) {
+    GetSpansByTraceId(SearchCallFactory search, List<String> indices, boolean strictTraceId) {
       this.search = search;
       this.indices = indices;
+      this.strictTraceId = strictTraceId;
     }
 
     @Override
-    public Call<List<Span>> map(List<String> input) {
+    public Call<List<List<Span>>> map(List<String> input) {
       if (input.isEmpty()) return Call.emptyList();
 
-      SearchRequest getTraces = SearchRequest.create(indices).terms("traceId", input);
-      return search.newCall(getTraces, BodyConverters.SPANS);
+      int size = input.size();
+      int groupSize = (size + MAX_CONCURRENT_SCROLLS - 1) / MAX_CONCURRENT_SCROLLS;
+      groupSize = Math.max(TRACE_IDS_PER_SCROLL, groupSize);
+      List<Call<List<List<Span>>>> calls = new ArrayList<>();
+      for (int i = 0; i < size; i += groupSize) {
+        SearchRequest getTraces =
+            SearchRequest.create(indices)
+                .terms("traceId", input.subList(i, Math.min(i + groupSize, size)))
+                .scroll(SPANS_PAGE_SIZE);
+        calls.add(
+            search.newScrollCall(
+                getTraces,
+                JsonAdapters.SPAN_ADAPTER,
+                () -> new BodyConverters.GroupSpansByTraceId(strictTraceId)));
+      }
+      return ConcatCall.create(calls);
     }
 
     @Override
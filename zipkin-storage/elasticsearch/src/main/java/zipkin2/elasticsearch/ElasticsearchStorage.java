@@ -59,6 +59,7 @@ public abstract class ElasticsearchStorage extends zipkin2.storage.StorageCompon
         .client(client)
         .hosts(Collections.singletonList("http://localhost:9200"))
         .maxRequests(64)
+        .bulkQueuedSpans(0)
         .strictTraceId(true)
         .searchEnabled(true)
         .index("zipkin")
@@ -121,6 +122,14 @@ public abstract class ElasticsearchStorage extends zipkin2.storage.StorageCompon
      */
     public abstract Builder maxRequests(int maxRequests);
 
+    /**
+     * When positive, spans are queued up to this amount, instead of dropped when {@link
+     * #maxRequests(int)} are in-flight. Queued spans are merged into bulk requests sized to what
+     * Elasticsearch can currently accept, and rejected spans are retried. Defaults to 0, which
+     * sends each message of spans as its own bulk request.
+     */
+    public abstract Builder bulkQueuedSpans(int bulkQueuedSpans);
+
     /**
      * Only valid when the destination is Elasticsearch 5.x. Indicates the ingest pipeline used
      * before spans are indexed. No default.
@@ -207,6 +216,8 @@ public abstract class ElasticsearchStorage extends zipkin2.storage.StorageCompon
 
   public abstract int maxRequests();
 
+  abstract int bulkQueuedSpans();
+
   public abstract boolean strictTraceId();
 
   abstract boolean searchEnabled();
@@ -344,8 +355,25 @@ public abstract class ElasticsearchStorage extends zipkin2.storage.StorageCompon
     return new HttpCall.Factory(ok, HttpUrl.parse(hosts.get(0)));
   }
 
+  /** Not memoized, so that {@link #close()} can tell if it was created. */
+  volatile AdaptiveBulkWriter adaptiveBulkWriter;
+
+  /** Returns null unless {@link Builder#bulkQueuedSpans(int)} is positive. */
+  @Nullable
+  AdaptiveBulkWriter adaptiveBulkWriter() {
+    if (bulkQueuedSpans() <= 0) return null;
+    if (adaptiveBulkWriter == null) {
+      synchronized (this) {
+        if (adaptiveBulkWriter == null) adaptiveBulkWriter = new AdaptiveBulkWriter(this);
+      }
+    }
+    return adaptiveBulkWriter;
+  }
+
   @Override
   public void close() {
+    AdaptiveBulkWriter writer = adaptiveBulkWriter; // don't create one only to close it
+    if (writer != null) writer.close();
     if (!shutdownClientOnClose()) return;
     http().close();
   }
@@ -14,15 +14,20 @@
 package zipkin2.elasticsearch.internal;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okio.Buffer;
+import okio.BufferedSink;
 import okio.BufferedSource;
 import zipkin2.elasticsearch.ElasticsearchStorage;
 import zipkin2.elasticsearch.internal.client.HttpCall;
@@ -41,30 +46,37 @@ public final class HttpBulkIndexer {
   final boolean flushOnWrites;
 
   // Mutated for each call to add
-  final Buffer body = new Buffer();
+  final List<byte[]> metadata = new ArrayList<>();
+  final List<Document> documents = new ArrayList<>();
+  final Map<String, byte[]> metadataByIndex = new LinkedHashMap<>(); // when there's no ID
   final Set<String> indices;
-  final HttpCall.BodyConverter<Void> maybeFlush;
 
   public HttpBulkIndexer(String tag, ElasticsearchStorage es) {
     this.tag = tag;
     http = es.http();
     pipeline = es.pipeline();
     flushOnWrites = es.flushOnWrites();
-    if (flushOnWrites) {
-      indices = new LinkedHashSet<>();
-      maybeFlush =
-          new HttpCall.BodyConverter<Void>() {
-            @Override
-            public Void convert(BufferedSource b) throws IOException {
-              CheckForErrors.INSTANCE.convert(b);
-              if (indices.isEmpty()) return null;
-              ElasticsearchStorage.flush(http, join(indices));
-              return null;
-            }
-          };
-    } else {
-      indices = null;
-      maybeFlush = CheckForErrors.INSTANCE;
+    indices = flushOnWrites ? new LinkedHashSet<>() : null;
+  }
+
+  /** Flushes indices written after the response is converted, so that tests can read them. */
+  final class FlushAfter<V> implements HttpCall.BodyConverter<V> {
+    final HttpCall.BodyConverter<V> delegate;
+
+    FlushAfter(HttpCall.BodyConverter<V> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public V convert(BufferedSource b) throws IOException {
+      V result = delegate.convert(b);
+      if (!indices.isEmpty()) ElasticsearchStorage.flush(http, join(indices));
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "FlushAfter(" + delegate + ")";
     }
   }
 
@@ -84,29 +96,118 @@ public final class HttpBulkIndexer {
     }
   }
 
+  /**
+   * A bulk document which knows its size in advance, so that it can be written directly into the
+   * request body, as opposed to encoded into an intermediate byte array.
+   */
+  public interface Document {
+    int sizeInBytes();
+
+    /** Writes exactly {@link #sizeInBytes()} bytes into the array at the given position. */
+    void write(byte[] out, int pos);
+  }
+
   public void add(String index, String typeName, byte[] document, @Nullable String id) {
-    writeIndexMetadata(index, typeName, id);
-    writeDocument(document);
+    add(index, typeName, new BytesDocument(document), id);
   }
 
-  void writeIndexMetadata(String index, String typeName, @Nullable String id) {
+  public void add(String index, String typeName, Document document, @Nullable String id) {
     if (flushOnWrites) indices.add(index);
-    body.writeUtf8("{\"index\":{\"_index\":\"").writeUtf8(index).writeByte('"');
+    metadata.add(
+        id == null ? indexMetadata(index, typeName) : writeIndexMetadata(index, typeName, id));
+    documents.add(document);
+  }
+
+  /** The action line is the same for all documents in an index, when ES chooses the ID. */
+  byte[] indexMetadata(String index, String typeName) {
+    byte[] result = metadataByIndex.get(index);
+    if (result == null) {
+      result = writeIndexMetadata(index, typeName, null);
+      metadataByIndex.put(index, result);
+    }
+    return result;
+  }
+
+  static byte[] writeIndexMetadata(String index, String typeName, @Nullable String id) {
+    Buffer line = new Buffer();
+    line.writeUtf8("{\"index\":{\"_index\":\"").writeUtf8(index).writeByte('"');
     // the _type parameter is needed for Elasticsearch <6.x
-    body.writeUtf8(",\"_type\":\"").writeUtf8(typeName).writeByte('"');
+    line.writeUtf8(",\"_type\":\"").writeUtf8(typeName).writeByte('"');
     if (id != null) {
-      body.writeUtf8(",\"_id\":\"").writeUtf8(jsonEscape(id)).writeByte('"');
+      line.writeUtf8(",\"_id\":\"").writeUtf8(jsonEscape(id)).writeByte('"');
     }
-    body.writeUtf8("}}\n");
+    line.writeUtf8("}}\n");
+    return line.readByteArray();
   }
 
-  void writeDocument(byte[] document) {
-    body.write(document);
-    body.writeByte('\n');
+  static final class BytesDocument implements Document {
+    final byte[] document;
+
+    BytesDocument(byte[] document) {
+      this.document = document;
+    }
+
+    @Override public int sizeInBytes() {
+      return document.length;
+    }
+
+    @Override public void write(byte[] out, int pos) {
+      System.arraycopy(document, 0, out, pos, document.length);
+    }
+  }
+
+  /**
+   * Streams the action lines and documents into the request, reusing one array sized to the
+   * largest document. This can be written more than once, for example on retry.
+   */
+  static final class BulkRequestBody extends RequestBody {
+    final List<byte[]> metadata;
+    final List<Document> documents;
+    final int[] sizes;
+    final long contentLength;
+    final int maxDocumentSize;
+
+    BulkRequestBody(List<byte[]> metadata, List<Document> documents) {
+      this.metadata = metadata;
+      this.documents = documents;
+      this.sizes = new int[documents.size()];
+      long contentLength = 0L;
+      int maxDocumentSize = 0;
+      for (int i = 0; i < sizes.length; i++) {
+        int size = sizes[i] = documents.get(i).sizeInBytes();
+        contentLength += metadata.get(i).length + size + 1; // newline
+        maxDocumentSize = Math.max(maxDocumentSize, size);
+      }
+      this.contentLength = contentLength;
+      this.maxDocumentSize = maxDocumentSize;
+    }
+
+    @Override public MediaType contentType() {
+      return APPLICATION_JSON;
+    }
+
+    @Override public long contentLength() {
+      return contentLength;
+    }
+
+    @Override public void writeTo(BufferedSink sink) throws IOException {
+      byte[] scratch = new byte[maxDocumentSize];
+      for (int i = 0; i < sizes.length; i++) {
+        sink.write(metadata.get(i));
+        documents.get(i).write(scratch, 0);
+        sink.write(scratch, 0, sizes[i]);
+        sink.writeByte('\n');
+      }
+    }
   }
 
   /** Creates a bulk request when there is more than one object to store */
   public HttpCall<Void> newCall() {
+    return newCall(CheckForErrors.INSTANCE);
+  }
+
+  /** Like {@link #newCall()}, except the caller decides how to handle the bulk response. */
+  public <V> HttpCall<V> newCall(HttpCall.BodyConverter<V> bodyConverter) {
     HttpUrl url =
         pipeline != null
             ? http.baseUrl.newBuilder("_bulk").addQueryParameter("pipeline", pipeline).build()
@@ -116,10 +217,11 @@ public final class HttpBulkIndexer {
         new Request.Builder()
             .url(url)
             .tag(tag)
-            .post(RequestBody.create(APPLICATION_JSON, body.readByteString()))
+            .post(new BulkRequestBody(metadata, documents))
             .build();
 
-    return http.newCall(request, maybeFlush);
+    return http.newCall(
+        request, flushOnWrites ? new FlushAfter<>(bodyConverter) : bodyConverter);
   }
 
   static String join(Collection<String> parts) {
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import zipkin2.Call;
+import zipkin2.Callback;
+
+/**
+ * Runs calls concurrently, concatenating their results in the order of the input calls. Unlike
+ * merging partial results, this fails if any call fails, as the result would otherwise be
+ * incomplete.
+ */
+public final class ConcatCall<T> extends Call.Base<List<T>> {
+
+  /** Returns the only call or a call that concatenates the results of all of them. */
+  public static <T> Call<List<T>> create(List<Call<List<T>>> calls) {
+    if (calls.size() == 1) return calls.get(0);
+    return new ConcatCall<>(calls);
+  }
+
+  final List<Call<List<T>>> calls;
+
+  ConcatCall(List<Call<List<T>>> calls) {
+    this.calls = calls;
+  }
+
+  @Override protected List<T> doExecute() throws IOException {
+    final CountDownLatch countDown = new CountDownLatch(1);
+    final AtomicReference<Object> result = new AtomicReference<>();
+
+    doEnqueue(new Callback<List<T>>() {
+      @Override public void onSuccess(List<T> value) {
+        result.set(value);
+        countDown.countDown();
+      }
+
+      @Override public void onError(Throwable t) {
+        result.set(t);
+        countDown.countDown();
+      }
+    });
+
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          countDown.await();
+          Object value = result.get();
+          if (value instanceof Throwable) {
+            if (value instanceof Error) throw (Error) value;
+            if (value instanceof RuntimeException) throw (RuntimeException) value;
+            if (value instanceof IOException) throw (IOException) value;
+            throw new RuntimeException((Throwable) value);
+          }
+          return (List<T>) value;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override protected void doEnqueue(Callback<List<T>> callback) {
+    int length = calls.size();
+    AtomicInteger remaining = new AtomicInteger(length);
+    AtomicBoolean failed = new AtomicBoolean();
+    AtomicReferenceArray<List<T>> results = new AtomicReferenceArray<>(length);
+    for (int i = 0; i < length; i++) {
+      final int index = i;
+      calls.get(i).enqueue(new Callback<List<T>>() {
+        @Override public void onSuccess(List<T> value) {
+          results.set(index, value);
+          if (remaining.decrementAndGet() > 0) return;
+          List<T> concatenated = new ArrayList<>();
+          for (int j = 0; j < length; j++) concatenated.addAll(results.get(j));
+          callback.onSuccess(concatenated);
+        }
+
+        @Override public void onError(Throwable t) {
+          if (!failed.compareAndSet(false, true)) return;
+          doCancel(); // no need to finish other calls
+          callback.onError(t);
+        }
+      });
+    }
+  }
+
+  @Override protected void doCancel() {
+    for (int i = 0, length = calls.size(); i < length; i++) {
+      calls.get(i).cancel();
+    }
+  }
+
+  @Override public ConcatCall<T> clone() {
+    List<Call<List<T>>> cloned = new ArrayList<>(calls.size());
+    for (Call<List<T>> call : calls) cloned.add(call.clone());
+    return new ConcatCall<>(cloned);
+  }
+
+  @Override public String toString() {
+    return "ConcatCall{" + calls + "}";
+  }
+}
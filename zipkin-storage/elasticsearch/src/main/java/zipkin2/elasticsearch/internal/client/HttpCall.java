@@ -34,6 +34,18 @@ public final class HttpCall<V> extends Call<V> {
     V convert(BufferedSource content) throws IOException;
   }
 
+  /** Thrown when the response status isn't successful, for example 429 when ES is overloaded. */
+  public static final class ResponseFailedException extends IllegalStateException {
+    static final long serialVersionUID = 0L;
+
+    public final int code;
+
+    ResponseFailedException(int code, String message) {
+      super(message);
+      this.code = code;
+    }
+  }
+
   public static class Factory implements Closeable {
     final OkHttpClient ok;
     final Semaphore semaphore;
@@ -136,7 +148,7 @@ public final class HttpCall<V> extends Call<V> {
       if (response.isSuccessful()) {
         return null;
       } else {
-        throw new IllegalStateException("response failed: " + response);
+        throw new ResponseFailedException(response.code(), "response failed: " + response);
       }
     }
     try (ResponseBody responseBody = response.body()) {
@@ -147,7 +159,7 @@ public final class HttpCall<V> extends Call<V> {
       if (response.isSuccessful()) {
         return bodyConverter.convert(content);
       } else {
-        throw new IllegalStateException(
+        throw new ResponseFailedException(response.code(),
           "response for " + response.request().tag() + " failed: " + content.readUtf8());
       }
     }
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal.client;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonReader;
+import java.io.IOException;
+import java.util.function.Supplier;
+import okio.BufferedSource;
+import zipkin2.Call;
+import zipkin2.Callback;
+
+/**
+ * Reads every hit of a search by following its scroll, as opposed to only the first page. Each page
+ * is decoded directly into an {@link Accumulator}, so memory used is bounded by the result, not by
+ * the size of a response.
+ *
+ * <p>The scroll is cleared when the last page is read, or on error. Canceling before the last page
+ * fails the call, as opposed to returning the hits read so far.
+ */
+public final class ScrollCall<T, R> extends Call.Base<R> {
+
+  /** Receives hits from all pages. A new instance is used for each execution. */
+  public interface Accumulator<T, R> extends SearchResultConverter.HitCallback<T> {
+    R result();
+  }
+
+  static final Callback<Object> IGNORE = new Callback<Object>() {
+    @Override public void onSuccess(Object value) {
+    }
+
+    @Override public void onError(Throwable t) {
+    }
+
+    @Override public String toString() {
+      return "IgnoreClearScroll";
+    }
+  };
+
+  final SearchCallFactory search;
+  final SearchRequest request;
+  final JsonAdapter<T> adapter;
+  final Supplier<? extends Accumulator<T, R>> accumulator;
+  volatile HttpCall<Boolean> currentPage;
+
+  ScrollCall(SearchCallFactory search, SearchRequest request, JsonAdapter<T> adapter,
+    Supplier<? extends Accumulator<T, R>> accumulator) {
+    this.search = search;
+    this.request = request;
+    this.adapter = adapter;
+    this.accumulator = accumulator;
+  }
+
+  @Override protected R doExecute() throws IOException {
+    ReadPage readPage = new ReadPage(accumulator.get());
+    try {
+      HttpCall<Boolean> call = search.newCall(request, readPage);
+      while (true) {
+        setCurrentPage(call);
+        Boolean hasMore = call.execute();
+        if (hasMore == null || !hasMore) break;
+        // Don't return the pages read so far as if they were the whole result
+        if (isCanceled()) throw new IOException("Canceled");
+        call = search.continueScroll(readPage.scrollId, readPage);
+      }
+    } finally {
+      readPage.clearScroll();
+    }
+    return readPage.accumulator.result();
+  }
+
+  @Override protected void doEnqueue(Callback<R> callback) {
+    ReadPage readPage = new ReadPage(accumulator.get());
+    enqueuePage(search.newCall(request, readPage), readPage, callback);
+  }
+
+  void enqueuePage(HttpCall<Boolean> call, ReadPage readPage, Callback<R> callback) {
+    setCurrentPage(call);
+    call.enqueue(new Callback<Boolean>() {
+      @Override public void onSuccess(Boolean hasMore) {
+        if (hasMore != null && hasMore) {
+          if (isCanceled()) {
+            onError(new IOException("Canceled"));
+          } else {
+            enqueuePage(search.continueScroll(readPage.scrollId, readPage), readPage, callback);
+          }
+          return;
+        }
+        readPage.clearScroll();
+        callback.onSuccess(readPage.accumulator.result());
+      }
+
+      @Override public void onError(Throwable t) {
+        readPage.clearScroll();
+        callback.onError(t);
+      }
+    });
+  }
+
+  /** Cancels the page if the scroll was canceled before it became current. */
+  void setCurrentPage(HttpCall<Boolean> call) {
+    currentPage = call;
+    if (isCanceled()) call.cancel();
+  }
+
+  @Override protected void doCancel() {
+    HttpCall<Boolean> call = currentPage;
+    if (call != null) call.cancel();
+  }
+
+  @Override public ScrollCall<T, R> clone() {
+    return new ScrollCall<>(search, request, adapter, accumulator);
+  }
+
+  @Override public String toString() {
+    return "ScrollCall{indices=" + request.indices + ", pageSize=" + request.size + "}";
+  }
+
+  /** Decodes a page of hits, returning true if there are more pages to read. */
+  final class ReadPage implements HttpCall.BodyConverter<Boolean> {
+    final Accumulator<T, R> accumulator;
+    String scrollId; // the most recent scroll ID, which can change between pages
+    long read;
+
+    ReadPage(Accumulator<T, R> accumulator) {
+      this.accumulator = accumulator;
+    }
+
+    @Override public Boolean convert(BufferedSource content) throws IOException {
+      JsonReader reader = JsonReader.of(content);
+      long total = -1L; // unknown
+      int count = 0;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("_scroll_id")) {
+          scrollId = reader.nextString();
+        } else if (name.equals("hits") && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (field.equals("total")) {
+              total = readTotal(reader);
+            } else if (field.equals("hits") && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+              count = SearchResultConverter.readHits(reader, adapter, accumulator);
+            } else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      read += count;
+      // When the total is known, this avoids requesting an empty page to learn we are done
+      return scrollId != null && count > 0 && (total == -1L || read < total);
+    }
+
+    void clearScroll() {
+      if (scrollId != null) search.clearScroll(scrollId).enqueue(IGNORE);
+    }
+  }
+
+  /**
+   * Returns the total hits or -1 if it is not exact. Elasticsearch 7 returns an object which can
+   * be a lower bound, where prior versions return a number.
+   */
+  static long readTotal(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonReader.Token.NUMBER) return reader.nextLong();
+    if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+      reader.skipValue();
+      return -1L;
+    }
+    long value = -1L;
+    boolean exact = true;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("value")) {
+        value = reader.nextLong();
+      } else if (name.equals("relation")) {
+        exact = "eq".equals(reader.nextString());
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return exact ? value : -1L;
+  }
+}
@@ -16,14 +16,19 @@ package zipkin2.elasticsearch.internal.client;
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
 import java.util.List;
+import java.util.function.Supplier;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
+import okio.BufferedSource;
+import zipkin2.Call;
 import zipkin2.internal.Nullable;
 
 public class SearchCallFactory {
   static final MediaType APPLICATION_JSON = MediaType.parse("application/json");
+  /** How long a scroll is kept open between page requests. */
+  static final String SCROLL_KEEP_ALIVE = "1m";
 
   final HttpCall.Factory http;
   final JsonAdapter<SearchRequest> searchRequest =
@@ -34,13 +39,57 @@ public class SearchCallFactory {
   }
 
   public <V> HttpCall<V> newCall(SearchRequest request, HttpCall.BodyConverter<V> bodyConverter) {
-    Request httpRequest = new Request.Builder().url(lenientSearch(request.indices, request.type))
+    HttpUrl url = lenientSearch(request.indices, request.type);
+    if (request.scroll) {
+      url = url.newBuilder().addQueryParameter("scroll", SCROLL_KEEP_ALIVE).build();
+    }
+    Request httpRequest = new Request.Builder().url(url)
         .post(RequestBody.create(APPLICATION_JSON, searchRequest.toJson(request)))
         .header("Accept-Encoding", "gzip")
         .tag(request.tag()).build();
     return http.newCall(httpRequest, bodyConverter);
   }
 
+  /**
+   * Returns a call which reads every page of a {@link SearchRequest#scroll(int) scroll request},
+   * passing hits to a new accumulator each time it is executed.
+   */
+  public <T, R> Call<R> newScrollCall(SearchRequest request, JsonAdapter<T> adapter,
+    Supplier<? extends ScrollCall.Accumulator<T, R>> accumulator) {
+    if (!request.scroll) throw new IllegalArgumentException("request doesn't scroll");
+    return new ScrollCall<>(this, request, adapter, accumulator);
+  }
+
+  /** Continues a scroll, given the ID returned by the prior page. */
+  <V> HttpCall<V> continueScroll(String scrollId, HttpCall.BodyConverter<V> bodyConverter) {
+    // scroll IDs are base64, so don't need to be escaped
+    String body = "{\"scroll\":\"" + SCROLL_KEEP_ALIVE + "\",\"scroll_id\":\"" + scrollId + "\"}";
+    Request httpRequest = new Request.Builder().url(scrollUrl())
+        .post(RequestBody.create(APPLICATION_JSON, body))
+        .header("Accept-Encoding", "gzip")
+        .tag("scroll").build();
+    return http.newCall(httpRequest, bodyConverter);
+  }
+
+  /** Releases resources held by a scroll, as opposed to waiting for it to expire. */
+  HttpCall<Object> clearScroll(String scrollId) {
+    String body = "{\"scroll_id\":[\"" + scrollId + "\"]}";
+    Request httpRequest = new Request.Builder().url(scrollUrl())
+        .delete(RequestBody.create(APPLICATION_JSON, body))
+        .tag("clear-scroll").build();
+    return http.newCall(httpRequest, IGNORE_BODY);
+  }
+
+  HttpUrl scrollUrl() {
+    return http.baseUrl.newBuilder().addPathSegment("_search").addPathSegment("scroll").build();
+  }
+
+  static final HttpCall.BodyConverter<Object> IGNORE_BODY = new HttpCall.BodyConverter<Object>() {
+    @Override public Object convert(BufferedSource content) {
+      return null;
+    }
+  };
+
   /** Matches the behavior of {@code IndicesOptions#lenientExpandOpen()} */
   HttpUrl lenientSearch(List<String> indices, @Nullable String type) {
     HttpUrl.Builder builder = http.baseUrl.newBuilder().addPathSegment(join(indices));
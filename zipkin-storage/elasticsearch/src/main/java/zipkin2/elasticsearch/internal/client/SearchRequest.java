@@ -42,10 +42,12 @@ public final class SearchRequest {
 
   transient final List<String> indices;
   @Nullable transient final String type;
+  transient boolean scroll;
 
   Integer size = MAX_RESULT_WINDOW;
   Boolean _source;
   Object query;
+  List<String> sort;
   Map<String, Aggregation> aggs;
 
   SearchRequest(List<String> indices, @Nullable String type) {
@@ -85,6 +87,19 @@ public final class SearchRequest {
     return this;
   }
 
+  /**
+   * Reads all matches in pages of the given size using the scroll API, instead of stopping at
+   * {@link #MAX_RESULT_WINDOW}. Results are in index order, as that is the cheapest to scroll.
+   *
+   * <p>See {@link SearchCallFactory#newScrollCall}
+   */
+  public SearchRequest scroll(int pageSize) {
+    size = pageSize;
+    sort = Collections.singletonList("_doc");
+    scroll = true;
+    return this;
+  }
+
   String tag() {
     return aggs != null ? "aggregation" : "search";
   }
@@ -37,19 +37,49 @@ public class SearchResultConverter<T> implements HttpCall.BodyConverter<List<T>>
   }
 
   @Override public List<T> convert(BufferedSource content) throws IOException {
+    final List<T> result = new ArrayList<>();
+    readHits(content, adapter, new HitCallback<T>() {
+      @Override public void onHit(T source) {
+        result.add(source);
+      }
+    });
+    return result.isEmpty() ? defaultValue : result;
+  }
+
+  /** Receives each hit as it is decoded, before the rest of the response is read. */
+  public interface HitCallback<T> {
+    void onHit(T source);
+  }
+
+  /**
+   * Decodes the "_source" of each search hit from the stream, passing it to the callback. This
+   * allows callers to aggregate hits without first collecting them into a list.
+   */
+  public static <T> void readHits(BufferedSource content, JsonAdapter<T> adapter,
+    HitCallback<T> callback) throws IOException {
     JsonReader hits = enterPath(JsonReader.of(content), "hits", "hits");
-    if (hits == null || hits.peek() != JsonReader.Token.BEGIN_ARRAY) return defaultValue;
+    if (hits == null || hits.peek() != JsonReader.Token.BEGIN_ARRAY) return;
+    readHits(hits, adapter, callback);
+  }
 
-    List<T> result = new ArrayList<>();
+  /** Reads the "hits" array at the current position, returning the count of hits read. */
+  static <T> int readHits(JsonReader hits, JsonAdapter<T> adapter, HitCallback<T> callback)
+    throws IOException {
+    int count = 0;
     hits.beginArray();
     while (hits.hasNext()) {
-      JsonReader source = enterPath(hits, "_source");
-      if (source != null) {
-        result.add(adapter.fromJson(source));
+      count++;
+      hits.beginObject();
+      while (hits.hasNext()) {
+        if (hits.nextName().equals("_source") && hits.peek() != JsonReader.Token.NULL) {
+          callback.onHit(adapter.fromJson(hits));
+        } else { // fields such as "sort" can follow the source
+          hits.skipValue();
+        }
       }
       hits.endObject();
     }
     hits.endArray();
-    return result.isEmpty() ? defaultValue : result;
+    return count;
   }
 }
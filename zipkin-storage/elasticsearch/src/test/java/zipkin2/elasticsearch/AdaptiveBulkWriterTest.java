@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import com.squareup.moshi.JsonReader;
+import java.util.ArrayList;
+import java.util.List;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import zipkin2.Callback;
+import zipkin2.Span;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static zipkin2.TestObjects.TODAY;
+
+public class AdaptiveBulkWriterTest {
+  static final String REJECTED =
+      "{\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"full\"}}";
+
+  @Rule public MockWebServer es = new MockWebServer();
+
+  ElasticsearchStorage storage;
+
+  Span span1 = Span.newBuilder().traceId("1").id("1").name("a").timestamp(TODAY * 1000).build();
+  Span span2 = Span.newBuilder().traceId("1").id("2").name("b").timestamp(TODAY * 1000).build();
+
+  @Before
+  public void ensureIndexTemplate() throws Exception {
+    storage =
+        ElasticsearchStorage.newBuilder()
+            .hosts(asList(es.url("").toString()))
+            .bulkQueuedSpans(100)
+            .build();
+    es.enqueue(new MockResponse().setBody("{\"version\":{\"number\":\"6.0.0\"}}"));
+    es.enqueue(new MockResponse()); // get span template
+    es.enqueue(new MockResponse()); // get dependency template
+    storage.ensureIndexTemplates();
+    es.takeRequest(); // get version
+    es.takeRequest(); // get span template
+    es.takeRequest(); // get dependency template
+  }
+
+  @After
+  public void close() {
+    storage.close();
+  }
+
+  @Test
+  public void retriesOnlyRejectedItems() throws Exception {
+    es.enqueue(
+        new MockResponse()
+            .setBody(
+                "{\"took\":1,\"errors\":true,\"items\":["
+                    + "{\"index\":{\"status\":201}},{\"index\":"
+                    + REJECTED
+                    + "}]}"));
+    es.enqueue(new MockResponse().setBody("{\"took\":1,\"errors\":false,\"items\":[]}"));
+
+    storage.spanConsumer().accept(asList(span1, span2)).execute();
+
+    assertThat(es.takeRequest().getBody().readUtf8())
+        .contains("\"name\":\"a\"")
+        .contains("\"name\":\"b\"");
+    assertThat(es.takeRequest().getBody().readUtf8())
+        .doesNotContain("\"name\":\"a\"")
+        .contains("\"name\":\"b\"");
+  }
+
+  @Test
+  public void retriesWhenTooManyRequests() throws Exception {
+    es.enqueue(new MockResponse().setResponseCode(429).setBody("{}"));
+    es.enqueue(new MockResponse().setBody("{\"took\":1,\"errors\":false,\"items\":[]}"));
+
+    storage.spanConsumer().accept(asList(span1)).execute();
+
+    assertThat(es.getRequestCount()).isEqualTo(5); // 3 for templates, then the retried bulk
+  }
+
+  @Test
+  public void failsWhenItemIsInvalid() throws Exception {
+    es.enqueue(
+        new MockResponse()
+            .setBody(
+                "{\"took\":1,\"errors\":true,\"items\":[{\"index\":{\"status\":400,"
+                    + "\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"bad\"}}}]}"));
+
+    try {
+      storage.spanConsumer().accept(asList(span1)).execute();
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("mapper_parsing_exception: bad");
+    }
+    assertThat(es.getRequestCount()).isEqualTo(4); // not retried
+  }
+
+  @Test
+  public void onComplete_doesntGrowBulkSizeOnPermanentFailure() {
+    AdaptiveBulkWriter writer = storage.adaptiveBulkWriter();
+    int window = writer.window;
+    List<Throwable> errors = new ArrayList<>();
+    AdaptiveBulkWriter.Pending pending = new AdaptiveBulkWriter.Pending(new Callback<Void>() {
+      @Override public void onSuccess(Void value) {
+      }
+
+      @Override public void onError(Throwable t) {
+        errors.add(t);
+      }
+    }, 1);
+    IllegalArgumentException error = new IllegalArgumentException("bad request");
+
+    writer.onComplete(asList(new AdaptiveBulkWriter.Item("index", null, pending)), null, error, 0L);
+
+    assertThat(errors).containsExactly(error);
+    assertThat(writer.bulkSpans).isLessThan(AdaptiveBulkWriter.INITIAL_BULK_SPANS);
+    assertThat(writer.window).isEqualTo(window);
+  }
+
+  @Test
+  public void close_doesntCreateWriter() {
+    ElasticsearchStorage unused =
+        ElasticsearchStorage.newBuilder()
+            .hosts(asList(es.url("").toString()))
+            .bulkQueuedSpans(100)
+            .build();
+    unused.close();
+
+    assertThat(unused.adaptiveBulkWriter).isNull();
+  }
+
+  @Test
+  public void failsWhenQueueIsFull() throws Exception {
+    Span[] spans = new Span[101];
+    for (int i = 0; i < spans.length; i++) {
+      spans[i] = span1.toBuilder().id(i + 1).build();
+    }
+
+    try {
+      storage.spanConsumer().accept(asList(spans)).execute();
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("over capacity");
+    }
+  }
+
+  @Test
+  public void bulkResponse_readsLegacyStringErrors() throws Exception {
+    AdaptiveBulkWriter.BulkResponse response =
+        AdaptiveBulkWriter.BulkResponse.parse(
+            JsonReader.of(
+                new Buffer()
+                    .writeUtf8(
+                        "{\"took\":1,\"errors\":true,\"items\":[{\"create\":{\"status\":200}},"
+                            + "{\"create\":{\"status\":503,\"error\":"
+                            + "\"RemoteTransportException[EsRejectedExecutionException[x]]\"}}]}")));
+
+    assertThat(response.isRejected(0)).isFalse();
+    assertThat(response.status(1)).isEqualTo(503);
+    assertThat(response.isRejected(1)).isTrue();
+  }
+
+  @Test
+  public void bulkResponse_nullWithoutErrors() throws Exception {
+    assertThat(AdaptiveBulkWriter.BulkResponse.CONVERTER.convert(new Buffer().writeUtf8(
+        "{\"took\":1,\"errors\":false,\"items\":[{\"create\":{\"status\":201}}]}")))
+        .isNull();
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch;
+
+import java.io.IOException;
+import java.util.List;
+import okio.Buffer;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.elasticsearch.internal.client.SearchResultConverter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BodyConvertersTest {
+  static final String HITS =
+      "{\"hits\":{\"total\":4,\"hits\":["
+          + "{\"_id\":\"1\",\"_source\":{\"traceId\":\"0000000000000001\",\"id\":\"1\"},\"sort\":[1]},"
+          + "{\"_id\":\"2\",\"_source\":{\"traceId\":\"0000000000000002\",\"id\":\"2\"},\"sort\":[2]},"
+          + "{\"_id\":\"3\"},"
+          + "{\"_id\":\"4\",\"_source\":"
+          + "{\"traceId\":\"00000000000000030000000000000001\",\"id\":\"3\"},\"sort\":[3]}"
+          + "]}}";
+
+  @Test
+  public void traces_groupsHitsAsTheyAreRead() throws IOException {
+    List<List<Span>> traces = groupByTraceId(true, HITS);
+
+    assertThat(traces)
+        .extracting(t -> t.get(0).traceId())
+        .containsExactly(
+            "0000000000000001", "0000000000000002", "00000000000000030000000000000001");
+  }
+
+  @Test
+  public void traces_groupsOnLower64BitsWhenNotStrict() throws IOException {
+    List<List<Span>> traces = groupByTraceId(false, HITS);
+
+    assertThat(traces).extracting(List::size).containsExactly(2, 1);
+  }
+
+  @Test
+  public void traces_emptyWhenNoHits() throws IOException {
+    assertThat(groupByTraceId(true, "{\"hits\":{\"hits\":[]}}")).isEmpty();
+  }
+
+  static List<List<Span>> groupByTraceId(boolean strictTraceId, String json) throws IOException {
+    BodyConverters.GroupSpansByTraceId accumulator =
+        new BodyConverters.GroupSpansByTraceId(strictTraceId);
+    SearchResultConverter.readHits(
+        new Buffer().writeUtf8(json), JsonAdapters.SPAN_ADAPTER, accumulator);
+    return accumulator.result();
+  }
+}
@@ -163,6 +163,25 @@ public class ElasticsearchSpanConsumerTest {
         .isEqualTo(span); // ignores timestamp_millis field
   }
 
+  @Test
+  public void bulkBodyContentLengthMatchesDocuments() throws Exception {
+    es.enqueue(new MockResponse());
+
+    accept(TestObjects.CLIENT_SPAN, TestObjects.CLIENT_SPAN.toBuilder().id("3").build());
+
+    RecordedRequest request = es.takeRequest();
+    String body = request.getBody().readUtf8();
+    assertThat(request.getHeader("Content-Length"))
+        .isEqualTo(String.valueOf(body.getBytes("UTF-8").length));
+    assertThat(body.split("\n"))
+        .hasSize(4)
+        .contains(
+            new String(
+                prefixWithTimestampMillisAndQuery(
+                    TestObjects.CLIENT_SPAN, TestObjects.CLIENT_SPAN.timestampAsLong() / 1000L),
+                "UTF-8"));
+  }
+
   @Test
   public void doesntWriteDocumentId() throws Exception {
     es.enqueue(new MockResponse());
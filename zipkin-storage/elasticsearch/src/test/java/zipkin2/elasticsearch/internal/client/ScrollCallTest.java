@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.elasticsearch.internal.client;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class ScrollCallTest {
+  @Rule
+  public MockWebServer es = new MockWebServer();
+
+  SearchCallFactory client =
+    new SearchCallFactory(new HttpCall.Factory(new OkHttpClient(), es.url("")));
+  JsonAdapter<String> adapter = new Moshi.Builder().build().adapter(String.class);
+
+  @After
+  public void close() {
+    client.http.ok.dispatcher().executorService().shutdownNow();
+  }
+
+  @Test
+  public void readsAllPages() throws Exception {
+    es.enqueue(new MockResponse().setBody(page("scroll1", 3, "a", "b")));
+    es.enqueue(new MockResponse().setBody(page("scroll2", 3, "c")));
+    es.enqueue(new MockResponse()); // clear scroll
+
+    assertThat(newScrollCall().execute()).containsExactly("a", "b", "c");
+
+    RecordedRequest search = es.takeRequest();
+    assertThat(search.getRequestUrl().queryParameter("scroll")).isEqualTo("1m");
+    assertThat(search.getBody().readUtf8())
+      .contains("\"size\":2")
+      .contains("\"sort\":[\"_doc\"]");
+
+    RecordedRequest scroll = es.takeRequest();
+    assertThat(scroll.getPath()).isEqualTo("/_search/scroll");
+    assertThat(scroll.getBody().readUtf8()).contains("\"scroll_id\":\"scroll1\"");
+
+    RecordedRequest clear = es.takeRequest(1, TimeUnit.SECONDS);
+    assertThat(clear.getMethod()).isEqualTo("DELETE");
+    assertThat(clear.getBody().readUtf8()).isEqualTo("{\"scroll_id\":[\"scroll2\"]}");
+  }
+
+  /** Elasticsearch 7 formats the total as an object, which may be a lower bound */
+  @Test
+  public void readsUntilEmptyPage_whenTotalIsNotExact() throws Exception {
+    es.enqueue(new MockResponse().setBody(page("scroll1", "{\"value\":2,\"relation\":\"gte\"}",
+      "a", "b")));
+    es.enqueue(new MockResponse().setBody(page("scroll1", "{\"value\":2,\"relation\":\"gte\"}",
+      "c")));
+    es.enqueue(new MockResponse().setBody(page("scroll1", "{\"value\":2,\"relation\":\"gte\"}")));
+    es.enqueue(new MockResponse()); // clear scroll
+
+    assertThat(newScrollCall().execute()).containsExactly("a", "b", "c");
+    assertThat(es.takeRequest().getPath()).startsWith("/zipkin:span-2016-10-01/_search");
+    assertThat(es.takeRequest().getPath()).isEqualTo("/_search/scroll");
+    assertThat(es.takeRequest().getPath()).isEqualTo("/_search/scroll");
+  }
+
+  @Test
+  public void emptyResponse() throws Exception {
+    es.enqueue(new MockResponse());
+
+    assertThat(newScrollCall().execute()).isEmpty();
+  }
+
+  @Test
+  public void execute_failsWhenCanceledBeforeLastPage() throws Exception {
+    es.enqueue(new MockResponse().setBody(page("scroll1", 3, "a", "b")));
+    es.enqueue(new MockResponse().setBody(page("scroll2", 3, "c")));
+    es.enqueue(new MockResponse()); // clear scroll
+
+    Call<List<String>> call = newScrollCallCanceledOnFirstHit();
+    try {
+      call.execute();
+      failBecauseExceptionWasNotThrown(IOException.class);
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void enqueue_failsWhenCanceledBeforeLastPage() throws Exception {
+    es.enqueue(new MockResponse().setBody(page("scroll1", 3, "a", "b")));
+    es.enqueue(new MockResponse().setBody(page("scroll2", 3, "c")));
+    es.enqueue(new MockResponse()); // clear scroll
+
+    BlockingQueue<Object> result = new LinkedBlockingQueue<>();
+    newScrollCallCanceledOnFirstHit().enqueue(new Callback<List<String>>() {
+      @Override public void onSuccess(List<String> value) {
+        result.add(value);
+      }
+
+      @Override public void onError(Throwable t) {
+        result.add(t);
+      }
+    });
+
+    assertThat(result.poll(1, TimeUnit.SECONDS)).isInstanceOf(IOException.class);
+  }
+
+  Call<List<String>> newScrollCall() {
+    return client.newScrollCall(
+      SearchRequest.create(asList("zipkin:span-2016-10-01")).term("traceId", "1").scroll(2),
+      adapter,
+      StringList::new);
+  }
+
+  Call<List<String>> newScrollCallCanceledOnFirstHit() {
+    AtomicReference<Call<List<String>>> call = new AtomicReference<>();
+    call.set(client.newScrollCall(
+      SearchRequest.create(asList("zipkin:span-2016-10-01")).term("traceId", "1").scroll(2),
+      adapter,
+      () -> new ScrollCall.Accumulator<String, List<String>>() {
+        final List<String> result = new ArrayList<>();
+
+        @Override public void onHit(String source) {
+          result.add(source);
+          call.get().cancel();
+        }
+
+        @Override public List<String> result() {
+          return result;
+        }
+      }));
+    return call.get();
+  }
+
+  static final class StringList implements ScrollCall.Accumulator<String, List<String>> {
+    final List<String> result = new ArrayList<>();
+
+    @Override public void onHit(String source) {
+      result.add(source);
+    }
+
+    @Override public List<String> result() {
+      return result;
+    }
+  }
+
+  static String page(String scrollId, Object total, String... sources) {
+    StringBuilder hits = new StringBuilder();
+    for (String source : sources) {
+      if (hits.length() > 0) hits.append(',');
+      hits.append("{\"_id\":\"").append(source).append("\",\"_source\":\"").append(source)
+        .append("\",\"sort\":[0]}");
+    }
+    return "{\"_scroll_id\":\"" + scrollId + "\",\"took\":1,\"hits\":{\"total\":" + total
+      + ",\"hits\":[" + hits + "]}}";
+  }
+}
@@ -26,7 +26,7 @@ import org.jooq.SelectConditionStep;
 import org.jooq.SelectHavingStep;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
-import zipkin2.internal.DependencyLinker;
+import zipkin2.internal.ParallelDependencyLinker;
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans;
 
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
@@ -34,10 +34,13 @@ import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans.ZIP
 
 final class AggregateDependencies implements Function<DSLContext, List<DependencyLink>> {
   final Schema schema;
+  final ParallelDependencyLinker linker;
   final long startTsBegin, startTsEnd;
 
-  AggregateDependencies(Schema schema, long startTsBegin, long startTsEnd) {
+  AggregateDependencies(
+    Schema schema, ParallelDependencyLinker linker, long startTsBegin, long startTsEnd) {
     this.schema = schema;
+    this.linker = linker;
     this.startTsBegin = startTsBegin;
     this.startTsEnd = startTsEnd;
   }
@@ -72,17 +75,29 @@ final class AggregateDependencies implements Function<DSLContext, List<Dependenc
 
     if (!traces.hasNext()) return Collections.emptyList();
 
-    DependencyLinker linker = new DependencyLinker();
+    // Reading the cursor is sequential, but linking each batch of traces can use other cores.
+    return linker.link(new MaterializeTraces(traces));
+  }
+
+  /** Copies each trace, as the linker holds them until their batch is linked. */
+  static final class MaterializeTraces implements Iterator<List<Span>> {
+    final Iterator<Iterator<Span>> delegate;
 
-    List<Span> nextTrace = new ArrayList<>();
-    while (traces.hasNext()) {
-      Iterator<Span> i = traces.next();
-      while (i.hasNext()) nextTrace.add(i.next());
-      linker.putTrace(nextTrace);
-      nextTrace.clear();
+    MaterializeTraces(Iterator<Iterator<Span>> delegate) {
+      this.delegate = delegate;
     }
 
-    return linker.link();
+    @Override
+    public boolean hasNext() {
+      return delegate.hasNext();
+    }
+
+    @Override
+    public List<Span> next() {
+      List<Span> result = new ArrayList<>();
+      for (Iterator<Span> i = delegate.next(); i.hasNext(); ) result.add(i.next());
+      return result;
+    }
   }
 
   @Override
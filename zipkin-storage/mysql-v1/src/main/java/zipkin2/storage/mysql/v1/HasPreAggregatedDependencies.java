@@ -21,12 +21,11 @@ import javax.sql.DataSource;
 import org.jooq.DSLContext;
 import org.jooq.exception.DataAccessException;
 
-import static org.jooq.impl.DSL.count;
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
 
 /**
- * Returns true when the zipkin_dependencies table exists and has data in it, implying the spark job
- * has been run.
+ * Returns true when the zipkin_dependencies table exists, so days pre-aggregated by the spark job or
+ * at ingest time can be read from it.
  */
 final class HasPreAggregatedDependencies {
   private static final Logger LOG = Logger.getLogger(HasPreAggregatedDependencies.class.getName());
@@ -34,7 +33,8 @@ final class HasPreAggregatedDependencies {
   static boolean test(DataSource datasource, DSLContexts context) {
     try (Connection conn = datasource.getConnection()) {
       DSLContext dsl = context.get(conn);
-      return dsl.select(count()).from(ZIPKIN_DEPENDENCIES).fetchAny().value1() > 0;
+      dsl.selectOne().from(ZIPKIN_DEPENDENCIES).limit(1).fetch();
+      return true;
     } catch (DataAccessException e) {
       if (e.sqlState().equals("42S02")) {
         LOG.warning(
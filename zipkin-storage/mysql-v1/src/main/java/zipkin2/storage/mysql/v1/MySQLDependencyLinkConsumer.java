@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.mysql.v1;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+import org.jooq.DSLContext;
+import org.jooq.InsertOnDuplicateSetMoreStep;
+import org.jooq.InsertSetMoreStep;
+import org.jooq.Query;
+import org.jooq.Record;
+import zipkin2.Call;
+import zipkin2.DependencyLink;
+import zipkin2.storage.DependencyLinkConsumer;
+
+import static zipkin2.internal.DateUtil.midnightUTC;
+import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
+
+/**
+ * Adds links aggregated at ingest time to the daily rows in zipkin_dependencies. Days with rows are
+ * read instead of linking their traces, see {@link SelectDependencies}.
+ *
+ * <p>Don't also run the spark job against the same table, as it replaces the days it processes.
+ */
+final class MySQLDependencyLinkConsumer implements DependencyLinkConsumer {
+  final DataSourceCall.Factory dataSourceCallFactory;
+  final Schema schema;
+
+  MySQLDependencyLinkConsumer(DataSourceCall.Factory dataSourceCallFactory, Schema schema) {
+    this.dataSourceCallFactory = dataSourceCallFactory;
+    this.schema = schema;
+  }
+
+  @Override
+  public Call<Void> accept(long bucketTimestamp, List<DependencyLink> links) {
+    if (links.isEmpty()) return Call.create(null);
+    return dataSourceCallFactory.create(new UpsertDependencies(schema, bucketTimestamp, links));
+  }
+
+  static final class UpsertDependencies implements Function<DSLContext, Void> {
+    final Schema schema;
+    final Date day;
+    final List<DependencyLink> links;
+
+    UpsertDependencies(Schema schema, long bucketTimestamp, List<DependencyLink> links) {
+      this.schema = schema;
+      this.day = new Date(midnightUTC(bucketTimestamp));
+      this.links = links;
+    }
+
+    @Override
+    public Void apply(DSLContext create) {
+      List<Query> upserts = new ArrayList<>(links.size());
+      for (DependencyLink link : links) {
+        InsertSetMoreStep<Record> insert =
+            create
+                .insertInto(ZIPKIN_DEPENDENCIES)
+                .set(ZIPKIN_DEPENDENCIES.DAY, day)
+                .set(ZIPKIN_DEPENDENCIES.PARENT, link.parent())
+                .set(ZIPKIN_DEPENDENCIES.CHILD, link.child())
+                .set(ZIPKIN_DEPENDENCIES.CALL_COUNT, link.callCount());
+        if (schema.hasErrorCount) insert.set(ZIPKIN_DEPENDENCIES.ERROR_COUNT, link.errorCount());
+
+        InsertOnDuplicateSetMoreStep<Record> upsert =
+            insert
+                .onDuplicateKeyUpdate()
+                .set(
+                    ZIPKIN_DEPENDENCIES.CALL_COUNT,
+                    ZIPKIN_DEPENDENCIES.CALL_COUNT.plus(link.callCount()));
+        if (schema.hasErrorCount) {
+          upsert.set(
+              ZIPKIN_DEPENDENCIES.ERROR_COUNT,
+              ZIPKIN_DEPENDENCIES.ERROR_COUNT.plus(link.errorCount()));
+        }
+        upserts.add(upsert);
+      }
+      create.batch(upserts).execute();
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "UpsertDependencies{day=" + day + ", links=" + links + "}";
+    }
+  }
+}
@@ -17,27 +17,32 @@ import java.util.List;
 import zipkin2.Call;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
+import zipkin2.internal.ParallelDependencyLinker;
 import zipkin2.storage.GroupByTraceId;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.SpanStore;
 import zipkin2.storage.StrictTraceId;
 
-import static zipkin2.internal.DateUtil.getDays;
 import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
 
 final class MySQLSpanStore implements SpanStore {
 
   final DataSourceCall.Factory dataSourceCallFactory;
   final Schema schema;
+  final ParallelDependencyLinker dependencyLinker;
   final boolean strictTraceId;
   final SelectSpansAndAnnotations.Factory selectFromSpansAndAnnotationsFactory;
   final Call.Mapper<List<Span>, List<List<Span>>> groupByTraceId;
   final DataSourceCall<List<String>> getServiceNamesCall;
 
   MySQLSpanStore(
-      DataSourceCall.Factory dataSourceCallFactory, Schema schema, boolean strictTraceId) {
+      DataSourceCall.Factory dataSourceCallFactory,
+      Schema schema,
+      ParallelDependencyLinker dependencyLinker,
+      boolean strictTraceId) {
     this.dataSourceCallFactory = dataSourceCallFactory;
     this.schema = schema;
+    this.dependencyLinker = dependencyLinker;
     this.strictTraceId = strictTraceId;
     this.selectFromSpansAndAnnotationsFactory =
         new SelectSpansAndAnnotations.Factory(schema, strictTraceId);
@@ -83,9 +88,11 @@ final class MySQLSpanStore implements SpanStore {
   @Override
   public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
     if (schema.hasPreAggregatedDependencies) {
-      return dataSourceCallFactory.create(new SelectDependencies(schema, getDays(endTs, lookback)));
+      return dataSourceCallFactory.create(
+          new SelectDependencies(schema, dependencyLinker, endTs, lookback));
     }
     return dataSourceCallFactory.create(
-        new AggregateDependencies(schema, endTs * 1000 - lookback * 1000, endTs * 1000));
+        new AggregateDependencies(
+            schema, dependencyLinker, endTs * 1000 - lookback * 1000, endTs * 1000));
   }
 }
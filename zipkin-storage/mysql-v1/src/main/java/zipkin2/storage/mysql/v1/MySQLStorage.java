@@ -16,6 +16,8 @@ package zipkin2.storage.mysql.v1;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import javax.sql.DataSource;
 import org.jooq.ExecuteListenerProvider;
 import org.jooq.Record;
@@ -23,6 +25,8 @@ import org.jooq.TableField;
 import org.jooq.conf.Settings;
 import zipkin2.CheckResult;
 import zipkin2.internal.Nullable;
+import zipkin2.internal.ParallelDependencyLinker;
+import zipkin2.storage.DependencyLinkConsumer;
 import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.SpanStore;
 import zipkin2.storage.StorageComponent;
@@ -42,6 +46,7 @@ public final class MySQLStorage extends StorageComponent {
     private Settings settings = new Settings().withRenderSchema(false);
     private ExecuteListenerProvider listenerProvider;
     private Executor executor;
+    private ExecutorService dependencyLinkerExecutor = ForkJoinPool.commonPool();
 
     /** {@inheritDoc} */
     @Override
@@ -79,6 +84,20 @@ public final class MySQLStorage extends StorageComponent {
       return this;
     }
 
+    /**
+     * Executor used to link traces in parallel when dependency links are aggregated from spans.
+     * Defaults to {@link ForkJoinPool#commonPool()}.
+     *
+     * @see ParallelDependencyLinker
+     */
+    public Builder dependencyLinkerExecutor(ExecutorService dependencyLinkerExecutor) {
+      if (dependencyLinkerExecutor == null) {
+        throw new NullPointerException("dependencyLinkerExecutor == null");
+      }
+      this.dependencyLinkerExecutor = dependencyLinkerExecutor;
+      return this;
+    }
+
     @Override
     public MySQLStorage build() {
       return new MySQLStorage(this);
@@ -94,6 +113,7 @@ public final class MySQLStorage extends StorageComponent {
   final DataSource datasource;
   final DataSourceCall.Factory dataSourceCallFactory;
   final DSLContexts context;
+  final ParallelDependencyLinker dependencyLinker;
   final boolean strictTraceId, searchEnabled;
 
   volatile Schema schema;
@@ -105,6 +125,12 @@ public final class MySQLStorage extends StorageComponent {
     if (executor == null) throw new NullPointerException("executor == null");
     context = new DSLContexts(builder.settings, builder.listenerProvider);
     dataSourceCallFactory = new DataSourceCall.Factory(datasource, context, executor);
+    ExecutorService linkerExecutor = builder.dependencyLinkerExecutor;
+    dependencyLinker =
+        linkerExecutor instanceof ForkJoinPool
+            ? new ParallelDependencyLinker(
+                linkerExecutor, ((ForkJoinPool) linkerExecutor).getParallelism())
+            : new ParallelDependencyLinker(linkerExecutor);
     strictTraceId = builder.strictTraceId;
     searchEnabled = builder.searchEnabled;
   }
@@ -128,7 +154,7 @@ public final class MySQLStorage extends StorageComponent {
 
   @Override
   public SpanStore spanStore() {
-    return new MySQLSpanStore(dataSourceCallFactory, schema(), strictTraceId);
+    return new MySQLSpanStore(dataSourceCallFactory, schema(), dependencyLinker, strictTraceId);
   }
 
   @Override
@@ -136,6 +162,11 @@ public final class MySQLStorage extends StorageComponent {
     return new MySQLSpanConsumer(dataSourceCallFactory, schema());
   }
 
+  @Override
+  public DependencyLinkConsumer dependencyLinkConsumer() {
+    return new MySQLDependencyLinkConsumer(dataSourceCallFactory, schema());
+  }
+
   @Override
   public CheckResult check() {
     try (Connection conn = datasource.getConnection()) {
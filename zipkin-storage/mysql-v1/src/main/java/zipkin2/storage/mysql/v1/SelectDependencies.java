@@ -13,44 +13,95 @@
  */
 package zipkin2.storage.mysql.v1;
 
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import org.jooq.DSLContext;
 import org.jooq.Record;
 import zipkin2.DependencyLink;
 import zipkin2.internal.DependencyLinker;
+import zipkin2.internal.ParallelDependencyLinker;
 
+import static zipkin2.internal.DateUtil.getDays;
 import static zipkin2.storage.mysql.v1.Schema.maybeGet;
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
 
+/**
+ * Reads the days in range that have rows in zipkin_dependencies, written by the spark job or at
+ * ingest time. Days without rows, such as those before either was enabled, are linked from their
+ * traces with {@link AggregateDependencies}.
+ */
 final class SelectDependencies implements Function<DSLContext, List<DependencyLink>> {
+  static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
   final Schema schema;
+  final ParallelDependencyLinker linker;
+  final long endTs, lookback;
   final List<Date> days;
 
-  SelectDependencies(Schema schema, List<Date> days) {
+  SelectDependencies(Schema schema, ParallelDependencyLinker linker, long endTs, long lookback) {
     this.schema = schema;
-    this.days = days;
+    this.linker = linker;
+    this.endTs = endTs;
+    this.lookback = lookback;
+    this.days = getDays(endTs, lookback);
   }
 
   @Override
   public List<DependencyLink> apply(DSLContext context) {
-    List<DependencyLink> unmerged =
+    Set<String> aggregatedDays = new LinkedHashSet<>();
+    List<DependencyLink> unmerged = new ArrayList<>();
+    for (Record l :
         context
             .select(schema.dependencyLinkFields)
             .from(ZIPKIN_DEPENDENCIES)
             .where(ZIPKIN_DEPENDENCIES.DAY.in(days))
-            .fetch(
-                (Record l) ->
-                    DependencyLink.newBuilder()
-                        .parent(l.get(ZIPKIN_DEPENDENCIES.PARENT))
-                        .child(l.get(ZIPKIN_DEPENDENCIES.CHILD))
-                        .callCount(l.get(ZIPKIN_DEPENDENCIES.CALL_COUNT))
-                        .errorCount(maybeGet(l, ZIPKIN_DEPENDENCIES.ERROR_COUNT, 0L))
-                        .build());
+            .fetch()) {
+      aggregatedDays.add(l.get(ZIPKIN_DEPENDENCIES.DAY).toString());
+      unmerged.add(
+          DependencyLink.newBuilder()
+              .parent(l.get(ZIPKIN_DEPENDENCIES.PARENT))
+              .child(l.get(ZIPKIN_DEPENDENCIES.CHILD))
+              .callCount(l.get(ZIPKIN_DEPENDENCIES.CALL_COUNT))
+              .errorCount(maybeGet(l, ZIPKIN_DEPENDENCIES.ERROR_COUNT, 0L))
+              .build());
+    }
+
+    // Link each run of consecutive days without rows with one query, bounded by the lookback.
+    long rangeBegin = lookback != 0 ? Math.max(0L, endTs - lookback) : 0L; // like getDays
+    long runBegin = -1L, runEnd = -1L;
+    for (Date day : days) {
+      long midnight = day.getTime();
+      if (aggregatedDays.contains(formatDay(midnight))) {
+        if (runBegin != -1L) unmerged.addAll(aggregate(context, runBegin, runEnd));
+        runBegin = -1L;
+        continue;
+      }
+      if (runBegin == -1L) runBegin = Math.max(rangeBegin, midnight);
+      runEnd = Math.min(endTs, midnight + DAY_MILLIS - 1);
+    }
+    if (runBegin != -1L) unmerged.addAll(aggregate(context, runBegin, runEnd));
     return DependencyLinker.merge(unmerged);
   }
 
+  List<DependencyLink> aggregate(DSLContext context, long beginMillis, long endMillis) {
+    return new AggregateDependencies(schema, linker, beginMillis * 1000, endMillis * 1000)
+        .apply(context);
+  }
+
+  /** Formats like {@link java.sql.Date#toString()}, which is how the day column is read. */
+  static String formatDay(long midnightUTC) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format.format(new Date(midnightUTC));
+  }
+
   @Override
   public String toString() {
     return "SelectDependencies{days=" + days + "}";
@@ -20,11 +20,18 @@ import java.util.List;
 import org.jooq.DSLContext;
 import org.jooq.Query;
 import org.junit.ClassRule;
+import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 import zipkin2.DependencyLink;
 import zipkin2.storage.StorageComponent;
 
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.DAY;
+import static zipkin2.TestObjects.TODAY;
+import static zipkin2.TestObjects.TRACE;
+import static zipkin2.TestObjects.TRACE_ENDTS;
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
 
 @RunWith(Enclosed.class)
@@ -107,6 +114,22 @@ public class ITMySQLStorage {
       return storage.get();
     }
 
+    /** Days with ingest-time rows don't hide days that are only stored as spans */
+    @Test public void getDependencies_linksDaysWithoutRows() throws Exception {
+      storage.get().spanConsumer().accept(TRACE).execute();
+      List<DependencyLink> linkedToday =
+        storage.get().spanStore().getDependencies(TRACE_ENDTS, DAY).execute();
+
+      DependencyLink yesterday =
+        DependencyLink.newBuilder().parent("web").child("app").callCount(1L).build();
+      storage.get().dependencyLinkConsumer().accept(TODAY - DAY, asList(yesterday)).execute();
+
+      assertThat(storage.get().spanStore().getDependencies(TRACE_ENDTS, 2 * DAY).execute())
+        .hasSize(linkedToday.size() + 1)
+        .containsAll(linkedToday)
+        .contains(yesterday);
+    }
+
     @Override public void clear() {
       storage.get().clear();
     }
@@ -19,7 +19,9 @@ import org.jooq.Query;
 import org.jooq.Record;
 import zipkin2.Annotation;
 import zipkin2.Call;
+import zipkin2.Endpoint;
 import zipkin2.Span;
+import zipkin2.internal.Nullable;
 import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.snowflake.internal.generated.tables.SpanAnnotations;
 import zipkin2.storage.snowflake.internal.generated.tables.SpanTags;
@@ -33,17 +35,20 @@ import java.util.function.Function;
 class SnowflakeSpanConsumer implements SpanConsumer {
 
   DataSourceCall.Factory dataSourceCallFactory;
+  @Nullable StagedSpanWriter stagedSpanWriter;
 
   public SnowflakeSpanConsumer(SnowflakeStorage snowflakeStorage) {
     dataSourceCallFactory = new DataSourceCall.Factory(
       snowflakeStorage.datasource(),
       new DSLContexts(snowflakeStorage.settings(), snowflakeStorage.listenerProvider()),
       snowflakeStorage.executor());
+    stagedSpanWriter = snowflakeStorage.stagedSpanWriter();
   }
 
   @Override
   public Call<Void> accept(List<Span> spans) {
     if (spans.isEmpty()) return Call.create(null);
+    if (stagedSpanWriter != null) return stagedSpanWriter.accept(spans);
     return dataSourceCallFactory.create(new BatchInsertSpans(spans));
   }
 
@@ -60,32 +65,33 @@ class SnowflakeSpanConsumer implements SpanConsumer {
       List<Query> inserts = new ArrayList<>();
 
       for (Span v2 : spans) {
+        Endpoint local = v2.localEndpoint(), remote = v2.remoteEndpoint();
         InsertSetMoreStep<Record> insertSpan = create
           .insertInto(Spans.SPANS)
           .set(Spans.SPANS.TRACE_ID, v2.traceId())
-          .set(Spans.SPANS.NAME, v2.traceId())
-          .set(Spans.SPANS.PARENT_ID, v2.traceId())
-          .set(Spans.SPANS.ID, v2.traceId())
-          .set(Spans.SPANS.KIND, v2.kind().name())
+          .set(Spans.SPANS.NAME, v2.name())
+          .set(Spans.SPANS.PARENT_ID, v2.parentId())
+          .set(Spans.SPANS.ID, v2.id())
+          .set(Spans.SPANS.KIND, v2.kind() != null ? v2.kind().name() : null)
           .set(Spans.SPANS.TIMESTAMP, v2.timestampAsLong())
           .set(Spans.SPANS.DURATION, v2.durationAsLong())
           .set(Spans.SPANS.DEBUG, v2.debug())
           .set(Spans.SPANS.SHARE, v2.shared())
           .set(Spans.SPANS.LOCAL_SERVICE_NAME, v2.localServiceName())
-          .set(Spans.SPANS.LOCAL_IPV4, v2.localEndpoint().ipv4())
-          .set(Spans.SPANS.LOCAL_IPV6, v2.localEndpoint().ipv6())
-          .set(Spans.SPANS.LOCAL_PORT, v2.localEndpoint().port())
+          .set(Spans.SPANS.LOCAL_IPV4, local != null ? local.ipv4() : null)
+          .set(Spans.SPANS.LOCAL_IPV6, local != null ? local.ipv6() : null)
+          .set(Spans.SPANS.LOCAL_PORT, local != null ? local.port() : null)
           .set(Spans.SPANS.REMOTE_SERVICE_NAME, v2.remoteServiceName())
-          .set(Spans.SPANS.REMOTE_IPV4, v2.remoteEndpoint().ipv4())
-          .set(Spans.SPANS.REMOTE_IPV6, v2.remoteEndpoint().ipv6())
-          .set(Spans.SPANS.REMOTE_PORT, v2.remoteEndpoint().port());
+          .set(Spans.SPANS.REMOTE_IPV4, remote != null ? remote.ipv4() : null)
+          .set(Spans.SPANS.REMOTE_IPV6, remote != null ? remote.ipv6() : null)
+          .set(Spans.SPANS.REMOTE_PORT, remote != null ? remote.port() : null);
         inserts.add(insertSpan);
 
         for (Annotation anno : v2.annotations()) {
           InsertSetMoreStep<Record> insertSpanAnnotation = create
             .insertInto(SpanAnnotations.SPAN_ANNOTATIONS)
             .set(SpanAnnotations.SPAN_ANNOTATIONS.TRACE_ID, v2.traceId())
-            .set(SpanAnnotations.SPAN_ANNOTATIONS.ID, v2.traceId())
+            .set(SpanAnnotations.SPAN_ANNOTATIONS.ID, v2.id())
             .set(SpanAnnotations.SPAN_ANNOTATIONS.A_TIMESTAMP, anno.timestamp())
             .set(SpanAnnotations.SPAN_ANNOTATIONS.A_VALUE, anno.value());
           inserts.add(insertSpanAnnotation);
@@ -96,7 +102,7 @@ class SnowflakeSpanConsumer implements SpanConsumer {
           InsertSetMoreStep<Record> insertSpanTag = create
             .insertInto(SpanTags.SPAN_TAGS)
             .set(SpanTags.SPAN_TAGS.TRACE_ID, v2.traceId())
-            .set(SpanTags.SPAN_TAGS.ID, v2.traceId())
+            .set(SpanTags.SPAN_TAGS.ID, v2.id())
             .set(SpanTags.SPAN_TAGS.T_KEY, tag.getKey())
             .set(SpanTags.SPAN_TAGS.T_VALUE, tag.getValue());
           inserts.add(insertSpanTag);
@@ -15,9 +15,13 @@ package zipkin2.storage.snowflake;
 
 import org.jooq.Condition;
 import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.jooq.Record;
+import org.jooq.Record3;
 import org.jooq.Result;
-import org.jooq.SelectConditionStep;
+import org.jooq.Select;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
 import zipkin2.Call;
 import zipkin2.DependencyLink;
 import zipkin2.Endpoint;
@@ -29,7 +33,9 @@ import zipkin2.storage.snowflake.internal.generated.tables.SpanTags;
 import zipkin2.storage.snowflake.internal.generated.tables.Spans;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
@@ -45,91 +51,143 @@ class SnowflakeSpanStore implements SpanStore {
       snowflakeStorage.executor());
   }
 
+  /**
+   * Selects traces in two phases, so that the limit applies to traces, not span rows. First, the
+   * IDs of the most recent traces with a matching span are selected. Then, all spans of those
+   * traces are fetched, with their annotations and tags, in one query.
+   */
   @Override
   public Call<List<List<Span>>> getTraces(QueryRequest request) {
     Function<DSLContext, List<List<Span>>> f = dslContext -> {
-      Map<String, List<Span>> allSpans = new HashMap<>();
-
-      Condition whereClause = Spans.SPANS.TIMESTAMP.add(Spans.SPANS.DURATION).le(request.endTs() * 1000L);
-      whereClause = whereClause.and(Spans.SPANS.TIMESTAMP.ge((request.endTs() - request.lookback()) * 1000L));
-      if (request.serviceName() != null && !"all".equalsIgnoreCase(request.serviceName())) {
-        whereClause = whereClause.and(Spans.SPANS.LOCAL_SERVICE_NAME.eq(request.serviceName()));
-      }
-      if (request.spanName() != null && !"all".equalsIgnoreCase(request.spanName())) {
-        whereClause = whereClause.and(Spans.SPANS.NAME.eq(request.spanName()));
-      }
-      if (request.minDuration() != null) {
-        whereClause = whereClause.and(Spans.SPANS.DURATION.ge(request.minDuration() * 1000L));
-      }
-      if (request.maxDuration() != null) {
-        whereClause = whereClause.and(Spans.SPANS.DURATION.le(request.maxDuration() * 1000L));
-      }
-
-      for (Map.Entry<String, String> entry : request.annotationQuery().entrySet()) {
-        String key = entry.getKey();
-        String value = entry.getValue();
-        if (value == null || "".equals(value)) {
-          whereClause = whereClause.and(SpanAnnotations.SPAN_ANNOTATIONS.A_VALUE.eq(key).or(SpanTags.SPAN_TAGS.T_KEY.eq(key)));
-        } else {
-          whereClause = whereClause.and(SpanTags.SPAN_TAGS.T_KEY.eq(key).and(SpanTags.SPAN_TAGS.T_VALUE.eq(value)));
-        }
-      }
-
-      dslContext
-        .select()
+      Field<Long> traceTimestamp = DSL.min(Spans.SPANS.TIMESTAMP);
+      List<String> traceIds = dslContext
+        .select(Spans.SPANS.TRACE_ID, traceTimestamp)
         .from(Spans.SPANS)
-        .where(whereClause)
-        .orderBy(Spans.SPANS.TIMESTAMP.desc())
+        .where(spanCondition(request))
+        .groupBy(Spans.SPANS.TRACE_ID)
+        .orderBy(traceTimestamp.desc())
         .limit(request.limit())
-        .stream()
-        .forEach(r -> {
-          Span span = buildSpan(r).build();
-          List<Span> spans;
-          if (allSpans.containsKey(span.traceId())) {
-            spans = allSpans.get(span.traceId());
-          } else {
-            spans = new ArrayList<>();
-            allSpans.put(span.traceId(), spans);
-          }
-          spans.add(span);
-        });
-      return new ArrayList<>(allSpans.values());
+        .fetch(Spans.SPANS.TRACE_ID);
+      if (traceIds.isEmpty()) return Collections.emptyList();
+
+      Map<String, List<Span>> spansByTraceId = selectSpans(dslContext, traceIds);
+      List<List<Span>> result = new ArrayList<>(traceIds.size());
+      for (String traceId : traceIds) { // retain the order of the first phase
+        List<Span> spans = spansByTraceId.get(traceId);
+        if (spans != null) result.add(spans);
+      }
+      return result;
     };
 
     return dataSourceCallFactory.create(f);
   }
 
+  /**
+   * Matches spans in the query's time window, which also match its service, span name and duration
+   * criteria. Annotation and tag criteria can match any span in the same trace.
+   */
+  static Condition spanCondition(QueryRequest request) {
+    Condition whereClause = Spans.SPANS.TIMESTAMP.between(
+      (request.endTs() - request.lookback()) * 1000L, request.endTs() * 1000L);
+    if (request.serviceName() != null && !"all".equalsIgnoreCase(request.serviceName())) {
+      whereClause = whereClause.and(Spans.SPANS.LOCAL_SERVICE_NAME.eq(request.serviceName())
+        .or(Spans.SPANS.REMOTE_SERVICE_NAME.eq(request.serviceName())));
+    }
+    if (request.spanName() != null && !"all".equalsIgnoreCase(request.spanName())) {
+      whereClause = whereClause.and(Spans.SPANS.NAME.eq(request.spanName()));
+    }
+    if (request.minDuration() != null) {
+      whereClause = whereClause.and(Spans.SPANS.DURATION.ge(request.minDuration()));
+    }
+    if (request.maxDuration() != null) {
+      whereClause = whereClause.and(Spans.SPANS.DURATION.le(request.maxDuration()));
+    }
+
+    SpanAnnotations a = SpanAnnotations.SPAN_ANNOTATIONS;
+    SpanTags t = SpanTags.SPAN_TAGS;
+    for (Map.Entry<String, String> entry : request.annotationQuery().entrySet()) {
+      String key = entry.getKey();
+      String value = entry.getValue();
+      Condition tagMatch = t.TRACE_ID.eq(Spans.SPANS.TRACE_ID).and(t.T_KEY.eq(key));
+      if (value == null || "".equals(value)) {
+        Condition annotationMatch = a.TRACE_ID.eq(Spans.SPANS.TRACE_ID).and(a.A_VALUE.eq(key));
+        whereClause = whereClause.and(DSL.exists(DSL.selectOne().from(a).where(annotationMatch))
+          .or(DSL.exists(DSL.selectOne().from(t).where(tagMatch))));
+      } else {
+        whereClause = whereClause.and(
+          DSL.exists(DSL.selectOne().from(t).where(tagMatch.and(t.T_VALUE.eq(value)))));
+      }
+    }
+    return whereClause;
+  }
+
   @Override
   public Call<List<Span>> getTrace(String traceId) {
     Function<DSLContext, List<Span>> f = dslContext -> {
-      Map<Record, Result<Record>> groupedSpans = dslContext
-        .select()
-        .from(Spans.SPANS)
-        .leftOuterJoin(SpanAnnotations.SPAN_ANNOTATIONS)
-        .on(Spans.SPANS.TRACE_ID.eq(SpanAnnotations.SPAN_ANNOTATIONS.TRACE_ID).and(Spans.SPANS.ID.eq(SpanAnnotations.SPAN_ANNOTATIONS.ID)))
-        .leftOuterJoin(SpanTags.SPAN_TAGS)
-        .on(Spans.SPANS.TRACE_ID.eq(SpanTags.SPAN_TAGS.TRACE_ID).and(Spans.SPANS.ID.eq(SpanTags.SPAN_TAGS.ID)))
-        .where(Spans.SPANS.TRACE_ID.eq(traceId))
-        .fetchGroups(Spans.SPANS);
-
-      List<Span> spans = new ArrayList<>();
-      groupedSpans.forEach((key, value) -> {
-        Span.Builder span = buildSpan(key);
-        for (Record v : value) {
-          if (v.get(SpanTags.SPAN_TAGS.T_KEY) != null &&  v.get(SpanTags.SPAN_TAGS.T_VALUE) != null) {
-            span.putTag(v.get(SpanTags.SPAN_TAGS.T_KEY), v.get(SpanTags.SPAN_TAGS.T_VALUE));
-          } else if (v.get(SpanAnnotations.SPAN_ANNOTATIONS.A_TIMESTAMP) != null) {
-            span.addAnnotation(v.get(SpanAnnotations.SPAN_ANNOTATIONS.A_TIMESTAMP), v.get(SpanAnnotations.SPAN_ANNOTATIONS.A_VALUE));
-          }
-        }
-        spans.add(span.build());
-      });
-      return spans;
+      List<Span> spans =
+        selectSpans(dslContext, Collections.singletonList(traceId)).get(traceId);
+      return spans != null ? spans : Collections.emptyList();
     };
 
     return dataSourceCallFactory.create(f);
   }
 
+  /**
+   * Returns all spans in the given traces, grouped by trace ID.
+   *
+   * <p>Annotations and tags are unioned into one derived table before joining, so that a span
+   * with both results in one row per annotation or tag, instead of their product.
+   */
+  static Map<String, List<Span>> selectSpans(DSLContext dslContext, List<String> traceIds) {
+    SpanAnnotations a = SpanAnnotations.SPAN_ANNOTATIONS;
+    SpanTags t = SpanTags.SPAN_TAGS;
+    Table<?> details = DSL
+      .select(a.TRACE_ID, a.ID, a.A_TIMESTAMP, a.A_VALUE,
+        DSL.inline(null, String.class).as(t.T_KEY.getName()),
+        DSL.inline(null, String.class).as(t.T_VALUE.getName()))
+      .from(a)
+      .where(a.TRACE_ID.in(traceIds))
+      .unionAll(DSL
+        .select(t.TRACE_ID, t.ID,
+          DSL.inline(null, Long.class).as(a.A_TIMESTAMP.getName()),
+          DSL.inline(null, String.class).as(a.A_VALUE.getName()),
+          t.T_KEY, t.T_VALUE)
+        .from(t)
+        .where(t.TRACE_ID.in(traceIds)))
+      .asTable(DETAILS);
+    Field<String> traceId = detailsField(a.TRACE_ID);
+    Field<String> id = detailsField(a.ID);
+    Field<Long> aTimestamp = detailsField(a.A_TIMESTAMP);
+    Field<String> aValue = detailsField(a.A_VALUE);
+    Field<String> tKey = detailsField(t.T_KEY);
+    Field<String> tValue = detailsField(t.T_VALUE);
+
+    List<Field<?>> fields = new ArrayList<>(Arrays.asList(Spans.SPANS.fields()));
+    fields.addAll(Arrays.asList(aTimestamp, aValue, tKey, tValue));
+    Map<Record, Result<Record>> groupedSpans = dslContext
+      .select(fields)
+      .from(Spans.SPANS)
+      .leftOuterJoin(details)
+      .on(Spans.SPANS.TRACE_ID.eq(traceId).and(Spans.SPANS.ID.eq(id)))
+      .where(Spans.SPANS.TRACE_ID.in(traceIds))
+      .fetchGroups(Spans.SPANS);
+
+    Map<String, List<Span>> result = new LinkedHashMap<>();
+    groupedSpans.forEach((key, value) -> {
+      Span.Builder span = buildSpan(key);
+      for (Record v : value) {
+        if (v.get(tKey) != null && v.get(tValue) != null) {
+          span.putTag(v.get(tKey), v.get(tValue));
+        } else if (v.get(aTimestamp) != null) {
+          span.addAnnotation(v.get(aTimestamp), v.get(aValue));
+        }
+      }
+      result.computeIfAbsent(key.get(Spans.SPANS.TRACE_ID), k -> new ArrayList<>())
+        .add(span.build());
+    });
+    return result;
+  }
+
   @Override
   public Call<List<String>> getServiceNames() {
     Function<DSLContext, List<String>> f = dslContext -> dslContext
@@ -153,18 +211,139 @@ class SnowflakeSpanStore implements SpanStore {
     return dataSourceCallFactory.create(f);
   }
 
+  /**
+   * Aggregates links in the warehouse, instead of fetching spans to run {@code DependencyLinker}.
+   * Links are the union of two legs, which mirror how {@code DependencyLinker} treats span kinds:
+   *
+   * <ul>
+   *   <li>A server span is called by its client's service: that of the client row with the same
+   *   ID when shared, else that of its parent span, else its remote service name.</li>
+   *   <li>A messaging span, or a client span with no children (an uninstrumented call), links its
+   *   local service with its remote service name.</li>
+   * </ul>
+   *
+   * <p>A call is an error when its span has an "error" tag, or when it is the server side of a
+   * client span with one. As tags are keyed by span ID, an error on either side of a shared span
+   * counts for both.
+   */
   @Override
   public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
-    return Call.emptyList();
-  } // not final for testing
+    Function<DSLContext, List<DependencyLink>> f = dslContext -> {
+      Spans s = Spans.SPANS.as("s");
+      Field<String> caller = DSL.coalesce(
+        DSL.choose().when(s.SHARE.isTrue(), nodeField(SELF, CLIENT_SERVICE)),
+        nodeField(UP, SERVICE),
+        s.REMOTE_SERVICE_NAME);
+      Field<String> serverError = DSL.coalesce(
+        nodeField(SELF, ERROR),
+        DSL.choose().when(s.SHARE.isNull().or(s.SHARE.isFalse())
+          .and(nodeField(UP, CLIENT_SERVICE).isNotNull()), nodeField(UP, ERROR)));
+      Select<Record3<String, String, String>> serverLinks = DSL
+        .select(caller.as(PARENT), s.LOCAL_SERVICE_NAME.as(CHILD), serverError.as(ERROR))
+        .from(s)
+        .leftOuterJoin(nodes(SELF, endTs, lookback))
+        .on(nodeField(SELF, TRACE_ID).eq(s.TRACE_ID).and(nodeField(SELF, ID).eq(s.ID)))
+        .leftOuterJoin(nodes(UP, endTs, lookback))
+        .on(nodeField(UP, TRACE_ID).eq(s.TRACE_ID).and(nodeField(UP, ID).eq(s.PARENT_ID)))
+        .where(inWindow(s, endTs, lookback))
+        .and(s.KIND.eq(Span.Kind.SERVER.name()))
+        .and(s.LOCAL_SERVICE_NAME.isNotNull())
+        .and(caller.isNotNull());
+
+      Spans c = Spans.SPANS.as("c"), x = Spans.SPANS.as("x");
+      Condition isConsumer = c.KIND.eq(Span.Kind.CONSUMER.name());
+      Condition hasChildren = DSL.exists(DSL.selectOne().from(x)
+        .where(x.TRACE_ID.eq(c.TRACE_ID))
+        .and(x.PARENT_ID.eq(c.ID).or(x.ID.eq(c.ID).and(x.SHARE.isTrue()))));
+      Select<Record3<String, String, String>> remoteLinks = DSL
+        .select(
+          DSL.choose().when(isConsumer, c.REMOTE_SERVICE_NAME).otherwise(c.LOCAL_SERVICE_NAME)
+            .as(PARENT),
+          DSL.choose().when(isConsumer, c.LOCAL_SERVICE_NAME).otherwise(c.REMOTE_SERVICE_NAME)
+            .as(CHILD),
+          nodeField(SELF, ERROR).as(ERROR))
+        .from(c)
+        .leftOuterJoin(nodes(SELF, endTs, lookback))
+        .on(nodeField(SELF, TRACE_ID).eq(c.TRACE_ID).and(nodeField(SELF, ID).eq(c.ID)))
+        .where(inWindow(c, endTs, lookback))
+        // a span of unknown kind is treated as a client when it has both service names
+        .and(c.KIND.in(Span.Kind.PRODUCER.name(), Span.Kind.CONSUMER.name())
+          .or(c.KIND.isNull())
+          .or(c.KIND.eq(Span.Kind.CLIENT.name()).andNot(hasChildren)))
+        .and(c.LOCAL_SERVICE_NAME.isNotNull())
+        .and(c.REMOTE_SERVICE_NAME.isNotNull());
+
+      Table<?> links = serverLinks.unionAll(remoteLinks).asTable(LINKS);
+      Field<String> parent = DSL.field(DSL.name(LINKS, PARENT), String.class);
+      Field<String> child = DSL.field(DSL.name(LINKS, CHILD), String.class);
+      Field<Integer> callCount = DSL.count();
+      Field<Integer> errorCount = DSL.count(DSL.field(DSL.name(LINKS, ERROR), String.class));
+      return dslContext
+        .select(parent, child, callCount, errorCount)
+        .from(links)
+        .groupBy(parent, child)
+        .fetch(r -> DependencyLink.newBuilder()
+          .parent(r.get(parent))
+          .child(r.get(child))
+          .callCount(r.get(callCount))
+          .errorCount(r.get(errorCount))
+          .build());
+    };
+
+    return dataSourceCallFactory.create(f);
+  }
+
+  static final String LINKS = "links", PARENT = "parent", CHILD = "child", ERROR = "error";
+  static final String SELF = "self", UP = "up";
+  static final String TRACE_ID = "TRACE_ID", ID = "ID", SERVICE = "SERVICE";
+  static final String CLIENT_SERVICE = "CLIENT_SERVICE";
 
+  /**
+   * Returns one row per span ID in traces with a span in the time window. {@code SERVICE} is where
+   * spans with this parent ID run: when a client and server share an ID, that's the server, so the
+   * shared row is preferred. {@code CLIENT_SERVICE} is set when there's a client row with this ID.
+   * {@code ERROR} is set when any row with this ID has an "error" tag.
+   */
+  static Table<?> nodes(String alias, long endTs, long lookback) {
+    Spans n = Spans.SPANS.as("n"), w = Spans.SPANS.as("w");
+    SpanTags e = SpanTags.SPAN_TAGS.as("e");
+    return DSL
+      .select(n.TRACE_ID, n.ID,
+        DSL.coalesce(
+          DSL.max(DSL.choose().when(n.SHARE.isTrue(), n.LOCAL_SERVICE_NAME)),
+          DSL.max(n.LOCAL_SERVICE_NAME)).as(SERVICE),
+        DSL.max(DSL.choose().when(n.KIND.eq(Span.Kind.CLIENT.name()), n.LOCAL_SERVICE_NAME))
+          .as(CLIENT_SERVICE),
+        DSL.max(e.T_KEY).as(ERROR))
+      .from(n)
+      .leftOuterJoin(e)
+      .on(e.TRACE_ID.eq(n.TRACE_ID).and(e.ID.eq(n.ID)).and(e.T_KEY.eq("error")))
+      .where(n.TRACE_ID.in(DSL.select(w.TRACE_ID).from(w).where(inWindow(w, endTs, lookback))))
+      .groupBy(n.TRACE_ID, n.ID)
+      .asTable(alias);
+  }
+
+  static Field<String> nodeField(String alias, String name) {
+    return DSL.field(DSL.name(alias, name), String.class);
+  }
+
+  static Condition inWindow(Spans spans, long endTs, long lookback) {
+    return spans.TIMESTAMP.between((endTs - lookback) * 1000L, endTs * 1000L);
+  }
+
+  static final String DETAILS = "details";
+
+  static <T> Field<T> detailsField(Field<T> field) {
+    return DSL.field(DSL.name(DETAILS, field.getName()), field.getType());
+  }
 
-  private Span.Builder buildSpan(Record r) {
+  static Span.Builder buildSpan(Record r) {
+    String kind = r.get(Spans.SPANS.KIND);
     Span.Builder builder = Span.newBuilder()
       .traceId(r.get(Spans.SPANS.TRACE_ID))
       .id(r.get(Spans.SPANS.ID))
       .name(r.get(Spans.SPANS.NAME))
-      .kind(Span.Kind.valueOf(r.get(Spans.SPANS.KIND)))
+      .kind(kind != null ? Span.Kind.valueOf(kind) : null)
       .timestamp(r.get(Spans.SPANS.TIMESTAMP))
       .duration(r.get(Spans.SPANS.DURATION));
 
@@ -183,6 +362,7 @@ class SnowflakeSpanStore implements SpanStore {
         Endpoint.newBuilder()
           .serviceName(r.get(Spans.SPANS.LOCAL_SERVICE_NAME))
           .ip(r.get(Spans.SPANS.LOCAL_IPV4))
+          .ip(r.get(Spans.SPANS.LOCAL_IPV6))
           .port(r.get(Spans.SPANS.LOCAL_PORT))
           .build()
       )
@@ -190,6 +370,7 @@ class SnowflakeSpanStore implements SpanStore {
         Endpoint.newBuilder()
           .serviceName(r.get(Spans.SPANS.REMOTE_SERVICE_NAME))
           .ip(r.get(Spans.SPANS.REMOTE_IPV4))
+          .ip(r.get(Spans.SPANS.REMOTE_IPV6))
           .port(r.get(Spans.SPANS.REMOTE_PORT))
           .build()
       );
@@ -22,6 +22,7 @@ import zipkin2.storage.SpanStore;
 import zipkin2.storage.StorageComponent;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.util.concurrent.Executor;
 
 @AutoValue
@@ -37,6 +38,27 @@ public abstract class SnowflakeStorage extends StorageComponent {
     return new SnowflakeSpanConsumer(this);
   }
 
+  volatile StagedSpanWriter stagedSpanWriter;
+
+  /** Returns null unless {@link Builder#stagingDirectory(String) staged bulk loading} is enabled. */
+  @Nullable StagedSpanWriter stagedSpanWriter() {
+    if (stagingDirectory() == null) return null;
+    if (stagedSpanWriter == null) {
+      synchronized (this) {
+        if (stagedSpanWriter == null) {
+          stagedSpanWriter = new StagedSpanWriter(this, StagedSpanWriter.SNOWFLAKE);
+        }
+      }
+    }
+    return stagedSpanWriter;
+  }
+
+  @Override
+  public void close() throws IOException {
+    StagedSpanWriter writer = stagedSpanWriter;
+    if (writer != null) writer.close();
+  }
+
   @AutoValue.Builder
   public static abstract class Builder extends StorageComponent.Builder {
 
@@ -58,8 +80,33 @@ public abstract class SnowflakeStorage extends StorageComponent {
 
     public abstract Builder executor(Executor executor);
 
+    /**
+     * When set, spans are buffered and bulk loaded via gzipped CSV files written to this local
+     * directory, then {@code PUT} into each table's internal stage and copied with {@code COPY
+     * INTO}. Defaults to null, which inserts each batch of spans with SQL statements.
+     */
+    public abstract Builder stagingDirectory(@Nullable String stagingDirectory);
+
+    /** When staging, the count of buffered spans that triggers a flush. Defaults to 10000. */
+    public abstract Builder flushSpans(int flushSpans);
+
+    /**
+     * When staging, the maximum time spans are buffered before they are flushed, or zero to only
+     * flush on {@link #flushSpans(int) size}. Defaults to 5000.
+     */
+    public abstract Builder flushIntervalMillis(long flushIntervalMillis);
+
+    abstract SnowflakeStorage autoBuild();
+
     @Override
-    public abstract SnowflakeStorage build();
+    public final SnowflakeStorage build() {
+      SnowflakeStorage result = autoBuild();
+      if (result.flushSpans() <= 0) throw new IllegalArgumentException("flushSpans <= 0");
+      if (result.flushIntervalMillis() < 0) {
+        throw new IllegalArgumentException("flushIntervalMillis < 0");
+      }
+      return result;
+    }
 
     Builder() {}
   }
@@ -70,9 +117,14 @@ public abstract class SnowflakeStorage extends StorageComponent {
   abstract @Nullable  Settings settings();
   abstract @Nullable ExecuteListenerProvider listenerProvider();
   abstract Executor executor();
+  abstract @Nullable String stagingDirectory();
+  abstract int flushSpans();
+  abstract long flushIntervalMillis();
 
   public static Builder builder() {
-    return new AutoValue_SnowflakeStorage.Builder();
+    return new AutoValue_SnowflakeStorage.Builder()
+      .flushSpans(10000)
+      .flushIntervalMillis(5000);
   }
 
 }
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.snowflake;
+
+import org.jooq.DSLContext;
+import org.jooq.Table;
+import zipkin2.Annotation;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.internal.Nullable;
+import zipkin2.storage.snowflake.internal.generated.tables.SpanAnnotations;
+import zipkin2.storage.snowflake.internal.generated.tables.SpanTags;
+import zipkin2.storage.snowflake.internal.generated.tables.Spans;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Buffers spans and bulk loads them, instead of issuing an insert statement per span, annotation
+ * and tag.
+ *
+ * <p>On flush, each table's rows are written to a gzipped CSV file in the staging directory. The
+ * files are then handed to a {@link StageLoader}, which in Snowflake is a {@code PUT} into the
+ * table's internal stage followed by {@code COPY INTO}. Flushes happen when {@code flushSpans} are
+ * buffered, or every {@code flushIntervalMillis}, whichever comes first.
+ *
+ * <p>Callbacks complete once their spans are flushed, so when a flush fails, every message in it
+ * fails, not only the one that triggered it. Spans buffered, but not yet flushed, are lost if the
+ * process crashes.
+ */
+final class StagedSpanWriter implements Closeable {
+  static final Logger LOG = Logger.getLogger(StagedSpanWriter.class.getName());
+
+  /** Loads a gzipped CSV file, whose columns are in table order, into the table. */
+  interface StageLoader {
+    void load(DSLContext context, Table<?> table, File file);
+  }
+
+  /** Uploads the file to the table stage, then copies it into the table, purging the stage. */
+  static final StageLoader SNOWFLAKE = new StageLoader() {
+    @Override public void load(DSLContext context, Table<?> table, File file) {
+      String path = file.getAbsolutePath().replace('\\', '/');
+      context.execute("PUT 'file://" + path + "' @%" + table.getName()
+        + " AUTO_COMPRESS=FALSE OVERWRITE=TRUE");
+      context.execute("COPY INTO " + table.getName() + " FROM @%" + table.getName()
+        + " FILES=('" + file.getName() + "')"
+        + " FILE_FORMAT=(TYPE=CSV COMPRESSION=GZIP FIELD_OPTIONALLY_ENCLOSED_BY='\"')"
+        + " PURGE=TRUE");
+    }
+
+    @Override public String toString() {
+      return "SnowflakeStageLoader";
+    }
+  };
+
+  final DataSource datasource;
+  final DSLContexts context;
+  final Executor executor;
+  final File directory;
+  final int flushSpans;
+  final StageLoader loader;
+  final ScheduledExecutorService scheduler; // null when there's no flush interval
+
+  final Object bufferLock = new Object(), flushLock = new Object();
+  Pending pending = new Pending(16); // guarded by bufferLock
+
+  StagedSpanWriter(SnowflakeStorage storage, StageLoader loader) {
+    this.datasource = storage.datasource();
+    this.context = new DSLContexts(storage.settings(), storage.listenerProvider());
+    this.executor = storage.executor();
+    this.directory = new File(storage.stagingDirectory());
+    this.flushSpans = storage.flushSpans();
+    this.loader = loader;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IllegalArgumentException("couldn't create staging directory " + directory);
+    }
+    long flushIntervalMillis = storage.flushIntervalMillis();
+    if (flushIntervalMillis > 0) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "SnowflakeStagedSpanWriter");
+        thread.setDaemon(true);
+        return thread;
+      });
+      scheduler.scheduleWithFixedDelay(this::flushQuietly,
+        flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    } else {
+      scheduler = null;
+    }
+  }
+
+  Call<Void> accept(List<Span> spans) {
+    return new BufferCall(spans);
+  }
+
+  /**
+   * Adds spans to the buffer, completing the callback once they are flushed. When the buffer is
+   * full, this flushes on the calling thread.
+   */
+  void buffer(List<Span> spans, Callback<Void> callback) {
+    Pending toFlush = null;
+    synchronized (bufferLock) {
+      pending.add(spans, callback);
+      if (pending.spans.size() >= flushSpans) toFlush = drainPending();
+    }
+    if (toFlush != null) flushQuietly(toFlush);
+  }
+
+  /** Flushes the buffer, including the spans, on the calling thread. */
+  void bufferAndFlush(List<Span> spans) throws IOException {
+    Pending toFlush;
+    synchronized (bufferLock) {
+      pending.add(spans, null);
+      toFlush = drainPending();
+    }
+    flush(toFlush);
+  }
+
+  Pending drainPending() {
+    Pending result = pending;
+    pending = new Pending(Math.max(16, result.spans.size()));
+    return result;
+  }
+
+  void flushQuietly() {
+    Pending toFlush;
+    synchronized (bufferLock) {
+      if (pending.spans.isEmpty()) return;
+      toFlush = drainPending();
+    }
+    flushQuietly(toFlush);
+  }
+
+  /** Flushes, relying on callbacks to report any failure. */
+  void flushQuietly(Pending toFlush) {
+    try {
+      flush(toFlush);
+    } catch (IOException | RuntimeException e) {
+      if (toFlush.callbacks.isEmpty()) { // no-one else will know the spans were dropped
+        LOG.log(Level.WARNING, "dropped " + toFlush.spans.size() + " spans: " + e.getMessage(), e);
+      }
+    }
+  }
+
+  /** Writes the pending spans, then completes their callbacks. Throws if the write failed. */
+  void flush(Pending toFlush) throws IOException {
+    try {
+      write(toFlush.spans);
+    } catch (IOException | RuntimeException e) {
+      for (Callback<Void> callback : toFlush.callbacks) callback.onError(e);
+      throw e;
+    }
+    for (Callback<Void> callback : toFlush.callbacks) callback.onSuccess(null);
+  }
+
+  /** Writes are serialized so that staged files are loaded in the order spans were received. */
+  void write(List<Span> spans) throws IOException {
+    synchronized (flushLock) {
+      List<File> files = new ArrayList<>(3);
+      try {
+        File spansFile = newFile(Spans.SPANS), annotationsFile = null, tagsFile = null;
+        files.add(spansFile);
+        try (Writer spansCsv = openGzip(spansFile)) {
+          Writer annotationsCsv = null, tagsCsv = null;
+          try {
+            for (Span span : spans) {
+              writeSpan(spansCsv, span);
+              for (Annotation a : span.annotations()) {
+                if (annotationsCsv == null) {
+                  files.add(annotationsFile = newFile(SpanAnnotations.SPAN_ANNOTATIONS));
+                  annotationsCsv = openGzip(annotationsFile);
+                }
+                writeRow(annotationsCsv, span.traceId(), span.id(), a.timestamp(), a.value());
+              }
+              for (Map.Entry<String, String> tag : span.tags().entrySet()) {
+                if (tagsCsv == null) {
+                  files.add(tagsFile = newFile(SpanTags.SPAN_TAGS));
+                  tagsCsv = openGzip(tagsFile);
+                }
+                writeRow(tagsCsv, span.traceId(), span.id(), tag.getKey(), tag.getValue());
+              }
+            }
+          } finally {
+            if (annotationsCsv != null) annotationsCsv.close();
+            if (tagsCsv != null) tagsCsv.close();
+          }
+        }
+
+        try (Connection conn = datasource.getConnection()) {
+          DSLContext create = context.get(conn);
+          loader.load(create, Spans.SPANS, spansFile);
+          if (annotationsFile != null) {
+            loader.load(create, SpanAnnotations.SPAN_ANNOTATIONS, annotationsFile);
+          }
+          if (tagsFile != null) loader.load(create, SpanTags.SPAN_TAGS, tagsFile);
+        } catch (SQLException e) {
+          throw new IOException(e);
+        }
+      } finally {
+        for (File file : files) {
+          if (!file.delete()) LOG.fine("couldn't delete staged file " + file);
+        }
+      }
+    }
+  }
+
+  File newFile(Table<?> table) throws IOException {
+    return File.createTempFile(table.getName().toLowerCase() + "-", ".csv.gz", directory);
+  }
+
+  static Writer openGzip(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(
+      new GZIPOutputStream(new FileOutputStream(file), 8192), StandardCharsets.UTF_8));
+  }
+
+  static void writeSpan(Writer csv, Span span) throws IOException {
+    Endpoint local = span.localEndpoint(), remote = span.remoteEndpoint();
+    writeRow(csv,
+      span.traceId(),
+      span.name(),
+      span.parentId(),
+      span.id(),
+      span.kind() != null ? span.kind().name() : null,
+      span.timestamp(),
+      span.duration(),
+      span.debug(),
+      span.shared(),
+      span.localServiceName(),
+      local != null ? local.ipv4() : null,
+      local != null ? local.ipv6() : null,
+      local != null ? local.port() : null,
+      span.remoteServiceName(),
+      remote != null ? remote.ipv4() : null,
+      remote != null ? remote.ipv6() : null,
+      remote != null ? remote.port() : null);
+  }
+
+  /** Writes an RFC 4180 row, leaving null fields empty and quoting all strings. */
+  static void writeRow(Writer csv, Object... fields) throws IOException {
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) csv.write(',');
+      Object field = fields[i];
+      if (field == null) continue;
+      if (!(field instanceof String)) {
+        csv.write(field.toString());
+        continue;
+      }
+      String value = (String) field;
+      csv.write('"');
+      for (int j = 0, length = value.length(); j < length; j++) {
+        char c = value.charAt(j);
+        if (c == '"') csv.write('"');
+        csv.write(c);
+      }
+      csv.write('"');
+    }
+    csv.write('\n');
+  }
+
+  @Override public void close() throws IOException {
+    if (scheduler != null) scheduler.shutdownNow();
+    Pending toFlush;
+    synchronized (bufferLock) {
+      if (pending.spans.isEmpty()) return;
+      toFlush = drainPending();
+    }
+    flush(toFlush);
+  }
+
+  /** Spans not yet flushed, and the callbacks to complete when they are. */
+  static final class Pending {
+    final List<Span> spans;
+    final List<Callback<Void>> callbacks = new ArrayList<>();
+
+    Pending(int initialCapacity) {
+      spans = new ArrayList<>(initialCapacity);
+    }
+
+    void add(List<Span> spans, @Nullable Callback<Void> callback) {
+      this.spans.addAll(spans);
+      if (callback != null) callbacks.add(callback);
+    }
+  }
+
+  final class BufferCall extends Call.Base<Void> {
+    final List<Span> spans;
+
+    BufferCall(List<Span> spans) {
+      this.spans = spans;
+    }
+
+    /** A blocked caller can't wait for others to fill the buffer, so this flushes it now. */
+    @Override protected Void doExecute() throws IOException {
+      bufferAndFlush(spans);
+      return null;
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      executor.execute(() -> buffer(spans, callback));
+    }
+
+    @Override public Call<Void> clone() {
+      return new BufferCall(spans);
+    }
+
+    @Override public String toString() {
+      return "BufferSpans(" + spans.size() + ")";
+    }
+  }
+}
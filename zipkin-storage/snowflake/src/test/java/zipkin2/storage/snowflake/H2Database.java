@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.snowflake;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.stream.Collectors;
+import javax.sql.DataSource;
+import org.h2.jdbcx.JdbcDataSource;
+
+/** An in-memory database with the Snowflake schema, for testing queries without Snowflake. */
+final class H2Database {
+
+  /** Returns a data source with empty tables, dropping any created by a previous call. */
+  static DataSource create() throws SQLException {
+    JdbcDataSource result = new JdbcDataSource();
+    result.setURL("jdbc:h2:mem:zipkin;DB_CLOSE_DELAY=-1");
+    try (Connection conn = result.getConnection(); Statement statement = conn.createStatement()) {
+      statement.execute("DROP ALL OBJECTS");
+      for (String ddl : schema().split(";")) {
+        if (!ddl.trim().isEmpty()) statement.execute(ddl);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adapts the schema to H2. Snowflake doesn't enforce primary keys, so a shared span has a row per
+   * side of the RPC, with the same ID. Primary keys are removed, so that H2 accepts those rows too.
+   * {@code TEXT} is a {@code VARCHAR} in Snowflake, but a {@code CLOB} in H2, so is replaced.
+   */
+  static String schema() {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+      H2Database.class.getResourceAsStream("/zipkin2-schema.sql"), StandardCharsets.UTF_8))) {
+      return reader.lines().collect(Collectors.joining("\n"))
+        .replaceAll(",\\s*PRIMARY KEY \\([^)]*\\)", "")
+        .replace(" TEXT", " VARCHAR");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  H2Database() {
+  }
+}
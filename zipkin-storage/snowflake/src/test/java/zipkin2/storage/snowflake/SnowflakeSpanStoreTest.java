@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.snowflake;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import zipkin2.DependencyLink;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.internal.DependencyLinker;
+import zipkin2.internal.Nullable;
+import zipkin2.storage.QueryRequest;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.BACKEND;
+import static zipkin2.TestObjects.DAY;
+import static zipkin2.TestObjects.DB;
+import static zipkin2.TestObjects.FRONTEND;
+import static zipkin2.TestObjects.TODAY;
+import static zipkin2.TestObjects.TRACE;
+import static zipkin2.TestObjects.TRACE_ENDTS;
+
+/** Runs queries against H2, which accepts the SQL jOOQ renders for Snowflake. */
+public class SnowflakeSpanStoreTest {
+  /** A trace with one span, older than {@link zipkin2.TestObjects#TRACE} */
+  static final List<Span> OLDER_TRACE = asList(Span.newBuilder().traceId("a").id("a")
+    .name("post")
+    .kind(Span.Kind.SERVER)
+    .localEndpoint(FRONTEND)
+    .timestamp((TODAY - 1000L) * 1000L)
+    .duration(10L)
+    .build());
+
+  SnowflakeStorage storage;
+
+  @Before public void setup() throws SQLException, IOException {
+    storage = newStorage();
+    storage.spanConsumer().accept(TRACE).execute();
+    storage.spanConsumer().accept(OLDER_TRACE).execute();
+  }
+
+  @Test public void getTrace() throws IOException {
+    assertThat(storage.spanStore().getTrace(TRACE.get(0).traceId()).execute())
+      .containsExactlyInAnyOrderElementsOf(TRACE);
+  }
+
+  /** The limit applies to traces, so a trace with more spans than the limit is complete. */
+  @Test public void getTraces_limitAppliesToTraces() throws IOException {
+    List<List<Span>> traces = storage.spanStore().getTraces(request().limit(1).build()).execute();
+
+    assertThat(traces).hasSize(1);
+    assertThat(traces.get(0)).containsExactlyInAnyOrderElementsOf(TRACE);
+  }
+
+  @Test public void getTraces_newestTraceFirst() throws IOException {
+    List<List<Span>> traces = storage.spanStore().getTraces(request().build()).execute();
+
+    assertThat(traces).hasSize(2);
+    assertThat(traces.get(0)).containsExactlyInAnyOrderElementsOf(TRACE);
+    assertThat(traces.get(1)).containsExactlyElementsOf(OLDER_TRACE);
+  }
+
+  @Test public void getTraces_serviceNameMatchesRemoteServiceName() throws IOException {
+    // only the client span calling the database has this service name
+    assertThat(storage.spanStore().getTraces(request().serviceName("db").build()).execute())
+      .hasSize(1)
+      .allSatisfy(trace -> assertThat(trace).containsExactlyInAnyOrderElementsOf(TRACE));
+  }
+
+  /** The "error" tag is on a backend span, so it matches the trace, not the frontend span. */
+  @Test public void getTraces_annotationQueryMatchesAnySpanInTrace() throws IOException {
+    assertThat(storage.spanStore().getTraces(request().serviceName("frontend")
+      .parseAnnotationQuery("error").build()).execute())
+      .hasSize(1)
+      .allSatisfy(trace -> assertThat(trace).containsExactlyInAnyOrderElementsOf(TRACE));
+
+    assertThat(storage.spanStore().getTraces(request().serviceName("frontend")
+      .parseAnnotationQuery("error=\uD83D\uDCA9 and foo").build()).execute())
+      .hasSize(1);
+  }
+
+  @Test public void getTraces_allCriteriaMustMatch() throws IOException {
+    assertThat(storage.spanStore().getTraces(request().serviceName("frontend")
+      .parseAnnotationQuery("error and bar").build()).execute())
+      .isEmpty();
+
+    assertThat(storage.spanStore().getTraces(request().serviceName("frontend")
+      .parseAnnotationQuery("error=nope").build()).execute())
+      .isEmpty();
+  }
+
+  @Test public void getTraces_spanNameAndServiceNameMatchTheSameSpan() throws IOException {
+    // the frontend has a "post" span only in the older trace
+    assertThat(storage.spanStore().getTraces(request().serviceName("frontend").spanName("post")
+      .build()).execute())
+      .containsExactly(OLDER_TRACE);
+
+    // the database never handled a "post"
+    assertThat(storage.spanStore().getTraces(request().serviceName("db").spanName("post")
+      .build()).execute())
+      .isEmpty();
+  }
+
+  /** Client and server share span ID 2, which must not link the database client to itself. */
+  @Test public void getDependencies_sharedSpans() throws Exception {
+    assertLinksMatchDependencyLinker(TRACE);
+  }
+
+  @Test public void getDependencies_serverSpanChildOfClientSpan() throws Exception {
+    assertLinksMatchDependencyLinker(asList(
+      span("1", null).kind(Span.Kind.SERVER).localEndpoint(FRONTEND).build(),
+      span("2", "1").kind(Span.Kind.CLIENT).localEndpoint(FRONTEND)
+        .putTag("error", "timeout").build(), // the server inherits the client's error
+      span("4", "2").kind(Span.Kind.SERVER).localEndpoint(BACKEND).build(),
+      span("5", "4").kind(Span.Kind.CLIENT).localEndpoint(BACKEND).remoteEndpoint(DB).build()
+    ));
+  }
+
+  @Test public void getDependencies_serverSpanChildOfLocalSpan() throws Exception {
+    assertLinksMatchDependencyLinker(asList(
+      span("1", null).kind(Span.Kind.SERVER).localEndpoint(FRONTEND).build(),
+      span("2", "1").localEndpoint(FRONTEND).build(),
+      span("3", "2").kind(Span.Kind.SERVER).localEndpoint(BACKEND).build()
+    ));
+  }
+
+  /** The remote service name is the only evidence of a call from an uninstrumented client */
+  @Test public void getDependencies_rootServerSpanWithRemoteServiceName() throws Exception {
+    assertLinksMatchDependencyLinker(asList(
+      span("1", null).kind(Span.Kind.SERVER).localEndpoint(BACKEND).remoteEndpoint(FRONTEND)
+        .build()
+    ));
+  }
+
+  @Test public void getDependencies_messaging() throws Exception {
+    Endpoint kafka = Endpoint.newBuilder().serviceName("kafka").build();
+    assertLinksMatchDependencyLinker(asList(
+      span("1", null).kind(Span.Kind.PRODUCER).localEndpoint(FRONTEND).remoteEndpoint(kafka)
+        .build(),
+      span("2", "1").kind(Span.Kind.CONSUMER).localEndpoint(BACKEND).remoteEndpoint(kafka)
+        .putTag("error", "poison message").build()
+    ));
+  }
+
+  @Test public void getDependencies_unknownKindWithBothServiceNames() throws Exception {
+    assertLinksMatchDependencyLinker(asList(
+      span("1", null).kind(Span.Kind.SERVER).localEndpoint(FRONTEND).build(),
+      span("2", "1").localEndpoint(FRONTEND).remoteEndpoint(BACKEND).build()
+    ));
+  }
+
+  /** Links of different traces are summed */
+  @Test public void getDependencies_manyTraces() throws IOException {
+    List<Span> otherTrace = TRACE.stream()
+      .map(span -> span.toBuilder().traceId("b").build())
+      .collect(Collectors.toList());
+    storage.spanConsumer().accept(otherTrace).execute();
+
+    assertThat(storage.spanStore().getDependencies(TRACE_ENDTS, DAY).execute())
+      .containsExactlyInAnyOrderElementsOf(new DependencyLinker()
+        .putTrace(TRACE)
+        .putTrace(OLDER_TRACE)
+        .putTrace(otherTrace)
+        .link());
+  }
+
+  @Test public void getDependencies_outsideWindow() throws IOException {
+    assertThat(storage.spanStore().getDependencies(TODAY - DAY, DAY).execute()).isEmpty();
+  }
+
+  /** Stores only the trace, then checks its links are the same as {@link DependencyLinker}'s. */
+  void assertLinksMatchDependencyLinker(List<Span> trace) throws Exception {
+    storage = newStorage();
+    storage.spanConsumer().accept(trace).execute();
+
+    List<DependencyLink> expected = new DependencyLinker().putTrace(trace).link();
+    assertThat(expected).isNotEmpty(); // otherwise, the test isn't testing much
+    assertThat(storage.spanStore().getDependencies(TRACE_ENDTS, DAY).execute())
+      .containsExactlyInAnyOrderElementsOf(expected);
+  }
+
+  static Span.Builder span(String id, @Nullable String parentId) {
+    return Span.newBuilder().traceId("c").parentId(parentId).id(id).name("get")
+      .timestamp((TODAY + Long.parseLong(id)) * 1000L).duration(10L);
+  }
+
+  static SnowflakeStorage newStorage() throws SQLException {
+    return SnowflakeStorage.builder()
+      .strictTraceId(true)
+      .searchEnabled(true)
+      .executor(Runnable::run)
+      .datasource(H2Database.create())
+      .build();
+  }
+
+  static QueryRequest.Builder request() {
+    return QueryRequest.newBuilder().endTs(TRACE_ENDTS).lookback(DAY).limit(10);
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.snowflake;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import javax.sql.DataSource;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin2.Callback;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.storage.snowflake.internal.generated.tables.Spans;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class StagedSpanWriterTest {
+  static final Span SPAN = Span.newBuilder().traceId("1").id("2").name("get")
+    .kind(Span.Kind.CLIENT)
+    .localEndpoint(Endpoint.newBuilder().serviceName("frontend").ip("127.0.0.1").build())
+    .timestamp(1L).duration(2L)
+    .addAnnotation(1L, "foo")
+    .putTag("http.path", "/a\"b")
+    .build();
+
+  @Rule public TemporaryFolder stagingDirectory = new TemporaryFolder();
+
+  DataSource datasource = mock(DataSource.class);
+  /** Table names and CSV rows of each file loaded, read before the writer deletes the file */
+  List<Entry<String, List<String>>> loaded = new ArrayList<>();
+  StagedSpanWriter.StageLoader loader = (context, table, file) -> loaded.add(entry(table.getName(),
+    readGzippedLines(file)));
+  StagedSpanWriter writer;
+
+  @Before public void setup() throws SQLException {
+    when(datasource.getConnection())
+      .thenAnswer(i -> new MockConnection(ctx -> new MockResult[0]));
+  }
+
+  @After public void close() throws IOException {
+    if (writer != null) writer.close();
+  }
+
+  @Test public void flush_writesGzippedCsvPerTable() {
+    writer = newWriter(1);
+
+    writer.accept(singletonList(SPAN)).enqueue(mock(Callback.class));
+
+    assertThat(loaded).containsExactly(
+      entry("SPANS", singletonList(
+        "\"0000000000000001\",\"get\",,\"0000000000000002\",\"CLIENT\",1,2,,,"
+          + "\"frontend\",\"127.0.0.1\",,,,,,")),
+      entry("SPAN_ANNOTATIONS", singletonList(
+        "\"0000000000000001\",\"0000000000000002\",1,\"foo\"")),
+      entry("SPAN_TAGS", singletonList(
+        "\"0000000000000001\",\"0000000000000002\",\"http.path\",\"/a\"\"b\""))
+    );
+  }
+
+  @Test public void flush_skipsEmptyTables() {
+    writer = newWriter(1);
+
+    writer.accept(singletonList(SPAN.toBuilder().clearAnnotations().clearTags().build()))
+      .enqueue(mock(Callback.class));
+
+    assertThat(loaded).extracting(Entry::getKey).containsExactly("SPANS");
+  }
+
+  @Test public void flush_deletesStagedFiles() {
+    writer = newWriter(1);
+
+    writer.accept(singletonList(SPAN)).enqueue(mock(Callback.class));
+
+    assertThat(stagingDirectory.getRoot().list()).isEmpty();
+  }
+
+  @Test public void enqueue_completesWhenBufferIsFlushed() {
+    writer = newWriter(3);
+    Callback<Void> first = mock(Callback.class), second = mock(Callback.class);
+
+    writer.accept(singletonList(SPAN)).enqueue(first);
+
+    assertThat(loaded).isEmpty();
+    verifyZeroInteractions(first);
+
+    writer.accept(asList(SPAN.toBuilder().id("3").build(), SPAN.toBuilder().id("4").build()))
+      .enqueue(second);
+
+    assertThat(loaded.get(0).getValue()).hasSize(3); // spans rows of both messages
+    verify(first).onSuccess(null);
+    verify(second).onSuccess(null);
+  }
+
+  /** A failed flush must fail every message in it, so that all dropped spans are counted. */
+  @Test public void enqueue_failedFlushFailsEveryMessageInIt() {
+    IllegalStateException error = new IllegalStateException("stage unavailable");
+    loader = (context, table, file) -> {
+      throw error;
+    };
+    writer = newWriter(2);
+    Callback<Void> first = mock(Callback.class), second = mock(Callback.class);
+
+    writer.accept(singletonList(SPAN)).enqueue(first);
+    writer.accept(singletonList(SPAN.toBuilder().id("3").build())).enqueue(second);
+
+    verify(first).onError(error);
+    verify(second).onError(error);
+    verifyNoMoreInteractions(first, second);
+    assertThat(stagingDirectory.getRoot().list()).isEmpty();
+  }
+
+  @Test public void execute_flushesImmediately() throws IOException {
+    writer = newWriter(1000);
+    Callback<Void> buffered = mock(Callback.class);
+    writer.accept(singletonList(SPAN)).enqueue(buffered);
+
+    writer.accept(singletonList(SPAN.toBuilder().id("3").build())).execute();
+
+    assertThat(loaded).extracting(Entry::getKey).contains("SPANS");
+    verify(buffered).onSuccess(null);
+  }
+
+  @Test public void execute_failedFlushFailsBufferedMessages() {
+    IllegalStateException error = new IllegalStateException("stage unavailable");
+    loader = (context, table, file) -> {
+      throw error;
+    };
+    writer = newWriter(1000);
+    Callback<Void> buffered = mock(Callback.class);
+    writer.accept(singletonList(SPAN)).enqueue(buffered);
+
+    assertThatThrownBy(() -> writer.accept(singletonList(SPAN.toBuilder().id("3").build()))
+      .execute()).isSameAs(error);
+
+    verify(buffered).onError(error);
+  }
+
+  @Test public void flush_connectionFailureFailsMessages() throws SQLException {
+    when(datasource.getConnection()).thenThrow(new SQLException("no connection"));
+    writer = newWriter(1);
+    Callback<Void> callback = mock(Callback.class);
+
+    writer.accept(singletonList(SPAN)).enqueue(callback);
+
+    verify(callback).onError(any(IOException.class));
+    assertThat(loaded).isEmpty();
+  }
+
+  @Test public void close_flushesBuffer() throws IOException {
+    writer = newWriter(1000);
+    Callback<Void> callback = mock(Callback.class);
+    writer.accept(singletonList(SPAN)).enqueue(callback);
+
+    writer.close();
+
+    assertThat(loaded).extracting(Entry::getKey).contains("SPANS");
+    verify(callback).onSuccess(null);
+  }
+
+  @Test public void snowflakeLoader_putsThenCopiesIntoTable() {
+    List<String> sql = new ArrayList<>();
+    DSLContext context = DSL.using(new MockConnection(ctx -> {
+      sql.add(ctx.sql());
+      return new MockResult[] {new MockResult(0, null)};
+    }), SQLDialect.DEFAULT);
+    File file = new File(stagingDirectory.getRoot(), "spans-1.csv.gz");
+
+    StagedSpanWriter.SNOWFLAKE.load(context, Spans.SPANS, file);
+
+    assertThat(sql).containsExactly(
+      "PUT 'file://" + file.getAbsolutePath().replace('\\', '/') + "' @%SPANS"
+        + " AUTO_COMPRESS=FALSE OVERWRITE=TRUE",
+      "COPY INTO SPANS FROM @%SPANS FILES=('spans-1.csv.gz')"
+        + " FILE_FORMAT=(TYPE=CSV COMPRESSION=GZIP FIELD_OPTIONALLY_ENCLOSED_BY='\"')"
+        + " PURGE=TRUE");
+  }
+
+  StagedSpanWriter newWriter(int flushSpans) {
+    SnowflakeStorage storage = SnowflakeStorage.builder()
+      .strictTraceId(true)
+      .searchEnabled(true)
+      .executor(Runnable::run)
+      .datasource(datasource)
+      .stagingDirectory(stagingDirectory.getRoot().getAbsolutePath())
+      .flushSpans(flushSpans)
+      .flushIntervalMillis(0) // only flush on size, so tests are deterministic
+      .build();
+    return new StagedSpanWriter(storage, (context, table, file) -> loader.load(context, table,
+      file));
+  }
+
+  static List<String> readGzippedLines(File file) {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+      new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+      return reader.lines().collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -80,15 +80,55 @@ public final class Span implements Serializable { // for Spark and Flink jobs
    * For example, {@code 4e441824ec2b6a44ffdc9bb9a6453df3} becomes {@code ffdc9bb9a6453df3}.
    */
   public String traceId() {
-    return traceId;
+    String result = traceIdString;
+    if (result != null) return result;
+    char[] data = new char[traceIdHigh != 0L ? 32 : 16];
+    int pos = 0;
+    if (traceIdHigh != 0L) {
+      writeHexLong(data, pos, traceIdHigh);
+      pos += 16;
+    }
+    writeHexLong(data, pos, traceIdLow);
+    return traceIdString = new String(data);
+  }
+
+  /**
+   * Upper 64-bits of the {@link #traceId()}, or zero if the trace ID is 64-bit.
+   *
+   * <p>Using this method will avoid allocation, so is encouraged when copying data.
+   */
+  public long traceIdHigh() {
+    return traceIdHigh;
+  }
+
+  /**
+   * Lower 64-bits of the {@link #traceId()}.
+   *
+   * <p>Using this method will avoid allocation, so is encouraged when copying data.
+   */
+  public long traceIdLow() {
+    return traceIdLow;
   }
 
   /**
    * The parent's {@link #id} or null if this the root span in a trace.
    *
    * <p>This is the same encoding as {@link #id}. For example {@code ffdc9bb9a6453df3}
+   *
+   * @see #parentIdAsLong()
    */
   @Nullable public String parentId() {
+    if (parentId == 0L) return null;
+    String result = parentIdString;
+    return result != null ? result : (parentIdString = toLowerHex(parentId));
+  }
+
+  /**
+   * Like {@link #parentId()} except returns a primitive where zero implies absent.
+   *
+   * <p>Using this method will avoid allocation, so is encouraged when copying data.
+   */
+  public long parentIdAsLong() {
     return parentId;
   }
 
@@ -98,8 +138,20 @@ public final class Span implements Serializable { // for Spark and Flink jobs
    * <p>Encoded as 16 lowercase hex characters. For example {@code ffdc9bb9a6453df3}
    *
    * <p>A span is uniquely identified in storage by ({@linkplain #traceId}, {@linkplain #id()}).
+   *
+   * @see #idAsLong()
    */
   public String id() {
+    String result = idString;
+    return result != null ? result : (idString = toLowerHex(id));
+  }
+
+  /**
+   * Like {@link #id()} except returns a primitive.
+   *
+   * <p>Using this method will avoid allocation, so is encouraged when copying data.
+   */
+  public long idAsLong() {
     return id;
   }
 
@@ -283,7 +335,7 @@ public final class Span implements Serializable { // for Spark and Flink jobs
   }
 
   public static final class Builder {
-    String traceId, parentId, id;
+    long traceIdHigh, traceIdLow, parentId, id; // zero means null
     Kind kind;
     String name;
     long timestamp, duration; // zero means null
@@ -293,9 +345,7 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     int flags = 0; // bit field for timestamp and duration
 
     public Builder clear() {
-      traceId = null;
-      parentId = null;
-      id = null;
+      traceIdHigh = traceIdLow = parentId = id = 0L;
       kind = null;
       name = null;
       timestamp = 0L;
@@ -310,7 +360,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
 
     @Override public Builder clone() {
       Builder result = new Builder();
-      result.traceId = traceId;
+      result.traceIdHigh = traceIdHigh;
+      result.traceIdLow = traceIdLow;
       result.parentId = parentId;
       result.id = id;
       result.kind = kind;
@@ -330,7 +381,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     }
 
     Builder(Span source) {
-      traceId = source.traceId;
+      traceIdHigh = source.traceIdHigh;
+      traceIdLow = source.traceIdLow;
       parentId = source.parentId;
       id = source.id;
       kind = source.kind;
@@ -355,9 +407,12 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      * not use this to merge spans that occur on different hosts.
      */
     public Builder merge(Span source) {
-      if (traceId == null) traceId = source.traceId;
-      if (id == null) id = source.id;
-      if (parentId == null) parentId = source.parentId;
+      if (traceIdHigh == 0L && traceIdLow == 0L) {
+        traceIdHigh = source.traceIdHigh;
+        traceIdLow = source.traceIdLow;
+      }
+      if (id == 0L) id = source.id;
+      if (parentId == 0L) parentId = source.parentId;
       if (kind == null) kind = source.kind;
       if (name == null) name = source.name;
       if (timestamp == 0L) timestamp = source.timestamp;
@@ -399,7 +454,16 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      * @see Span#id()
      */
     public Builder traceId(String traceId) {
-      this.traceId = normalizeTraceId(traceId);
+      if (traceId == null) throw new NullPointerException("traceId == null");
+      int length = traceId.length();
+      if (length == 0) throw new IllegalArgumentException("traceId is empty");
+      if (length > 32) throw new IllegalArgumentException("traceId.length > 32");
+      if (validateHexAndReturnZeroPrefix(traceId) == length) {
+        throw new IllegalArgumentException("traceId is all zeros");
+      }
+      int lowIndex = length > 16 ? length - 16 : 0;
+      traceIdHigh = lowIndex > 0 ? parseHex(traceId, 0, lowIndex) : 0L;
+      traceIdLow = parseHex(traceId, lowIndex, length);
       return this;
     }
 
@@ -412,14 +476,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      */
     public Builder traceId(long high, long low) {
       if (high == 0L && low == 0L) throw new IllegalArgumentException("empty trace ID");
-      char[] result = new char[high != 0L ? 32 : 16];
-      int pos = 0;
-      if (high != 0L) {
-        writeHexLong(result, pos, high);
-        pos += 16;
-      }
-      writeHexLong(result, pos, low);
-      this.traceId = new String(result);
+      this.traceIdHigh = high;
+      this.traceIdLow = low;
       return this;
     }
 
@@ -430,7 +488,7 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      * @see Span#parentId()
      */
     public Builder parentId(long parentId) {
-      this.parentId = parentId != 0L ? toLowerHex(parentId) : null;
+      this.parentId = parentId;
       return this;
     }
 
@@ -440,16 +498,16 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      */
     public Builder parentId(@Nullable String parentId) {
       if (parentId == null) {
-        this.parentId = null;
+        this.parentId = 0L;
         return this;
       }
       int length = parentId.length();
       if (length == 0) throw new IllegalArgumentException("parentId is empty");
       if (length > 16) throw new IllegalArgumentException("parentId.length > 16");
       if (validateHexAndReturnZeroPrefix(parentId) == length) {
-        this.parentId = null;
+        this.parentId = 0L;
       } else {
-        this.parentId = length < 16 ? padLeft(parentId, 16) : parentId;
+        this.parentId = parseHex(parentId, 0, length);
       }
       return this;
     }
@@ -462,7 +520,7 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      */
     public Builder id(long id) {
       if (id == 0L) throw new IllegalArgumentException("empty id");
-      this.id = toLowerHex(id);
+      this.id = id;
       return this;
     }
 
@@ -475,10 +533,10 @@ public final class Span implements Serializable { // for Spark and Flink jobs
       int length = id.length();
       if (length == 0) throw new IllegalArgumentException("id is empty");
       if (length > 16) throw new IllegalArgumentException("id.length > 16");
-      if (validateHexAndReturnZeroPrefix(id) == 16) {
+      if (validateHexAndReturnZeroPrefix(id) == length) {
         throw new IllegalArgumentException("id is all zeros");
       }
-      this.id = length < 16 ? padLeft(id, 16) : id;
+      this.id = parseHex(id, 0, length);
       return this;
     }
 
@@ -604,21 +662,23 @@ public final class Span implements Serializable { // for Spark and Flink jobs
 
     public Span build() {
       String missing = "";
-      if (traceId == null) missing += " traceId";
-      if (id == null) missing += " id";
+      if (traceIdHigh == 0L && traceIdLow == 0L) missing += " traceId";
+      if (id == 0L) missing += " id";
       if (!"".equals(missing)) throw new IllegalStateException("Missing :" + missing);
-      if (id.equals(parentId)) { // edge case, so don't require a logger field
+      if (id == parentId) { // edge case, so don't require a logger field
         Logger logger = Logger.getLogger(Span.class.getName());
         if (logger.isLoggable(FINEST)) {
-          logger.fine(format("undoing circular dependency: traceId=%s, spanId=%s", traceId, id));
+          logger.fine(format("undoing circular dependency: traceId=%s, spanId=%s",
+            toLowerHex(traceIdLow), toLowerHex(id)));
         }
-        parentId = null;
+        parentId = 0L;
       }
       // shared is for the server side, unset it if accidentally set on the client side
       if ((flags & FLAG_SHARED) == FLAG_SHARED && kind == Kind.CLIENT) {
         Logger logger = Logger.getLogger(Span.class.getName());
         if (logger.isLoggable(FINEST)) {
-          logger.fine(format("removing shared flag on client: traceId=%s, spanId=%s", traceId, id));
+          logger.fine(format("removing shared flag on client: traceId=%s, spanId=%s",
+            toLowerHex(traceIdLow), toLowerHex(id)));
         }
         shared(null);
       }
@@ -687,6 +747,16 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     data[pos + 1] = HEX_DIGITS[b & 0xf];
   }
 
+  /** Parses lower-hex already checked by {@link #validateHexAndReturnZeroPrefix(String)} */
+  static long parseHex(String lowerHex, int beginIndex, int endIndex) {
+    long result = 0L;
+    for (int i = beginIndex; i < endIndex; i++) {
+      char c = lowerHex.charAt(i);
+      result = (result << 4) | (c <= '9' ? c - '0' : c - 'a' + 10);
+    }
+    return result;
+  }
+
   static int validateHexAndReturnZeroPrefix(String id) {
     int zeros = 0;
     boolean inZeroPrefix = id.charAt(0) == '0';
@@ -725,7 +795,7 @@ public final class Span implements Serializable { // for Spark and Flink jobs
 
   // Custom impl to reduce GC churn and Kryo which cannot handle AutoValue subclass
   // See https://github.com/openzipkin/zipkin/issues/1879
-  final String traceId, parentId, id;
+  final long traceIdHigh, traceIdLow, parentId, id; // zero parentId means null
   final Kind kind;
   final String name;
   final long timestamp, duration; // zero means null, saving 2 object references
@@ -733,11 +803,14 @@ public final class Span implements Serializable { // for Spark and Flink jobs
   final List<Annotation> annotations;
   final Map<String, String> tags;
   final int flags; // bit field for timestamp and duration, saving 2 object references
+  // IDs are only encoded as hex on demand, as most code paths use the numeric form
+  String traceIdString, parentIdString, idString;
 
   Span(Builder builder) {
-    traceId = builder.traceId;
+    traceIdHigh = builder.traceIdHigh;
+    traceIdLow = builder.traceIdLow;
     // prevent self-referencing spans
-    parentId = builder.id.equals(builder.parentId) ? null : builder.parentId;
+    parentId = builder.id == builder.parentId ? 0L : builder.parentId;
     id = builder.id;
     kind = builder.kind;
     name = builder.name;
@@ -754,9 +827,10 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     if (o == this) return true;
     if (!(o instanceof Span)) return false;
     Span that = (Span) o;
-    return traceId.equals(that.traceId)
-      && (parentId == null ? that.parentId == null : parentId.equals(that.parentId))
-      && id.equals(that.id)
+    return traceIdHigh == that.traceIdHigh
+      && traceIdLow == that.traceIdLow
+      && parentId == that.parentId
+      && id == that.id
       && (kind == null ? that.kind == null : kind.equals(that.kind))
       && (name == null ? that.name == null : name.equals(that.name))
       && timestamp == that.timestamp
@@ -773,11 +847,13 @@ public final class Span implements Serializable { // for Spark and Flink jobs
   @Override public int hashCode() {
     int h = 1;
     h *= 1000003;
-    h ^= traceId.hashCode();
+    h ^= (int) ((traceIdHigh >>> 32) ^ traceIdHigh);
+    h *= 1000003;
+    h ^= (int) ((traceIdLow >>> 32) ^ traceIdLow);
     h *= 1000003;
-    h ^= (parentId == null) ? 0 : parentId.hashCode();
+    h ^= (int) ((parentId >>> 32) ^ parentId);
     h *= 1000003;
-    h ^= id.hashCode();
+    h ^= (int) ((id >>> 32) ^ id);
     h *= 1000003;
     h ^= (kind == null) ? 0 : kind.hashCode();
     h *= 1000003;
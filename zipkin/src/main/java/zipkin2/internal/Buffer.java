@@ -287,6 +287,18 @@ public final class Buffer {
         | (buf[pos++] & 0xffL) << 56;
   }
 
+  /** This needs to be checked externally to not overrun the underlying array */
+  long readLongBe() {
+    return (buf[pos++] & 0xffL) << 56
+        | (buf[pos++] & 0xffL) << 48
+        | (buf[pos++] & 0xffL) << 40
+        | (buf[pos++] & 0xffL) << 32
+        | (buf[pos++] & 0xffL) << 24
+        | (buf[pos++] & 0xffL) << 16
+        | (buf[pos++] & 0xffL) << 8
+        | (buf[pos++] & 0xffL);
+  }
+
   /** This needs to be checked externally to not overrun the underlying array */
   byte readByte() {
     return buf[pos++];
@@ -37,8 +37,8 @@ import static java.util.logging.Level.FINE;
 public final class DependencyLinker {
   final Logger logger;
   final SpanNode.Builder builder;
-  final Map<Pair, Long> callCounts = new LinkedHashMap<>();
-  final Map<Pair, Long> errorCounts = new LinkedHashMap<>();
+  final Map<Pair, Counts> linkCounts = new LinkedHashMap<>();
+  final Pair lookup = new Pair(null, null); // avoids allocating a key for existing links
 
   public DependencyLinker() {
     this(Logger.getLogger(DependencyLinker.class.getName()));
@@ -134,7 +134,7 @@ public final class DependencyLinker {
         // When an RPC is split between spans, we skip the child (server side). If our parent is a
         // client, we need to check it for errors.
         if (!isError && Kind.CLIENT.equals(remoteAncestor.kind()) &&
-          currentSpan.parentId() != null && currentSpan.parentId().equals(remoteAncestor.id())) {
+          currentSpan.parentIdAsLong() == remoteAncestor.idAsLong()) {
           isError = remoteAncestor.tags().containsKey("error");
         }
       }
@@ -166,59 +166,59 @@ public final class DependencyLinker {
     if (logger.isLoggable(FINE)) {
       logger.fine("incrementing " + (isError ? "error " : "") + "link " + parent + " -> " + child);
     }
-    Pair key = new Pair(parent, child);
-    if (callCounts.containsKey(key)) {
-      callCounts.put(key, callCounts.get(key) + 1);
-    } else {
-      callCounts.put(key, 1L);
-    }
-    if (!isError) return;
-    if (errorCounts.containsKey(key)) {
-      errorCounts.put(key, errorCounts.get(key) + 1);
-    } else {
-      errorCounts.put(key, 1L);
-    }
+    Counts counts = counts(parent, child);
+    counts.callCount++;
+    if (isError) counts.errorCount++;
   }
 
-  public List<DependencyLink> link() {
-    return link(callCounts, errorCounts);
+  /** Links are kept in the order they were first seen. */
+  Counts counts(String parent, String child) {
+    lookup.left = parent;
+    lookup.right = child;
+    Counts counts = linkCounts.get(lookup);
+    if (counts == null) linkCounts.put(new Pair(parent, child), counts = new Counts());
+    return counts;
   }
 
-  /** links are merged by mapping to parent/child and summing corresponding links */
-  public static List<DependencyLink> merge(Iterable<DependencyLink> in) {
-    Map<Pair, Long> callCounts = new LinkedHashMap<>();
-    Map<Pair, Long> errorCounts = new LinkedHashMap<>();
-
-    for (DependencyLink link : in) {
-      Pair parentChild = new Pair(link.parent(), link.child());
-      long callCount = callCounts.containsKey(parentChild) ? callCounts.get(parentChild) : 0L;
-      callCount += link.callCount();
-      callCounts.put(parentChild, callCount);
-      long errorCount = errorCounts.containsKey(parentChild) ? errorCounts.get(parentChild) : 0L;
-      errorCount += link.errorCount();
-      errorCounts.put(parentChild, errorCount);
+  /**
+   * Adds the links to those already collected, for example results of linking a different set of
+   * traces.
+   */
+  public DependencyLinker putLinks(Iterable<DependencyLink> links) {
+    for (DependencyLink link : links) {
+      Counts counts = counts(link.parent(), link.child());
+      counts.callCount += link.callCount();
+      counts.errorCount += link.errorCount();
     }
-
-    return link(callCounts, errorCounts);
+    return this;
   }
 
-  static List<DependencyLink> link(Map<Pair, Long> callCounts,
-    Map<Pair, Long> errorCounts) {
-    List<DependencyLink> result = new ArrayList<>(callCounts.size());
-    for (Map.Entry<Pair, Long> entry : callCounts.entrySet()) {
+  public List<DependencyLink> link() {
+    List<DependencyLink> result = new ArrayList<>(linkCounts.size());
+    for (Map.Entry<Pair, Counts> entry : linkCounts.entrySet()) {
       Pair parentChild = entry.getKey();
+      Counts counts = entry.getValue();
       result.add(DependencyLink.newBuilder()
         .parent(parentChild.left)
         .child(parentChild.right)
-        .callCount(entry.getValue())
-        .errorCount(errorCounts.containsKey(parentChild) ? errorCounts.get(parentChild) : 0L)
+        .callCount(counts.callCount)
+        .errorCount(counts.errorCount)
         .build());
     }
     return result;
   }
 
+  /** links are merged by mapping to parent/child and summing corresponding links */
+  public static List<DependencyLink> merge(Iterable<DependencyLink> in) {
+    return new DependencyLinker().putLinks(in).link();
+  }
+
+  static final class Counts {
+    long callCount, errorCount;
+  }
+
   static final class Pair {
-    final String left, right;
+    String left, right; // only mutated on the lookup key
 
     Pair(String left, String right) {
       this.left = left;
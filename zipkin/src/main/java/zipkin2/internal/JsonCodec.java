@@ -13,17 +13,14 @@
  */
 package zipkin2.internal;
 
-import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import zipkin2.Span;
 
-import static com.google.gson.stream.JsonToken.BOOLEAN;
-import static com.google.gson.stream.JsonToken.NULL;
-import static com.google.gson.stream.JsonToken.STRING;
 import static java.lang.String.format;
 
 /**
@@ -41,79 +38,576 @@ import static java.lang.String.format;
  * this should be easy to justify as these objects don't change much at all.
  */
 public final class JsonCodec {
-  // Hides gson types for internal use in other submodules
+  /**
+   * Streaming reader that parses UTF-8 json directly from a byte array. Strings that are entirely
+   * ASCII, such as IDs, numbers and field names, are read without an intermediate char buffer.
+   *
+   * <p>This implements only what our readers use: strict json, reading without lookahead beyond
+   * the next token. Errors mention the json path, similar to gson which this replaced.
+   */
   public static final class JsonReader {
-    final com.google.gson.stream.JsonReader delegate;
+    static final int PEEKED_NONE = 0, PEEKED_BEGIN_OBJECT = 1, PEEKED_END_OBJECT = 2,
+      PEEKED_BEGIN_ARRAY = 3, PEEKED_END_ARRAY = 4, PEEKED_TRUE = 5, PEEKED_FALSE = 6,
+      PEEKED_NULL = 7, PEEKED_STRING = 8, PEEKED_NAME = 9, PEEKED_NUMBER = 10, PEEKED_EOF = 11;
+
+    static final int EMPTY_ARRAY = 1, NONEMPTY_ARRAY = 2, EMPTY_OBJECT = 3, DANGLING_NAME = 4,
+      NONEMPTY_OBJECT = 5, EMPTY_DOCUMENT = 6, NONEMPTY_DOCUMENT = 7;
+
+    /** Field names we read, returned as constants to avoid allocating a string per field. */
+    static final String[] COMMON_NAMES = {
+      "traceId", "parentId", "id", "kind", "name", "timestamp", "duration", "localEndpoint",
+      "remoteEndpoint", "annotations", "tags", "debug", "shared", "serviceName", "ipv4", "ipv6",
+      "port", "value", "key", "endpoint", "binaryAnnotations", "parent", "child", "callCount",
+      "errorCount"
+    };
+    static final byte[][] COMMON_NAME_BYTES = new byte[COMMON_NAMES.length][];
+
+    static {
+      for (int i = 0; i < COMMON_NAMES.length; i++) {
+        COMMON_NAME_BYTES[i] = COMMON_NAMES[i].getBytes(UTF_8);
+      }
+    }
+
+    final byte[] buf;
+    int pos, peeked = PEEKED_NONE;
+    char[] chars; // lazily allocated for strings that need decoding or unescaping
+
+    int[] stack = new int[32];
+    int stackSize = 0;
+    String[] pathNames = new String[32];
+    int[] pathIndices = new int[32];
+    int markPos, markPeeked, markStackSize, markPathIndex;
 
     JsonReader(byte[] bytes) {
-      delegate =
-        new com.google.gson.stream.JsonReader(
-          new InputStreamReader(new ByteArrayInputStream(bytes), UTF_8));
+      buf = bytes;
+      stack[stackSize++] = EMPTY_DOCUMENT;
     }
 
     public void beginArray() throws IOException {
-      delegate.beginArray();
+      expect(PEEKED_BEGIN_ARRAY, "BEGIN_ARRAY");
+      push(EMPTY_ARRAY);
+      pathIndices[stackSize - 1] = 0;
+      peeked = PEEKED_NONE;
     }
 
     public boolean hasNext() throws IOException {
-      return delegate.hasNext();
+      int p = peek();
+      return p != PEEKED_END_OBJECT && p != PEEKED_END_ARRAY && p != PEEKED_EOF;
     }
 
     public void endArray() throws IOException {
-      delegate.endArray();
+      expect(PEEKED_END_ARRAY, "END_ARRAY");
+      stackSize--;
+      pathIndices[stackSize - 1]++;
+      peeked = PEEKED_NONE;
     }
 
     public void beginObject() throws IOException {
-      delegate.beginObject();
+      expect(PEEKED_BEGIN_OBJECT, "BEGIN_OBJECT");
+      push(EMPTY_OBJECT);
+      peeked = PEEKED_NONE;
     }
 
     public void endObject() throws IOException {
-      delegate.endObject();
+      expect(PEEKED_END_OBJECT, "END_OBJECT");
+      stackSize--;
+      pathNames[stackSize] = null;
+      pathIndices[stackSize - 1]++;
+      peeked = PEEKED_NONE;
     }
 
     public String nextName() throws IOException {
-      return delegate.nextName();
+      expect(PEEKED_NAME, "a name");
+      String result = readString(true);
+      pathNames[stackSize - 1] = result;
+      peeked = PEEKED_NONE;
+      return result;
     }
 
     public String nextString() throws IOException {
-      return delegate.nextString();
+      int p = peek();
+      String result;
+      if (p == PEEKED_STRING) {
+        result = readString(false);
+      } else if (p == PEEKED_NUMBER) {
+        int start = pos;
+        result = asciiString(start, skipNumber() - start);
+      } else {
+        throw unexpected("a string");
+      }
+      consumedValue();
+      return result;
     }
 
     public void skipValue() throws IOException {
-      delegate.skipValue();
+      int count = 0;
+      do {
+        int p = peek();
+        if (p == PEEKED_BEGIN_ARRAY) {
+          push(EMPTY_ARRAY);
+          count++;
+        } else if (p == PEEKED_BEGIN_OBJECT) {
+          push(EMPTY_OBJECT);
+          count++;
+        } else if (p == PEEKED_END_ARRAY || p == PEEKED_END_OBJECT) {
+          stackSize--;
+          count--;
+        } else if (p == PEEKED_STRING || p == PEEKED_NAME) {
+          skipString();
+        } else if (p == PEEKED_NUMBER) {
+          skipNumber();
+        } else if (p == PEEKED_EOF) {
+          throw unexpected("a value");
+        }
+        peeked = PEEKED_NONE;
+      } while (count != 0);
+      pathIndices[stackSize - 1]++;
+      pathNames[stackSize - 1] = "null";
     }
 
     public long nextLong() throws IOException {
-      return delegate.nextLong();
+      int p = peek(), start = pos, end;
+      if (p == PEEKED_NUMBER) {
+        end = skipNumber();
+      } else if (p == PEEKED_STRING) { // gson compatibility: allow quoted numbers
+        end = start;
+        while (end < buf.length && buf[end] != '"') end++;
+        if (end == buf.length) throw syntaxError("Unterminated string");
+        pos = end + 1;
+      } else {
+        throw unexpected("a long");
+      }
+      long result = parseLong(start, end);
+      consumedValue();
+      return result;
     }
 
     public String getPath() {
-      return delegate.getPath();
+      StringBuilder result = new StringBuilder().append('$');
+      for (int i = 1; i < stackSize; i++) {
+        int scope = stack[i];
+        if (scope == EMPTY_ARRAY || scope == NONEMPTY_ARRAY) {
+          result.append('[').append(pathIndices[i]).append(']');
+        } else if (pathNames[i] != null) {
+          result.append('.').append(pathNames[i]);
+        }
+      }
+      return result.toString();
     }
 
     public boolean nextBoolean() throws IOException {
-      return delegate.nextBoolean();
+      int p = peek();
+      if (p != PEEKED_TRUE && p != PEEKED_FALSE) throw unexpected("a boolean");
+      consumedValue();
+      return p == PEEKED_TRUE;
     }
 
     public int nextInt() throws IOException {
-      return delegate.nextInt();
+      long result = nextLong();
+      if (result != (int) result) {
+        throw new NumberFormatException("Expected an int but was " + result + locationString());
+      }
+      return (int) result;
     }
 
     public boolean peekString() throws IOException {
-      return delegate.peek() == STRING;
+      return peek() == PEEKED_STRING;
     }
 
     public boolean peekBoolean() throws IOException {
-      return delegate.peek() == BOOLEAN;
+      int p = peek();
+      return p == PEEKED_TRUE || p == PEEKED_FALSE;
     }
 
     public boolean peekNull() throws IOException {
-      return delegate.peek() == NULL;
+      return peek() == PEEKED_NULL;
+    }
+
+    /** Reads a hex string, such as a trace ID, returning its lower 64 bits without allocating. */
+    public long nextLowerHex64() throws IOException {
+      if (peek() != PEEKED_STRING) throw unexpected("a hex string");
+      int end = pos;
+      while (end < buf.length && buf[end] != '"') end++;
+      if (end == buf.length) throw syntaxError("Unterminated string");
+      long result = 0L;
+      for (int i = Math.max(pos, end - 16); i < end; i++) {
+        int digit = Character.digit(buf[i], 16);
+        if (digit == -1) throw syntaxError("Malformed hex");
+        result = (result << 4) | digit;
+      }
+      pos = end + 1;
+      consumedValue();
+      return result;
+    }
+
+    /** Remembers the position of the next value, so that it can be read again after skipping. */
+    void mark() throws IOException {
+      peek();
+      markPos = pos;
+      markPeeked = peeked;
+      markStackSize = stackSize;
+      markPathIndex = pathIndices[stackSize - 1];
+    }
+
+    /** Returns to the position of the last call to {@link #mark()}. */
+    void reset() {
+      pos = markPos;
+      peeked = markPeeked;
+      stackSize = markStackSize;
+      pathIndices[stackSize - 1] = markPathIndex;
     }
 
     @Override
     public String toString() {
-      return delegate.toString();
+      return "JsonReader" + locationString();
+    }
+
+    int peek() throws IOException {
+      return peeked != PEEKED_NONE ? peeked : doPeek();
+    }
+
+    int doPeek() throws IOException {
+      int peekStack = stack[stackSize - 1];
+      if (peekStack == EMPTY_ARRAY) {
+        stack[stackSize - 1] = NONEMPTY_ARRAY;
+      } else if (peekStack == NONEMPTY_ARRAY) {
+        int c = nextNonWhitespace();
+        if (c == ']') return peeked = PEEKED_END_ARRAY;
+        if (c != ',') throw syntaxError("Unterminated array");
+      } else if (peekStack == EMPTY_OBJECT || peekStack == NONEMPTY_OBJECT) {
+        stack[stackSize - 1] = DANGLING_NAME;
+        if (peekStack == NONEMPTY_OBJECT) {
+          int c = nextNonWhitespace();
+          if (c == '}') return peeked = PEEKED_END_OBJECT;
+          if (c != ',') throw syntaxError("Unterminated object");
+        }
+        int c = nextNonWhitespace();
+        if (c == '"') return peeked = PEEKED_NAME;
+        if (c == '}' && peekStack == EMPTY_OBJECT) return peeked = PEEKED_END_OBJECT;
+        throw syntaxError("Expected name");
+      } else if (peekStack == DANGLING_NAME) {
+        stack[stackSize - 1] = NONEMPTY_OBJECT;
+        if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+      } else if (peekStack == EMPTY_DOCUMENT) {
+        stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+      } else if (peekStack == NONEMPTY_DOCUMENT) {
+        skipWhitespace();
+        if (pos == buf.length) return peeked = PEEKED_EOF;
+        throw syntaxError("Expected EOF");
+      }
+
+      int c = nextNonWhitespace();
+      switch (c) {
+        case ']':
+          if (peekStack == EMPTY_ARRAY) return peeked = PEEKED_END_ARRAY;
+          throw syntaxError("Unexpected value");
+        case '"':
+          return peeked = PEEKED_STRING;
+        case '[':
+          return peeked = PEEKED_BEGIN_ARRAY;
+        case '{':
+          return peeked = PEEKED_BEGIN_OBJECT;
+        case 't':
+        case 'T':
+          return peeked = peekKeyword("true", PEEKED_TRUE);
+        case 'f':
+        case 'F':
+          return peeked = peekKeyword("false", PEEKED_FALSE);
+        case 'n':
+        case 'N':
+          return peeked = peekKeyword("null", PEEKED_NULL);
+        default:
+          if (c == '-' || (c >= '0' && c <= '9')) {
+            pos--; // numbers are parsed when consumed
+            return peeked = PEEKED_NUMBER;
+          }
+          throw syntaxError("Expected value");
+      }
+    }
+
+    /** Like gson, this accepts keywords in lower or upper case. The first byte is consumed. */
+    int peekKeyword(String keyword, int result) throws IOException {
+      int length = keyword.length(), start = pos - 1;
+      if (start + length > buf.length) throw syntaxError("Expected value");
+      for (int i = 1; i < length; i++) {
+        int c = buf[start + i], k = keyword.charAt(i);
+        if (c != k && c != k - ('a' - 'A')) throw syntaxError("Expected value");
+      }
+      pos = start + length;
+      if (pos < buf.length && !isLiteralEnd(buf[pos])) throw syntaxError("Expected value");
+      return result;
+    }
+
+    /** Reads the remainder of a string whose opening quote was consumed by {@link #doPeek()}. */
+    String readString(boolean name) throws IOException {
+      int start = pos;
+      for (int i = start; i < buf.length; i++) {
+        byte b = buf[i];
+        if (b == '"') {
+          pos = i + 1;
+          return name ? asciiName(start, i - start) : asciiString(start, i - start);
+        } else if (b == '\\' || b < 0) {
+          return decodeString(start);
+        }
+      }
+      throw syntaxError("Unterminated string");
+    }
+
+    String asciiName(int offset, int length) {
+      for (int i = 0; i < COMMON_NAME_BYTES.length; i++) {
+        byte[] candidate = COMMON_NAME_BYTES[i];
+        if (candidate.length != length) continue;
+        int j = 0;
+        while (j < length && candidate[j] == buf[offset + j]) j++;
+        if (j == length) return COMMON_NAMES[i];
+      }
+      return asciiString(offset, length);
+    }
+
+    /** Only call when the bytes in range are known to be ASCII. */
+    @SuppressWarnings("deprecation")
+    String asciiString(int offset, int length) {
+      if (length == 0) return "";
+      return new String(buf, 0, offset, length); // copies bytes directly to chars
+    }
+
+    /** Slow path for strings that include escapes or multi-byte characters */
+    String decodeString(int start) throws IOException {
+      int length = 0;
+      if (chars == null || chars.length < buf.length - start) {
+        chars = new char[Math.max(32, buf.length - start)]; // decoding never expands
+      }
+      int i = start;
+      while (i < buf.length) {
+        int b = buf[i++];
+        if (b == '"') {
+          pos = i;
+          return new String(chars, 0, length);
+        } else if (b == '\\') {
+          if (i == buf.length) break;
+          int escaped = buf[i++];
+          switch (escaped) {
+            case 'u':
+              if (i + 4 > buf.length) throw syntaxError("Unterminated escape sequence");
+              int c = 0;
+              for (int end = i + 4; i < end; i++) {
+                int digit = Character.digit(buf[i], 16);
+                if (digit == -1) throw syntaxError("Malformed unicode escape");
+                c = (c << 4) | digit;
+              }
+              chars[length++] = (char) c;
+              break;
+            case 't':
+              chars[length++] = '\t';
+              break;
+            case 'b':
+              chars[length++] = '\b';
+              break;
+            case 'n':
+              chars[length++] = '\n';
+              break;
+            case 'r':
+              chars[length++] = '\r';
+              break;
+            case 'f':
+              chars[length++] = '\f';
+              break;
+            case '"':
+            case '\\':
+            case '/':
+              chars[length++] = (char) escaped;
+              break;
+            default:
+              throw syntaxError("Invalid escape sequence");
+          }
+        } else if (b >= 0) {
+          chars[length++] = (char) b;
+        } else if ((b & 0xe0) == 0xc0 && isContinuation(i, 1)) {
+          chars[length++] = (char) (((b & 0x1f) << 6) | (buf[i++] & 0x3f));
+        } else if ((b & 0xf0) == 0xe0 && isContinuation(i, 2)) {
+          chars[length++] =
+            (char) (((b & 0x0f) << 12) | ((buf[i++] & 0x3f) << 6) | (buf[i++] & 0x3f));
+        } else if ((b & 0xf8) == 0xf0 && isContinuation(i, 3)) {
+          int codePoint = ((b & 0x07) << 18) | ((buf[i++] & 0x3f) << 12)
+            | ((buf[i++] & 0x3f) << 6) | (buf[i++] & 0x3f);
+          if (codePoint <= Character.MAX_CODE_POINT) {
+            length += Character.toChars(codePoint, chars, length);
+          } else {
+            chars[length++] = '\ufffd';
+          }
+        } else {
+          chars[length++] = '\ufffd'; // malformed: replace as the UTF-8 charset decoder would
+        }
+      }
+      throw syntaxError("Unterminated string");
+    }
+
+    boolean isContinuation(int i, int count) {
+      if (i + count > buf.length) return false;
+      for (int end = i + count; i < end; i++) {
+        if ((buf[i] & 0xc0) != 0x80) return false;
+      }
+      return true;
+    }
+
+    void skipString() throws IOException {
+      for (int i = pos; i < buf.length; i++) {
+        byte b = buf[i];
+        if (b == '\\') {
+          i++;
+        } else if (b == '"') {
+          pos = i + 1;
+          return;
+        }
+      }
+      throw syntaxError("Unterminated string");
+    }
+
+    /** Consumes a number literal, returning its end position. */
+    int skipNumber() throws IOException {
+      int i = pos;
+      while (i < buf.length) {
+        byte b = buf[i];
+        if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+          i++;
+        } else if (isLiteralEnd(b)) {
+          break;
+        } else {
+          throw syntaxError("Malformed number");
+        }
+      }
+      return pos = i;
+    }
+
+    long parseLong(int start, int end) throws IOException {
+      int i = start;
+      boolean negative = i < end && buf[i] == '-';
+      if (negative) i++;
+      if (i == end) throw new NumberFormatException("Expected a long" + locationString());
+      long result = 0;
+      for (; i < end; i++) {
+        int digit = buf[i] - '0';
+        // fall back to the slow path on fractions, exponents and numbers that overflow
+        if (digit < 0 || digit > 9 || result < Long.MIN_VALUE / 10) {
+          return parseLongSlow(start, end);
+        }
+        long next = result * 10 - digit; // accumulate negatively, as the range is larger
+        if (next > result) return parseLongSlow(start, end);
+        result = next;
+      }
+      if (negative) return result;
+      if (result == Long.MIN_VALUE) return parseLongSlow(start, end);
+      return -result;
+    }
+
+    long parseLongSlow(int start, int end) {
+      String text = new String(buf, start, end - start, UTF_8);
+      double asDouble;
+      try {
+        asDouble = Double.parseDouble(text);
+      } catch (NumberFormatException e) {
+        throw new NumberFormatException("Expected a long but was " + text + locationString());
+      }
+      long result = (long) asDouble;
+      if (result != asDouble) { // Make sure no precision was lost casting to 'long'.
+        throw new NumberFormatException("Expected a long but was " + text + locationString());
+      }
+      return result;
+    }
+
+    void consumedValue() {
+      peeked = PEEKED_NONE;
+      pathIndices[stackSize - 1]++;
+    }
+
+    void push(int newTop) {
+      if (stackSize == stack.length) {
+        int newLength = stackSize * 2;
+        int[] newStack = new int[newLength];
+        int[] newPathIndices = new int[newLength];
+        String[] newPathNames = new String[newLength];
+        System.arraycopy(stack, 0, newStack, 0, stackSize);
+        System.arraycopy(pathIndices, 0, newPathIndices, 0, stackSize);
+        System.arraycopy(pathNames, 0, newPathNames, 0, stackSize);
+        stack = newStack;
+        pathIndices = newPathIndices;
+        pathNames = newPathNames;
+      }
+      stack[stackSize++] = newTop;
+    }
+
+    void expect(int expected, String description) throws IOException {
+      if (peek() != expected) throw unexpected(description);
+    }
+
+    int nextNonWhitespace() throws IOException {
+      skipWhitespace();
+      if (pos == buf.length) throw new EOFException("End of input" + locationString());
+      return buf[pos++];
+    }
+
+    void skipWhitespace() {
+      while (pos < buf.length) {
+        byte b = buf[pos];
+        if (b != ' ' && b != '\n' && b != '\t' && b != '\r') return;
+        pos++;
+      }
+    }
+
+    static boolean isLiteralEnd(byte b) {
+      switch (b) {
+        case ',':
+        case '}':
+        case ']':
+        case ':':
+        case ' ':
+        case '\t':
+        case '\n':
+        case '\r':
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    IllegalStateException unexpected(String expected) throws IOException {
+      return new IllegalStateException(
+        "Expected " + expected + " but was " + tokenName(peek()) + locationString());
+    }
+
+    /** The exception message includes "malformed" for the benefit of {@link #exceptionReading} */
+    IOException syntaxError(String message) {
+      return new IOException(message + ": malformed json" + locationString());
+    }
+
+    String locationString() {
+      return " at path " + getPath();
+    }
+
+    static String tokenName(int peeked) {
+      switch (peeked) {
+        case PEEKED_BEGIN_OBJECT:
+          return "BEGIN_OBJECT";
+        case PEEKED_END_OBJECT:
+          return "END_OBJECT";
+        case PEEKED_BEGIN_ARRAY:
+          return "BEGIN_ARRAY";
+        case PEEKED_END_ARRAY:
+          return "END_ARRAY";
+        case PEEKED_TRUE:
+        case PEEKED_FALSE:
+          return "BOOLEAN";
+        case PEEKED_NULL:
+          return "NULL";
+        case PEEKED_STRING:
+          return "STRING";
+        case PEEKED_NAME:
+          return "NAME";
+        case PEEKED_NUMBER:
+          return "NUMBER";
+        default:
+          return "END_DOCUMENT";
+      }
     }
   }
 
@@ -154,6 +648,69 @@ public final class JsonCodec {
     }
   }
 
+  /**
+   * Like {@link #readList}, except spans not sampled are skipped undecoded. A malformed span can
+   * be skipped when it is well-formed json, resuming after its closing brace.
+   */
+  static boolean readList(JsonReaderAdapter<Span> adapter, byte[] bytes, Collection<Span> out,
+    SpanSampler sampler) {
+    if (bytes.length == 0) return false;
+    JsonReader reader = new JsonReader(bytes);
+    try {
+      reader.beginArray();
+      if (!reader.hasNext()) return false;
+      while (reader.hasNext()) {
+        reader.mark();
+        try {
+          if (sampler.samplesSpans()) {
+            if (!isSampled(reader, sampler)) {
+              sampler.skipped(reader.pos - reader.markPos + 1); // including the opening brace
+              continue;
+            }
+            reader.reset();
+          }
+          out.add(adapter.fromJson(reader));
+        } catch (Exception e) {
+          skipMalformed(reader, sampler, e);
+        }
+      }
+      reader.endArray();
+      return true;
+    } catch (Exception e) {
+      throw exceptionReading("List<" + adapter + ">", e);
+    }
+  }
+
+  /**
+   * Returns to the start of the value that failed to decode and skips it. This fails when the
+   * value isn't well-formed json, as its end can't be found.
+   */
+  static void skipMalformed(JsonReader reader, SpanSampler sampler, Exception cause)
+    throws Exception {
+    sampler.malformed(cause);
+    reader.reset();
+    reader.skipValue();
+  }
+
+  /** Scans the span's fields for the trace ID and debug flag, leaving the reader at its end. */
+  static boolean isSampled(JsonReader reader, SpanSampler sampler) throws IOException {
+    long traceIdLow = 0L;
+    boolean debug = false;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String nextName = reader.nextName();
+      if (nextName.equals("traceId") && reader.peekString()) {
+        traceIdLow = reader.nextLowerHex64();
+      } else if (nextName.equals("debug") && reader.peekBoolean()) {
+        debug = reader.nextBoolean();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return sampler.isSampled(traceIdLow, debug);
+  }
+
   static <T> int sizeInBytes(Buffer.Writer<T> writer, List<T> value) {
     int length = value.size();
     int sizeInBytes = 2; // []
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+
+/**
+ * Links a large amount of traces using multiple threads, for example all traces in a day.
+ *
+ * <p>Traces are read on the calling thread and partitioned into batches. Each batch is linked by a
+ * task on the executor. At most {@code parallelism} batches are in flight: when all are busy, the
+ * calling thread links the next batch itself. This bounds memory, and ensures progress even if the
+ * executor is saturated.
+ *
+ * <p>Tasks check out a {@link DependencyLinker} from a pool and return it when their batch is
+ * done, so no more than {@code parallelism} linkers (and their span node builders) are allocated
+ * per call, regardless of how many batches there are. The call and error counts of all linkers are
+ * merged at the end.
+ */
+public final class ParallelDependencyLinker {
+  /** Large enough to amortize task overhead, small enough to partition a day of traces. */
+  static final int DEFAULT_BATCH_SIZE = 1000;
+
+  final ExecutorService executor;
+  final int parallelism, batchSize;
+
+  /**
+   * Uses up to as many threads as there are processors, or fewer when the executor is a {@link
+   * ThreadPoolExecutor} with a smaller maximum pool size.
+   */
+  public ParallelDependencyLinker(ExecutorService executor) {
+    this(executor, defaultParallelism(executor));
+  }
+
+  public ParallelDependencyLinker(ExecutorService executor, int parallelism) {
+    this(executor, parallelism, DEFAULT_BATCH_SIZE);
+  }
+
+  ParallelDependencyLinker(ExecutorService executor, int parallelism, int batchSize) {
+    if (executor == null) throw new NullPointerException("executor == null");
+    if (parallelism < 1) throw new IllegalArgumentException("parallelism < 1");
+    if (batchSize < 1) throw new IllegalArgumentException("batchSize < 1");
+    this.executor = executor;
+    this.parallelism = parallelism;
+    this.batchSize = batchSize;
+  }
+
+  static int defaultParallelism(ExecutorService executor) {
+    int processors = Runtime.getRuntime().availableProcessors();
+    if (!(executor instanceof ThreadPoolExecutor)) return processors;
+    return Math.max(1, Math.min(processors, ((ThreadPoolExecutor) executor).getMaximumPoolSize()));
+  }
+
+  /**
+   * Links the traces, where each element is all spans that share a trace ID. Trace lists are held
+   * until their batch is linked, so must not be reused by the iterator.
+   */
+  public List<DependencyLink> link(Iterator<List<Span>> traces) {
+    DependencyLinker callerLinker = new DependencyLinker();
+    Semaphore inFlight = new Semaphore(parallelism);
+    ConcurrentLinkedQueue<DependencyLinker> linkers = new ConcurrentLinkedQueue<>();
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      while (traces.hasNext()) {
+        List<List<Span>> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && traces.hasNext()) batch.add(traces.next());
+        if (!inFlight.tryAcquire()) {
+          putTraces(callerLinker, batch);
+          continue;
+        }
+        try {
+          futures.add(executor.submit(new LinkBatch(batch, linkers, inFlight)));
+        } catch (RejectedExecutionException e) {
+          inFlight.release();
+          putTraces(callerLinker, batch);
+        }
+      }
+      for (Future<?> future : futures) future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted linking traces", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new IllegalStateException(cause);
+    } finally {
+      for (Future<?> future : futures) future.cancel(true);
+    }
+    // all tasks are complete, so every linker is back in the pool
+    for (DependencyLinker linker : linkers) callerLinker.putLinks(linker.link());
+    return callerLinker.link();
+  }
+
+  static void putTraces(DependencyLinker linker, List<List<Span>> traces) {
+    for (int i = 0, length = traces.size(); i < length; i++) {
+      linker.putTrace(traces.get(i));
+    }
+  }
+
+  static final class LinkBatch implements Callable<Void> {
+    final List<List<Span>> traces;
+    final ConcurrentLinkedQueue<DependencyLinker> linkers;
+    final Semaphore inFlight;
+
+    LinkBatch(
+        List<List<Span>> traces,
+        ConcurrentLinkedQueue<DependencyLinker> linkers,
+        Semaphore inFlight) {
+      this.traces = traces;
+      this.linkers = linkers;
+      this.inFlight = inFlight;
+    }
+
+    @Override public Void call() {
+      try {
+        // There are never more linkers than permits, as each is returned before its permit.
+        DependencyLinker linker = linkers.poll();
+        if (linker == null) linker = new DependencyLinker();
+        try {
+          putTraces(linker, traces);
+        } finally {
+          linkers.add(linker);
+        }
+        return null;
+      } finally {
+        inFlight.release();
+      }
+    }
+  }
+
+  @Override public String toString() {
+    return "ParallelDependencyLinker{parallelism=" + parallelism + "}";
+  }
+}
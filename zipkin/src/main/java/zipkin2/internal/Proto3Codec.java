@@ -18,7 +18,12 @@ import java.util.List;
 import zipkin2.Span;
 
 import static java.lang.String.format;
+import static zipkin2.internal.Proto3Fields.Field.skipValue;
+import static zipkin2.internal.Proto3Fields.Field.wireType;
 import static zipkin2.internal.Proto3ZipkinFields.SPAN;
+import static zipkin2.internal.Proto3ZipkinFields.SpanField.DEBUG;
+import static zipkin2.internal.Proto3ZipkinFields.SpanField.DEBUG_KEY;
+import static zipkin2.internal.Proto3ZipkinFields.SpanField.TRACE_ID_KEY;
 
 // @Immutable
 public final class Proto3Codec {
@@ -74,6 +79,64 @@ public final class Proto3Codec {
     return true;
   }
 
+  /**
+   * Like {@link #readList(byte[], Collection)}, except spans not sampled are skipped undecoded. As
+   * each span is length-prefixed, a malformed one can be skipped, resuming at the next.
+   */
+  static boolean readList(byte[] bytes, Collection<Span> out, SpanSampler sampler) {
+    int length = bytes.length;
+    if (length == 0) return false;
+    Buffer buffer = new Buffer(bytes, 0);
+    try {
+      while (buffer.pos < length) {
+        int spanStart = buffer.pos;
+        buffer.readVarint32(); // toss the key
+        int spanLength = SPAN.readLengthPrefix(buffer);
+        int spanEnd = buffer.pos + spanLength;
+        try {
+          if (sampler.samplesSpans() && !isSampled(buffer, spanEnd, sampler)) {
+            sampler.skipped(spanEnd - spanStart);
+            continue;
+          }
+          buffer.pos = spanStart;
+          Span span = SPAN.read(buffer);
+          if (span == null) return false;
+          out.add(span);
+        } catch (RuntimeException e) {
+          sampler.malformed(e);
+        }
+        buffer.pos = spanEnd;
+      }
+    } catch (Exception e) {
+      throw exceptionReading("List<Span>", e);
+    }
+    return true;
+  }
+
+  /** Scans the span's fields for the trace ID and debug flag, leaving the buffer at its end. */
+  static boolean isSampled(Buffer buffer, int spanEnd, SpanSampler sampler) {
+    long traceIdLow = 0L;
+    boolean debug = false;
+    while (buffer.pos < spanEnd) {
+      int nextKey = buffer.readVarint32();
+      if (nextKey == TRACE_ID_KEY) {
+        int traceIdLength = buffer.readVarint32();
+        Proto3Fields.ensureLength(buffer, traceIdLength);
+        if (traceIdLength >= 8) {
+          buffer.skip(traceIdLength - 8); // the lower 64 bits are last
+          traceIdLow = buffer.readLongBe();
+        } else {
+          buffer.skip(traceIdLength);
+        }
+      } else if (nextKey == DEBUG_KEY) {
+        debug = DEBUG.read(buffer);
+      } else {
+        skipValue(buffer, wireType(nextKey, buffer.pos));
+      }
+    }
+    return sampler.isSampled(traceIdLow, debug);
+  }
+
   static IllegalArgumentException exceptionReading(String type, Exception e) {
     String cause = e.getMessage() == null ? "Error" : e.getMessage();
     if (cause.indexOf("Malformed") != -1) cause = "Malformed";
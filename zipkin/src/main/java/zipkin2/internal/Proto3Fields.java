@@ -170,6 +170,27 @@ final class Proto3Fields {
       return hex.length() / 2;
     }
 
+    /** Like {@link #sizeInBytes(Object)}, except for an ID in numeric form. Zero means absent. */
+    int sizeInBytes(long high, long low) {
+      if (high == 0L && low == 0L) return 0;
+      return sizeOfLengthDelimitedField(high != 0L ? 16 : 8);
+    }
+
+    /** Like {@link #write(Buffer, Object)}, except for an ID in numeric form. */
+    void write(Buffer b, long high, long low) {
+      if (high == 0L && low == 0L) return;
+      b.writeByte(key);
+      b.writeVarint(high != 0L ? 16 : 8); // length prefix
+      if (high != 0L) writeLongBe(b, high);
+      writeLongBe(b, low);
+    }
+
+    static void writeLongBe(Buffer b, long v) {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        b.writeByte((int) (v >>> shift) & 0xff);
+      }
+    }
+
     @Override void writeValue(Buffer b, String hex) {
       // similar logic to okio.ByteString.decodeHex
       for (int i = 0, length = hex.length(); i < length; i++) {
@@ -244,9 +244,9 @@ final class Proto3ZipkinFields {
     }
 
     @Override int sizeOfValue(Span span) {
-      int sizeOfSpan = TRACE_ID.sizeInBytes(span.traceId());
-      sizeOfSpan += PARENT_ID.sizeInBytes(span.parentId());
-      sizeOfSpan += ID.sizeInBytes(span.id());
+      int sizeOfSpan = TRACE_ID.sizeInBytes(span.traceIdHigh(), span.traceIdLow());
+      sizeOfSpan += PARENT_ID.sizeInBytes(0L, span.parentIdAsLong());
+      sizeOfSpan += ID.sizeInBytes(0L, span.idAsLong());
       sizeOfSpan += KIND.sizeInBytes(span.kind() != null ? 1 : 0);
       sizeOfSpan += NAME.sizeInBytes(span.name());
       sizeOfSpan += TIMESTAMP.sizeInBytes(span.timestampAsLong());
@@ -274,9 +274,9 @@ final class Proto3ZipkinFields {
     }
 
     @Override void writeValue(Buffer b, Span value) {
-      TRACE_ID.write(b, value.traceId());
-      PARENT_ID.write(b, value.parentId());
-      ID.write(b, value.id());
+      TRACE_ID.write(b, value.traceIdHigh(), value.traceIdLow());
+      PARENT_ID.write(b, 0L, value.parentIdAsLong());
+      ID.write(b, 0L, value.idAsLong());
       KIND.write(b, toByte(value.kind()));
       NAME.write(b, value.name());
       TIMESTAMP.write(b, value.timestampAsLong());
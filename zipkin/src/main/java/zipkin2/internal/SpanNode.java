@@ -138,9 +138,9 @@ public final class SpanNode {
       // don't have redundant leaves on the tree.
       List<Span> cleaned = Trace.merge(spans);
       int length = cleaned.size();
-      String traceId = cleaned.get(0).traceId();
+      Span first = cleaned.get(0);
 
-      if (logger.isLoggable(FINE)) logger.fine("building trace tree: traceId=" + traceId);
+      if (logger.isLoggable(FINE)) logger.fine("building trace tree: traceId=" + first.traceId());
 
       // Next, index all the spans so that we can understand any relationships.
       for (int i = 0; i < length; i++) {
@@ -156,7 +156,7 @@ public final class SpanNode {
       // If we haven't found any root span, we can still make a tree using a synthetic node.
       if (rootSpan == null) {
         if (logger.isLoggable(FINE)) {
-          logger.fine("substituting dummy node for missing root span: traceId=" + traceId);
+          logger.fine("substituting dummy node for missing root span: traceId=" + first.traceId());
         }
         rootSpan = new SpanNode(null);
       }
@@ -194,12 +194,12 @@ public final class SpanNode {
       if (Boolean.TRUE.equals(span.shared())) {
         // we need to classify a shared span by its endpoint in case multiple servers respond to the
         // same ID sent by the client.
-        idKey = createKey(span.id(), true, span.localEndpoint());
+        idKey = createKey(span.idAsLong(), true, span.localEndpoint());
         // the parent of a server span is a client, which is not ambiguous for a given span ID.
-        parentKey = span.id();
+        parentKey = span.idAsLong();
       } else {
-        idKey = span.id();
-        parentKey = span.parentId();
+        idKey = span.idAsLong();
+        parentKey = span.parentIdAsLong() != 0L ? span.parentIdAsLong() : null;
       }
       spanToParent.put(idKey, parentKey);
     }
@@ -216,25 +216,25 @@ public final class SpanNode {
     void process(Span span) {
       Endpoint endpoint = span.localEndpoint();
       boolean shared = Boolean.TRUE.equals(span.shared());
-      Object key = createKey(span.id(), shared, span.localEndpoint());
-      Object noEndpointKey = endpoint != null ? createKey(span.id(), shared, null) : key;
+      Object key = createKey(span.idAsLong(), shared, span.localEndpoint());
+      Object noEndpointKey = endpoint != null ? createKey(span.idAsLong(), shared, null) : key;
 
       Object parent = null;
       if (shared) {
         // Shared is a server span. It will very likely be on a different endpoint than the client.
         // Clients are not ambiguous by ID, so we don't need to qualify by endpoint.
-        parent = span.id();
-      } else if (span.parentId() != null) {
+        parent = span.idAsLong();
+      } else if (span.parentIdAsLong() != 0L) {
         // We are not a root span, and not a shared server span. Proceed in most specific to least.
 
         // We could be the child of a shared server span (ex a local (intermediate) span on the same
         // endpoint). This is the most specific case, so we try this first.
-        parent = createKey(span.parentId(), true, endpoint);
+        parent = createKey(span.parentIdAsLong(), true, endpoint);
         if (spanToParent.containsKey(parent)) {
           spanToParent.put(noEndpointKey, parent);
         } else {
           // If there's no shared parent, fall back to normal case which is unqualified beyond ID.
-          parent = span.parentId();
+          parent = span.parentIdAsLong();
         }
       } else { // we are root or don't know our parent
         if (rootSpan != null) {
@@ -263,7 +263,7 @@ public final class SpanNode {
     }
   }
 
-  static Object createKey(String id, boolean shared, @Nullable Endpoint endpoint) {
+  static Object createKey(long id, boolean shared, @Nullable Endpoint endpoint) {
     if (!shared) return id;
     return new SharedKey(id, endpoint);
   }
@@ -273,24 +273,23 @@ public final class SpanNode {
    * However, it is possible in a retry scenario for accidental duplicate ID sharing to occur
    */
   static final class SharedKey {
-    final String id;
+    final long id;
     @Nullable final Endpoint endpoint;
 
-    SharedKey(String id, @Nullable Endpoint endpoint) {
-      if (id == null) throw new NullPointerException("id == null");
+    SharedKey(long id, @Nullable Endpoint endpoint) {
       this.id = id;
       this.endpoint = endpoint;
     }
 
     @Override public String toString() {
-      return "SharedKey{id=" + id + ", endpoint=" + endpoint + "}";
+      return "SharedKey{id=" + Long.toHexString(id) + ", endpoint=" + endpoint + "}";
     }
 
     @Override public boolean equals(Object o) {
       if (o == this) return true;
       if (!(o instanceof SharedKey)) return false;
       SharedKey that = (SharedKey) o;
-      return id.equals(that.id) && equal(endpoint, that.endpoint);
+      return id == that.id && equal(endpoint, that.endpoint);
     }
 
     static boolean equal(Object a, Object b) {
@@ -300,7 +299,7 @@ public final class SpanNode {
     @Override public int hashCode() {
       int result = 1;
       result *= 1000003;
-      result ^= id.hashCode();
+      result ^= (int) ((id >>> 32) ^ id);
       result *= 1000003;
       result ^= (endpoint == null) ? 0 : endpoint.hashCode();
       return result;
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+
+/**
+ * Decodes a list of spans, skipping those that won't be kept without decoding them. The decision
+ * is made from the lower 64 bits of the trace ID and the debug flag, which are read from the
+ * encoded span without allocating. This saves most of the decoding cost at low sample rates.
+ *
+ * <p>This can also skip malformed spans, keeping the others in the same message. See {@link
+ * #skipMalformedSpans()}.
+ *
+ * <p>This is not thread-safe: use an instance per message to know how many spans it skipped.
+ */
+public abstract class SpanSampler {
+  int spansSkipped, bytesSkipped, spansMalformed;
+
+  /** Returns true if the span should be decoded. Debug spans are typically always decoded. */
+  public abstract boolean isSampled(long traceIdLow, boolean debug);
+
+  /**
+   * Override to return false when {@link #isSampled(long, boolean)} is always true, so that spans
+   * are decoded without scanning them first. Defaults to true.
+   */
+  protected boolean samplesSpans() {
+    return true;
+  }
+
+  /**
+   * Override to return true to skip spans that can't be decoded, instead of failing the whole
+   * list. Defaults to false.
+   *
+   * <p>Only {@link SpanBytesDecoder#PROTO3 PROTO3} and json formats can skip a malformed span, as
+   * they can find where it ends: the next span begins after the length prefix or closing brace. A
+   * list is still rejected when that boundary is malformed, such as a truncated message.
+   */
+  protected boolean skipMalformedSpans() {
+    return false;
+  }
+
+  /** Returns the count of spans skipped since this was created. */
+  public int spansSkipped() {
+    return spansSkipped;
+  }
+
+  /**
+   * Returns the encoded size of spans skipped without decoding. This excludes spans skipped after
+   * decoding, as happens for formats that can't be read selectively.
+   */
+  public int bytesSkipped() {
+    return bytesSkipped;
+  }
+
+  /** Returns the count of malformed spans skipped since this was created. */
+  public int spansMalformed() {
+    return spansMalformed;
+  }
+
+  /**
+   * Like {@link SpanBytesDecoder#decodeList(byte[], Collection)}, except only sampled spans are
+   * added. {@link SpanBytesDecoder#PROTO3 PROTO3}, {@link SpanBytesDecoder#THRIFT THRIFT} and
+   * {@link SpanBytesDecoder#JSON_V2 JSON_V2} skip spans without decoding them. Other formats are
+   * decoded, then filtered. Malformed spans are skipped as described in {@link
+   * #skipMalformedSpans()}.
+   *
+   * @return false if the input was empty, even if all spans were skipped
+   */
+  public boolean decodeList(SpanBytesDecoder decoder, byte[] serialized, Collection<Span> out) {
+    switch (decoder) {
+      case PROTO3:
+        return Proto3Codec.readList(serialized, out, this);
+      case THRIFT:
+        return ThriftCodec.readList(serialized, out, this);
+      case JSON_V2:
+        return JsonCodec.readList(new V2SpanReader(), serialized, out, this);
+      case JSON_V1:
+        return new V1JsonSpanReader().readList(serialized, out, this);
+      default:
+        List<Span> decoded = new ArrayList<>();
+        if (!decoder.decodeList(serialized, decoded)) return false;
+        addSampled(decoded, out);
+        return true;
+    }
+  }
+
+  /** Adds spans that were decoded before sampling, as happens for formats that can't skip them. */
+  void addSampled(List<Span> decoded, Collection<Span> out) {
+    for (int i = 0, length = decoded.size(); i < length; i++) {
+      Span span = decoded.get(i);
+      if (!samplesSpans() || isSampled(span.traceIdLow(), Boolean.TRUE.equals(span.debug()))) {
+        out.add(span);
+      } else {
+        spansSkipped++;
+      }
+    }
+  }
+
+  void skipped(int bytes) {
+    spansSkipped++;
+    bytesSkipped += bytes;
+  }
+
+  /** Rethrows the cause unless configured to skip malformed spans. */
+  void malformed(Exception cause) throws Exception {
+    if (!skipMalformedSpans()) throw cause;
+    spansMalformed++;
+  }
+}
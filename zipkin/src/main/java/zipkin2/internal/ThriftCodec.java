@@ -37,6 +37,8 @@ import static zipkin2.internal.ThriftField.TYPE_SET;
 import static zipkin2.internal.ThriftField.TYPE_STOP;
 import static zipkin2.internal.ThriftField.TYPE_STRING;
 import static zipkin2.internal.ThriftField.TYPE_STRUCT;
+import static zipkin2.internal.V1ThriftSpanWriter.DEBUG;
+import static zipkin2.internal.V1ThriftSpanWriter.TRACE_ID;
 
 // @Immutable
 public final class ThriftCodec {
@@ -108,6 +110,55 @@ public final class ThriftCodec {
     return true;
   }
 
+  /**
+   * Like {@link #readList(byte[], Collection)}, except spans not sampled are skipped undecoded.
+   * Malformed spans aren't skipped, as the end of a span is only known by reading it.
+   */
+  static boolean readList(byte[] bytes, Collection<Span> out, SpanSampler sampler) {
+    int length = bytes.length;
+    if (length == 0) return false;
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    try {
+      int listLength = readListLength(buffer);
+      if (listLength == 0) return false;
+      V1ThriftSpanReader reader = new V1ThriftSpanReader();
+      V1SpanConverter converter = V1SpanConverter.create();
+      for (int i = 0; i < listLength; i++) {
+        int spanStart = buffer.position();
+        if (sampler.samplesSpans()) {
+          if (!isSampled(buffer, sampler)) {
+            sampler.skipped(buffer.position() - spanStart);
+            continue;
+          }
+          position(buffer, spanStart);
+        }
+        converter.convert(reader.read(buffer), out);
+      }
+    } catch (Exception e) {
+      throw exceptionReading("List<Span>", e);
+    }
+    return true;
+  }
+
+  /** Scans the span's fields for the trace ID and debug flag, leaving the buffer at its end. */
+  static boolean isSampled(ByteBuffer bytes, SpanSampler sampler) {
+    long traceIdLow = 0L;
+    boolean debug = false;
+    while (true) {
+      byte type = bytes.get();
+      if (type == TYPE_STOP) break;
+      short id = bytes.getShort();
+      if (type == TRACE_ID.type && id == TRACE_ID.id) {
+        traceIdLow = bytes.getLong();
+      } else if (type == DEBUG.type && id == DEBUG.id) {
+        debug = bytes.get() == 1;
+      } else {
+        skip(bytes, type);
+      }
+    }
+    return sampler.isSampled(traceIdLow, debug);
+  }
+
   static int readListLength(ByteBuffer bytes) {
     byte ignoredType = bytes.get();
     return guardLength(bytes);
@@ -156,10 +207,11 @@ public final class ThriftCodec {
         skip(bytes, size);
         break;
       case TYPE_STRUCT:
-        while (true) {
-          ThriftField thriftField = ThriftField.read(bytes);
-          if (thriftField.type == TYPE_STOP) return;
-          skip(bytes, thriftField.type, maxDepth - 1);
+        while (true) { // like ThriftField.read, but without allocating
+          byte fieldType = bytes.get();
+          if (fieldType == TYPE_STOP) return;
+          bytes.getShort(); // field ID
+          skip(bytes, fieldType, maxDepth - 1);
         }
       case TYPE_MAP:
         byte keyType = bytes.get();
@@ -182,11 +234,12 @@ public final class ThriftCodec {
   }
 
   static void skip(ByteBuffer bytes, int count) {
+    position(bytes, Math.min(bytes.position() + count, bytes.limit()));
+  }
+
+  static void position(ByteBuffer bytes, int position) {
     // avoid java.lang.NoSuchMethodError: java.nio.ByteBuffer.position(I)Ljava/nio/ByteBuffer;
-    // bytes.position(bytes.position() + count);
-    for (int i = 0; i< count && bytes.hasRemaining(); i++) {
-      bytes.get();
-    }
+    ((java.nio.Buffer) bytes).position(position);
   }
 
   static byte[] readByteArray(ByteBuffer bytes) {
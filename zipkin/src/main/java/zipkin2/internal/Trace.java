@@ -32,10 +32,10 @@ public class Trace {
     Collections.sort(result, CLEANUP_COMPARATOR);
 
     // Let's cleanup any spans and pick the longest ID
-    String traceId = result.get(0).traceId();
-    for (int i = 1; i < length; i++) {
-      String nextTraceId = result.get(i).traceId();
-      if (traceId.length() != 32) traceId = nextTraceId;
+    long traceIdHigh = result.get(0).traceIdHigh(), traceIdLow = result.get(0).traceIdLow();
+    for (int i = 1; i < length && traceIdHigh == 0L; i++) {
+      traceIdHigh = result.get(i).traceIdHigh();
+      traceIdLow = result.get(i).traceIdLow();
     }
 
     // Now start any fixes or merging
@@ -47,15 +47,14 @@ public class Trace {
 
       // Choose the longest trace ID
       Span.Builder replacement = null;
-      if (span.traceId().length() != traceId.length()) {
-        replacement = span.toBuilder().traceId(traceId);
+      if ((span.traceIdHigh() != 0L) != (traceIdHigh != 0L)) {
+        replacement = span.toBuilder().traceId(traceIdHigh, traceIdLow);
       }
 
       EndpointTracker localEndpoint = null;
       while (i + 1 < length) {
         Span next = result.get(i + 1);
-        String nextId = next.id();
-        if (!nextId.equals(span.id())) break;
+        if (next.idAsLong() != span.idAsLong()) break;
 
         if (localEndpoint == null) {
           localEndpoint = new EndpointTracker();
@@ -79,7 +78,7 @@ public class Trace {
       // Zipkin and B3 originally used the same span ID between client and server. Some
       // instrumentation are inconsistent about adding the shared flag on the server side. Since we
       // have the entire trace, and it is ordered client-first, we can correct a missing shared flag.
-      if (last != null && last.id().equals(span.id())) {
+      if (last != null && last.idAsLong() == span.idAsLong()) {
         // Backfill missing shared flag as some instrumentation doesn't add it
         if (last.kind() == Span.Kind.CLIENT && span.kind() == Span.Kind.SERVER && !spanShared) {
           spanShared = true;
@@ -87,10 +86,10 @@ public class Trace {
           replacement.shared(true);
         }
 
-        if (spanShared && span.parentId() == null && last.parentId() != null) {
+        if (spanShared && span.parentIdAsLong() == 0L && last.parentIdAsLong() != 0L) {
           // handle a shared RPC server span that wasn't propagated its parent span ID
           if (replacement == null) replacement = span.toBuilder();
-          replacement.parentId(last.parentId());
+          replacement.parentId(last.parentIdAsLong());
         }
       }
 
@@ -107,7 +106,7 @@ public class Trace {
   static final Comparator<Span> CLEANUP_COMPARATOR = new Comparator<Span>() {
     @Override public int compare(Span left, Span right) {
       if (left.equals(right)) return 0;
-      int bySpanId = left.id().compareTo(right.id());
+      int bySpanId = compareUnsigned(left.idAsLong(), right.idAsLong());
       if (bySpanId != 0) return bySpanId;
       int byShared = compareShared(left, right);
       if (byShared != 0) return byShared;
@@ -115,6 +114,13 @@ public class Trace {
     }
   };
 
+  /** Same order as comparing the lower-hex form. Long.compareUnsigned is JRE 8+ */
+  static int compareUnsigned(long x, long y) {
+    x += Long.MIN_VALUE;
+    y += Long.MIN_VALUE;
+    return (x < y) ? -1 : ((x == y) ? 0 : 1);
+  }
+
   // false or null first (client first)
   static int compareShared(Span left, Span right) {
     boolean leftNotShared = !Boolean.TRUE.equals(left.shared());
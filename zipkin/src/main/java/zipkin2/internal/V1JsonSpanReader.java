@@ -14,7 +14,9 @@
 package zipkin2.internal;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.internal.JsonCodec.JsonReader;
@@ -47,6 +49,37 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
     }
   }
 
+  /**
+   * Like {@link #readList(byte[], Collection)}, except spans not sampled are dropped after
+   * conversion. A malformed span can be skipped when it is well-formed json.
+   */
+  boolean readList(byte[] bytes, Collection<Span> out, SpanSampler sampler) {
+    if (bytes.length == 0) return false;
+    V1SpanConverter converter = V1SpanConverter.create();
+    List<Span> converted = new ArrayList<>(2);
+    JsonReader reader = new JsonReader(bytes);
+    try {
+      reader.beginArray();
+      if (!reader.hasNext()) return false;
+      while (reader.hasNext()) {
+        reader.mark();
+        try {
+          converter.convert(fromJson(reader), converted);
+        } catch (Exception e) {
+          converted.clear(); // don't keep half a span
+          JsonCodec.skipMalformed(reader, sampler, e);
+          continue;
+        }
+        sampler.addSampled(converted, out);
+        converted.clear();
+      }
+      reader.endArray();
+      return true;
+    } catch (Exception e) {
+      throw exceptionReading("List<Span>", e);
+    }
+  }
+
   @Override
   public V1Span fromJson(JsonReader reader) throws IOException {
     if (builder == null) {
@@ -28,8 +28,8 @@ public final class V2SpanWriter implements Buffer.Writer<Span> {
   @Override
   public int sizeInBytes(Span value) {
     int sizeInBytes = 13; // {"traceId":""
-    sizeInBytes += value.traceId().length();
-    if (value.parentId() != null) {
+    sizeInBytes += value.traceIdHigh() != 0L ? 32 : 16;
+    if (value.parentIdAsLong() != 0L) {
       sizeInBytes += 30; // ,"parentId":"0123456789abcdef"
     }
     sizeInBytes += 24; // ,"id":"0123456789abcdef"
@@ -87,11 +87,13 @@ public final class V2SpanWriter implements Buffer.Writer<Span> {
 
   @Override
   public void write(Span value, Buffer b) {
-    b.writeAscii("{\"traceId\":\"").writeAscii(value.traceId()).writeByte('"');
-    if (value.parentId() != null) {
-      b.writeAscii(",\"parentId\":\"").writeAscii(value.parentId()).writeByte('"');
+    b.writeAscii("{\"traceId\":\"");
+    if (value.traceIdHigh() != 0L) b.writeLongHex(value.traceIdHigh());
+    b.writeLongHex(value.traceIdLow()).writeByte('"');
+    if (value.parentIdAsLong() != 0L) {
+      b.writeAscii(",\"parentId\":\"").writeLongHex(value.parentIdAsLong()).writeByte('"');
     }
-    b.writeAscii(",\"id\":\"").writeAscii(value.id()).writeByte('"');
+    b.writeAscii(",\"id\":\"").writeLongHex(value.idAsLong()).writeByte('"');
     if (value.kind() != null) {
       b.writeAscii(",\"kind\":\"").writeAscii(value.kind().toString()).writeByte('"');
     }
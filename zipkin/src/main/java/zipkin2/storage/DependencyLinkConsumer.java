@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.util.List;
+import zipkin2.Call;
+import zipkin2.DependencyLink;
+
+/**
+ * Stores dependency links aggregated as spans are collected, so that {@link
+ * SpanStore#getDependencies(long, long)} can read them instead of linking traces on each query.
+ *
+ * <p>The same bucket can be accepted many times, for example as late traces complete. Stored call
+ * and error counts must be added to, not replaced.
+ *
+ * @see StorageComponent#dependencyLinkConsumer()
+ */
+// @FunctionalInterface
+public interface DependencyLinkConsumer {
+  /** Length of the interval linked into one bucket, beginning at its timestamp. */
+  long BUCKET_MILLIS = 60 * 1000L;
+
+  /**
+   * @param bucketTimestamp epoch milliseconds when the interval of the linked traces began, a
+   * multiple of {@link #BUCKET_MILLIS}
+   * @param links links from traces that started in the interval
+   */
+  Call<Void> accept(long bucketTimestamp, List<DependencyLink> links);
+}
@@ -24,13 +24,22 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import zipkin2.Call;
 import zipkin2.DependencyLink;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.internal.DependencyLinker;
+import zipkin2.internal.Nullable;
+import zipkin2.internal.ParallelDependencyLinker;
+import zipkin2.storage.SpanArena.EncodedSpan;
+
+import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
 
 /**
  * Test storage component that keeps all spans in memory, accepting them on the calling thread.
@@ -62,8 +71,14 @@ import zipkin2.internal.DependencyLinker;
  *    biz --> ( GET )
  *    foo --> ( GET, POST )
  * }</pre>
+ *
+ * <p>Indexes are concurrent skip lists, so methods are not synchronized. Instead, changes to a
+ * trace are guarded by one of {@link #STRIPE_COUNT} locks, chosen by the lower 64-bits of its trace
+ * ID. This allows writes to different traces to proceed in parallel, while readers copy a trace
+ * under its lock, so never see it half-updated. Eviction only locks the trace it removes.
  */
-public final class InMemoryStorage extends StorageComponent implements SpanStore, SpanConsumer {
+public final class InMemoryStorage extends StorageComponent
+  implements SpanStore, SpanConsumer, DependencyLinkConsumer {
 
   public static Builder newBuilder() {
     return new Builder();
@@ -71,7 +86,9 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
 
   public static final class Builder extends StorageComponent.Builder {
     boolean strictTraceId = true, searchEnabled = true;
-    int maxSpanCount = 500000;
+    int maxSpanCount = 0; // zero means default
+    long maxSpanBytes = 0L; // zero means spans are kept on the heap
+    ExecutorService dependencyLinkerExecutor; // null means traces are linked on the calling thread
 
     /** {@inheritDoc} */
     @Override
@@ -86,13 +103,45 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       return this;
     }
 
-    /** Eldest traces are removed to ensure spans in memory don't exceed this value */
+    /**
+     * Eldest traces are removed to ensure spans in memory don't exceed this value. Defaults to
+     * 500000, or unbounded when {@link #maxSpanBytes(long)} is set.
+     */
     public Builder maxSpanCount(int maxSpanCount) {
       if (maxSpanCount <= 0) throw new IllegalArgumentException("maxSpanCount <= 0");
       this.maxSpanCount = maxSpanCount;
       return this;
     }
 
+    /**
+     * When set, spans are kept {@link zipkin2.codec.SpanBytesEncoder#PROTO3 encoded} in direct
+     * memory and decoded on read. Eldest traces are removed to ensure the segments holding spans
+     * don't exceed this value.
+     *
+     * <p>Only indexes remain on the heap, which lowers GC pressure when storing many spans. As a
+     * segment is only recycled once all spans in it are evicted, fewer spans than this value fit
+     * when evicted traces were written in a different order than their timestamps.
+     */
+    public Builder maxSpanBytes(long maxSpanBytes) {
+      if (maxSpanBytes <= 0) throw new IllegalArgumentException("maxSpanBytes <= 0");
+      this.maxSpanBytes = maxSpanBytes;
+      return this;
+    }
+
+    /**
+     * When set, {@link #getDependencies(long, long)} links traces in batches on this executor,
+     * instead of only on the calling thread. This helps when a lookback covers many traces.
+     *
+     * @see ParallelDependencyLinker
+     */
+    public Builder dependencyLinkerExecutor(ExecutorService dependencyLinkerExecutor) {
+      if (dependencyLinkerExecutor == null) {
+        throw new NullPointerException("dependencyLinkerExecutor == null");
+      }
+      this.dependencyLinkerExecutor = dependencyLinkerExecutor;
+      return this;
+    }
+
     @Override
     public InMemoryStorage build() {
       return new InMemoryStorage(this);
@@ -103,124 +152,211 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
    * Primary source of data is this map, which includes spans ordered descending by timestamp. All
    * other maps are derived from the span values here. This uses a list for the spans, so that it is
    * visible (via /api/v2/trace/id?raw) when instrumentation report the same spans multiple times.
+   *
+   * <p>Values are {@link Span} unless {@link #arena} is set, in which case they are {@link
+   * EncodedSpan}.
    */
-  private final SortedMultimap<TraceIdTimestamp, Span> spansByTraceIdTimeStamp =
-    new SortedMultimap(TIMESTAMP_DESCENDING) {
+  private final SortedMultimap<TraceIdTimestamp, Object> spansByTraceIdTimeStamp =
+    new SortedMultimap<TraceIdTimestamp, Object>(TIMESTAMP_DESCENDING) {
       @Override
-      Collection<Span> valueContainer() {
-        return new ArrayList<>();
+      Collection<Object> valueContainer() {
+        return new ArrayList<>(); // guarded by the trace's stripe lock
       }
     };
 
-  /** This supports span lookup by {@link Span#traceId lower 64-bits of the trace ID} */
-  private final SortedMultimap<String, TraceIdTimestamp> traceIdToTraceIdTimeStamps =
-    new SortedMultimap<String, TraceIdTimestamp>(STRING_COMPARATOR) {
+  /** This supports span lookup by {@link Span#traceIdLow lower 64-bits of the trace ID} */
+  private final SortedMultimap<Long, TraceIdTimestamp> traceIdToTraceIdTimeStamps =
+    new SortedMultimap<Long, TraceIdTimestamp>(UNSIGNED_COMPARATOR) {
       @Override
       Collection<TraceIdTimestamp> valueContainer() {
-        return new LinkedHashSet<>();
+        return new LinkedHashSet<>(); // guarded by the trace's stripe lock
       }
     };
   /** This is an index of {@link Span#traceId} by {@link Endpoint#serviceName() service name} */
   private final ServiceNameToTraceIds serviceToTraceIds = new ServiceNameToTraceIds();
-  /** This is an index of {@link Span#name} by {@link Endpoint#serviceName() service name} */
+  /**
+   * This is an index of {@link Span#name} by {@link Endpoint#serviceName() service name}. Adding a
+   * service to both indexes, or removing an orphaned one from this, is guarded by itself.
+   */
   private final SortedMultimap<String, String> serviceToSpanNames =
     new SortedMultimap<String, String>(STRING_COMPARATOR) {
       @Override
       Collection<String> valueContainer() {
-        return new LinkedHashSet<>();
+        return new ConcurrentSkipListSet<>();
       }
     };
 
+  /** Power of two count of locks which guard changes to traces, striped by lower 64-bits. */
+  static final int STRIPE_COUNT = 64;
+
   final boolean strictTraceId, searchEnabled;
   final int maxSpanCount;
-  volatile int acceptedSpanCount;
+  final long maxSpanBytes;
+  @Nullable final SpanArena arena;
+  final LinkDependencies linkDependencies;
+  final Object[] stripes = new Object[STRIPE_COUNT];
+  /** Count of spans currently in {@link #spansByTraceIdTimeStamp}, used for eviction */
+  final AtomicInteger spanCount = new AtomicInteger();
+  final AtomicInteger acceptedSpanCount = new AtomicInteger();
+  /** Links aggregated as spans were collected, by bucket timestamp. Changes guarded by itself. */
+  final ConcurrentSkipListMap<Long, List<DependencyLink>> linksByBucket =
+    new ConcurrentSkipListMap<>();
 
   InMemoryStorage(Builder builder) {
     this.strictTraceId = builder.strictTraceId;
     this.searchEnabled = builder.searchEnabled;
-    this.maxSpanCount = builder.maxSpanCount;
+    this.maxSpanBytes = builder.maxSpanBytes;
+    if (builder.maxSpanCount != 0) {
+      this.maxSpanCount = builder.maxSpanCount;
+    } else {
+      this.maxSpanCount = maxSpanBytes != 0L ? Integer.MAX_VALUE : 500000;
+    }
+    // smaller segments for small limits, so the one being written is a small part of the limit
+    this.arena = maxSpanBytes != 0L
+      ? new SpanArena((int) Math.min(SpanArena.DEFAULT_SEGMENT_SIZE, maxSpanBytes / 16))
+      : null;
+    for (int i = 0; i < STRIPE_COUNT; i++) stripes[i] = new Object();
+    this.linkDependencies = new LinkDependencies(builder.dependencyLinkerExecutor != null
+      ? new ParallelDependencyLinker(builder.dependencyLinkerExecutor)
+      : null);
   }
 
   public int acceptedSpanCount() {
-    return acceptedSpanCount;
+    return acceptedSpanCount.get();
   }
 
-  public synchronized void clear() {
-    acceptedSpanCount = 0;
+  /** Used for testing. This is not atomic with regards to concurrent writes. */
+  public void clear() {
+    acceptedSpanCount.set(0);
+    spanCount.set(0);
     traceIdToTraceIdTimeStamps.clear();
     spansByTraceIdTimeStamp.clear();
+    if (arena != null) arena.clear();
     serviceToTraceIds.clear();
     serviceToSpanNames.clear();
+    linksByBucket.clear();
+  }
+
+  Object stripe(long lowTraceId) {
+    return stripes[(int) (lowTraceId ^ (lowTraceId >>> 32)) & (STRIPE_COUNT - 1)];
   }
 
   @Override
-  public synchronized Call<Void> accept(List<Span> spans) {
+  public Call<Void> accept(List<Span> spans) {
     int delta = spans.size();
-    int spansToRecover = (spansByTraceIdTimeStamp.size() + delta) - maxSpanCount;
-    evictToRecoverSpans(spansToRecover);
-    for (Span span : spans) {
+    Object[] values = new Object[delta];
+    for (int i = 0; i < delta; i++) {
+      values[i] = arena != null ? arena.write(spans.get(i)) : spans.get(i);
+    }
+    // spans written to the arena are already held, so evicting makes room for them, too
+    evictToRecover(delta);
+    for (int i = 0; i < delta; i++) {
+      Span span = spans.get(i);
       long timestamp = span.timestampAsLong();
-      String lowTraceId = lowTraceId(span.traceId());
+      long lowTraceId = span.traceIdLow();
       TraceIdTimestamp traceIdTimeStamp = new TraceIdTimestamp(lowTraceId, timestamp);
-      spansByTraceIdTimeStamp.put(traceIdTimeStamp, span);
-      traceIdToTraceIdTimeStamps.put(lowTraceId, traceIdTimeStamp);
-      acceptedSpanCount++;
-
-      if (!searchEnabled) continue;
-      String spanName = span.name();
-      if (span.localServiceName() != null) {
-        serviceToTraceIds.put(span.localServiceName(), lowTraceId);
-        if (spanName != null) serviceToSpanNames.put(span.localServiceName(), spanName);
-      }
-      if (span.remoteServiceName() != null) {
-        serviceToTraceIds.put(span.remoteServiceName(), lowTraceId);
-        if (spanName != null) serviceToSpanNames.put(span.remoteServiceName(), spanName);
+      // service indexes are also updated under the lock, so eviction can't orphan trace IDs
+      synchronized (stripe(lowTraceId)) {
+        spansByTraceIdTimeStamp.put(traceIdTimeStamp, values[i]);
+        traceIdToTraceIdTimeStamps.put(lowTraceId, traceIdTimeStamp);
+        spanCount.incrementAndGet();
+        acceptedSpanCount.incrementAndGet();
+
+        if (!searchEnabled) continue;
+        String spanName = span.name();
+        synchronized (serviceToSpanNames) {
+          if (span.localServiceName() != null) {
+            serviceToTraceIds.put(span.localServiceName(), lowTraceId);
+            if (spanName != null) serviceToSpanNames.put(span.localServiceName(), spanName);
+          }
+          if (span.remoteServiceName() != null) {
+            serviceToTraceIds.put(span.remoteServiceName(), lowTraceId);
+            if (spanName != null) serviceToSpanNames.put(span.remoteServiceName(), spanName);
+          }
+        }
       }
     }
+    // concurrent writers may have filled the room we made, so check again now we've written
+    evictToRecover(0);
     return Call.create(null /* Void == null */);
   }
 
-  /** Returns the count of spans evicted. */
-  int evictToRecoverSpans(int spansToRecover) {
+  /**
+   * Evicts eldest traces until there is room for the incoming spans. Returns the count of spans
+   * evicted.
+   */
+  int evictToRecover(int incomingSpans) {
     int spansEvicted = 0;
-    while (spansToRecover > 0) {
+    while (spanCount.get() + incomingSpans > maxSpanCount
+      || (arena != null && arena.heldBytes() > maxSpanBytes)) {
       int spansInOldestTrace = deleteOldestTrace();
-      spansToRecover -= spansInOldestTrace;
+      if (spansInOldestTrace == -1) break; // nothing left to evict
       spansEvicted += spansInOldestTrace;
     }
     return spansEvicted;
   }
 
-  /** Returns the count of spans evicted. */
+  /** Returns the count of spans evicted, or -1 if there are no spans left. */
   private int deleteOldestTrace() {
+    Map.Entry<TraceIdTimestamp, Collection<Object>> oldest =
+      spansByTraceIdTimeStamp.delegate.lastEntry();
+    if (oldest == null) return -1;
+
     int spansEvicted = 0;
-    String lowTraceId = spansByTraceIdTimeStamp.delegate.lastKey().lowTraceId;
-    Collection<TraceIdTimestamp> traceIdTimeStamps = traceIdToTraceIdTimeStamps.remove(lowTraceId);
-    for (Iterator<TraceIdTimestamp> traceIdTimeStampIter = traceIdTimeStamps.iterator();
-      traceIdTimeStampIter.hasNext(); ) {
-      TraceIdTimestamp traceIdTimeStamp = traceIdTimeStampIter.next();
-      Collection<Span> spans = spansByTraceIdTimeStamp.remove(traceIdTimeStamp);
-      spansEvicted += spans.size();
-    }
-    if (searchEnabled) {
-      for (String orphanedService : serviceToTraceIds.removeServiceIfTraceId(lowTraceId)) {
-        serviceToSpanNames.remove(orphanedService);
+    long lowTraceId = oldest.getKey().lowTraceId;
+    trimLinksBefore(oldest.getKey().timestamp);
+    synchronized (stripe(lowTraceId)) {
+      Collection<TraceIdTimestamp> traceIdTimeStamps =
+        traceIdToTraceIdTimeStamps.remove(lowTraceId);
+      if (traceIdTimeStamps == null) return 0; // another thread evicted the same trace
+      for (TraceIdTimestamp traceIdTimeStamp : traceIdTimeStamps) {
+        Collection<Object> values = spansByTraceIdTimeStamp.remove(traceIdTimeStamp);
+        if (values == null) continue;
+        spansEvicted += values.size();
+        if (arena == null) continue;
+        for (Object value : values) {
+          arena.release((EncodedSpan) value);
+        }
+      }
+      spanCount.addAndGet(-spansEvicted);
+      if (searchEnabled) {
+        for (String orphanedService : serviceToTraceIds.removeServiceIfTraceId(lowTraceId)) {
+          // don't drop span names of a service that was re-added by another trace concurrently
+          synchronized (serviceToSpanNames) {
+            if (!serviceToTraceIds.delegate.containsKey(orphanedService)) {
+              serviceToSpanNames.remove(orphanedService);
+            }
+          }
+        }
       }
     }
     return spansEvicted;
   }
 
+  /** Drops buckets of links from before the minute of the eldest trace being evicted. */
+  void trimLinksBefore(long timestampMicros) {
+    if (timestampMicros == 0L || linksByBucket.isEmpty()) return;
+    long bucket = bucket(timestampMicros / 1000L);
+    synchronized (linksByBucket) {
+      linksByBucket.headMap(bucket).clear();
+    }
+  }
+
+  static long bucket(long epochMillis) {
+    return epochMillis - epochMillis % DependencyLinkConsumer.BUCKET_MILLIS;
+  }
+
   @Override
-  public synchronized Call<List<List<Span>>> getTraces(QueryRequest request) {
+  public Call<List<List<Span>>> getTraces(QueryRequest request) {
     return getTraces(request, strictTraceId);
   }
 
-  synchronized Call<List<List<Span>>> getTraces(QueryRequest request, boolean strictTraceId) {
-    Set<String> traceIdsInTimerange = traceIdsDescendingByTimestamp(request);
+  Call<List<List<Span>>> getTraces(QueryRequest request, boolean strictTraceId) {
+    Set<Long> traceIdsInTimerange = traceIdsDescendingByTimestamp(request);
     if (traceIdsInTimerange.isEmpty()) return Call.emptyList();
 
     List<List<Span>> result = new ArrayList<>();
-    for (Iterator<String> lowTraceId = traceIdsInTimerange.iterator();
+    for (Iterator<Long> lowTraceId = traceIdsInTimerange.iterator();
       lowTraceId.hasNext() && result.size() < request.limit(); ) {
       List<Span> next = spansByTraceId(lowTraceId.next());
       if (!request.test(next)) continue;
@@ -238,23 +374,25 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     return Call.create(result);
   }
 
+  /** Groups spans that share the same lower 64-bits of the trace ID by the upper 64-bits. */
   static Collection<List<Span>> strictByTraceId(List<Span> next) {
-    Map<String, List<Span>> groupedByTraceId = new LinkedHashMap<>();
+    Map<Long, List<Span>> groupedByTraceId = new LinkedHashMap<>();
     for (Span span : next) {
-      String traceId = span.traceId();
-      if (!groupedByTraceId.containsKey(traceId)) {
-        groupedByTraceId.put(traceId, new ArrayList<>());
+      Long traceIdHigh = span.traceIdHigh();
+      if (!groupedByTraceId.containsKey(traceIdHigh)) {
+        groupedByTraceId.put(traceIdHigh, new ArrayList<>());
       }
-      groupedByTraceId.get(traceId).add(span);
+      groupedByTraceId.get(traceIdHigh).add(span);
     }
     return groupedByTraceId.values();
   }
 
   /** Used for testing. Returns all traces unconditionally. */
-  public synchronized List<List<Span>> getTraces() {
+  public List<List<Span>> getTraces() {
     List<List<Span>> result = new ArrayList<>();
-    for (String lowTraceId : traceIdToTraceIdTimeStamps.keySet()) {
+    for (Long lowTraceId : traceIdToTraceIdTimeStamps.keySet()) {
       List<Span> sameTraceId = spansByTraceId(lowTraceId);
+      if (sameTraceId.isEmpty()) continue; // evicted while iterating
       if (strictTraceId) {
         result.addAll(strictByTraceId(sameTraceId));
       } else {
@@ -265,11 +403,11 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
   }
 
   /** Used for testing. Returns all dependency links unconditionally. */
-  public synchronized List<DependencyLink> getDependencies() {
-    return LinkDependencies.INSTANCE.map(getTraces());
+  public List<DependencyLink> getDependencies() {
+    return linkDependencies.map(getTraces());
   }
 
-  Set<String> traceIdsDescendingByTimestamp(QueryRequest request) {
+  Set<Long> traceIdsDescendingByTimestamp(QueryRequest request) {
     if (!searchEnabled) return Collections.emptySet();
 
     Collection<TraceIdTimestamp> traceIdTimestamps =
@@ -281,7 +419,7 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     long startTs = endTs - request.lookback() * 1000;
 
     if (traceIdTimestamps == null || traceIdTimestamps.isEmpty()) return Collections.emptySet();
-    Set<String> result = new LinkedHashSet<>();
+    Set<Long> result = new LinkedHashSet<>();
     for (TraceIdTimestamp traceIdTimestamp : traceIdTimestamps) {
       if (traceIdTimestamp.timestamp >= startTs || traceIdTimestamp.timestamp <= endTs) {
         result.add(traceIdTimestamp.lowTraceId);
@@ -291,16 +429,17 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
   }
 
   @Override
-  public synchronized Call<List<Span>> getTrace(String traceId) {
+  public Call<List<Span>> getTrace(String traceId) {
     traceId = Span.normalizeTraceId(traceId);
-    List<Span> spans = spansByTraceId(lowTraceId(traceId));
+    long traceIdHigh = traceId.length() == 32 ? lowerHexToUnsignedLong(traceId, 0) : 0L;
+    List<Span> spans = spansByTraceId(lowerHexToUnsignedLong(traceId));
     if (spans == null || spans.isEmpty()) return Call.emptyList();
     if (!strictTraceId) return Call.create(spans);
 
     List<Span> filtered = new ArrayList<>(spans);
     Iterator<Span> iterator = filtered.iterator();
     while (iterator.hasNext()) {
-      if (!iterator.next().traceId().equals(traceId)) {
+      if (iterator.next().traceIdHigh() != traceIdHigh) {
         iterator.remove();
       }
     }
@@ -308,42 +447,119 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
   }
 
   @Override
-  public synchronized Call<List<String>> getServiceNames() {
+  public Call<List<String>> getServiceNames() {
     if (!searchEnabled) return Call.emptyList();
     return Call.create(new ArrayList<>(serviceToTraceIds.keySet()));
   }
 
   @Override
-  public synchronized Call<List<String>> getSpanNames(String service) {
+  public Call<List<String>> getSpanNames(String service) {
     if (service.isEmpty() || !searchEnabled) return Call.emptyList();
     service = service.toLowerCase(Locale.ROOT); // service names are always lowercase!
     return Call.create(new ArrayList<>(serviceToSpanNames.get(service)));
   }
 
   @Override
-  public synchronized Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
+  public Call<Void> accept(long bucketTimestamp, List<DependencyLink> links) {
+    if (links.isEmpty()) return Call.create(null);
+    synchronized (linksByBucket) {
+      List<DependencyLink> stored = linksByBucket.get(bucketTimestamp);
+      if (stored != null) {
+        List<DependencyLink> merged = new ArrayList<>(stored);
+        merged.addAll(links);
+        links = merged;
+      }
+      linksByBucket.put(bucketTimestamp, DependencyLinker.merge(links));
+    }
+    return Call.create(null);
+  }
+
+  /**
+   * Traces that started in a minute with {@link #accept(long, List) accepted} links are read from
+   * those links. Others, such as those stored before links were aggregated, are linked here.
+   */
+  @Override
+  public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
     QueryRequest request =
       QueryRequest.newBuilder().endTs(endTs).lookback(lookback).limit(Integer.MAX_VALUE).build();
 
     // We don't have a query parameter for strictTraceId when fetching dependency links, so we
     // ignore traceIdHigh. Otherwise, a single trace can appear as two, doubling callCount.
     Call<List<List<Span>>> getTracesCall = getTraces(request, false);
-    return getTracesCall.map(LinkDependencies.INSTANCE);
+    if (linksByBucket.isEmpty()) return getTracesCall.map(linkDependencies);
+
+    Map<Long, List<DependencyLink>> inRange =
+      new LinkedHashMap<>(linksByBucket.subMap(endTs - lookback, true, endTs, true));
+    return getTracesCall.map(new LinkUnbucketedDependencies(linkDependencies, inRange));
+  }
+
+  /** Links traces on the calling thread, unless a parallel linker is configured. */
+  static final class LinkDependencies
+    implements Call.Mapper<List<List<Span>>, List<DependencyLink>> {
+    @Nullable final ParallelDependencyLinker parallelLinker;
+
+    LinkDependencies(@Nullable ParallelDependencyLinker parallelLinker) {
+      this.parallelLinker = parallelLinker;
+    }
+
+    @Override
+    public List<DependencyLink> map(List<List<Span>> traces) {
+      return link(traces.iterator());
+    }
+
+    List<DependencyLink> link(Iterator<List<Span>> traces) {
+      if (parallelLinker != null) return parallelLinker.link(traces);
+      DependencyLinker linksBuilder = new DependencyLinker();
+      while (traces.hasNext()) linksBuilder.putTrace(traces.next());
+      return linksBuilder.link();
+    }
+
+    @Override
+    public String toString() {
+      if (parallelLinker == null) return "LinkDependencies";
+      return "LinkDependencies{" + parallelLinker + "}";
+    }
   }
 
-  enum LinkDependencies implements Call.Mapper<List<List<Span>>, List<DependencyLink>> {
-    INSTANCE;
+  /** Merges bucketed links with those of traces that started in a minute without a bucket. */
+  static final class LinkUnbucketedDependencies
+    implements Call.Mapper<List<List<Span>>, List<DependencyLink>> {
+    final LinkDependencies linkDependencies;
+    final Map<Long, List<DependencyLink>> linksByBucket;
+
+    LinkUnbucketedDependencies(
+      LinkDependencies linkDependencies, Map<Long, List<DependencyLink>> linksByBucket) {
+      this.linkDependencies = linkDependencies;
+      this.linksByBucket = linksByBucket;
+    }
 
     @Override
     public List<DependencyLink> map(List<List<Span>> traces) {
+      List<List<Span>> unbucketed = new ArrayList<>();
+      for (List<Span> trace : traces) {
+        long startTs = startTs(trace);
+        if (startTs != 0L && linksByBucket.containsKey(bucket(startTs / 1000L))) continue;
+        unbucketed.add(trace);
+      }
       DependencyLinker linksBuilder = new DependencyLinker();
-      for (List<Span> trace : traces) linksBuilder.putTrace(trace);
+      for (List<DependencyLink> links : linksByBucket.values()) linksBuilder.putLinks(links);
+      linksBuilder.putLinks(linkDependencies.link(unbucketed.iterator()));
       return linksBuilder.link();
     }
 
+    /** Returns the earliest span timestamp, like the collector buckets traces by. */
+    static long startTs(List<Span> trace) {
+      long result = 0L;
+      for (int i = 0, length = trace.size(); i < length; i++) {
+        long timestamp = trace.get(i).timestampAsLong();
+        if (timestamp != 0L && (result == 0L || timestamp < result)) result = timestamp;
+      }
+      return result;
+    }
+
     @Override
     public String toString() {
-      return "LinkDependencies";
+      return "LinkUnbucketedDependencies{buckets=" + linksByBucket.keySet() + "}";
     }
   }
 
@@ -361,6 +577,26 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       }
     };
 
+  /** Orders trace IDs the same as their lower-hex form. Long.compareUnsigned is JRE 8+ */
+  static final Comparator<Long> UNSIGNED_COMPARATOR =
+    new Comparator<Long>() {
+      @Override
+      public int compare(Long left, Long right) {
+        return compareUnsigned(left, right);
+      }
+
+      @Override
+      public String toString() {
+        return "Long::compareUnsigned";
+      }
+    };
+
+  static int compareUnsigned(long x, long y) {
+    x += Long.MIN_VALUE;
+    y += Long.MIN_VALUE;
+    return (x < y) ? -1 : ((x == y) ? 0 : 1);
+  }
+
   static final Comparator<TraceIdTimestamp> TIMESTAMP_DESCENDING =
     new Comparator<TraceIdTimestamp>() {
       @Override
@@ -368,7 +604,7 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
         long x = left.timestamp, y = right.timestamp;
         int result = (x < y) ? -1 : ((x == y) ? 0 : 1); // Long.compareTo is JRE 7+
         if (result != 0) return -result; // use negative as we are descending
-        return right.lowTraceId.compareTo(left.lowTraceId);
+        return compareUnsigned(right.lowTraceId, left.lowTraceId);
       }
 
       @Override
@@ -377,37 +613,40 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       }
     };
 
-  static final class ServiceNameToTraceIds extends SortedMultimap<String, String> {
+  static final class ServiceNameToTraceIds extends SortedMultimap<String, Long> {
     ServiceNameToTraceIds() {
       super(STRING_COMPARATOR);
     }
 
     @Override
-    Set<String> valueContainer() {
-      return new LinkedHashSet<>();
+    Set<Long> valueContainer() {
+      return Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
     }
 
     /** Returns service names orphaned by removing the trace ID */
-    Set<String> removeServiceIfTraceId(String lowTraceId) {
+    Set<String> removeServiceIfTraceId(long lowTraceId) {
       Set<String> result = new LinkedHashSet<>();
-      for (Map.Entry<String, Collection<String>> entry : delegate.entrySet()) {
-        Collection<String> lowTraceIds = entry.getValue();
-        if (lowTraceIds.remove(lowTraceId) && lowTraceIds.isEmpty()) {
+      for (Map.Entry<String, Collection<Long>> entry : delegate.entrySet()) {
+        Collection<Long> lowTraceIds = entry.getValue();
+        // put() retries when racing with this removal, so no trace ID is lost
+        if (lowTraceIds.remove(lowTraceId) && lowTraceIds.isEmpty()
+          && delegate.remove(entry.getKey(), lowTraceIds)) {
           result.add(entry.getKey());
         }
       }
-      delegate.keySet().removeAll(result);
       return result;
     }
   }
 
-  // Not synchronized as every exposed method on the enclosing type is
+  /**
+   * Keys are concurrent, but value containers are only thread-safe if {@link #valueContainer()}
+   * returns a concurrent collection. Otherwise, callers must guard access to values.
+   */
   abstract static class SortedMultimap<K, V> {
-    final SortedMap<K, Collection<V>> delegate;
-    int size = 0;
+    final ConcurrentNavigableMap<K, Collection<V>> delegate;
 
     SortedMultimap(Comparator<K> comparator) {
-      delegate = new TreeMap<>(comparator);
+      delegate = new ConcurrentSkipListMap<>(comparator);
     }
 
     abstract Collection<V> valueContainer();
@@ -416,27 +655,26 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       return delegate.keySet();
     }
 
-    int size() {
-      return size;
-    }
-
     void put(K key, V value) {
-      Collection<V> valueContainer = delegate.get(key);
-      if (valueContainer == null) {
-        delegate.put(key, valueContainer = valueContainer());
+      while (true) {
+        Collection<V> valueContainer = delegate.get(key);
+        if (valueContainer == null) {
+          Collection<V> newContainer = valueContainer();
+          valueContainer = delegate.putIfAbsent(key, newContainer);
+          if (valueContainer == null) valueContainer = newContainer;
+        }
+        valueContainer.add(value);
+        // retry if the container was concurrently removed, as it was empty before we added to it
+        if (delegate.get(key) == valueContainer) return;
       }
-      if (valueContainer.add(value)) size++;
     }
 
     Collection<V> remove(K key) {
-      Collection<V> value = delegate.remove(key);
-      if (value != null) size -= value.size();
-      return value;
+      return delegate.remove(key);
     }
 
     void clear() {
       delegate.clear();
-      size = 0;
     }
 
     Collection<V> get(K key) {
@@ -445,27 +683,31 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     }
   }
 
-  List<Span> spansByTraceId(String lowTraceId) {
+  /** Returns a copy of the spans in the trace, consistent with any concurrent write to it. */
+  List<Span> spansByTraceId(long lowTraceId) {
     List<Span> sameTraceId = new ArrayList<>();
-    for (TraceIdTimestamp traceIdTimestamp : traceIdToTraceIdTimeStamps.get(lowTraceId)) {
-      sameTraceId.addAll(spansByTraceIdTimeStamp.get(traceIdTimestamp));
+    synchronized (stripe(lowTraceId)) {
+      for (TraceIdTimestamp traceIdTimestamp : traceIdToTraceIdTimeStamps.get(lowTraceId)) {
+        for (Object value : spansByTraceIdTimeStamp.get(traceIdTimestamp)) {
+          // decode while holding the lock, as eviction could otherwise recycle the segment
+          sameTraceId.add(arena != null ? arena.decode((EncodedSpan) value) : (Span) value);
+        }
+      }
     }
     return sameTraceId;
   }
 
   Collection<TraceIdTimestamp> traceIdTimestampsByServiceName(String serviceName) {
     List<TraceIdTimestamp> traceIdTimestamps = new ArrayList<>();
-    for (String lowTraceId : serviceToTraceIds.get(serviceName)) {
-      traceIdTimestamps.addAll(traceIdToTraceIdTimeStamps.get(lowTraceId));
+    for (Long lowTraceId : serviceToTraceIds.get(serviceName)) {
+      synchronized (stripe(lowTraceId)) {
+        traceIdTimestamps.addAll(traceIdToTraceIdTimeStamps.get(lowTraceId));
+      }
     }
     Collections.sort(traceIdTimestamps, TIMESTAMP_DESCENDING);
     return traceIdTimestamps;
   }
 
-  static String lowTraceId(String traceId) {
-    return traceId.length() == 32 ? traceId.substring(16) : traceId;
-  }
-
   @Override
   public InMemoryStorage spanStore() {
     return this;
@@ -476,15 +718,20 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
     return this;
   }
 
+  @Override
+  public DependencyLinkConsumer dependencyLinkConsumer() {
+    return this;
+  }
+
   @Override
   public void close() {
   }
 
   static final class TraceIdTimestamp {
-    final String lowTraceId;
+    final long lowTraceId;
     final long timestamp;
 
-    TraceIdTimestamp(String lowTraceId, long timestamp) {
+    TraceIdTimestamp(long lowTraceId, long timestamp) {
       this.lowTraceId = lowTraceId;
       this.timestamp = timestamp;
     }
@@ -494,14 +741,14 @@ public final class InMemoryStorage extends StorageComponent implements SpanStore
       if (o == this) return true;
       if (!(o instanceof TraceIdTimestamp)) return false;
       TraceIdTimestamp that = (TraceIdTimestamp) o;
-      return lowTraceId.equals(that.lowTraceId) && timestamp == that.timestamp;
+      return lowTraceId == that.lowTraceId && timestamp == that.timestamp;
     }
 
     @Override
     public int hashCode() {
       int h$ = 1;
       h$ *= 1000003;
-      h$ ^= lowTraceId.hashCode();
+      h$ ^= (int) ((lowTraceId >>> 32) ^ lowTraceId);
       h$ *= 1000003;
       h$ ^= (int) ((timestamp >>> 32) ^ timestamp);
       return h$;
@@ -264,7 +264,7 @@ public final class QueryRequest {
     long timestamp = 0L;
     for (Span span : spans) {
       if (span.timestampAsLong() == 0L) continue;
-      if (span.parentId() == null) {
+      if (span.parentIdAsLong() == 0L) {
         timestamp = span.timestampAsLong();
         break;
       }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+/**
+ * Holds {@link SpanBytesEncoder#PROTO3 encoded spans} in direct memory, so that only a small
+ * {@link EncodedSpan handle} per span remains on the heap.
+ *
+ * <p>Spans are appended to fixed-size segments. A segment is recycled once every span written to
+ * it is {@link #release(EncodedSpan) released}. Until then, the whole segment is {@link #heldBytes()
+ * held}, even if most spans in it were released. Bounding held bytes, as opposed to the encoded size
+ * of spans, bounds direct memory when surviving spans are scattered across segments.
+ *
+ * <p>Callers must not {@link #decode(EncodedSpan) decode} a span concurrently with releasing it,
+ * as its segment could be overwritten. {@link InMemoryStorage} ensures this via trace locks.
+ */
+final class SpanArena {
+  static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+  final int segmentSize;
+  final ArrayDeque<Segment> freeSegments = new ArrayDeque<>(); // guarded by this
+  Segment current; // guarded by this
+  long heldBytes; // guarded by this
+
+  SpanArena(int segmentSize) {
+    this.segmentSize = segmentSize;
+  }
+
+  EncodedSpan write(Span span) {
+    byte[] encoded = SpanBytesEncoder.PROTO3.encode(span);
+    int length = encoded.length;
+    synchronized (this) {
+      Segment segment;
+      if (length > segmentSize) { // too big to share, so don't pool it either
+        segment = new Segment(ByteBuffer.allocateDirect(length));
+        heldBytes += length;
+      } else {
+        if (current == null || current.buffer.remaining() < length) {
+          if (current != null && current.liveSpans == 0) free(current);
+          current = newSegment();
+        }
+        segment = current;
+      }
+      int offset = segment.buffer.position();
+      segment.buffer.put(encoded);
+      segment.liveSpans++;
+      return new EncodedSpan(segment, offset, length);
+    }
+  }
+
+  Span decode(EncodedSpan span) {
+    byte[] encoded = new byte[span.length];
+    ByteBuffer buffer = span.segment.buffer.duplicate();
+    buffer.position(span.offset);
+    buffer.get(encoded);
+    return SpanBytesDecoder.PROTO3.decodeOne(encoded);
+  }
+
+  synchronized void release(EncodedSpan span) {
+    Segment segment = span.segment;
+    if (--segment.liveSpans > 0 || segment == current) return;
+    free(segment);
+  }
+
+  /** Returns the capacity of segments that have spans not yet released, or are being written. */
+  synchronized long heldBytes() {
+    return heldBytes;
+  }
+
+  /** Drops all spans. This is not safe to call concurrently with other methods */
+  synchronized void clear() {
+    current = null;
+    freeSegments.clear();
+    heldBytes = 0L;
+  }
+
+  Segment newSegment() { // guarded by this
+    heldBytes += segmentSize;
+    Segment result = freeSegments.poll();
+    if (result == null) return new Segment(ByteBuffer.allocateDirect(segmentSize));
+    result.buffer.clear();
+    return result;
+  }
+
+  void free(Segment segment) { // guarded by this
+    int capacity = segment.buffer.capacity();
+    heldBytes -= capacity;
+    if (capacity == segmentSize) freeSegments.add(segment); // oversized segments aren't pooled
+  }
+
+  static final class Segment {
+    final ByteBuffer buffer;
+    int liveSpans; // guarded by the arena
+
+    Segment(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+  }
+
+  /** A handle to a span in a segment. This is about 24 bytes, compared to a span's ~1KiB */
+  static final class EncodedSpan {
+    final Segment segment;
+    final int offset, length;
+
+    EncodedSpan(Segment segment, int offset, int length) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
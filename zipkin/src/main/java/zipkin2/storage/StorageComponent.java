@@ -15,6 +15,7 @@ package zipkin2.storage;
 
 import zipkin2.Component;
 import zipkin2.Span;
+import zipkin2.internal.Nullable;
 
 /**
  * A component that provides storage interfaces used for spans and aggregations. Implementations are
@@ -28,6 +29,15 @@ public abstract class StorageComponent extends Component {
 
   public abstract SpanConsumer spanConsumer();
 
+  /**
+   * Returns a consumer of dependency links aggregated as spans are collected, or null if this
+   * storage only links traces when {@link SpanStore#getDependencies(long, long) queried}. Defaults
+   * to null.
+   */
+  @Nullable public DependencyLinkConsumer dependencyLinkConsumer() {
+    return null;
+  }
+
   public static abstract class Builder {
 
     /**
@@ -52,6 +52,30 @@ public class SpanTest {
       .isEqualTo("463ac35c9f6413ad48485a3953bb6124");
   }
 
+  @Test public void traceIdString_parsedToLongs() {
+    Span with128BitId = base.toBuilder()
+      .traceId("463ac35c9f6413ad48485a3953bb6124")
+      .parentId("ffdc9bb9a6453df3")
+      .id("4e441824ec2b6a44").build();
+
+    assertThat(with128BitId.traceIdHigh()).isEqualTo(0x463ac35c9f6413adL);
+    assertThat(with128BitId.traceIdLow()).isEqualTo(0x48485a3953bb6124L);
+    assertThat(with128BitId.parentIdAsLong()).isEqualTo(0xffdc9bb9a6453df3L);
+    assertThat(with128BitId.idAsLong()).isEqualTo(0x4e441824ec2b6a44L);
+  }
+
+  @Test public void traceIdString_lazy() {
+    Span span = base.toBuilder().traceId("463ac35c9f6413ad48485a3953bb6124").build();
+    assertThat(span.traceIdString).isNull();
+
+    assertThat(span.traceId()).isSameAs(span.traceId());
+  }
+
+  @Test public void traceIdString_zeroHighBitsTruncatesTo64() {
+    assertThat(base.toBuilder().traceId("0000000000000000000000000000162e").build().traceId())
+      .isEqualTo("000000000000162e");
+  }
+
   @Test public void localEndpoint_emptyToNull() {
     assertThat(base.toBuilder().localEndpoint(Endpoint.newBuilder().build()).localEndpoint)
       .isNull();
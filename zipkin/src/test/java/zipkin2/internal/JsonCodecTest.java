@@ -13,10 +13,13 @@
  */
 package zipkin2.internal;
 
+import java.io.IOException;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import zipkin2.internal.JsonCodec.JsonReader;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static zipkin2.TestObjects.UTF_8;
 
 public class JsonCodecTest {
@@ -69,4 +72,105 @@ public class JsonCodecTest {
 
     new Foo().toString();
   }
+
+  @Test public void reader_asciiNamesAndValues() throws IOException {
+    JsonReader reader = reader("{\"traceId\": \"86154a4ba6e91385\", \"other\": 1}");
+
+    reader.beginObject();
+    assertThat(reader.nextName()).isSameAs("traceId"); // common names aren't allocated
+    assertThat(reader.nextString()).isEqualTo("86154a4ba6e91385");
+    assertThat(reader.nextName()).isEqualTo("other");
+    assertThat(reader.nextString()).isEqualTo("1");
+    assertThat(reader.hasNext()).isFalse();
+    reader.endObject();
+  }
+
+  @Test public void reader_escapesAndMultiByteCharacters() throws IOException {
+    JsonReader reader =
+      reader("[\"\\\"\\\\\\/\\b\\f\\n\\r\\t\\u0041\", \"\u4e2d\u6587\", \"\ud83d\ude00\"]");
+
+    reader.beginArray();
+    assertThat(reader.nextString()).isEqualTo("\"\\/\b\f\n\r\tA");
+    assertThat(reader.nextString()).isEqualTo("\u4e2d\u6587");
+    assertThat(reader.nextString()).isEqualTo("\ud83d\ude00");
+    reader.endArray();
+  }
+
+  @Test public void reader_numbers() throws IOException {
+    JsonReader reader = reader(
+      "[0, -1, 1472470996199000, 9223372036854775807, -9223372036854775808, 1.0, 1e3, \"2\"]");
+
+    reader.beginArray();
+    assertThat(reader.nextLong()).isZero();
+    assertThat(reader.nextLong()).isEqualTo(-1L);
+    assertThat(reader.nextLong()).isEqualTo(1472470996199000L);
+    assertThat(reader.nextLong()).isEqualTo(Long.MAX_VALUE);
+    assertThat(reader.nextLong()).isEqualTo(Long.MIN_VALUE);
+    assertThat(reader.nextLong()).isEqualTo(1L);
+    assertThat(reader.nextInt()).isEqualTo(1000);
+    assertThat(reader.nextInt()).isEqualTo(2);
+    reader.endArray();
+  }
+
+  @Test public void reader_nextLong_fraction() throws IOException {
+    thrown.expect(NumberFormatException.class);
+    thrown.expectMessage("Expected a long but was 1.5 at path $[0]");
+
+    JsonReader reader = reader("[1.5]");
+    reader.beginArray();
+    reader.nextLong();
+  }
+
+  @Test public void reader_keywordsAndSkip() throws IOException {
+    JsonReader reader =
+      reader("{\"a\": {\"b\": [1, \"\\\"]\", null]}, \"debug\": true, \"c\": NULL, \"d\": false}");
+
+    reader.beginObject();
+    reader.nextName();
+    reader.skipValue();
+    assertThat(reader.nextName()).isEqualTo("debug");
+    assertThat(reader.peekBoolean()).isTrue();
+    assertThat(reader.nextBoolean()).isTrue();
+    reader.nextName();
+    assertThat(reader.peekNull()).isTrue();
+    reader.skipValue();
+    reader.nextName();
+    assertThat(reader.nextBoolean()).isFalse();
+    reader.endObject();
+  }
+
+  @Test public void reader_path() throws IOException {
+    JsonReader reader = reader("{\"annotations\": [{\"value\": \"foo\"}, {\"value\": null}]}");
+
+    reader.beginObject();
+    reader.nextName();
+    reader.beginArray();
+    reader.skipValue();
+    reader.beginObject();
+    reader.nextName();
+    assertThat(reader.getPath()).isEqualTo("$.annotations[1].value");
+  }
+
+  @Test public void reader_malformed() throws IOException {
+    thrown.expect(IOException.class);
+    thrown.expectMessage("malformed json at path $.traceId");
+
+    JsonReader reader = reader("{\"traceId\": hello}");
+    reader.beginObject();
+    reader.nextName();
+    reader.nextString();
+  }
+
+  @Test public void reader_unterminatedString() throws IOException {
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Unterminated string");
+
+    JsonReader reader = reader("[\"86154a4ba6e9");
+    reader.beginArray();
+    reader.nextString();
+  }
+
+  static JsonReader reader(String json) {
+    return new JsonReader(json.getBytes(UTF_8));
+  }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.DependencyLink;
+import zipkin2.Span;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.internal.DependencyLinkerTest.TRACE;
+
+public class ParallelDependencyLinkerTest {
+  ExecutorService executor = Executors.newFixedThreadPool(2);
+
+  @After public void close() {
+    executor.shutdownNow();
+  }
+
+  @Test public void sameAsSequential() {
+    List<List<Span>> traces = new ArrayList<>();
+    DependencyLinker sequential = new DependencyLinker();
+    for (int i = 0; i < 100; i++) {
+      traces.add(TRACE);
+      sequential.putTrace(TRACE);
+    }
+
+    assertThat(new ParallelDependencyLinker(executor, 2, 7).link(traces.iterator()))
+      .containsExactlyInAnyOrderElementsOf(sequential.link());
+  }
+
+  @Test public void noTraces() {
+    List<List<Span>> traces = new ArrayList<>();
+
+    assertThat(new ParallelDependencyLinker(executor, 2).link(traces.iterator())).isEmpty();
+  }
+
+  @Test public void defaultParallelism_boundedByMaximumPoolSize() {
+    ThreadPoolExecutor single = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+    try {
+      assertThat(new ParallelDependencyLinker(single).parallelism).isEqualTo(1);
+    } finally {
+      single.shutdownNow();
+    }
+  }
+
+  /** When the executor is busy, the calling thread links */
+  @Test public void callerLinksWhenExecutorIsBusy() {
+    CountDownLatch blocked = new CountDownLatch(1);
+    ThreadPoolExecutor stuck = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+    try {
+      stuck.execute(() -> {
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+
+      List<List<Span>> traces = new ArrayList<>();
+      for (int i = 0; i < 10; i++) traces.add(TRACE);
+      Iterator<List<Span>> iterator = traces.iterator();
+      // the first batch is queued behind the blocked task until all batches are read
+      Iterator<List<Span>> unblockWhenRead = new Iterator<List<Span>>() {
+        @Override public boolean hasNext() {
+          if (iterator.hasNext()) return true;
+          blocked.countDown();
+          return false;
+        }
+
+        @Override public List<Span> next() {
+          return iterator.next();
+        }
+      };
+
+      assertThat(new ParallelDependencyLinker(stuck, 1, 1).link(unblockWhenRead))
+        .containsExactlyInAnyOrder(
+          DependencyLink.newBuilder().parent("web").child("app").callCount(10L).build(),
+          DependencyLink.newBuilder().parent("app").child("db").callCount(10L).errorCount(10L)
+            .build()
+        );
+
+      // only the first batch was submitted, so the caller linked the other nine
+      assertThat(stuck.getTaskCount()).isEqualTo(2L); // including the blocked task
+    } finally {
+      stuck.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.LOTS_OF_SPANS;
+import static zipkin2.codec.SpanBytesDecoder.JSON_V2;
+
+public class SpanSamplerTest {
+  List<Span> spans = new ArrayList<>(Arrays.asList(LOTS_OF_SPANS).subList(0, 1000));
+
+  {
+    spans.add(CLIENT_SPAN.toBuilder().traceId("1").debug(true).build()); // odd, but debug
+  }
+
+  /** Keeps spans with an even trace ID, or debug */
+  SpanSampler sampler = new SpanSampler() {
+    @Override public boolean isSampled(long traceIdLow, boolean debug) {
+      return debug || (traceIdLow & 1) == 0;
+    }
+  };
+
+  @Test public void proto3() {
+    skipsUnsampledSpans(SpanBytesEncoder.PROTO3, SpanBytesDecoder.PROTO3);
+  }
+
+  @Test public void thrift() {
+    skipsUnsampledSpans(SpanBytesEncoder.THRIFT, SpanBytesDecoder.THRIFT);
+  }
+
+  @Test public void jsonV2() {
+    skipsUnsampledSpans(SpanBytesEncoder.JSON_V2, SpanBytesDecoder.JSON_V2);
+  }
+
+  @Test public void jsonV1_filtersAfterDecoding() {
+    byte[] message = SpanBytesEncoder.JSON_V1.encodeList(spans);
+    List<Span> out = new ArrayList<>();
+
+    assertThat(sampler.decodeList(SpanBytesDecoder.JSON_V1, message, out)).isTrue();
+    assertThat(out).containsExactlyElementsOf(expected());
+    assertThat(sampler.spansSkipped()).isEqualTo(spans.size() - out.size());
+    assertThat(sampler.bytesSkipped()).isZero();
+  }
+
+  @Test public void emptyList() {
+    for (SpanBytesEncoder encoder : Arrays.asList(
+      SpanBytesEncoder.PROTO3, SpanBytesEncoder.THRIFT, SpanBytesEncoder.JSON_V2)) {
+      byte[] message = encoder.encodeList(new ArrayList<>());
+      assertThat(sampler.decodeList(decoder(encoder), message, new ArrayList<>())).isFalse();
+    }
+  }
+
+  @Test public void truncated() {
+    for (SpanBytesEncoder encoder : Arrays.asList(
+      SpanBytesEncoder.PROTO3, SpanBytesEncoder.THRIFT, SpanBytesEncoder.JSON_V2)) {
+      byte[] message = encoder.encodeList(spans);
+      byte[] truncated = Arrays.copyOf(message, message.length - 10);
+      assertThatThrownBy(() -> sampler.decodeList(decoder(encoder), truncated, new ArrayList<>()))
+        .isInstanceOf(IllegalArgumentException.class);
+    }
+  }
+
+  @Test public void proto3_skipsMalformedSpan() {
+    byte[] span = SpanBytesEncoder.PROTO3.encodeList(Arrays.asList(CLIENT_SPAN));
+    byte[] missingTraceId = {0x0a, 0x03, 0x12, 0x01, 0x00};
+    byte[] message = new byte[span.length * 2 + missingTraceId.length];
+    System.arraycopy(span, 0, message, 0, span.length);
+    System.arraycopy(missingTraceId, 0, message, span.length, missingTraceId.length);
+    System.arraycopy(span, 0, message, span.length + missingTraceId.length, span.length);
+
+    skipsMalformedSpan(SpanBytesDecoder.PROTO3, message);
+  }
+
+  @Test public void jsonV2_skipsMalformedSpan() {
+    String span = new String(SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN), UTF_8);
+    byte[] message = ("[" + span + ",{\"traceId\":\"zz\",\"id\":\"1\"}," + span + "]")
+      .getBytes(UTF_8);
+
+    skipsMalformedSpan(SpanBytesDecoder.JSON_V2, message);
+  }
+
+  @Test public void jsonV1_skipsMalformedSpan() {
+    String span = new String(SpanBytesEncoder.JSON_V1.encode(CLIENT_SPAN), UTF_8);
+    byte[] message = ("[" + span + ",{\"traceId\":\"zz\",\"id\":\"1\"}," + span + "]")
+      .getBytes(UTF_8);
+
+    skipsMalformedSpan(SpanBytesDecoder.JSON_V1, message);
+  }
+
+  /** The end of a span can't be found when its json is malformed */
+  @Test public void json_malformedSyntaxFailsList() {
+    String span = new String(SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN), UTF_8);
+    byte[] message = ("[" + span + ",{\"traceId\":}," + span + "]").getBytes(UTF_8);
+
+    assertThatThrownBy(() -> lenient.decodeList(JSON_V2, message, new ArrayList<>()))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void malformedSpanFailsListByDefault() {
+    byte[] message = "[{\"traceId\":\"zz\",\"id\":\"1\"}]".getBytes(UTF_8);
+
+    assertThatThrownBy(() -> sampler.decodeList(JSON_V2, message, new ArrayList<>()))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  /** Skips malformed spans, but samples nothing */
+  SpanSampler lenient = new SpanSampler() {
+    @Override public boolean isSampled(long traceIdLow, boolean debug) {
+      return true;
+    }
+
+    @Override protected boolean samplesSpans() {
+      return false;
+    }
+
+    @Override protected boolean skipMalformedSpans() {
+      return true;
+    }
+  };
+
+  void skipsMalformedSpan(SpanBytesDecoder decoder, byte[] message) {
+    List<Span> out = new ArrayList<>();
+
+    assertThat(lenient.decodeList(decoder, message, out)).isTrue();
+    assertThat(out).containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+    assertThat(lenient.spansMalformed()).isEqualTo(1);
+    assertThat(lenient.spansSkipped()).isZero();
+  }
+
+  void skipsUnsampledSpans(SpanBytesEncoder encoder, SpanBytesDecoder decoder) {
+    byte[] message = encoder.encodeList(spans);
+    List<Span> out = new ArrayList<>();
+
+    assertThat(sampler.decodeList(decoder, message, out)).isTrue();
+    assertThat(out).containsExactlyElementsOf(expected());
+    assertThat(sampler.spansSkipped()).isEqualTo(spans.size() - out.size());
+    assertThat(sampler.bytesSkipped()).isPositive().isLessThan(message.length);
+  }
+
+  List<Span> expected() {
+    List<Span> result = new ArrayList<>();
+    for (Span span : spans) {
+      if (sampler.isSampled(span.traceIdLow(), Boolean.TRUE.equals(span.debug()))) result.add(span);
+    }
+    return result;
+  }
+
+  static SpanBytesDecoder decoder(SpanBytesEncoder encoder) {
+    return SpanBytesDecoder.valueOf(encoder.name());
+  }
+}
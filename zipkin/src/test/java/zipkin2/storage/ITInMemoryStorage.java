@@ -14,6 +14,9 @@
 package zipkin2.storage;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.AfterClass;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 
@@ -67,4 +70,23 @@ public class ITInMemoryStorage {
       // no need.. the test rule does this
     }
   }
+
+  public static class ITDependenciesParallelLinker extends zipkin2.storage.ITDependencies {
+    static ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    InMemoryStorage storage =
+      InMemoryStorage.newBuilder().dependencyLinkerExecutor(executor).build();
+
+    @AfterClass public static void shutdownExecutor() {
+      executor.shutdownNow();
+    }
+
+    @Override protected InMemoryStorage storage() {
+      return storage;
+    }
+
+    @Override public void clear() {
+      // no need.. the test rule does this
+    }
+  }
 }
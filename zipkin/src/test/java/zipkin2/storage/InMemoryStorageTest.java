@@ -17,17 +17,22 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import org.junit.Test;
 import zipkin2.DependencyLink;
 import zipkin2.Endpoint;
 import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
 
 import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.FRONTEND;
 import static zipkin2.TestObjects.TODAY;
 import static zipkin2.storage.ITSpanStore.requestBuilder;
 
@@ -105,6 +110,48 @@ public class InMemoryStorageTest {
     );
   }
 
+  @Test public void getDependencies_mergesAcceptedBucketsInRange() throws IOException {
+    DependencyLink link = DependencyLink.newBuilder().parent("web").child("app").callCount(1L)
+      .build();
+    storage.accept(TODAY, asList(link)).execute();
+    storage.accept(TODAY, asList(link)).execute(); // a late trace in the same bucket
+    storage.accept(TODAY + 60_000L, asList(link)).execute();
+    storage.accept(TODAY + 120_000L, asList(link)).execute(); // out of range
+
+    assertThat(storage.getDependencies(TODAY + 60_000L, 60_000L).execute()).containsOnly(
+      link.toBuilder().callCount(3L).build()
+    );
+  }
+
+  @Test public void getDependencies_linksTracesInMinutesWithoutBuckets() throws IOException {
+    DependencyLink link = DependencyLink.newBuilder().parent("web").child("app").callCount(1L)
+      .build();
+    storage.accept(TODAY, asList(link)).execute();
+    storage.accept(asList(CLIENT_SPAN)).execute(); // already counted in the bucket at TODAY
+    Span nextMinute = CLIENT_SPAN.toBuilder().traceId("1")
+      .timestamp((TODAY + 60_000L) * 1000L).build();
+    storage.accept(asList(nextMinute)).execute();
+
+    assertThat(storage.getDependencies(TODAY + 120_000L, 120_000L).execute()).containsOnly(
+      link,
+      DependencyLink.newBuilder().parent("frontend").child("backend").callCount(1L).build()
+    );
+  }
+
+  @Test public void evictingTraces_dropsOlderBuckets() throws IOException {
+    storage = InMemoryStorage.newBuilder().maxSpanCount(1).build();
+    DependencyLink link = DependencyLink.newBuilder().parent("web").child("app").callCount(1L)
+      .build();
+    storage.accept(TODAY, asList(link)).execute();
+    storage.accept(TODAY + 60_000L, asList(link)).execute();
+
+    Span nextMinute = CLIENT_SPAN.toBuilder().timestamp((TODAY + 60_000L) * 1000L).build();
+    storage.accept(asList(nextMinute)).execute();
+    storage.accept(asList(nextMinute.toBuilder().traceId("1").build())).execute(); // evicts
+
+    assertThat(storage.linksByBucket).containsOnlyKeys(TODAY + 60_000L);
+  }
+
   @Test public void getSpanNames_skipsNullSpanName() throws IOException {
     Span span1 = Span.newBuilder().traceId("1").id("1").name("root")
       .localEndpoint(Endpoint.newBuilder().serviceName("app").build())
@@ -122,4 +169,81 @@ public class InMemoryStorageTest {
       "root"
     );
   }
+
+  @Test public void accept_concurrentWritersDontLoseSpans() throws Exception {
+    acceptConcurrently(4, 1000);
+
+    assertThat(storage.acceptedSpanCount()).isEqualTo(4000);
+    assertThat(storage.getTraces()).hasSize(4000);
+  }
+
+  @Test public void accept_concurrentWritersEvictEldestTraces() throws Exception {
+    storage = InMemoryStorage.newBuilder().maxSpanCount(100).build();
+
+    acceptConcurrently(4, 1000);
+
+    // Writers race to evict, so how many more than the minimum were evicted varies by run
+    assertThat(storage.getTraces().size()).isLessThanOrEqualTo(100);
+    assertThat(storage.getServiceNames().execute()).containsExactly(FRONTEND.serviceName());
+  }
+
+  @Test public void maxSpanBytes_roundTrips() throws IOException {
+    storage = InMemoryStorage.newBuilder().maxSpanBytes(1024 * 1024).build();
+
+    storage.accept(asList(CLIENT_SPAN)).execute();
+
+    assertThat(storage.getTrace(CLIENT_SPAN.traceId()).execute()).containsExactly(CLIENT_SPAN);
+    assertThat(storage.getServiceNames().execute())
+      .containsExactly(CLIENT_SPAN.localServiceName(), CLIENT_SPAN.remoteServiceName());
+  }
+
+  @Test public void maxSpanBytes_evictsEldestTraces() throws IOException {
+    int spanBytes = SpanBytesEncoder.PROTO3.sizeInBytes(CLIENT_SPAN);
+    storage = InMemoryStorage.newBuilder().maxSpanBytes(spanBytes * 2).build();
+
+    for (int i = 1; i <= 3; i++) {
+      storage.accept(asList(CLIENT_SPAN.toBuilder().traceId(0L, i)
+        .timestamp((TODAY + i) * 1000).build())).execute();
+    }
+
+    assertThat(storage.getTraces()).extracting(t -> t.get(0).traceIdLow())
+      .containsExactlyInAnyOrder(2L, 3L);
+    assertThat(storage.arena.heldBytes()).isEqualTo(spanBytes * 2);
+  }
+
+  /** Evicting by encoded size alone would leak segments that each keep a few surviving spans. */
+  @Test public void maxSpanBytes_boundsSegmentsWhenSurvivorsAreScattered() throws IOException {
+    int spanBytes = SpanBytesEncoder.PROTO3.sizeInBytes(CLIENT_SPAN);
+    long maxSpanBytes = spanBytes * 64L; // segments fit 4 spans
+    storage = InMemoryStorage.newBuilder().maxSpanBytes(maxSpanBytes).build();
+
+    for (int i = 1; i <= 1000; i++) {
+      // odd traces are older than even ones, so are evicted first, leaving gaps in every segment
+      long timestamp = i % 2 == 0 ? TODAY + i : TODAY - 1000 + i;
+      storage.accept(asList(CLIENT_SPAN.toBuilder().traceId(0L, i)
+        .timestamp(timestamp * 1000).build())).execute();
+
+      assertThat(storage.arena.heldBytes()).isLessThanOrEqualTo(maxSpanBytes);
+    }
+
+    assertThat(storage.getTraces()).extracting(t -> t.get(0).traceIdLow())
+      .contains(1000L);
+  }
+
+  /** Each thread writes single-span traces, with IDs and timestamps unique across threads. */
+  void acceptConcurrently(int threads, int spansPerThread) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = IntStream.range(0, threads).mapToObj(t -> executor.submit(() -> {
+        for (int i = 1; i <= spansPerThread; i++) {
+          long id = (long) t * spansPerThread + i;
+          storage.accept(asList(Span.newBuilder().traceId(0L, id).id(id).name("get")
+            .timestamp((TODAY + id) * 1000).localEndpoint(FRONTEND).build()));
+        }
+      })).collect(toList());
+      for (Future<?> future : futures) future.get();
+    } finally {
+      executor.shutdown();
+    }
+  }
 }
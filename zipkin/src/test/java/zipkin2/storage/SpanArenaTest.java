@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015-2018 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import org.junit.Test;
+import zipkin2.storage.SpanArena.EncodedSpan;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+
+public class SpanArenaTest {
+  SpanArena arena = new SpanArena(1024);
+
+  @Test public void decode_roundTrip() {
+    EncodedSpan encoded = arena.write(CLIENT_SPAN);
+
+    assertThat(arena.decode(encoded)).isEqualTo(CLIENT_SPAN);
+  }
+
+  @Test public void write_sharesSegment() {
+    EncodedSpan first = arena.write(CLIENT_SPAN);
+    EncodedSpan second = arena.write(CLIENT_SPAN);
+
+    assertThat(second.segment).isSameAs(first.segment);
+    assertThat(second.offset).isEqualTo(first.offset + first.length);
+    assertThat(arena.decode(second)).isEqualTo(CLIENT_SPAN);
+  }
+
+  @Test public void release_recyclesSegmentWhenAllSpansReleased() {
+    EncodedSpan first = arena.write(CLIENT_SPAN);
+    while (arena.current == first.segment) arena.write(CLIENT_SPAN);
+
+    assertThat(arena.freeSegments).isEmpty();
+    for (int offset = 0; offset < first.segment.buffer.position(); offset += first.length) {
+      arena.release(new EncodedSpan(first.segment, offset, first.length));
+    }
+
+    assertThat(arena.freeSegments).containsExactly(first.segment);
+    assertThat(arena.heldBytes()).isEqualTo(1024); // only the current segment
+  }
+
+  @Test public void heldBytes_includesSegmentsWithAnyLiveSpan() {
+    EncodedSpan first = arena.write(CLIENT_SPAN);
+    while (arena.current == first.segment) arena.write(CLIENT_SPAN);
+
+    // release all but the last span in the first segment
+    int lastOffset = first.segment.buffer.position() - first.length;
+    for (int offset = 0; offset < lastOffset; offset += first.length) {
+      arena.release(new EncodedSpan(first.segment, offset, first.length));
+    }
+
+    assertThat(arena.heldBytes()).isEqualTo(1024 * 2);
+
+    arena.release(new EncodedSpan(first.segment, lastOffset, first.length));
+    assertThat(arena.heldBytes()).isEqualTo(1024);
+  }
+
+  @Test public void write_spanLargerThanSegment() {
+    arena = new SpanArena(10);
+
+    EncodedSpan encoded = arena.write(CLIENT_SPAN);
+    assertThat(arena.decode(encoded)).isEqualTo(CLIENT_SPAN);
+
+    assertThat(arena.heldBytes()).isEqualTo(encoded.length);
+
+    arena.release(encoded);
+    assertThat(arena.freeSegments).isEmpty(); // oversized segments aren't pooled
+    assertThat(arena.heldBytes()).isZero();
+  }
+}